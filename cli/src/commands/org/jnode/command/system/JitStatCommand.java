@@ -0,0 +1,134 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.command.system;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.jnode.shell.AbstractCommand;
+import org.jnode.shell.syntax.Argument;
+import org.jnode.shell.syntax.EnumArgument;
+import org.jnode.shell.syntax.FlagArgument;
+import org.jnode.shell.syntax.IntegerArgument;
+import org.jnode.vm.CompileStatistics;
+import org.jnode.vm.LoadCompileService;
+
+/**
+ * Shows the statistics of the methods compiled at runtime.
+ */
+public class JitStatCommand extends AbstractCommand {
+
+    private static final String HELP_COUNT = "the number of compiled methods to show";
+    private static final String HELP_SORT = "the order of the compiled methods";
+    private static final String HELP_RESET = "reset the compilation statistics";
+    private static final String HELP_SUPER = "Show statistics of the methods compiled at runtime";
+    private static final String STR_RESET = "Compilation statistics reset";
+    private static final String FMT_OUT = "%15s: %s%n";
+    private static final String STR_TOTALS = "Totals";
+    private static final String STR_QUEUE = "Queued requests";
+    private static final String STR_HEADER = "compile-cycles   wait-cycles   size lvl bg method";
+    private static final String FMT_ENTRY = "%14d %13d %6d %3d %2s %s%n";
+
+    private static final int DEFAULT_COUNT = 20;
+
+    private enum Order {
+        time(new Comparator<CompileStatistics.Entry>() {
+            public int compare(CompileStatistics.Entry e1, CompileStatistics.Entry e2) {
+                return Long.signum(e2.getCompileCycles() - e1.getCompileCycles());
+            }
+        }),
+        wait(new Comparator<CompileStatistics.Entry>() {
+            public int compare(CompileStatistics.Entry e1, CompileStatistics.Entry e2) {
+                return Long.signum(e2.getWaitCycles() - e1.getWaitCycles());
+            }
+        }),
+        size(new Comparator<CompileStatistics.Entry>() {
+            public int compare(CompileStatistics.Entry e1, CompileStatistics.Entry e2) {
+                return e2.getCodeSize() - e1.getCodeSize();
+            }
+        }),
+        recent(null);
+
+        public final Comparator<CompileStatistics.Entry> comparator;
+
+        private Order(Comparator<CompileStatistics.Entry> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    private class OrderArgument extends EnumArgument<Order> {
+        public OrderArgument() {
+            super("sort", Argument.OPTIONAL, Order.class, HELP_SORT);
+        }
+
+        @Override
+        protected String argumentKind() {
+            return "order";
+        }
+    }
+
+    private final IntegerArgument argCount;
+    private final OrderArgument argSort;
+    private final FlagArgument argReset;
+
+    public JitStatCommand() {
+        super(HELP_SUPER);
+        argCount = new IntegerArgument("count", Argument.OPTIONAL, 1, Integer.MAX_VALUE, HELP_COUNT);
+        argSort = new OrderArgument();
+        argReset = new FlagArgument("reset", Argument.OPTIONAL, HELP_RESET);
+        registerArguments(argCount, argSort, argReset);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new JitStatCommand().execute(args);
+    }
+
+    /**
+     * Execute this command
+     */
+    public void execute() throws Exception {
+        final PrintWriter out = getOutput().getPrintWriter();
+        final CompileStatistics stats = LoadCompileService.getStatistics();
+        if (argReset.isSet()) {
+            stats.reset();
+            out.println(STR_RESET);
+            return;
+        }
+
+        out.format(FMT_OUT, STR_TOTALS, stats);
+        out.format(FMT_OUT, STR_QUEUE, LoadCompileService.getQueueLength(false) + " (background "
+            + LoadCompileService.getQueueLength(true) + ")");
+
+        final CompileStatistics.Entry[] entries = stats.getEntries();
+        final Order order = argSort.isSet() ? argSort.getValue() : Order.time;
+        if (order.comparator != null) {
+            Arrays.sort(entries, order.comparator);
+        }
+        final int count = Math.min(entries.length, argCount.isSet() ? argCount.getValue() : DEFAULT_COUNT);
+        out.println(STR_HEADER);
+        for (int i = 0; i < count; i++) {
+            final CompileStatistics.Entry e = entries[i];
+            out.format(FMT_ENTRY, e.getCompileCycles(), e.getWaitCycles(), e.getCodeSize(),
+                e.getOptLevel(), e.isBackground() ? "*" : "", e.getMethod().getFullName());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.command.system;
+
+import java.io.PrintWriter;
+
+import org.jnode.shell.AbstractCommand;
+import org.jnode.shell.syntax.Argument;
+import org.jnode.shell.syntax.FlagArgument;
+import org.jnode.shell.syntax.IntegerArgument;
+import org.jnode.vm.scheduler.MonitorContention;
+import org.jnode.vm.scheduler.MonitorManager;
+import org.jnode.vm.scheduler.VmThread;
+
+/**
+ * Shows the most contended monitors, with the class of the locked object
+ * and the thread that owns the monitor.
+ */
+public class LockStatCommand extends AbstractCommand {
+
+    private static final String HELP_COUNT = "the number of monitors to show";
+    private static final String HELP_STACK = "show the stacktrace of the owning threads";
+    private static final String HELP_RESET = "reset the monitor contention statistics";
+    private static final String HELP_SUPER = "Show the most contended monitors";
+    private static final String STR_NONE = "No contended monitors";
+    private static final String STR_RESET = "Monitor contention statistics reset";
+    private static final String STR_HEADER = "contentions     spins  avg-hold-cycles  class / owner";
+    private static final String FMT_MONITOR = "%11d %9d %16d  %s%n";
+    private static final String FMT_OWNER = "%39sowned by %s%n";
+    private static final String SLASH_T = "\t";
+
+    private static final int DEFAULT_COUNT = 10;
+
+    private final IntegerArgument argCount;
+    private final FlagArgument argStack;
+    private final FlagArgument argReset;
+
+    public LockStatCommand() {
+        super(HELP_SUPER);
+        argCount = new IntegerArgument("count", Argument.OPTIONAL, 1, Integer.MAX_VALUE, HELP_COUNT);
+        argStack = new FlagArgument("stack", Argument.OPTIONAL, HELP_STACK);
+        argReset = new FlagArgument("reset", Argument.OPTIONAL, HELP_RESET);
+        registerArguments(argCount, argStack, argReset);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LockStatCommand().execute(args);
+    }
+
+    /**
+     * Execute this command
+     */
+    public void execute() throws Exception {
+        final PrintWriter out = getOutput().getPrintWriter();
+        if (argReset.isSet()) {
+            MonitorManager.resetContendedMonitors();
+            out.println(STR_RESET);
+            return;
+        }
+
+        final int count = argCount.isSet() ? argCount.getValue() : DEFAULT_COUNT;
+        final MonitorContention[] monitors = MonitorManager.getContendedMonitors(count);
+        if (monitors.length == 0) {
+            out.println(STR_NONE);
+            return;
+        }
+        out.println(STR_HEADER);
+        for (MonitorContention mc : monitors) {
+            out.format(FMT_MONITOR, mc.getContentionCount(), mc.getSpinAcquireCount(),
+                mc.getAverageHoldCycles(), mc.getClassName());
+            final VmThread owner = mc.getOwner();
+            if (owner != null) {
+                out.format(FMT_OWNER, "", owner.getName());
+                if (argStack.isSet()) {
+                    final Object[] trace = VmThread.getStackTrace(owner);
+                    for (Object element : trace) {
+                        out.println(SLASH_T + SLASH_T + element);
+                    }
+                }
+            }
+        }
+    }
+}
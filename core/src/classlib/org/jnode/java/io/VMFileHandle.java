@@ -93,5 +93,13 @@ public interface VMFileHandle {
 
     public boolean lock();
 
-    public MappedByteBuffer mapImpl(char mode, long position, int size);
+    /**
+     * Map a region of this file into memory.
+     *
+     * @param mode 'r' for read-only, '+' for read-write or 'c' for a private (copy-on-write) mapping
+     * @param position the position in the file of the region
+     * @param size the size of the region
+     * @throws IOException
+     */
+    public MappedByteBuffer mapImpl(char mode, long position, int size) throws IOException;
 }
@@ -0,0 +1,47 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.java.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A region of a file that is mapped into memory by a {@link java.nio.MappedByteBuffer}.
+ * The buffer calls back into the region to fill its memory and to write it back.
+ */
+public interface MappedFileRegion {
+
+    /**
+     * Read the contents of the region into the given buffer.
+     *
+     * @param dest the memory of the mapped buffer.
+     * @throws IOException
+     */
+    public void load(ByteBuffer dest) throws IOException;
+
+    /**
+     * Write the given buffer back to the region, if the mapping allows it.
+     *
+     * @param src the memory of the mapped buffer.
+     * @throws IOException
+     */
+    public void force(ByteBuffer src) throws IOException;
+}
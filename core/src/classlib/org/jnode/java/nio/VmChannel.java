@@ -24,6 +24,9 @@ import java.io.IOException;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+
+import org.jnode.java.io.VMFileHandle;
 
 /**
  * Native interface to support configuring of channel to run in a non-blocking
@@ -31,10 +34,57 @@ import java.nio.MappedByteBuffer;
  * <p/>
  * <p/>
  * This has to give the functionality of the classpath/native/jni/java-nio/gnu_java_nio_VMChannel.c
+ * <p/>
+ * Files opened through the file system API get a file descriptor by
+ * {@link #register(VMFileHandle)}, so they can be mapped by {@link #map(int, char, long, int)}.
  *
  */
 public final class VmChannel {
 
+    /**
+     * The first file descriptor that is given to a file handle, the lower ones
+     * are the standard streams.
+     */
+    private static final int FIRST_FILE_FD = 3;
+
+    /**
+     * The registered file handles, indexed by file descriptor - FIRST_FILE_FD.
+     */
+    private static final ArrayList<VMFileHandle> fileHandles = new ArrayList<VMFileHandle>();
+
+    /**
+     * Gives a file handle a file descriptor.
+     *
+     * @param handle the open file handle.
+     * @return the file descriptor.
+     */
+    public static synchronized int register(VMFileHandle handle) {
+        int index = fileHandles.indexOf(null);
+        if (index < 0) {
+            index = fileHandles.size();
+            fileHandles.add(handle);
+        } else {
+            fileHandles.set(index, handle);
+        }
+        return index + FIRST_FILE_FD;
+    }
+
+    /**
+     * Gets the file handle of a file descriptor.
+     *
+     * @param fd the file descriptor.
+     * @return the file handle.
+     * @throws IOException if the file descriptor is not registered.
+     */
+    private static synchronized VMFileHandle getFileHandle(int fd) throws IOException {
+        final int index = fd - FIRST_FILE_FD;
+        final VMFileHandle handle = ((index >= 0) && (index < fileHandles.size())) ? fileHandles.get(index) : null;
+        if (handle == null) {
+            throw new IOException("Invalid file descriptor " + fd);
+        }
+        return handle;
+    }
+
     public static int stdin_fd() throws IOException {
         // shouldn't throw IOException
         throw new IOException("Not implemented");
@@ -174,15 +224,35 @@ public final class VmChannel {
         throw new IOException("Not implemented");
     }
 
+    /**
+     * Map a region of a file into memory.
+     *
+     * @param fd       the file descriptor of the file.
+     * @param mode     'r' for read-only, '+' for read-write or 'c' for a private mapping.
+     * @param position the position in the file of the region.
+     * @param size     the size of the region in bytes.
+     * @return the mapped buffer.
+     * @throws IOException
+     */
     public static MappedByteBuffer map(int fd, char mode, long position, int size) throws IOException {
-        throw new IOException("Not implemented");
+        return getFileHandle(fd).mapImpl(mode, position, size);
     }
 
     public static boolean flush(int fd, boolean metadata) throws IOException {
         throw new IOException("Not implemented");
     }
 
+    /**
+     * Close a file descriptor and the file handle it was registered for.
+     *
+     * @param native_fd the file descriptor.
+     * @throws IOException
+     */
     public static void close(int native_fd) throws IOException {
-        throw new IOException("Not implemented");
+        final VMFileHandle handle = getFileHandle(native_fd);
+        synchronized (VmChannel.class) {
+            fileHandles.set(native_fd - FIRST_FILE_FD, null);
+        }
+        handle.close();
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package java.nio;
+
+import java.io.IOException;
+import javax.naming.NameNotFoundException;
+
+import org.jnode.java.nio.MappedFileRegion;
+import org.jnode.system.resource.MemoryResource;
+import org.jnode.system.resource.ResourceNotFreeException;
+
+/**
+ * The memory of a mapped byte buffer, together with the file region it maps.
+ */
+public class MappedRawData extends MemoryRawData {
+
+    final MappedFileRegion region;
+
+    private MappedRawData(MappedFileRegion region, MemoryResource resource) {
+        super(resource);
+        this.region = region;
+    }
+
+    /**
+     * Create a mapped byte buffer for the given file region. The region is
+     * read into memory right away.
+     *
+     * @param region   the mapped file region
+     * @param size     the size of the region in bytes
+     * @param readOnly is the buffer read-only?
+     * @return the new buffer
+     * @throws IOException if the memory cannot be allocated or the region cannot be read
+     */
+    public static MappedByteBuffer map(MappedFileRegion region, int size, boolean readOnly)
+        throws IOException {
+        final MemoryResource resource;
+        try {
+            resource = claimMemory(size);
+        } catch (NameNotFoundException ex) {
+            throw new IOException("Cannot find ResourceManager", ex);
+        } catch (ResourceNotFreeException ex) {
+            throw new IOException("Cannot allocate " + size + " bytes of memory to map", ex);
+        }
+        final MappedRawData address = new MappedRawData(region, resource);
+        try {
+            region.load(address.view());
+        } catch (IOException ex) {
+            resource.release();
+            throw ex;
+        }
+        return new MappedByteBufferImpl(address, size, readOnly);
+    }
+
+    /**
+     * Write the memory back to the region.
+     */
+    final void force() throws IOException {
+        region.force(view());
+    }
+
+    /**
+     * Write the memory back to the region and release it.
+     */
+    final void unmap() throws IOException {
+        try {
+            force();
+        } finally {
+            resource.release();
+        }
+    }
+
+    /**
+     * Gets a writable buffer covering the whole memory.
+     */
+    private ByteBuffer view() {
+        final int size = resource.getSize().toInt();
+        return new DirectByteBufferImpl.ReadWrite(null, this, size, size, 0);
+    }
+}
@@ -41,10 +41,7 @@ public class MemoryRawData extends Pointer {
 
     MemoryRawData(int size) {
         try {
-            final ResourceManager rm = InitialNaming.lookup(ResourceManager.NAME);
-            final ResourceOwner owner = new SimpleResourceOwner("java.nio");
-            this.resource = rm.claimMemoryResource(owner, null, size,
-                ResourceManager.MEMMODE_NORMAL);
+            this.resource = claimMemory(size);
             this.address = resource.getAddress();
         } catch (NameNotFoundException ex) {
             throw new Error("Cannot find ResourceManager", ex);
@@ -58,6 +55,18 @@ public class MemoryRawData extends Pointer {
         this.address = resource.getAddress();
     }
 
+    /**
+     * Claim a block of direct memory.
+     *
+     * @param size the size of the block in bytes
+     * @return the memory resource
+     */
+    static MemoryResource claimMemory(int size) throws NameNotFoundException, ResourceNotFreeException {
+        final ResourceManager rm = InitialNaming.lookup(ResourceManager.NAME);
+        final ResourceOwner owner = new SimpleResourceOwner("java.nio");
+        return rm.claimMemoryResource(owner, null, size, ResourceManager.MEMMODE_NORMAL);
+    }
+
     /**
      * Wrap a bytebuffer around the given memory resource.
      *
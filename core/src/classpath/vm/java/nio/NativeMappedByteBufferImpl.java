@@ -0,0 +1,58 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package java.nio;
+
+import java.io.IOException;
+
+/**
+ * @see java.nio.MappedByteBufferImpl
+ */
+class NativeMappedByteBufferImpl {
+
+    private static void unmapImpl(MappedByteBufferImpl instance) {
+        if (instance.address instanceof MappedRawData) {
+            try {
+                ((MappedRawData) instance.address).unmap();
+            } catch (IOException ex) {
+                throw new RuntimeException("Cannot write back mapped buffer", ex);
+            }
+        }
+    }
+
+    private static boolean isLoadedImpl(MappedByteBufferImpl instance) {
+        // The region is read in when it is mapped
+        return true;
+    }
+
+    private static void loadImpl(MappedByteBufferImpl instance) {
+        // The region is read in when it is mapped
+    }
+
+    private static void forceImpl(MappedByteBufferImpl instance) {
+        if (instance.address instanceof MappedRawData) {
+            try {
+                ((MappedRawData) instance.address).force();
+            } catch (IOException ex) {
+                throw new RuntimeException("Cannot write back mapped buffer", ex);
+            }
+        }
+    }
+}
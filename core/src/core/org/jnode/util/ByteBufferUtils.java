@@ -54,17 +54,29 @@ public class ByteBufferUtils {
         return array;
     }
 
+    /**
+     * A byte array view of the remaining content of a ByteBuffer. When the buffer wraps the whole of its backing
+     * array, that array is used directly and no copy is made in either direction.
+     */
     public static class ByteArray {
         private ByteBuffer buf;
         private int bufPosition;
         private int bufLimit;
         private byte[] array;
+        private boolean shared;
 
         private ByteArray(ByteBuffer buf) {
             this.buf = buf;
             this.bufPosition = buf.position();
             this.bufLimit = buf.limit();
-            this.array = ByteBufferUtils.toArray(buf);
+            if (buf.hasArray() && (buf.arrayOffset() + bufPosition == 0) &&
+                (buf.remaining() == buf.array().length)) {
+                this.array = buf.array();
+                this.shared = true;
+                buf.position(bufLimit);
+            } else {
+                this.array = ByteBufferUtils.toArray(buf);
+            }
         }
 
         public byte[] toArray() {
@@ -72,9 +84,14 @@ public class ByteBufferUtils {
         }
 
         public void refreshByteBuffer() {
-            buf.position(bufPosition);
-            buf.limit(bufLimit);
-            buf.put(array);
+            if (shared) {
+                buf.limit(bufLimit);
+                buf.position(bufLimit);
+            } else {
+                buf.position(bufPosition);
+                buf.limit(bufLimit);
+                buf.put(array);
+            }
         }
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.vm;
+
+import org.jnode.vm.classmgr.VmMethod;
+
+/**
+ * Statistics of the methods compiled by the {@link LoadCompileService}.
+ * Totals are kept for all compilations, details only for the most
+ * recent compilations.
+ * All times are in cpu cycles.
+ */
+public final class CompileStatistics {
+
+    /**
+     * Number of recent compilations to keep details of.
+     */
+    private static final int MAX_ENTRIES = 512;
+
+    private final Entry[] entries = new Entry[MAX_ENTRIES];
+
+    /**
+     * Index in entries of the next entry to write.
+     */
+    private int next;
+
+    private long compileCount;
+
+    private long backgroundCount;
+
+    private long totalCompileCycles;
+
+    private long totalWaitCycles;
+
+    private long totalCodeSize;
+
+    /**
+     * Add the statistics of a compilation.
+     *
+     * @param method
+     * @param optLevel
+     * @param compileCycles The time spent compiling
+     * @param waitCycles    The time the request spent in the queue
+     * @param codeSize      The size of the generated code in bytes
+     * @param background    Was the compilation done in the background?
+     */
+    final synchronized void add(VmMethod method, int optLevel, long compileCycles,
+                                long waitCycles, int codeSize, boolean background) {
+        entries[next] = new Entry(method, optLevel, compileCycles, waitCycles, codeSize, background);
+        next = (next + 1) % MAX_ENTRIES;
+        compileCount++;
+        if (background) {
+            backgroundCount++;
+        }
+        totalCompileCycles += compileCycles;
+        totalWaitCycles += waitCycles;
+        totalCodeSize += codeSize;
+    }
+
+    /**
+     * Gets the details of the most recent compilations, the most recent first.
+     *
+     * @return the entries
+     */
+    public final synchronized Entry[] getEntries() {
+        final int count = (int) Math.min(compileCount, MAX_ENTRIES);
+        final Entry[] result = new Entry[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = entries[(next - 1 - i + MAX_ENTRIES) % MAX_ENTRIES];
+        }
+        return result;
+    }
+
+    /**
+     * Clear all statistics.
+     */
+    public final synchronized void reset() {
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            entries[i] = null;
+        }
+        next = 0;
+        compileCount = 0;
+        backgroundCount = 0;
+        totalCompileCycles = 0;
+        totalWaitCycles = 0;
+        totalCodeSize = 0;
+    }
+
+    /**
+     * @return the number of compiled methods
+     */
+    public final synchronized long getCompileCount() {
+        return compileCount;
+    }
+
+    /**
+     * @return the number of methods compiled in the background
+     */
+    public final synchronized long getBackgroundCount() {
+        return backgroundCount;
+    }
+
+    /**
+     * @return the total time spent compiling
+     */
+    public final synchronized long getTotalCompileCycles() {
+        return totalCompileCycles;
+    }
+
+    /**
+     * @return the total time compile requests spent in the queue
+     */
+    public final synchronized long getTotalWaitCycles() {
+        return totalWaitCycles;
+    }
+
+    /**
+     * @return the total size of the generated code in bytes
+     */
+    public final synchronized long getTotalCodeSize() {
+        return totalCodeSize;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "compiled " + getCompileCount() + " (background " + getBackgroundCount()
+            + "), compile cycles " + getTotalCompileCycles() + ", wait cycles " + getTotalWaitCycles()
+            + ", code size " + getTotalCodeSize();
+    }
+
+    /**
+     * Statistics of a single compilation.
+     */
+    public static final class Entry {
+
+        private final VmMethod method;
+        private final int optLevel;
+        private final long compileCycles;
+        private final long waitCycles;
+        private final int codeSize;
+        private final boolean background;
+
+        Entry(VmMethod method, int optLevel, long compileCycles, long waitCycles,
+              int codeSize, boolean background) {
+            this.method = method;
+            this.optLevel = optLevel;
+            this.compileCycles = compileCycles;
+            this.waitCycles = waitCycles;
+            this.codeSize = codeSize;
+            this.background = background;
+        }
+
+        /**
+         * @return the compiled method
+         */
+        public final VmMethod getMethod() {
+            return method;
+        }
+
+        /**
+         * @return the optimization level the method has been compiled with
+         */
+        public final int getOptLevel() {
+            return optLevel;
+        }
+
+        /**
+         * @return the time spent compiling
+         */
+        public final long getCompileCycles() {
+            return compileCycles;
+        }
+
+        /**
+         * @return the time the request spent in the queue
+         */
+        public final long getWaitCycles() {
+            return waitCycles;
+        }
+
+        /**
+         * @return the size of the generated code in bytes
+         */
+        public final int getCodeSize() {
+            return codeSize;
+        }
+
+        /**
+         * @return true if the method was compiled in the background
+         */
+        public final boolean isBackground() {
+            return background;
+        }
+    }
+}
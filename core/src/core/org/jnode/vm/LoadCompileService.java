@@ -30,11 +30,14 @@ import org.jnode.annotation.Internal;
 import org.jnode.annotation.KernelSpace;
 import org.jnode.annotation.MagicPermission;
 import org.jnode.annotation.SharedStatics;
+import org.jnode.bootlog.BootLogInstance;
 import org.jnode.vm.classmgr.ClassDecoder;
 import org.jnode.vm.classmgr.VmClassLoader;
+import org.jnode.vm.classmgr.VmCompiledCode;
 import org.jnode.vm.classmgr.VmMethod;
 import org.jnode.vm.classmgr.VmType;
 import org.jnode.vm.compiler.NativeCodeCompiler;
+import org.jnode.vm.facade.VmUtils;
 
 /**
  * Service used to load classes and compile methods.
@@ -47,8 +50,20 @@ public final class LoadCompileService {
 
     private static LoadCompileService service;
 
+    /**
+     * Requests that a thread is waiting for. This list is also used to
+     * synchronize access to both queues.
+     */
     private final ArrayList<Request> requestQueue = new ArrayList<Request>();
 
+    /**
+     * Requests that no thread is waiting for. These are only processed
+     * when requestQueue is empty.
+     */
+    private final ArrayList<Request> backgroundQueue = new ArrayList<Request>();
+
+    private final CompileStatistics statistics = new CompileStatistics();
+
     private final ObjectResolver resolver;
 
     private final NativeCodeCompiler[] compilers;
@@ -57,7 +72,11 @@ public final class LoadCompileService {
 
     private static boolean started = false;
 
-    private static final int threadCount = 2; //4
+    /**
+     * Minimum number of LoadCompile threads, more are started on systems
+     * with more processors.
+     */
+    private static final int MIN_THREAD_COUNT = 2;
 
     /**
      * Default ctor
@@ -85,11 +104,86 @@ public final class LoadCompileService {
 
         if ((!started) || (Thread.currentThread() instanceof LoadCompileThread)) {
             // Compile now
-            service.doCompile(method, optLevel, enableTestCompilers);
+            service.doCompile(method, optLevel, enableTestCompilers, 0, false);
         } else {
             // Put request in queue
             service.enqueAndWait(new CompileRequest(method, optLevel,
-                enableTestCompilers));
+                enableTestCompilers, false));
+        }
+    }
+
+    /**
+     * Queue the given method for recompilation at the next optimization level,
+     * without waiting for the compilation to finish.
+     * When all regular compilers have been used, the test compilers are used.
+     * The current code of the method is used until the new code is installed.
+     *
+     * @param method
+     */
+    public static final void tierUp(VmMethod method) {
+        if (!started) {
+            // No background compilation yet
+            return;
+        }
+        final int optLevel = method.getNativeCodeOptLevel() + 1;
+        final int regularCount = service.compilers.length;
+        final CompileRequest request;
+        if (optLevel < regularCount) {
+            request = new CompileRequest(method, optLevel, false, true);
+        } else if (optLevel - regularCount <= getHighestOptimizationLevel(true)) {
+            request = new CompileRequest(method, optLevel - regularCount, true, true);
+        } else {
+            // Already at the highest level
+            return;
+        }
+        service.enqueue(request);
+    }
+
+    /**
+     * Can code compiled at the given optimization level be recompiled at a
+     * higher level by {@link #tierUp(VmMethod)}?
+     *
+     * @param optLevel
+     */
+    public static boolean canTierUp(int optLevel) {
+        if (service == null) {
+            return false;
+        }
+        final int nextLevel = optLevel + 1;
+        final int regularCount = service.compilers.length;
+        return (nextLevel < regularCount)
+            || (nextLevel - regularCount <= getHighestOptimizationLevel(true));
+    }
+
+    /**
+     * Is there a compiler for a level above the regular compilers, that
+     * methods can be recompiled with by {@link #tierUp(VmMethod)}?
+     */
+    public static boolean isTierUpSupported() {
+        return (service != null) && (getHighestOptimizationLevel(true) >= 0);
+    }
+
+    /**
+     * Gets the statistics of the compiled methods.
+     *
+     * @return the statistics
+     */
+    public static CompileStatistics getStatistics() {
+        initService();
+        return service.statistics;
+    }
+
+    /**
+     * Gets the number of requests waiting to be processed.
+     *
+     * @param background If true, count the background requests, otherwise
+     *                   count the requests that a thread is waiting for.
+     * @return the number of requests
+     */
+    public static int getQueueLength(boolean background) {
+        initService();
+        synchronized (service.requestQueue) {
+            return background ? service.backgroundQueue.size() : service.requestQueue.size();
         }
     }
 
@@ -139,6 +233,7 @@ public final class LoadCompileService {
         */
         if (!started) {
             started = true;
+            final int threadCount = Math.max(MIN_THREAD_COUNT, VmUtils.getVm().getProcessors().size());
             for (int i = 0; i < threadCount; i++) {
                 LoadCompileThread thread = new LoadCompileThread(service,
                     "LoadCompile-" + i);
@@ -153,6 +248,8 @@ public final class LoadCompileService {
     public static final void showInfo() {
         Unsafe.debug(" #loadcompile requests: ");
         Unsafe.debug((service != null) ? service.requestQueue.size() : 0);
+        Unsafe.debug(" #background compile requests: ");
+        Unsafe.debug((service != null) ? service.backgroundQueue.size() : 0);
     }
 
     /**
@@ -172,12 +269,26 @@ public final class LoadCompileService {
      */
     private void enqueAndWait(Request request) {
         // Put request in queue
+        enqueue(request);
+        // Wait for request to finish
+        request.waitUntilFinished();
+    }
+
+    /**
+     * Put request in queue.
+     *
+     * @param request
+     */
+    private void enqueue(Request request) {
+        request.setEnqueueCycles(Unsafe.getCpuCycles());
         synchronized (requestQueue) {
-            requestQueue.add(request);
+            if (request.isBackground()) {
+                backgroundQueue.add(request);
+            } else {
+                requestQueue.add(request);
+            }
             requestQueue.notify();
         }
-        // Wait for request to finish
-        request.waitUntilFinished();
     }
 
     /**
@@ -187,15 +298,19 @@ public final class LoadCompileService {
         // Get the first request
         final Request request;
         synchronized (requestQueue) {
-            while (requestQueue.isEmpty()) {
+            while (requestQueue.isEmpty() && backgroundQueue.isEmpty()) {
                 try {
                     requestQueue.wait();
                 } catch (InterruptedException ex) {
                     // Ignore
                 }
             }
-            request = requestQueue.get(0);
-            requestQueue.remove(0);
+            // Threads are waiting for regular requests, so process them first
+            if (!requestQueue.isEmpty()) {
+                request = requestQueue.remove(0);
+            } else {
+                request = backgroundQueue.remove(0);
+            }
         }
         try {
             // Process request
@@ -204,6 +319,14 @@ public final class LoadCompileService {
             // Notify waiting threads
             request.setFinished();
         }
+        if (request.isBackground() && (request.getException() != null)) {
+            // Nobody is waiting for this request, so report the error here
+            final Throwable ex = request.getException();
+            Unsafe.debug(request.errorMessage());
+            Unsafe.debug(ex.toString());
+            Unsafe.debug('\n');
+            BootLogInstance.get().error(request.errorMessage(), ex);
+        }
     }
 
     /**
@@ -213,7 +336,7 @@ public final class LoadCompileService {
      * @param optLevel The optimization level
      */
     private void doCompile(VmMethod vmMethod, int optLevel,
-                           boolean enableTestCompilers) {
+                           boolean enableTestCompilers, long waitCycles, boolean background) {
         final NativeCodeCompiler cmps[];
         int index;
         if (enableTestCompilers) {
@@ -233,7 +356,14 @@ public final class LoadCompileService {
         }
         if (vmMethod.getNativeCodeOptLevel() < optLevel) {
             cmp = cmps[index];
+            final long start = Unsafe.getCpuCycles();
             cmp.compileRuntime(vmMethod, resolver, optLevel, null);
+            final long compileCycles = Unsafe.getCpuCycles() - start;
+            if (vmMethod.getNativeCodeOptLevel() == optLevel) {
+                final VmCompiledCode code = vmMethod.getDefaultCompiledCode();
+                final int codeSize = (code != null) ? code.getSize() : 0;
+                statistics.add(vmMethod, optLevel, compileCycles, waitCycles, codeSize, background);
+            }
         }
     }
 
@@ -250,6 +380,7 @@ public final class LoadCompileService {
 
         private boolean finished = false;
         private Throwable exception;
+        private long enqueueCycles;
 
         /**
          * Wait until this request is finished.
@@ -269,6 +400,30 @@ public final class LoadCompileService {
             }
         }
 
+        /**
+         * Is this a request that no thread waits for?
+         */
+        boolean isBackground() {
+            return false;
+        }
+
+        final void setEnqueueCycles(long enqueueCycles) {
+            this.enqueueCycles = enqueueCycles;
+        }
+
+        /**
+         * Gets the time this request has been in the queue.
+         *
+         * @return the wait time in cpu cycles
+         */
+        final long getWaitCycles() {
+            return Unsafe.getCpuCycles() - enqueueCycles;
+        }
+
+        final Throwable getException() {
+            return exception;
+        }
+
         final synchronized void setFinished() {
             finished = true;
             notifyAll();
@@ -303,16 +458,28 @@ public final class LoadCompileService {
 
         private final boolean enableTestCompilers;
 
+        private final boolean background;
+
         /**
          * @param method
          * @param optLevel
          * @param enableTestCompilers
+         * @param background
          */
         CompileRequest(final VmMethod method, final int optLevel,
-                       final boolean enableTestCompilers) {
+                       final boolean enableTestCompilers, final boolean background) {
             this.method = method;
             this.optLevel = optLevel;
             this.enableTestCompilers = enableTestCompilers;
+            this.background = background;
+        }
+
+        /**
+         * @see org.jnode.vm.LoadCompileService.Request#isBackground()
+         */
+        @Override
+        boolean isBackground() {
+            return background;
         }
 
         /**
@@ -321,7 +488,7 @@ public final class LoadCompileService {
          * @see org.jnode.vm.LoadCompileService.Request#execute()
          */
         void doExecute() {
-            service.doCompile(method, optLevel, enableTestCompilers);
+            service.doCompile(method, optLevel, enableTestCompilers, getWaitCycles(), background);
         }
 
         /**
@@ -34,6 +34,12 @@ import sun.reflect.ReflectionFactory;
 @MagicPermission
 public abstract class VmMethod extends VmMember implements VmSharedStaticsEntry {
 
+    /**
+     * Number of invocations and loop iterations after which a method
+     * is recompiled at the next optimization level.
+     */
+    public static final int TIER_UP_THRESHOLD = 10000;
+
     /**
      * Address of native code of this method
      */
@@ -84,6 +90,12 @@ public abstract class VmMethod extends VmMember implements VmSharedStaticsEntry
      */
     private short nativeCodeOptLevel = -1;
 
+    /**
+     * Index in the shared statics table of the tier-up counter, or -1
+     * if no counter has been allocated.
+     */
+    private int tierUpCounterIndex = -1;
+
     /**
      * The index in the statics table
      */
@@ -303,6 +315,45 @@ public abstract class VmMethod extends VmMember implements VmSharedStaticsEntry
         method.recompile();
     }
 
+    /**
+     * Gets the index in the shared statics table of the counter that is
+     * decremented by the compiled code of this method on every invocation
+     * and loop iteration. The counter is allocated on first use.
+     *
+     * @return the statics index of the tier-up counter
+     */
+    public final int getTierUpCounterIndex() {
+        if (tierUpCounterIndex < 0) {
+            synchronized (this) {
+                if (tierUpCounterIndex < 0) {
+                    final VmSharedStatics statics = VmUtils.getVm().getSharedStatics();
+                    final int idx = statics.allocIntField();
+                    statics.setInt(idx, TIER_UP_THRESHOLD);
+                    tierUpCounterIndex = idx;
+                }
+            }
+        }
+        return tierUpCounterIndex;
+    }
+
+    /**
+     * Called by compiled code when the tier-up counter of a method has
+     * dropped to zero. The method is queued for recompilation at the next
+     * optimization level, while the current code keeps running.
+     *
+     * @param typeStaticsIndex
+     * @param methodIndex
+     */
+    static final void tierUpMethod(int typeStaticsIndex, int methodIndex) {
+        final VmSharedStatics statics = VmUtils.getVm().getSharedStatics();
+        final VmType<?> type = statics.getTypeEntry(typeStaticsIndex);
+        final VmMethod method = type.getDeclaredMethod(methodIndex);
+        // Disarm the counter, so the request is only made once.
+        // It is re-armed when the new code is installed.
+        statics.setInt(method.tierUpCounterIndex, Integer.MAX_VALUE);
+        LoadCompileService.tierUp(method);
+    }
+
     public final boolean isAbstract() {
         return Modifier.isAbstract(getModifiers());
     }
@@ -502,6 +553,10 @@ public abstract class VmMethod extends VmMember implements VmSharedStaticsEntry
                 VmUtils.getVm().getSharedStatics().setMethodCode(
                     getSharedStaticsIndex(), code.getNativeCode());
                 this.nativeCodeOptLevel = (short) optLevel;
+                if ((tierUpCounterIndex >= 0) && LoadCompileService.canTierUp(optLevel)) {
+                    // Re-arm the counter, so the new code can tier up as well
+                    VmUtils.getVm().getSharedStatics().setInt(tierUpCounterIndex, TIER_UP_THRESHOLD);
+                }
             }
         }
     }
@@ -122,6 +122,8 @@ public class EntryPoints extends VmSystemObject {
 
     private final VmMethod recompileMethod;
 
+    private final VmMethod tierUpMethod;
+
     private final int magic;
 
     /**
@@ -250,6 +252,7 @@ public class EntryPoints extends VmSystemObject {
             // VmMethod
             final VmType vmMethodClass = loader.loadClass("org.jnode.vm.classmgr.VmMethod", true);
             recompileMethod = testMethod(vmMethodClass.getDeclaredMethod("recompileMethod", "(II)V"));
+            tierUpMethod = testMethod(vmMethodClass.getDeclaredMethod("tierUpMethod", "(II)V"));
 
         } catch (ClassNotFoundException ex) {
             throw new NoClassDefFoundError(ex.getMessage());
@@ -607,6 +610,14 @@ public class EntryPoints extends VmSystemObject {
         return recompileMethod;
     }
 
+    /**
+     * @return Returns the tierUpMethod.
+     * @see VmMethod#tierUpMethod(int, int)
+     */
+    public final VmMethod getTierUpMethod() {
+        return tierUpMethod;
+    }
+
     /**
      * @return Returns the getClassForVmTypeMethod.
      * @see org.jnode.vm.SoftByteCodes#getClassForVmType(VmType)
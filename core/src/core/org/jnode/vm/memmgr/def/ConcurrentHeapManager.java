@@ -0,0 +1,47 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+ 
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.vm.classmgr.VmClassLoader;
+import org.jnode.vm.memmgr.HeapHelper;
+
+/**
+ * Mostly concurrent variant of the default heap manager.
+ * <p/>
+ * The other threads are only stopped for a short snapshot of the roots
+ * and for a remark of the objects changed during marking. The rest of the
+ * marking and the sweeping is done by the GC thread while the other threads
+ * continue to run, guarded by the {@link DefaultWriteBarrier}.
+ */
+public final class ConcurrentHeapManager extends DefaultHeapManager {
+
+    /**
+     * Initialize this instance.
+     *
+     * @param loader
+     * @param helper
+     */
+    public ConcurrentHeapManager(VmClassLoader loader, HeapHelper helper)
+        throws ClassNotFoundException {
+        super(loader, helper, false, true);
+    }
+}
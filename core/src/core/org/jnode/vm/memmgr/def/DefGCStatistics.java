@@ -36,16 +36,59 @@ final class DefGCStatistics extends VmSystemObject implements GCStatistics {
     long lastVerifyDuration;
     long lastFreedBytes;
     long lastMarkedObjects;
+    boolean lastMinorGC;
+    int minorCollections;
+    int fullCollections;
+    long lastInitialPauseDuration;
+    long lastRemarkPauseDuration;
+    int lastWorkers;
+    // Per thread statistics of the last collection, index 0 is the GC thread,
+    // the others are the GC workers.
+    long[] workerMarkedObjects;
+    long[] workerMarkDurations;
+    long[] workerSweepDurations;
+    int[] workerSweptHeaps;
+
+    /**
+     * Resize the per thread statistics for the given number of GC workers.
+     *
+     * @param workers
+     */
+    final void setWorkerCount(int workers) {
+        workerMarkedObjects = new long[workers + 1];
+        workerMarkDurations = new long[workers + 1];
+        workerSweepDurations = new long[workers + 1];
+        workerSweptHeaps = new int[workers + 1];
+    }
 
     public String toString() {
-        return "lastGCTime          " + lastGCTime + '\n' +
+        final String result = "lastGCTime          " + lastGCTime + '\n' +
+            "lastMinorGC         " + lastMinorGC + '\n' +
+            "minorCollections    " + minorCollections + '\n' +
+            "fullCollections     " + fullCollections + '\n' +
             "lastMarkIterations  " + lastMarkIterations + '\n' +
+            "lastInitialPause    " + lastInitialPauseDuration + '\n' +
+            "lastRemarkPause     " + lastRemarkPauseDuration + '\n' +
             "lastMarkDuration    " + lastMarkDuration + '\n' +
             "lastSweepDuration   " + lastSweepDuration + '\n' +
             "lastCleanupDuration " + lastCleanupDuration + '\n' +
             "lastVerifyDuration  " + lastVerifyDuration + '\n' +
             "lastMarkedObjects   " + lastMarkedObjects + '\n' +
-            "lastFreedBytes      " + lastFreedBytes;
+            "lastFreedBytes      " + lastFreedBytes + '\n' +
+            "lastWorkers         " + lastWorkers;
+        if (workerMarkedObjects == null) {
+            return result;
+        }
+        final StringBuilder sb = new StringBuilder(result);
+        for (int i = 0; i < workerMarkedObjects.length; i++) {
+            sb.append('\n');
+            sb.append((i == 0) ? "  gc-thread" : "  worker " + i);
+            sb.append(": marked ").append(workerMarkedObjects[i]);
+            sb.append(", mark ").append(workerMarkDurations[i]);
+            sb.append("ms, sweep ").append(workerSweepDurations[i]);
+            sb.append("ms, heaps ").append(workerSweptHeaps[i]);
+        }
+        return sb.toString();
     }
 
 }
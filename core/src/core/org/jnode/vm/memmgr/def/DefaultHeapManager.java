@@ -27,7 +27,6 @@ import org.jnode.annotation.MagicPermission;
 import org.jnode.vm.BaseVmArchitecture;
 import org.jnode.vm.MemoryBlockManager;
 import org.jnode.vm.VmMagic;
-import org.jnode.vm.classmgr.ObjectFlags;
 import org.jnode.vm.classmgr.ObjectLayout;
 import org.jnode.vm.classmgr.VmClassLoader;
 import org.jnode.vm.classmgr.VmClassType;
@@ -41,12 +40,14 @@ import org.jnode.vm.facade.VmProcessor;
 import org.jnode.vm.memmgr.HeapHelper;
 import org.jnode.vm.memmgr.VmHeapManager;
 import org.jnode.vm.scheduler.Monitor;
+import org.jnode.vm.scheduler.SpinLock;
 import org.vmmagic.unboxed.Address;
 import org.vmmagic.unboxed.Extent;
+import org.vmmagic.unboxed.ObjectReference;
 import org.vmmagic.unboxed.Word;
 
 @MagicPermission
-public final class DefaultHeapManager extends VmHeapManager {
+public class DefaultHeapManager extends VmHeapManager {
 
     /**
      * Default size in bytes of a new heap
@@ -59,6 +60,16 @@ public final class DefaultHeapManager extends VmHeapManager {
      */
     public static final float GC_TRIGGER_PERCENTAGE = 0.75f;
 
+    /**
+     * Size in bytes of a thread local allocation buffer (TLAB)
+     */
+    public static final int TLAB_SIZE = 32 * 1024;
+
+    /**
+     * Objects larger than this size (in bytes) are never allocated from a TLAB
+     */
+    public static final int MAX_TLAB_OBJECT_SIZE = 2 * 1024;
+
     /**
      * The boot heap
      */
@@ -120,16 +131,72 @@ public final class DefaultHeapManager extends VmHeapManager {
 
     private GCManager gcManager;
 
+    /**
+     * If true, surviving objects are promoted to an old generation and most
+     * collections only collect the young generation.
+     */
+    private final boolean generational;
+
+    /**
+     * If true, most of the marking and sweeping is done while the other
+     * threads continue to run.
+     */
+    private final boolean concurrent;
+
+    /**
+     * Is a concurrent mark and sweep cycle in progress?
+     */
+    private boolean concurrentCycle;
+
+    /**
+     * Lock used to synchronize the addition of heaps with the end of a
+     * concurrent cycle.
+     */
+    private final SpinLock heapListLock = new SpinLock();
+
+    /**
+     * The number of TLABs allocated from the heaps
+     */
+    private int tlabRefills;
+
     /**
      * Make this private, so we cannot be instantiated
      */
-    @SuppressWarnings("unchecked")
     public DefaultHeapManager(VmClassLoader loader, HeapHelper helper)
         throws ClassNotFoundException {
+        this(loader, helper, false, false);
+    }
+
+    /**
+     * Initialize this instance.
+     *
+     * @param loader
+     * @param helper
+     * @param generational If true, use generational collection.
+     * @param concurrent   If true, mark and sweep concurrently with the other
+     *                     threads. Cannot be combined with generational.
+     */
+    @SuppressWarnings("unchecked")
+    protected DefaultHeapManager(VmClassLoader loader, HeapHelper helper, boolean generational,
+                                 boolean concurrent)
+        throws ClassNotFoundException {
         super(helper);
+        if (generational && concurrent) {
+            throw new IllegalArgumentException("Concurrent generational collection is not supported");
+        }
+        this.generational = generational;
+        this.concurrent = concurrent;
         this.bootHeap = new VmBootHeap(helper);
-        // this.writeBarrier = new DefaultWriteBarrier(helper);
-        setWriteBarrier(null);
+        if (generational) {
+            // The write barrier maintains the remembered set
+            setWriteBarrier(new DefaultWriteBarrier(helper, true));
+        } else if (concurrent) {
+            // The write barrier shades objects stored during concurrent marking
+            setWriteBarrier(new DefaultWriteBarrier(helper, false));
+        } else {
+            // this.writeBarrier = new DefaultWriteBarrier(helper);
+            setWriteBarrier(null);
+        }
         this.firstNormalHeap = new VmDefaultHeap(this);
         this.currentHeap = firstNormalHeap;
         this.heapList = firstNormalHeap;
@@ -176,7 +243,7 @@ public final class DefaultHeapManager extends VmHeapManager {
      * Start a garbage collection process
      */
     public final void gc() {
-        gcThread.trigger(false);
+        gcThread.trigger(false, true);
     }
 
     /**
@@ -270,6 +337,11 @@ public final class DefaultHeapManager extends VmHeapManager {
      * Allocate a new instance for the given class. Not that this method cannot
      * be synchronized, since obtaining a monitor might require creating one,
      * which in turn needs this method.
+     * <p/>
+     * Small objects are allocated from the TLAB of the current processor
+     * without taking the heap monitor. Only large objects and TLAB refills
+     * go through the heaps. TLABs are not used during a concurrent cycle,
+     * because the heaps must then choose the color of new objects.
      *
      * @param vmClass
      * @param size
@@ -280,8 +352,88 @@ public final class DefaultHeapManager extends VmHeapManager {
         vmClass.initialize();
 
         final int alignedSize = ObjectLayout.objectAlign(size);
-        // final Monitor mon = heapMonitor;
+        if ((alignedSize <= MAX_TLAB_OBJECT_SIZE) && (heapMonitor != null) && !concurrentCycle) {
+            Object result = allocFromTlab(vmClass, alignedSize);
+            if ((result == null) && !gcActive) {
+                refillTlab();
+                result = allocFromTlab(vmClass, alignedSize);
+            }
+            if (result != null) {
+                return result;
+            }
+        }
+        return allocFromHeap(vmClass, alignedSize, size);
+    }
+
+    /**
+     * Allocate a new instance for the given class from the TLAB of the
+     * current processor.
+     *
+     * @param vmClass
+     * @param alignedSize
+     * @return Object Null if the TLAB has not enough space left.
+     */
+    private Object allocFromTlab(VmClassType<?> vmClass, int alignedSize) {
+        // Pin this thread first, so the processor (and its TLAB) cannot
+        // change underneath us.
+        VmMagic.currentProcessor().disableReschedule(false);
+        final org.jnode.vm.scheduler.VmProcessor cpu = VmMagic.currentProcessor();
+        try {
+            final ProcessorHeapData data = (ProcessorHeapData) cpu.getHeapData();
+            if ((data == null) || (data.tlabFiller == null) || gcActive) {
+                return null;
+            }
+            final Object result = data.tlabHeap.allocFromTlab(data.tlabFiller, vmClass, alignedSize);
+            if (result != null) {
+                // The heap has set the initial color of the object.
+                vmClass.incInstanceCount();
+            }
+            return result;
+        } finally {
+            cpu.enableReschedule(false);
+        }
+    }
+
+    /**
+     * Allocate a new TLAB from the heaps and make it the TLAB of the current
+     * processor. The remaining space of the old TLAB is left as an
+     * unreferenced object, so it will be reclaimed by the next GC.
+     */
+    private void refillTlab() {
+        final Object filler = allocFromHeap(VmType.getObjectClass(), TLAB_SIZE, TLAB_SIZE);
+        final Address fillerPtr = ObjectReference.fromObject(filler).toAddress();
+        VmDefaultHeap heap = heapList;
+        while ((heap != null) && !heap.inHeap(fillerPtr)) {
+            heap = heap.getNext();
+        }
+        if (heap == null) {
+            // Not in a default heap, do not use it as TLAB.
+            return;
+        }
+
+        VmMagic.currentProcessor().disableReschedule(false);
+        final org.jnode.vm.scheduler.VmProcessor cpu = VmMagic.currentProcessor();
+        try {
+            final ProcessorHeapData data = (ProcessorHeapData) cpu.getHeapData();
+            if (data != null) {
+                data.tlabHeap = heap;
+                data.tlabFiller = filler;
+                tlabRefills++;
+            }
+        } finally {
+            cpu.enableReschedule(false);
+        }
+    }
 
+    /**
+     * Allocate a new instance for the given class from the heaps.
+     *
+     * @param vmClass
+     * @param alignedSize
+     * @param size
+     * @return Object
+     */
+    private Object allocFromHeap(VmClassType<?> vmClass, int alignedSize, int size) {
         VmDefaultHeap heap = currentHeap;
         Object result = null;
         int oomCount = 0;
@@ -326,7 +478,7 @@ public final class DefaultHeapManager extends VmHeapManager {
                                 if ((heapFlags & TRACE_OOM) != 0) {
                                     debug("<oom/>");
                                 }
-                                gcThread.trigger(true);
+                                gcThread.trigger(true, true);
                                 heap = firstNormalHeap;
                                 currentHeap = firstNormalHeap;
                             } else {
@@ -362,13 +514,11 @@ public final class DefaultHeapManager extends VmHeapManager {
                         debug("<alloc:GC trigger/>");
                     }
                     allocatedSinceGcTrigger = 0;
-                    gcThread.trigger(false);
+                    gcThread.trigger(false, false);
                 }
             }
+            // The heap has set the initial color of the object.
             vmClass.incInstanceCount();
-            // Allocated objects are initially black.
-            VmMagic.setObjectFlags(result, Word
-                .fromIntZeroExtend(ObjectFlags.GC_DEFAULT_COLOR));
         } finally {
             if (m != null) {
                 m.exit();
@@ -401,7 +551,15 @@ public final class DefaultHeapManager extends VmHeapManager {
         heap.initialize(start, end, slotSize);
 
         if (addToHeapList) {
-            heapList.append(heap);
+            heapListLock.lock();
+            try {
+                if (concurrentCycle) {
+                    heap.startSweepCycle();
+                }
+                heapList.append(heap);
+            } finally {
+                heapListLock.unlock();
+            }
         }
         return heap;
     }
@@ -411,6 +569,7 @@ public final class DefaultHeapManager extends VmHeapManager {
      */
     public void dumpStatistics(PrintWriter out) {
         out.println("WriteBarrier: " + getWriteBarrier());
+        out.println("TLAB refills: " + tlabRefills);
     }
 
     /**
@@ -420,6 +579,62 @@ public final class DefaultHeapManager extends VmHeapManager {
         return this.bootHeap;
     }
 
+    /**
+     * Is generational collection used?
+     *
+     * @return true if surviving objects are promoted to an old generation.
+     */
+    final boolean isGenerational() {
+        return this.generational;
+    }
+
+    /**
+     * Is concurrent marking and sweeping used?
+     *
+     * @return true if concurrent
+     */
+    final boolean isConcurrent() {
+        return this.concurrent;
+    }
+
+    /**
+     * Start a concurrent mark and sweep cycle.
+     * Must be called while all other threads are stopped.
+     */
+    final void startConcurrentCycle() {
+        heapListLock.lock();
+        try {
+            VmDefaultHeap heap = heapList;
+            while (heap != null) {
+                heap.startSweepCycle();
+                heap = heap.getNext();
+            }
+            concurrentCycle = true;
+        } finally {
+            heapListLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the heap to sweep after the given heap in a concurrent cycle.
+     * If there is none, the concurrent cycle is ended.
+     *
+     * @param heap The heap that has just been swept
+     * @return The next heap, or null if all heaps have been swept.
+     */
+    final VmDefaultHeap getNextHeapToSweep(VmDefaultHeap heap) {
+        heapListLock.lock();
+        try {
+            final VmDefaultHeap next = heap.getNext();
+            if (next == null) {
+                concurrentCycle = false;
+            }
+            return next;
+        } finally {
+            heapListLock.unlock();
+        }
+    }
+
     /**
      * @param gcActive The gcActive to set.
      */
@@ -476,8 +691,7 @@ public final class DefaultHeapManager extends VmHeapManager {
      * @see org.jnode.vm.memmgr.VmHeapManager#createProcessorHeapData(org.jnode.vm.facade.VmProcessor)
      */
     public Object createProcessorHeapData(VmProcessor cpu) {
-        // No need here, so return null.
-        return null;
+        return new ProcessorHeapData();
     }
 
     /**
@@ -39,6 +39,12 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
      */
     private final HeapHelper helper;
 
+    /**
+     * Is the write barrier used to maintain the remembered set of
+     * a generational collector?
+     */
+    private final boolean generational;
+
     /**
      * Is the write barrier active?
      */
@@ -62,7 +68,19 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
      * Initialize this instance.
      */
     public DefaultWriteBarrier(HeapHelper helper) {
+        this(helper, false);
+    }
+
+    /**
+     * Initialize this instance.
+     *
+     * @param helper
+     * @param generational If true, old objects that get a reference to a
+     *                     young object are added to the remembered set.
+     */
+    public DefaultWriteBarrier(HeapHelper helper, boolean generational) {
         this.helper = helper;
+        this.generational = generational;
     }
 
     /**
@@ -73,7 +91,11 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
         throws UninterruptiblePragma {
         // The source array is already reachable, so by definition, all
         // entries will be reachable.
-        // So we do nothing here
+        // So we do nothing here, unless the target is an old object
+        // that may now refer to young objects.
+        if (generational) {
+            remember(array);
+        }
         arrayCopyCount++;
     }
 
@@ -83,7 +105,11 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
      */
     public final void arrayStoreWriteBarrier(Object ref, int index, Object value)
         throws UninterruptiblePragma {
-        if (active) {
+        if (generational) {
+            if (isYoung(value)) {
+                remember(ref);
+            }
+        } else if (active) {
             shade(value);
         }
         arrayStoreCount++;
@@ -95,7 +121,11 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
      */
     public final void putfieldWriteBarrier(Object ref, int offset, Object value)
         throws UninterruptiblePragma {
-        if (active) {
+        if (generational) {
+            if (isYoung(value)) {
+                remember(ref);
+            }
+        } else if (active) {
             shade(value);
         }
         putFieldCount++;
@@ -107,7 +137,9 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
      */
     public final void putstaticWriteBarrier(boolean shared, int staticsIndex, Object value)
         throws UninterruptiblePragma {
-        if (active) {
+        // Statics are always part of the rootset, so they are never
+        // remembered.
+        if (active && !generational) {
             shade(value);
         }
         putStaticCount++;
@@ -136,6 +168,42 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
         }
     }
 
+    /**
+     * Is the given value an object of the young generation?
+     * Objects that have survived a collection are black, all others are
+     * young.
+     *
+     * @param value
+     * @return true if value is a young object
+     */
+    private final boolean isYoung(Object value) throws UninterruptiblePragma {
+        return (value != null) && (VmMagic.getObjectColor(value) <= ObjectFlags.GC_WHITE);
+    }
+
+    /**
+     * Add the given object to the remembered set, if it is an old object.
+     * The remembered set consists of all grey objects in the heap,
+     * they are scanned by the next young generation collection.
+     *
+     * @param ref
+     */
+    private final void remember(Object ref) throws UninterruptiblePragma {
+        if (ref != null) {
+            while (true) {
+                final int gcColor = VmMagic.getObjectColor(ref);
+                if (gcColor != ObjectFlags.GC_BLACK) {
+                    // Young or already remembered, we're done
+                    return;
+                }
+                if (helper.atomicChangeObjectColor(ref, gcColor,
+                    ObjectFlags.GC_GREY)) {
+                    changed = true;
+                    return;
+                }
+            }
+        }
+    }
+
     public String toString() {
         return "arrayCopy: " + arrayCopyCount + ", arrayStore: "
             + arrayStoreCount + ", putField: " + putFieldCount
@@ -20,6 +20,7 @@
  
 package org.jnode.vm.memmgr.def;
 
+import java.util.List;
 import org.jnode.vm.Unsafe;
 import org.jnode.vm.BaseVmArchitecture;
 import org.jnode.vm.VmSystem;
@@ -29,6 +30,9 @@ import org.jnode.vm.facade.VmUtils;
 import org.jnode.vm.memmgr.HeapHelper;
 import org.jnode.vm.memmgr.VmHeapManager;
 import org.jnode.vm.objects.VmSystemObject;
+import org.jnode.vm.scheduler.Monitor;
+import org.jnode.vm.scheduler.VmProcessor;
+import org.jnode.vm.scheduler.VmThread;
 import org.vmmagic.pragma.Uninterruptible;
 import org.vmmagic.unboxed.Word;
 
@@ -38,6 +42,24 @@ import org.vmmagic.unboxed.Word;
 @MagicPermission
 final class GCManager extends VmSystemObject implements Uninterruptible {
 
+    /**
+     * The maximum number of young generation collections between two
+     * full collections (generational mode only)
+     */
+    private static final int MAX_MINOR_GCS = 8;
+
+    /**
+     * The maximum number of concurrent mark iterations before the remark
+     * pause (concurrent mode only)
+     */
+    private static final int MAX_CONCURRENT_MARK_ITERATIONS = 4;
+
+    /**
+     * The maximum number of times the GC thread yields while waiting
+     * for the GC workers to join a cycle
+     */
+    private static final int MAX_ENROLL_YIELDS = 100;
+
     /**
      * The heap manager
      */
@@ -88,16 +110,69 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
      */
     private final boolean debug;
 
+    /**
+     * Are surviving objects promoted to the old generation?
+     */
+    private final boolean generational;
+
+    /**
+     * The number of young generation collections since the last full collection
+     */
+    private int minorSinceFull;
+
+    /**
+     * The architecture
+     */
+    private final BaseVmArchitecture arch;
+
+    /**
+     * The processor the GC thread runs on
+     */
+    private final VmProcessor gcProcessor;
+
+    /**
+     * Work shared between the GC thread and the GC workers
+     */
+    private final GCWorkPool workPool;
+
+    /**
+     * Monitor used to wake up the GC workers
+     */
+    private final Monitor workerMonitor;
+
+    /**
+     * The GC workers, one for every processor other than gcProcessor
+     */
+    private GCWorkerThread[] workers = new GCWorkerThread[0];
+
+    /**
+     * The number of processors for which a worker has been considered
+     */
+    private int coveredProcessors;
+
+    /**
+     * Incremented for every cycle the GC workers are woken up for
+     */
+    private volatile int workerCycle;
+
     /**
      * Create a new instance
      */
     public GCManager(DefaultHeapManager heapManager, BaseVmArchitecture arch) {
         this.debug = true || VmUtils.getVm().isDebugMode();
         this.heapManager = heapManager;
-        this.writeBarrier = (DefaultWriteBarrier) heapManager.getWriteBarrier();
+        this.generational = heapManager.isGenerational();
+        // In generational mode, the write barrier maintains the remembered set,
+        // it is not used to shade objects during marking.
+        this.writeBarrier = generational ? null : (DefaultWriteBarrier) heapManager.getWriteBarrier();
         this.helper = heapManager.getHelper();
+        this.arch = arch;
+        this.gcProcessor = VmProcessor.current();
+        this.workPool = new GCWorkPool();
+        this.workerMonitor = new Monitor();
         this.markStack = new GCStack();
         this.markVisitor = new GCMarkVisitor(heapManager, arch, markStack);
+        this.markVisitor.setWorkPool(workPool);
         this.setWhiteVisitor = new GCSetWhiteVisitor(heapManager);
         this.verifyVisitor = new GCVerifyVisitor(heapManager, arch);
         this.sweepVisitor = new GCSweepVisitor(heapManager);
@@ -106,18 +181,34 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
 
     /**
      * Do a garbage collection cycle.
+     *
+     * @param full If false, only the young generation is collected (in
+     *             generational mode).
      */
-    final void gc() {
+    final void gc(boolean full) {
+        if (heapManager.isConcurrent()) {
+            concurrentGc();
+            return;
+        }
+
         // Prepare
         final VmBootHeap bootHeap = heapManager.getBootHeap();
         final VmDefaultHeap firstHeap = heapManager.getHeapList();
         stats.lastGCTime = System.currentTimeMillis();
+        // The first collection must be full, since the boot heap objects
+        // are not part of the old generation yet.
+        final boolean minor = generational && !full && (stats.fullCollections > 0)
+            && (minorSinceFull < MAX_MINOR_GCS);
+        final long freeBefore = heapManager.getFreeMemory();
 
         final boolean locking = (writeBarrier != null);
         final boolean verbose = (heapManager.getHeapFlags() & VmHeapManager.TRACE_BASIC) != 0;
+        startWorkers();
         helper.stopThreadsAtSafePoint();
         heapManager.setGcActive(true);
         try {
+            stats.lastWorkers = workPool.closeEnrollment();
+
             // Pre-GC verification
             if (debug) {
                 if (false) {
@@ -128,6 +219,14 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
                     verify(bootHeap, firstHeap);
                 }
             }
+
+            // Demote the old generation, so it is collected as well
+            if (generational && !minor) {
+                if (verbose) {
+                    heapManager.debug("<setwhite/>");
+                }
+                setWhite(bootHeap, firstHeap);
+            }
             
             // Mark
             //helper.stopThreadsAtSafePoint();
@@ -136,7 +235,7 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
                 if (verbose) {
                     heapManager.debug("<mark/>");
                 }
-                markHeap(bootHeap, firstHeap, locking);
+                markHeap(bootHeap, firstHeap, locking, minor);
             } finally {
                 //heapManager.setGcActive(false);
                 //helper.restartThreads();
@@ -165,22 +264,178 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
                 }
             }
         } finally {
+            workPool.endCycle();
             heapManager.setGcActive(false);
             heapManager.resetCurrentHeap();
             helper.restartThreads();
         }
 
+        // Update the statistics
+        updateWorkerStatistics();
+        stats.lastMinorGC = minor;
+        if (minor) {
+            stats.minorCollections++;
+            minorSinceFull++;
+        } else {
+            stats.fullCollections++;
+            minorSinceFull = 0;
+        }
+        stats.lastFreedBytes = heapManager.getFreeMemory() - freeBefore;
+
         // Start the finalization process
         heapManager.triggerFinalization();
     }
 
+    /**
+     * Do a mostly concurrent garbage collection cycle.
+     * The other threads are only stopped to take a snapshot of the roots
+     * and to remark the objects changed by them during the concurrent
+     * marking. While marking, the write barrier shades all stored
+     * references and new objects are allocated black. Sweeping is done
+     * while the other threads continue to allocate.
+     */
+    private void concurrentGc() {
+        // Prepare
+        final VmBootHeap bootHeap = heapManager.getBootHeap();
+        final VmDefaultHeap firstHeap = heapManager.getHeapList();
+        stats.lastGCTime = System.currentTimeMillis();
+        final boolean verbose = (heapManager.getHeapFlags() & VmHeapManager.TRACE_BASIC) != 0;
+        final long freeBefore = heapManager.getFreeMemory();
+
+        // Initial pause: shade the roots
+        if (verbose) {
+            heapManager.debug("<initial-mark/>");
+        }
+        long startTime = VmSystem.currentKernelMillis();
+        helper.stopThreadsAtSafePoint();
+        heapManager.setGcActive(true);
+        try {
+            heapManager.startConcurrentCycle();
+            writeBarrier.setActive(true);
+            markVisitor.reset();
+            markVisitor.setShadeOnly(true);
+            helper.visitAllRoots(markVisitor, heapManager);
+            markVisitor.setShadeOnly(false);
+        } finally {
+            heapManager.setGcActive(false);
+            helper.restartThreads();
+        }
+        long endTime = VmSystem.currentKernelMillis();
+        stats.lastInitialPauseDuration = endTime - startTime;
+
+        // Concurrent mark
+        if (verbose) {
+            heapManager.debug("<mark/>");
+        }
+        startTime = endTime;
+        stats.lastMarkIterations = 0;
+        long markedObjects = 0;
+        boolean again;
+        do {
+            stats.lastMarkIterations++;
+            markStack.reset();
+            writeBarrier.resetChanged();
+            markVisitor.reset();
+            markVisitor.setRootSet(false);
+            markGreyObjects(bootHeap, firstHeap, true);
+            markedObjects += markVisitor.getMarkedObjects();
+            again = markStack.isOverflow() || writeBarrier.isChanged();
+        } while (again && (stats.lastMarkIterations < MAX_CONCURRENT_MARK_ITERATIONS));
+
+        // Remark pause: mark from the roots again and finish
+        // all objects shaded by the write barrier.
+        if (verbose) {
+            heapManager.debug("<remark/>");
+        }
+        final long remarkStartTime = VmSystem.currentKernelMillis();
+        helper.stopThreadsAtSafePoint();
+        heapManager.setGcActive(true);
+        try {
+            do {
+                stats.lastMarkIterations++;
+                markStack.reset();
+                markVisitor.reset();
+                markVisitor.setRootSet(true);
+                helper.visitAllRoots(markVisitor, heapManager);
+                markVisitor.setRootSet(false);
+                markGreyObjects(bootHeap, firstHeap, false);
+                markedObjects += markVisitor.getMarkedObjects();
+            } while (markStack.isOverflow());
+            writeBarrier.setActive(false);
+        } finally {
+            heapManager.setGcActive(false);
+            helper.restartThreads();
+        }
+        endTime = VmSystem.currentKernelMillis();
+        stats.lastRemarkPauseDuration = endTime - remarkStartTime;
+        stats.lastMarkDuration = endTime - startTime;
+        stats.lastMarkedObjects = markedObjects;
+
+        // Concurrent sweep
+        if (verbose) {
+            heapManager.debug("<sweep/>");
+        }
+        startTime = endTime;
+        VmDefaultHeap heap = firstHeap;
+        while (heap != null) {
+            sweepVisitor.setCurrentHeap(heap);
+            heap.sweep(sweepVisitor);
+            heap = heapManager.getNextHeapToSweep(heap);
+            // This code has no yieldpoints, so give the other threads a chance
+            VmThread.yield();
+        }
+        endTime = VmSystem.currentKernelMillis();
+        stats.lastSweepDuration = endTime - startTime;
+
+        // Cleanup
+        if (verbose) {
+            heapManager.debug("<cleanup/>");
+        }
+        cleanup(bootHeap, firstHeap);
+        heapManager.resetCurrentHeap();
+
+        stats.fullCollections++;
+        stats.lastFreedBytes = heapManager.getFreeMemory() - freeBefore;
+
+        // Start the finalization process
+        heapManager.triggerFinalization();
+    }
+
+    /**
+     * Walk through all heaps and mark the children of all grey objects.
+     * The heaps are locked for each object, so this can be done while other
+     * threads are running.
+     *
+     * @param bootHeap
+     * @param firstHeap
+     * @param yield     If true, yield the processor after each heap. Must be
+     *                  false when the other threads are stopped.
+     */
+    private void markGreyObjects(VmBootHeap bootHeap, VmDefaultHeap firstHeap, boolean yield) {
+        final Word zero = Word.zero();
+        bootHeap.walk(markVisitor, true, zero, zero);
+        VmDefaultHeap heap = firstHeap;
+        while ((heap != null) && (!markStack.isOverflow())) {
+            if (yield) {
+                // This code has no yieldpoints, so give the other threads a chance
+                VmThread.yield();
+            }
+            heap.walk(markVisitor, true, zero, zero);
+            heap = heap.getNext();
+        }
+    }
+
     /**
      * Mark all live objects in the heap.
      *
      * @param bootHeap
      * @param firstHeap
+     * @param minor     If true, only mark the young generation. The old objects
+     *                  in the remembered set (the grey objects) are used as
+     *                  additional roots.
      */
-    private final void markHeap(VmBootHeap bootHeap, VmDefaultHeap firstHeap, boolean locking) {
+    private final void markHeap(VmBootHeap bootHeap, VmDefaultHeap firstHeap, boolean locking,
+                                boolean minor) {
 
         if (writeBarrier != null) {
             writeBarrier.setActive(true);
@@ -189,8 +444,10 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
         final long startTime = VmSystem.currentKernelMillis();
         stats.lastMarkIterations = 0;
         long markedObjects = 0;
+        long ownMarkedObjects = 0;
         boolean firstIteration = true;
         boolean wbChanged = false;
+        boolean overflow;
         do {
             // Do an iteration reset
             stats.lastMarkIterations++;
@@ -200,17 +457,21 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
             }
             markVisitor.reset();
             markVisitor.setRootSet(true);
+            // Let the workers take work from the mark stack
+            workPool.startRound();
             // Mark all roots
             helper.visitAllRoots(markVisitor, heapManager);
 //            statics.walk(markVisitor, resolver);
 //            helper.visitAllThreads(threadMarkVisitor);
             // Mark every object in the rootset
 //            bootHeap.walk(markVisitor, locking, 0, 0);
-            if (!firstIteration) {
+            if (!firstIteration || minor) {
                 // If there was an overflow in the last iteration,
                 // we must also walk through the other heap to visit
                 // all grey objects, since we must still mark
                 // their children.
+                // In a minor collection the grey objects are the remembered
+                // old objects, so they must be visited in the first iteration.
                 markVisitor.setRootSet(false);
                 bootHeap.walk(markVisitor, locking, Word.zero(), Word.zero());
                 VmDefaultHeap heap = firstHeap;
@@ -219,22 +480,39 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
                     heap = heap.getNext();
                 }
             }
+            // Help the workers until all work is done
+            workPool.drain(markVisitor, markStack);
+            workPool.endRound();
+            // Collect the results of this round
+            overflow = markStack.isOverflow();
+            int roundMarkedObjects = markVisitor.getMarkedObjects();
+            ownMarkedObjects += roundMarkedObjects;
+            for (GCWorkerThread worker : workers) {
+                if (worker.enrolled) {
+                    overflow |= worker.isOverflow();
+                    roundMarkedObjects += worker.getRoundMarkedObjects();
+                }
+            }
             // Test for an endless loop
-            if ((markVisitor.getMarkedObjects() == 0) && markStack.isOverflow()) {
+            if ((roundMarkedObjects == 0) && overflow) {
                 // Oops... an endless loop
                 Unsafe.debug("Endless loop in markHeap.... going to die");
                 helper.die("GCManager.markHeap");
             }
             // Do some cleanup
-            markedObjects += markVisitor.getMarkedObjects();
+            markedObjects += roundMarkedObjects;
             firstIteration = false;
             if (writeBarrier != null) {
                 wbChanged = writeBarrier.isChanged();
             }
-        } while (markStack.isOverflow() || wbChanged);
+        } while (overflow || wbChanged);
         final long endTime = VmSystem.currentKernelMillis();
         stats.lastMarkDuration = endTime - startTime;
         stats.lastMarkedObjects = markedObjects;
+        if (stats.workerMarkedObjects != null) {
+            stats.workerMarkedObjects[0] = ownMarkedObjects;
+            stats.workerMarkDurations[0] = stats.lastMarkDuration;
+        }
 
         if (writeBarrier != null) {
             writeBarrier.setActive(false);
@@ -243,21 +521,123 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
 
     /**
      * Sweep all heaps for dead objects.
+     * The heaps are divided between the GC thread and the GC workers.
      *
      * @param firstHeap
      */
     private void sweep(VmDefaultHeap firstHeap) {
         final long startTime = VmSystem.currentKernelMillis();
-        VmDefaultHeap heap = firstHeap;
-        while (heap != null) {
+        workPool.startSweep(firstHeap);
+        int sweptHeaps = 0;
+        VmDefaultHeap heap;
+        while ((heap = workPool.claimHeap()) != null) {
             heap.lock();
             sweepVisitor.setCurrentHeap(heap);
             heap.walk(sweepVisitor, false, Word.zero(), Word.zero());
             heap.unlock();
-            heap = heap.getNext();
+            sweptHeaps++;
         }
+        final long ownEndTime = VmSystem.currentKernelMillis();
+        // Wait for the workers to finish their heaps
+        workPool.endCycle();
         final long endTime = VmSystem.currentKernelMillis();
         stats.lastSweepDuration = endTime - startTime;
+        if (stats.workerSweptHeaps != null) {
+            stats.workerSweepDurations[0] = ownEndTime - startTime;
+            stats.workerSweptHeaps[0] = sweptHeaps;
+        }
+    }
+
+    /**
+     * Create GC workers for processors that have been started since the
+     * last cycle, wake up the workers and give them some time to join
+     * this cycle.
+     * Workers are not created when memory is low, since that would require
+     * allocating memory from the GC thread.
+     *
+     */
+    private void startWorkers() {
+        if (!heapManager.isLowOnMemory()) {
+            final List<org.jnode.vm.facade.VmProcessor> cpus = VmUtils.getVm().getProcessors();
+            final int cpuCount = cpus.size();
+            if (cpuCount > coveredProcessors) {
+                int newCount = workers.length;
+                for (int i = coveredProcessors; i < cpuCount; i++) {
+                    if (cpus.get(i) != gcProcessor) {
+                        newCount++;
+                    }
+                }
+                final GCWorkerThread[] newWorkers = new GCWorkerThread[newCount];
+                System.arraycopy(workers, 0, newWorkers, 0, workers.length);
+                int j = workers.length;
+                for (int i = coveredProcessors; i < cpuCount; i++) {
+                    final VmProcessor cpu = (VmProcessor) cpus.get(i);
+                    if (cpu != gcProcessor) {
+                        final GCWorkerThread worker = new GCWorkerThread(this, heapManager, arch, workPool,
+                            workerMonitor, cpu);
+                        worker.start();
+                        newWorkers[j++] = worker;
+                    }
+                }
+                stats.setWorkerCount(newCount);
+                workers = newWorkers;
+                coveredProcessors = cpuCount;
+            }
+        }
+
+        final int count = workers.length;
+        for (int i = 0; i < count; i++) {
+            workers[i].enrolled = false;
+        }
+        workPool.startCycle();
+        if (count > 0) {
+            workerMonitor.enter();
+            try {
+                workerCycle++;
+                workerMonitor.NotifyAll();
+            } finally {
+                workerMonitor.exit();
+            }
+            // The workers run on other processors, give them a chance
+            // to be scheduled.
+            for (int i = 0; (i < MAX_ENROLL_YIELDS) && (workPool.getEnrolled() < count); i++) {
+                VmThread.yield();
+            }
+        }
+    }
+
+    /**
+     * Copy the statistics of the GC workers of the last cycle.
+     */
+    private void updateWorkerStatistics() {
+        final GCWorkerThread[] workers = this.workers;
+        if (stats.workerMarkedObjects == null) {
+            return;
+        }
+        final int max = Math.min(workers.length, stats.workerMarkedObjects.length - 1);
+        for (int i = 0; i < max; i++) {
+            final GCWorkerThread worker = workers[i];
+            if (!worker.enrolled) {
+                stats.workerMarkedObjects[i + 1] = 0;
+                stats.workerMarkDurations[i + 1] = 0;
+                stats.workerSweepDurations[i + 1] = 0;
+                stats.workerSweptHeaps[i + 1] = 0;
+                continue;
+            }
+            stats.workerMarkedObjects[i + 1] = worker.markedObjects;
+            stats.workerMarkDurations[i + 1] = worker.markDuration;
+            stats.workerSweepDurations[i + 1] = worker.sweepDuration;
+            stats.workerSweptHeaps[i + 1] = worker.sweptHeaps;
+        }
+    }
+
+    /**
+     * Gets the number of the last cycle the GC workers have been woken up for.
+     *
+     * @return int
+     */
+    final int getWorkerCycle() {
+        return workerCycle;
     }
 
     /**
@@ -268,7 +648,9 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
      */
     private void cleanup(VmBootHeap bootHeap, VmDefaultHeap firstHeap) {
         final long startTime = VmSystem.currentKernelMillis();
-        bootHeap.walk(setWhiteVisitor, true, Word.zero(), Word.zero());
+        if (!generational) {
+            bootHeap.walk(setWhiteVisitor, true, Word.zero(), Word.zero());
+        }
         VmDefaultHeap heap = firstHeap;
         while (heap != null) {
             heap.defragment();
@@ -279,6 +661,23 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
         stats.lastCleanupDuration = endTime - startTime;
     }
 
+    /**
+     * Mark all objects in all heaps white, so the old generation is
+     * collected by the next mark and sweep.
+     *
+     * @param bootHeap
+     * @param firstHeap
+     */
+    private void setWhite(VmBootHeap bootHeap, VmDefaultHeap firstHeap) {
+        final Word zero = Word.zero();
+        bootHeap.walk(setWhiteVisitor, false, zero, zero);
+        VmDefaultHeap heap = firstHeap;
+        while (heap != null) {
+            heap.walk(setWhiteVisitor, false, zero, zero);
+            heap = heap.getNext();
+        }
+    }
+
     /**
      * Verify all heaps.
      *
@@ -61,6 +61,17 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
      */
     private boolean rootSet;
 
+    /**
+     * If true, visited white objects are only made grey, their children
+     * are not marked.
+     */
+    private boolean shadeOnly;
+
+    /**
+     * The pool used to share work with other marking threads, or null
+     */
+    private GCWorkPool workPool;
+
     private final BaseVmArchitecture arch;
 
 //    private final int slotSize;
@@ -97,7 +108,12 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
         // Check the current color first, since a stackoverflow of
         // the mark stack results in another iteration of visits.
         final int gcColor = VmMagic.getObjectColor(object);
-        if (gcColor == GC_BLACK) {
+        if (shadeOnly) {
+            if (gcColor == GC_WHITE) {
+                helper.atomicChangeObjectColor(object, gcColor, GC_GREY);
+            }
+            return true;
+        } else if (gcColor == GC_BLACK) {
             return true;
         } else if (rootSet || (gcColor == GC_GREY)) {
             switch (gcColor) {
@@ -150,7 +166,12 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
      */
     @NoInline
     protected final void mark() {
+        final GCWorkPool workPool = this.workPool;
         while (!stack.isEmpty()) {
+            if ((workPool != null) && workPool.isHungry() && (stack.getSize() > 1)) {
+                // Another thread is out of work
+                workPool.give(stack);
+            }
             final Object object = stack.pop();
             markedObjects++;
             VmType vmClass;
@@ -295,9 +316,10 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
     @Inline
     final void processChild(Object child) {
         final int gcColor = VmMagic.getObjectColor(child);
-        if (gcColor <= GC_WHITE) {
+        // Only the thread that makes the child grey pushes it, since the
+        // child may be reached by multiple marking threads at the same time.
+        if ((gcColor <= GC_WHITE) && helper.atomicChangeObjectColor(child, gcColor, GC_GREY)) {
             // Yellow or White
-            helper.atomicChangeObjectColor(child, gcColor, GC_GREY);
             try {
                 // TEST for a valid vmclass.
                 stack.push(child);
@@ -341,4 +363,25 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
     public void setRootSet(boolean b) {
         rootSet = b;
     }
+
+    /**
+     * Sets the pool used to share work with other marking threads.
+     *
+     * @param workPool The pool, or null if this visitor marks on its own.
+     */
+    @Inline
+    public void setWorkPool(GCWorkPool workPool) {
+        this.workPool = workPool;
+    }
+
+    /**
+     * Sets the shadeOnly attribute.
+     *
+     * @param b If true, visited white objects are only made grey, their
+     *          children are not marked.
+     */
+    @Inline
+    public void setShadeOnly(boolean b) {
+        shadeOnly = b;
+    }
 }
@@ -105,6 +105,26 @@ final class GCStack extends VmSystemObject implements Uninterruptible {
         return (stackPtr == 0);
     }
 
+    /**
+     * Gets the number of objects on this stack.
+     *
+     * @return int
+     */
+    @Inline
+    public final int getSize() {
+        return stackPtr;
+    }
+
+    /**
+     * Is this stack full?
+     *
+     * @return boolean
+     */
+    @Inline
+    public final boolean isFull() {
+        return (stackPtr == size);
+    }
+
     /**
      * Has a stackoverflow occurred?
      *
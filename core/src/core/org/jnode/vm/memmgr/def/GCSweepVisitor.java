@@ -42,8 +42,15 @@ final class GCSweepVisitor extends ObjectVisitor implements ObjectFlags,
      */
     private VmDefaultHeap currentHeap;
 
+    /**
+     * If true, surviving objects stay black, so they become part of the
+     * old generation.
+     */
+    private final boolean promote;
+
     public GCSweepVisitor(DefaultHeapManager heapMgr) {
         this.helper = heapMgr.getHelper();
+        this.promote = heapMgr.isGenerational();
     }
 
     /**
@@ -70,7 +77,7 @@ final class GCSweepVisitor extends ObjectVisitor implements ObjectFlags,
                     helper.atomicChangeObjectColor(object, gcColor, GC_YELLOW);
                 }
             }
-        } else if (gcColor != GC_YELLOW) {
+        } else if ((gcColor != GC_YELLOW) && !promote) {
             helper.atomicChangeObjectColor(object, gcColor, GC_WHITE);
         }
         return true;
@@ -22,6 +22,7 @@ package org.jnode.vm.memmgr.def;
 
 import org.jnode.vm.Unsafe;
 import org.jnode.vm.scheduler.Monitor;
+import org.jnode.vm.scheduler.VmProcessor;
 
 /**
  * @author Ewout Prangsma (epr@users.sourceforge.net)
@@ -43,6 +44,11 @@ final class GCThread extends Thread {
      */
     private boolean runNeeded;
 
+    /**
+     * Is a full (non-generational) GC run requested?
+     */
+    private boolean fullNeeded;
+
     /**
      * Is the GC currently active
      */
@@ -57,6 +63,8 @@ final class GCThread extends Thread {
         super("gc-thread");
         this.manager = manager;
         this.heapMonitor = heapMonitor;
+        // Stay on the boot processor, the GC workers are bound to the others.
+        ThreadHelper.getVmThreadKS(this).setRequiredProcessor(VmProcessor.current());
     }
 
     /**
@@ -64,14 +72,17 @@ final class GCThread extends Thread {
      *
      * @param waitToFinish If true, block until the run is ready, if false, return
      *                     immediately.
+     * @param full         If true, collect all generations, if false, a collection
+     *                     of the young generation is sufficient.
      */
-    public final void trigger(boolean waitToFinish) {
-        if (runNeeded && !waitToFinish) {
+    public final void trigger(boolean waitToFinish, boolean full) {
+        if (runNeeded && !waitToFinish && (fullNeeded || !full)) {
             return;
         }
         heapMonitor.enter();
         try {
             runNeeded = true;
+            fullNeeded |= full;
             heapMonitor.NotifyAll();
             if (waitToFinish) {
                 while (runNeeded || gcActive) {
@@ -95,6 +106,7 @@ final class GCThread extends Thread {
     public final void run() {
         while (true) {
             try {
+                final boolean full;
                 heapMonitor.enter();
                 try {
                     while (!runNeeded) {
@@ -102,12 +114,14 @@ final class GCThread extends Thread {
                     }
                     gcActive = true;
                     runNeeded = false;
+                    full = fullNeeded;
+                    fullNeeded = false;
                 } finally {
                     heapMonitor.exit();
                 }
 
                 // Now do the actual GC
-                manager.gc();
+                manager.gc(full);
 
                 // Notify that we're ready
                 gcActive = false;
@@ -0,0 +1,372 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+ 
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.annotation.Inline;
+import org.jnode.vm.objects.VmSystemObject;
+import org.jnode.vm.scheduler.SpinLock;
+import org.vmmagic.pragma.Uninterruptible;
+
+/**
+ * State shared between the GC thread and the GC worker threads during
+ * a parallel collection.
+ * <p/>
+ * Each participant marks from its own {@link GCStack}. When a participant
+ * runs out of work, it takes grey objects from this pool. Participants
+ * that still have work give half of their stack to this pool as soon as
+ * another participant is idle. A mark round is finished when all
+ * participants are idle and the pool is empty.
+ * <p/>
+ * During sweeping, the participants claim the heaps one by one.
+ */
+final class GCWorkPool extends VmSystemObject implements Uninterruptible {
+
+    /**
+     * No collection is active
+     */
+    static final int PHASE_IDLE = 0;
+
+    /**
+     * The GC thread is waiting for the workers to join
+     */
+    static final int PHASE_ENROLL = 1;
+
+    /**
+     * Mark rounds are being done
+     */
+    static final int PHASE_MARK = 2;
+
+    /**
+     * The heaps are being swept
+     */
+    static final int PHASE_SWEEP = 3;
+
+    /**
+     * Lock for the fields of this pool
+     */
+    private final SpinLock lock = new SpinLock();
+
+    /**
+     * The shared grey objects
+     */
+    private final Object[] pool = new Object[GCStack.DEFAULT_STACK_SIZE];
+
+    /**
+     * The number of objects in the pool
+     */
+    private int count;
+
+    /**
+     * The number of participants (including the GC thread) in the current cycle
+     */
+    private volatile int participants = 1;
+
+    /**
+     * The number of participants that are still marking
+     */
+    private volatile int active = 1;
+
+    /**
+     * The number of workers that have finished the current round or sweep
+     */
+    private volatile int finished;
+
+    /**
+     * The number of workers that have joined the current cycle
+     */
+    private volatile int enrolled;
+
+    /**
+     * The current phase
+     */
+    private volatile int phase = PHASE_IDLE;
+
+    /**
+     * The current mark round
+     */
+    private volatile int round;
+
+    /**
+     * The next heap to sweep
+     */
+    private VmDefaultHeap nextSweepHeap;
+
+    /**
+     * Open a new cycle for workers to join.
+     * Called by the GC thread.
+     */
+    final void startCycle() {
+        lock.lock();
+        enrolled = 0;
+        phase = PHASE_ENROLL;
+        lock.unlock();
+    }
+
+    /**
+     * Join the current cycle.
+     * Called by a worker.
+     *
+     * @return The mark round before the first round of this cycle, or -1
+     *         if the cycle was already closed for new workers.
+     */
+    final int enroll() {
+        final int result;
+        lock.lock();
+        if (phase == PHASE_ENROLL) {
+            enrolled++;
+            result = round;
+        } else {
+            result = -1;
+        }
+        lock.unlock();
+        return result;
+    }
+
+    /**
+     * Close the current cycle for new workers and start the mark phase.
+     * Called by the GC thread.
+     *
+     * @return The number of workers that have joined.
+     */
+    final int closeEnrollment() {
+        final int workers;
+        lock.lock();
+        workers = enrolled;
+        participants = workers + 1;
+        active = participants;
+        phase = PHASE_MARK;
+        lock.unlock();
+        return workers;
+    }
+
+    /**
+     * Start a new mark round.
+     * Called by the GC thread.
+     */
+    final void startRound() {
+        lock.lock();
+        count = 0;
+        finished = 0;
+        active = participants;
+        round++;
+        lock.unlock();
+    }
+
+    /**
+     * Wait until all workers have finished the current mark round.
+     * Called by the GC thread after its own {@link #drain(GCMarkVisitor, GCStack)}
+     * has returned.
+     */
+    final void endRound() {
+        waitForWorkers();
+        // Stop giving work to the pool until the next round.
+        active = participants;
+    }
+
+    /**
+     * Start sweeping the heaps, starting with the given heap.
+     * Called by the GC thread.
+     *
+     * @param firstHeap
+     */
+    final void startSweep(VmDefaultHeap firstHeap) {
+        lock.lock();
+        nextSweepHeap = firstHeap;
+        finished = 0;
+        phase = PHASE_SWEEP;
+        lock.unlock();
+    }
+
+    /**
+     * Claim the next heap to sweep.
+     *
+     * @return The heap, or null if all heaps have been claimed.
+     */
+    final VmDefaultHeap claimHeap() {
+        final VmDefaultHeap heap;
+        lock.lock();
+        heap = nextSweepHeap;
+        if (heap != null) {
+            nextSweepHeap = heap.getNext();
+        }
+        lock.unlock();
+        return heap;
+    }
+
+    /**
+     * End the current cycle. If the heaps are being swept, wait until
+     * all workers have finished sweeping.
+     * Called by the GC thread.
+     */
+    final void endCycle() {
+        if (phase == PHASE_SWEEP) {
+            waitForWorkers();
+        }
+        lock.lock();
+        phase = PHASE_IDLE;
+        participants = 1;
+        active = 1;
+        nextSweepHeap = null;
+        lock.unlock();
+    }
+
+    /**
+     * Report that the calling worker has finished the current round or sweep.
+     */
+    final void workerFinished() {
+        lock.lock();
+        finished++;
+        lock.unlock();
+    }
+
+    /**
+     * Spin until all workers have called {@link #workerFinished()}.
+     */
+    private void waitForWorkers() {
+        final int workers = participants - 1;
+        while (finished < workers) {
+            // Spin
+        }
+    }
+
+    /**
+     * Mark all objects reachable from the given stack and from this pool,
+     * until all participants are out of work.
+     *
+     * @param visitor
+     * @param stack   The stack used by the given visitor.
+     */
+    final void drain(GCMarkVisitor visitor, GCStack stack) {
+        do {
+            visitor.mark();
+        } while (takeOrWait(stack));
+    }
+
+    /**
+     * Is there a participant waiting for work?
+     *
+     * @return boolean
+     */
+    @Inline
+    final boolean isHungry() {
+        return (active < participants);
+    }
+
+    /**
+     * Move half of the objects of the given stack into this pool.
+     *
+     * @param stack
+     */
+    final void give(GCStack stack) {
+        lock.lock();
+        int n = stack.getSize() / 2;
+        while ((n > 0) && (count < pool.length)) {
+            pool[count++] = stack.pop();
+            n--;
+        }
+        lock.unlock();
+    }
+
+    /**
+     * Take work from this pool. If the pool is empty, this participant
+     * becomes idle until there is new work or until all participants
+     * are idle.
+     *
+     * @param stack The stack to move the work to.
+     * @return True if work has been taken, false if the round is finished.
+     */
+    private boolean takeOrWait(GCStack stack) {
+        lock.lock();
+        if (take(stack)) {
+            lock.unlock();
+            return true;
+        }
+        active--;
+        lock.unlock();
+
+        while (true) {
+            if (count > 0) {
+                lock.lock();
+                if (take(stack)) {
+                    active++;
+                    lock.unlock();
+                    return true;
+                }
+                lock.unlock();
+            } else if (active == 0) {
+                // All participants are idle, so no new work can arrive
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Move some objects from this pool onto the given stack.
+     * The lock must be held.
+     *
+     * @param stack
+     * @return True if at least one object has been moved.
+     */
+    private boolean take(GCStack stack) {
+        if (count == 0) {
+            return false;
+        }
+        int n = (count + 1) / 2;
+        while ((n > 0) && !stack.isFull()) {
+            count--;
+            stack.push(pool[count]);
+            pool[count] = null;
+            n--;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the current phase.
+     *
+     * @return One of the PHASE_xxx constants.
+     */
+    @Inline
+    final int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Gets the current mark round.
+     *
+     * @return int
+     */
+    @Inline
+    final int getRound() {
+        return round;
+    }
+
+    /**
+     * Gets the number of workers that have joined the current cycle.
+     *
+     * @return int
+     */
+    @Inline
+    final int getEnrolled() {
+        return enrolled;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+ 
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.annotation.Uninterruptible;
+import org.jnode.vm.BaseVmArchitecture;
+import org.jnode.vm.Unsafe;
+import org.jnode.vm.VmSystem;
+import org.jnode.vm.scheduler.Monitor;
+import org.jnode.vm.scheduler.VmProcessor;
+import org.vmmagic.unboxed.Word;
+
+/**
+ * Thread that helps the GC thread to mark and sweep on another processor.
+ * Each worker is bound to a single processor.
+ */
+final class GCWorkerThread extends Thread {
+
+    /**
+     * The manager
+     */
+    private final GCManager manager;
+
+    /**
+     * The shared work pool
+     */
+    private final GCWorkPool workPool;
+
+    /**
+     * Monitor used to wait for the next cycle
+     */
+    private final Monitor workerMonitor;
+
+    /**
+     * My mark stack
+     */
+    private final GCStack markStack;
+
+    /**
+     * My mark visitor
+     */
+    private final GCMarkVisitor markVisitor;
+
+    /**
+     * My sweep visitor
+     */
+    private final GCSweepVisitor sweepVisitor;
+
+    /**
+     * The last cycle this worker has seen
+     */
+    private int cycle;
+
+    /**
+     * Did this worker join the last cycle?
+     * Cleared by the GC thread before every cycle.
+     */
+    boolean enrolled;
+
+    /**
+     * Number of objects marked in the last cycle
+     */
+    long markedObjects;
+
+    /**
+     * Time spent marking in the last cycle
+     */
+    long markDuration;
+
+    /**
+     * Time spent sweeping in the last cycle
+     */
+    long sweepDuration;
+
+    /**
+     * Number of heaps swept in the last cycle
+     */
+    int sweptHeaps;
+
+    /**
+     * Initialize this instance.
+     *
+     * @param manager
+     * @param heapManager
+     * @param arch
+     * @param workPool
+     * @param workerMonitor
+     * @param processor     The processor this worker is bound to
+     */
+    public GCWorkerThread(GCManager manager, DefaultHeapManager heapManager, BaseVmArchitecture arch,
+                          GCWorkPool workPool, Monitor workerMonitor, VmProcessor processor) {
+        super("gc-worker-" + processor.getId());
+        this.manager = manager;
+        this.workPool = workPool;
+        this.workerMonitor = workerMonitor;
+        this.markStack = new GCStack();
+        this.markVisitor = new GCMarkVisitor(heapManager, arch, markStack);
+        this.markVisitor.setWorkPool(workPool);
+        this.sweepVisitor = new GCSweepVisitor(heapManager);
+        ThreadHelper.getVmThreadKS(this).setRequiredProcessor(processor);
+        setDaemon(true);
+    }
+
+    /**
+     * Wait for a cycle and help with it.
+     *
+     * @see java.lang.Runnable#run()
+     */
+    public final void run() {
+        while (true) {
+            try {
+                workerMonitor.enter();
+                try {
+                    while (manager.getWorkerCycle() == cycle) {
+                        workerMonitor.Wait(0L);
+                    }
+                    cycle = manager.getWorkerCycle();
+                } finally {
+                    workerMonitor.exit();
+                }
+                work();
+            } catch (Throwable ex) {
+                try {
+                    Unsafe.debug(ex.getMessage());
+                    Unsafe.debug('\n');
+                    Unsafe.debugStackTrace(ex);
+                    Unsafe.die("GCWorkerThread failed");
+                } catch (Throwable ex2) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Join the current cycle and do the mark rounds and sweeping of it.
+     * This method spins while waiting for the GC thread, it must not be
+     * interrupted, since the other threads are stopped.
+     */
+    @Uninterruptible
+    private void work() {
+        int round = workPool.enroll();
+        if (round < 0) {
+            // Too late for this cycle
+            return;
+        }
+        enrolled = true;
+        markedObjects = 0;
+        markDuration = 0;
+        sweepDuration = 0;
+        sweptHeaps = 0;
+
+        while (workPool.getPhase() == GCWorkPool.PHASE_ENROLL) {
+            // Wait for the GC thread to stop the other threads
+        }
+
+        while (workPool.getPhase() == GCWorkPool.PHASE_MARK) {
+            if (workPool.getRound() != round) {
+                round = workPool.getRound();
+                final long startTime = VmSystem.currentKernelMillis();
+                markStack.reset();
+                markVisitor.reset();
+                workPool.drain(markVisitor, markStack);
+                markedObjects += markVisitor.getMarkedObjects();
+                markDuration += VmSystem.currentKernelMillis() - startTime;
+                workPool.workerFinished();
+            }
+        }
+
+        if (workPool.getPhase() == GCWorkPool.PHASE_SWEEP) {
+            final long startTime = VmSystem.currentKernelMillis();
+            VmDefaultHeap heap;
+            while ((heap = workPool.claimHeap()) != null) {
+                heap.lock();
+                sweepVisitor.setCurrentHeap(heap);
+                heap.walk(sweepVisitor, false, Word.zero(), Word.zero());
+                heap.unlock();
+                sweptHeaps++;
+            }
+            sweepDuration = VmSystem.currentKernelMillis() - startTime;
+            workPool.workerFinished();
+        }
+    }
+
+    /**
+     * Has the mark stack of this worker overflowed in the last mark round?
+     *
+     * @return boolean
+     */
+    final boolean isOverflow() {
+        return markStack.isOverflow();
+    }
+
+    /**
+     * Gets the number of objects marked in the last mark round.
+     *
+     * @return int
+     */
+    final int getRoundMarkedObjects() {
+        return markVisitor.getMarkedObjects();
+    }
+}
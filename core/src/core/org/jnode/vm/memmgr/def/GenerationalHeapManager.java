@@ -0,0 +1,50 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+ 
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.vm.classmgr.VmClassLoader;
+import org.jnode.vm.memmgr.HeapHelper;
+
+/**
+ * Generational variant of the default heap manager.
+ * <p/>
+ * Objects are never moved, since the stacks are scanned conservatively.
+ * Instead, objects that survive a collection stay black and form the old
+ * generation. Young generation collections only trace from the roots and
+ * from the remembered set: the old objects that have been turned grey by
+ * the {@link DefaultWriteBarrier} when a reference to a young object was
+ * stored in them. Every few collections, or when memory is low, all
+ * generations are collected.
+ */
+public final class GenerationalHeapManager extends DefaultHeapManager {
+
+    /**
+     * Initialize this instance.
+     *
+     * @param loader
+     * @param helper
+     */
+    public GenerationalHeapManager(VmClassLoader loader, HeapHelper helper)
+        throws ClassNotFoundException {
+        super(loader, helper, true, false);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.vm.objects.VmSystemObject;
+
+/**
+ * Processor specific data of the default heap manager.
+ * It holds the thread local allocation buffer (TLAB) of a processor.
+ * <p/>
+ * The fields of this class may only be accessed by the processor that owns
+ * this data, with rescheduling disabled.
+ *
+ * @author epr
+ */
+final class ProcessorHeapData extends VmSystemObject {
+
+    /**
+     * The heap that contains the allocation buffer
+     */
+    VmDefaultHeap tlabHeap;
+
+    /**
+     * The object that holds the remaining space of the allocation buffer.
+     * Null if this processor has no allocation buffer.
+     */
+    Object tlabFiller;
+}
@@ -60,6 +60,10 @@ abstract class VmAbstractHeap extends SpinLock implements Uninterruptible {
      * Size of an object header in bytes
      */
     protected int headerSize;
+    /**
+     * Size of a reference slot (and a Word) in bytes
+     */
+    protected int slotSize;
     /**
      * Offset of the flags field in an object header
      */
@@ -90,6 +94,7 @@ abstract class VmAbstractHeap extends SpinLock implements Uninterruptible {
      * @param slotSize
      */
     protected final void initializeAbstract(int slotSize) {
+        this.slotSize = slotSize;
         this.headerSize = ObjectLayout.HEADER_SLOTS * slotSize;
         this.flagsOffset = Offset.fromIntSignExtend(ObjectLayout.FLAGS_SLOT * slotSize);
         this.tibOffset = Offset.fromIntSignExtend(ObjectLayout.TIB_SLOT * slotSize);
@@ -142,6 +147,8 @@ abstract class VmAbstractHeap extends SpinLock implements Uninterruptible {
 
     /**
      * Change a bit in the allocation bitmap.
+     * The bit is changed atomically, since objects carved out of a thread local
+     * allocation buffer are marked without holding the heap lock.
      *
      * @param object
      * @param on
@@ -155,16 +162,17 @@ abstract class VmAbstractHeap extends SpinLock implements Uninterruptible {
 
         final int offset = addr.toWord().sub(start.toWord()).toInt();
         final int bit = offset / ObjectLayout.OBJECT_ALIGN;
-        final Offset idx = Offset.fromIntZeroExtend(bit / 8);
-        final int mask = 1 << (bit & 7);
-        final Address bitmapPtr = this.allocationBitmapPtr;
-        int value = bitmapPtr.loadByte(idx);
+        final int byteIdx = bit / 8;
+        // Locate the bit within the (little endian) word that contains it
+        final int wordIdx = byteIdx & ~(slotSize - 1);
+        final int shift = ((byteIdx - wordIdx) * 8) + (bit & 7);
+        final Address wordPtr = this.allocationBitmapPtr.add(wordIdx);
+        final Word mask = Word.one().lsh(shift);
         if (on) {
-            value |= mask;
+            wordPtr.atomicOr(mask);
         } else {
-            value &= ~mask;
+            wordPtr.atomicAnd(mask.not());
         }
-        bitmapPtr.store((byte) value, idx);
     }
 
     /**
@@ -44,9 +44,26 @@ import org.vmmagic.unboxed.Word;
 final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
 
     /**
-     * Offset within this heap of the next free memory block
+     * Number of size class bins for free blocks.
+     * Bin <code>i</code> (i &lt; LARGE_BIN) holds the free blocks with a size in
+     * [8 &lt;&lt; i, 16 &lt;&lt; i), the last bin holds all larger free blocks.
      */
-    private Address nextFreePtr;
+    private static final int NR_BINS = 10;
+
+    /**
+     * Index of the bin for large free blocks (4Kb and up)
+     */
+    private static final int LARGE_BIN = NR_BINS - 1;
+
+    /**
+     * Start address of the table with the heads of the free lists
+     */
+    private Address freeListsPtr;
+
+    /**
+     * The free lists table as object, so we won't throw it away in a GC cycle
+     */
+    private Object freeLists;
 
     /**
      * The allocation bitmap as object, so we won't throw it away in a GC cycle
@@ -68,6 +85,17 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
      */
     private VmDefaultHeap next;
 
+    /**
+     * Is a concurrent sweep of this heap pending or in progress?
+     */
+    private boolean sweepPending;
+
+    /**
+     * Objects at or above this address have not been swept yet by the
+     * pending concurrent sweep.
+     */
+    private Address sweepCursor;
+
     /**
      * Initialize this instance
      *
@@ -171,20 +199,126 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
         helper.clear(allocationBitmapPtr, allocationBitmapSize);
         this.allocationBitmap = allocationBitmapPtr.toObjectReference().toObject();
 
+        // Initialize the free lists table
+        final int freeListsSize = ObjectLayout.objectAlign(NR_BINS * slotSize);
+        this.freeListsPtr = firstObject;
+        final Address listsPtr = this.freeListsPtr;
+        // Make the table an object, so it is easy to manipulate.
+        listsPtr.store(Word.fromIntZeroExtend(freeListsSize), sizeOffset);
+        listsPtr.store(Word.fromIntZeroExtend(GC_DEFAULT_COLOR), flagsOffset);
+        listsPtr.store(ObjectReference.fromObject(VmType.getObjectClass().getTIB()), tibOffset);
+        firstObject = firstObject.add(freeListsSize + headerSize);
+        helper.clear(freeListsPtr, freeListsSize);
+        this.freeLists = freeListsPtr.toObjectReference().toObject();
+
         // Mark this heap in the allocation bitmap
         setAllocationBit(this, true);
         // Mark the allocation bitmap in the allocation bitmap
         setAllocationBit(allocationBitmap, true);
+        // Mark the free lists table in the allocation bitmap
+        setAllocationBit(freeLists, true);
 
         // Initialize the remaining space as free object.
         final Word remainingSize = end.toWord().sub(firstObject.toWord());
         final Address ptr = firstObject;
         ptr.store(remainingSize, sizeOffset);
         ptr.store(ObjectReference.fromObject(FREE), tibOffset);
-        this.nextFreePtr = ptr;
+        addFreeBlock(ptr, remainingSize);
         this.freeSize = remainingSize.toExtent();
     }
 
+    /**
+     * Gets the index of the bin that holds free blocks of the given size.
+     *
+     * @param size The size of the free block in bytes (excluding the header)
+     * @return the bin index
+     */
+    @Inline
+    private static int getBinIndex(Word size) {
+        int bin = 0;
+        Word v = size.rshl(4);
+        while (!v.isZero() && (bin < LARGE_BIN)) {
+            v = v.rshl(1);
+            bin++;
+        }
+        return bin;
+    }
+
+    /**
+     * Gets the offset of the head of the given bin in the free lists table.
+     *
+     * @param bin
+     * @return the offset
+     */
+    @Inline
+    private Offset getBinOffset(int bin) {
+        return Offset.fromIntZeroExtend(bin * slotSize);
+    }
+
+    /**
+     * Add a free block to the front of the free list of its size class.
+     * The link to the next free block is stored in the first slot of the free
+     * block. Blocks that are too small to hold a link are not added; they are
+     * recovered when they are joined with an adjacent free block.
+     * The heap must be locked, or not yet be in use.
+     *
+     * @param ptr  The address of the free block
+     * @param size The size of the free block (excluding the header)
+     */
+    @Inline
+    private void addFreeBlock(Address ptr, Word size) {
+        if (size.LT(Word.fromIntZeroExtend(slotSize))) {
+            return;
+        }
+        final Offset binOffset = getBinOffset(getBinIndex(size));
+        ptr.store(freeListsPtr.loadAddress(binOffset));
+        freeListsPtr.store(ptr, binOffset);
+    }
+
+    /**
+     * Remove and return a free block of at least the given size from the
+     * free lists. The small bins are only inspected at their head, so the
+     * cost of this method does not depend on the number of free blocks,
+     * except for the list of large free blocks, which is searched first-fit.
+     * The heap must be locked.
+     *
+     * @param size The minimum size of the free block (excluding the header)
+     * @return The address of the free block, or zero if none was found.
+     */
+    private Address removeFreeBlock(Word size) {
+        final Offset sizeOffset = this.sizeOffset;
+        final Address lists = this.freeListsPtr;
+
+        // Try the small bins, starting with the bin of the requested size.
+        for (int bin = getBinIndex(size); bin < LARGE_BIN; bin++) {
+            final Offset binOffset = getBinOffset(bin);
+            final Address ptr = lists.loadAddress(binOffset);
+            if (!ptr.isZero() && size.LE(ptr.loadWord(sizeOffset))) {
+                lists.store(ptr.loadAddress(), binOffset);
+                return ptr;
+            }
+        }
+
+        // Search the large free blocks
+        final Offset largeOffset = getBinOffset(LARGE_BIN);
+        Address prev = Address.zero();
+        Address ptr = lists.loadAddress(largeOffset);
+        while (!ptr.isZero()) {
+            final Address next = ptr.loadAddress();
+            if (size.LE(ptr.loadWord(sizeOffset))) {
+                if (prev.isZero()) {
+                    lists.store(next, largeOffset);
+                } else {
+                    prev.store(next);
+                }
+                return ptr;
+            }
+            prev = ptr;
+            ptr = next;
+        }
+        return Address.zero();
+    }
+
     /**
      * Allocate a new instance for the given class. Not that this method cannot
      * be synchronized, since the synchronization is handled in VmHeap.
@@ -195,10 +329,6 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
      */
     protected Object alloc(VmClassType<?> vmClass, int alignedSize) {
 
-        if (nextFreePtr.EQ(Address.zero())) { /* This heap is full */
-            return null;
-        }
-
         final Offset tibOffset = this.tibOffset;
         final Word headerSize = Word.fromIntZeroExtend(this.headerSize);
         final Offset flagsOffset = this.flagsOffset;
@@ -210,62 +340,46 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
         if (tib == null) {
             throw new IllegalArgumentException("vmClass.TIB is null");
         }
-        //final int size = getSize();
-        Address objectPtr = Address.zero();
+        final Address objectPtr;
         lock();
         try {
-            // Search for the first free block that is large enough
-            //Screen.debug("a");
-            while (objectPtr == null) {
-                final Address ptr = nextFreePtr;
-                final Word objSize = ptr.loadWord(sizeOffset);
-                final Object objVmt = ptr.loadObjectReference(tibOffset);
-                final Address nextPtr = ptr.add(objSize.add(headerSize));
-                if ((objVmt == FREE) && alignedSizeW.LE(objSize)) {
-                    objectPtr = ptr;
-                } else {
-                    if (!inHeap(nextPtr)) {
-                        // No large enough free space has been found
-                        // A collect may recover smaller free spaces in this
-                        // heap, but we leave that to a GC iteration.
-                        nextFreePtr = Address.zero();
-                        //Screen.debug("B");
-                        return null;
-                    } else {
-                        this.nextFreePtr = nextPtr;
-                    }
-                }
+            // Take a free block that is large enough from the free lists
+            objectPtr = removeFreeBlock(alignedSizeW);
+            if (objectPtr.isZero()) {
+                // No large enough free space has been found
+                // A collect may recover smaller free spaces in this
+                // heap, but we leave that to a GC iteration.
+                return null;
             }
-            //Screen.debug("A");
 
             final Word curFreeSize = objectPtr.loadWord(sizeOffset);
             if (curFreeSize.GT(totalSize)) {
                 // Block is larger then we need, split it up.
                 final Word newFreeSize = curFreeSize.sub(totalSize);
-                /*if (newFreeSize <= headerSize) {
-                    Unsafe.debug("Block splitup failed");
-                    Unsafe.debug("\ncurFreeSize "); Unsafe.debug(curFreeSize);
-                    Unsafe.debug("\ntotalSize   "); Unsafe.debug(totalSize);
-                    Unsafe.debug("\nnewFreeSize "); Unsafe.debug(newFreeSize);
-                    Unsafe.debug("\nheaderSize  "); Unsafe.debug(headerSize);
-                    throw new Error("Block splitup failed");
-                }*/
                 final Address newFreePtr = objectPtr.add(totalSize);
                 // Set the header for the remaining free block
                 newFreePtr.store(newFreeSize, sizeOffset);
                 newFreePtr.store(0, flagsOffset);
                 newFreePtr.store(ObjectReference.fromObject(FREE), tibOffset);
-                // Set the next free offset
-                nextFreePtr = newFreePtr;
+                // Return the remainder to the free lists
+                addFreeBlock(newFreePtr, newFreeSize);
             } else {
                 // The block is not large enough to split up, make the
                 // new object the size of the free block.
                 alignedSizeW = curFreeSize;
             }
 
-            // Create the object header
+            // Create the object header.
+            // Objects that the pending concurrent sweep has yet to visit
+            // must be black, since they have not been marked.
+            final int color;
+            if (sweepPending && objectPtr.GE(sweepCursor)) {
+                color = GC_BLACK;
+            } else {
+                color = GC_DEFAULT_COLOR;
+            }
             objectPtr.store(alignedSizeW, sizeOffset);
-            objectPtr.store(0, flagsOffset);
+            objectPtr.store(Word.fromIntZeroExtend(color), flagsOffset);
             objectPtr.store(ObjectReference.fromObject(tib), tibOffset);
             // Mark the object in the allocation bitmap
             setAllocationBit(objectPtr, true);
@@ -282,8 +396,53 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
         return objectPtr.toObjectReference().toObject();
     }
 
+    /**
+     * Allocate a new instance for the given class from the end of a thread
+     * local allocation buffer. The buffer is an ordinary object on this heap
+     * (the filler) that is shrunk by every allocation, so the heap remains
+     * walkable at all times.
+     * <p/>
+     * This method does not lock the heap. The caller must make sure that the
+     * filler is used by a single processor only, with rescheduling disabled.
+     *
+     * @param filler      The object that holds the remaining buffer space.
+     * @param vmClass
+     * @param alignedSize
+     * @return Object Null if the buffer has not enough space left.
+     */
+    protected final Object allocFromTlab(Object filler, VmClassType<?> vmClass, int alignedSize) {
+        final Offset sizeOffset = this.sizeOffset;
+        final Word alignedSizeW = Word.fromIntZeroExtend(alignedSize);
+        final Word totalSize = alignedSizeW.add(Word.fromIntZeroExtend(headerSize));
+
+        final Address fillerPtr = ObjectReference.fromObject(filler).toAddress();
+        final Word fillerSize = fillerPtr.loadWord(sizeOffset);
+        if (fillerSize.LT(totalSize)) {
+            return null;
+        }
+        final Object tib = vmClass.getTIB();
+        if (tib == null) {
+            throw new IllegalArgumentException("vmClass.TIB is null");
+        }
+
+        // The new object occupies the last totalSize bytes of the filler.
+        // The buffer has been cleared when it was allocated, so there is
+        // no need to clear the object.
+        final Word newFillerSize = fillerSize.sub(totalSize);
+        final Address objectPtr = fillerPtr.add(newFillerSize).add(headerSize);
+        objectPtr.store(alignedSizeW, sizeOffset);
+        objectPtr.store(Word.fromIntZeroExtend(GC_DEFAULT_COLOR), flagsOffset);
+        objectPtr.store(ObjectReference.fromObject(tib), tibOffset);
+        setAllocationBit(objectPtr, true);
+        fillerPtr.store(newFillerSize, sizeOffset);
+
+        return objectPtr.toObjectReference().toObject();
+    }
+
     /**
      * Mark the given object as free space.
+     * The space is not added to the free lists, that is done by the next
+     * call to {@link #defragment()}.
      *
      * @param object
      */
@@ -305,7 +464,61 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
     }
 
     /**
-     * Join all adjacent free spaces.
+     * Prepare this heap for a concurrent mark and sweep cycle.
+     * Until this heap has been swept, all objects allocated on it
+     * are black.
+     */
+    protected final void startSweepCycle() {
+        lock();
+        try {
+            this.sweepCursor = start;
+            this.sweepPending = true;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Let all objects in this heap make a visit to the given sweep visitor,
+     * while other threads continue to allocate on this heap.
+     * The heap is locked for each object and the sweep cursor is advanced
+     * past every visited object.
+     *
+     * @param visitor
+     */
+    protected final void sweep(ObjectVisitor visitor) {
+        final Word headerSize = Word.fromIntZeroExtend(this.headerSize);
+        final Offset sizeOffset = this.sizeOffset;
+        final Offset tibOffset = this.tibOffset;
+        Word offset = headerSize;
+        final Word size = Word.fromIntZeroExtend(getSize());
+
+        while (offset.LT(size)) {
+            lock();
+            try {
+                final Address ptr = start.add(offset);
+                final Object tib = ptr.loadObjectReference(tibOffset);
+                final Word objSize = ptr.loadWord(sizeOffset);
+                if (tib != FREE) {
+                    visitor.visit(ptr.toObjectReference().toObject());
+                }
+                offset = offset.add(objSize).add(headerSize);
+                sweepCursor = start.add(offset);
+            } finally {
+                unlock();
+            }
+        }
+
+        lock();
+        try {
+            sweepPending = false;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Join all adjacent free spaces and rebuild the free lists.
      *
      * @throws UninterruptiblePragma
      */
@@ -319,15 +532,15 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
 
         lock();
         try {
-            Address firstFreePtr = Address.zero();
+            // Clear the free lists
+            for (int bin = 0; bin < NR_BINS; bin++) {
+                freeListsPtr.store(Address.zero(), getBinOffset(bin));
+            }
             while (offset.LT(size)) {
                 final Address ptr = start.add(offset);
                 final Word objSize = ptr.loadWord(sizeOffset);
                 final Word nextOffset = offset.add(objSize).add(headerSize);
                 final Object vmt = ptr.loadObjectReference(tibOffset);
-                if ((firstFreePtr == null) && (vmt == FREE)) {
-                    firstFreePtr = ptr;
-                }
                 if ((vmt == FREE) && (nextOffset.LT(size))) {
                     final Object nextVmt;
                     final Address nextObjectPtr = start.add(nextOffset);
@@ -341,14 +554,16 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
                         // another next free object, which we will combine
                         // in the next loop.
                     } else {
+                        addFreeBlock(ptr, objSize);
                         offset = nextOffset;
                     }
                 } else {
+                    if (vmt == FREE) {
+                        addFreeBlock(ptr, objSize);
+                    }
                     offset = nextOffset;
                 }
             }
-            // Set the address of the next free block, to the first free block
-            this.nextFreePtr = firstFreePtr;
         } finally {
             unlock();
         }
@@ -29,6 +29,7 @@ import org.jnode.annotation.MagicPermission;
 import org.jnode.annotation.NoFieldAlignments;
 import org.jnode.annotation.NoInline;
 import org.jnode.annotation.Uninterruptible;
+import org.jnode.vm.classmgr.VmType;
 import org.vmmagic.unboxed.Address;
 import org.vmmagic.unboxed.ObjectReference;
 
@@ -70,6 +71,42 @@ public final class Monitor {
      */
     private Monitor previous;
 
+    /**
+     * The maximum number of cpu cycles a thread spins before it waits
+     * for this monitor.
+     */
+    private static final long MAX_SPIN_CYCLES = 20000;
+
+    /**
+     * The type of the object this monitor belongs to, or null.
+     */
+    private VmType<?> objectType;
+
+    /**
+     * Number of times a thread found this monitor owned by another thread.
+     */
+    private int contentionCount;
+
+    /**
+     * Number of contended enters that obtained this monitor by spinning.
+     */
+    private int spinAcquireCount;
+
+    /**
+     * The cpu cycle counter at the time the owner obtained this monitor.
+     */
+    private long acquireCycles;
+
+    /**
+     * Moving average of the number of cpu cycles this monitor is held.
+     */
+    private long avgHoldCycles;
+
+    /**
+     * Is this monitor registered in the contention table of the MonitorManager?
+     */
+    boolean contentionRegistered;
+
     /**
      * Create a new instance
      */
@@ -93,6 +130,7 @@ public final class Monitor {
         if (owner != null)
             addToOwner();
         this.lockCount = lockCount;
+        this.acquireCycles = Unsafe.getCpuCycles();
         if (lockCount < 1) {
             throw new IllegalArgumentException("LockCount must be >= 1");
         }
@@ -141,16 +179,29 @@ public final class Monitor {
     private final void enterSlowPath() {
         // No yet owner, try to obtain the lock
         boolean loop = true;
+        boolean contended = false;
         final Address lcAddr = getLCAddress();
         while (loop) {
             // Get current thread
             final VmThread current = VmMagic.currentProcessor().getCurrentThread();
             // Try to claim this monitor
-            if (lcAddr.attempt(0, 1)) {
+            boolean acquired = lcAddr.attempt(0, 1);
+            if (!acquired && !contended) {
+                // Owned by another thread, try spinning before waiting
+                contended = true;
+                contentionCount++;
+                MonitorManager.contentionDetected(this, contentionCount);
+                if (spin(lcAddr)) {
+                    spinAcquireCount++;
+                    acquired = true;
+                }
+            }
+            if (acquired) {
                 loop = false;
                 dropFromOwner();
                 this.owner = current;
                 addToOwner();
+                this.acquireCycles = Unsafe.getCpuCycles();
             } else {
                 // Claim the lock for this monitor
                 lock();
@@ -168,6 +219,43 @@ public final class Monitor {
         }
     }
 
+    /**
+     * Spin for a while, trying to obtain this monitor, before the current
+     * thread is suspended. The time spent spinning is based on the average
+     * time the monitor is held. There is no spinning on a single processor
+     * system, or when the monitor is usually held longer than
+     * {@link #MAX_SPIN_CYCLES}.
+     *
+     * @param lcAddr The address of lockCount
+     * @return True if the monitor has been obtained, false otherwise.
+     */
+    private final boolean spin(Address lcAddr) {
+        final long avg = this.avgHoldCycles;
+        if ((avg > MAX_SPIN_CYCLES)
+            || (VmMagic.currentProcessor().getScheduler().getProcessorCount() < 2)) {
+            return false;
+        }
+        // Spin at least a little while for monitors that have not been
+        // released yet, so the average can be determined.
+        final long limit = Math.max(2 * avg, MAX_SPIN_CYCLES / 16);
+        final long start = Unsafe.getCpuCycles();
+        while (Unsafe.getCpuCycles() - start < limit) {
+            if ((lockCount == 0) && lcAddr.attempt(0, 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update the average hold time, when the owner releases this monitor.
+     */
+    @Inline
+    private final void updateHoldTime() {
+        final long hold = Unsafe.getCpuCycles() - acquireCycles;
+        avgHoldCycles += (hold - avgHoldCycles) >> 3;
+    }
+
     /**
      * Giveup this monitor.
      *
@@ -186,6 +274,7 @@ public final class Monitor {
             lockCount--;
         } else {
             // Monitor is locked by current thread and will decrement to 0.
+            updateHoldTime();
             lock();
             try {
                 wakeupWaitingThreads(enterQueue, true);
@@ -277,6 +366,7 @@ public final class Monitor {
                 current.wakeupTime = VmSystem.currentKernelMillis() + timeout;
                 VmMagic.currentProcessor().getScheduler().addToSleepQueue(current);
             }
+            updateHoldTime();
             dropFromOwner();
             owner = null;
             lockCount = 0;
@@ -402,6 +492,61 @@ public final class Monitor {
         return owner;
     }
 
+    /**
+     * Sets the type of the object this monitor belongs to.
+     *
+     * @param objectType
+     */
+    final void setObjectType(VmType<?> objectType) {
+        this.objectType = objectType;
+    }
+
+    /**
+     * Gets the type of the object this monitor belongs to.
+     *
+     * @return the type of the object, or null if not known.
+     */
+    final VmType<?> getObjectType() {
+        return objectType;
+    }
+
+    /**
+     * Gets the number of times a thread found this monitor owned by another
+     * thread.
+     *
+     * @return the contention count
+     */
+    final int getContentionCount() {
+        return contentionCount;
+    }
+
+    /**
+     * Gets the number of contended enters that obtained this monitor by
+     * spinning instead of waiting.
+     *
+     * @return the spin acquire count
+     */
+    final int getSpinAcquireCount() {
+        return spinAcquireCount;
+    }
+
+    /**
+     * Gets the moving average of the number of cpu cycles this monitor is held.
+     *
+     * @return the average hold time in cpu cycles
+     */
+    final long getAverageHoldCycles() {
+        return avgHoldCycles;
+    }
+
+    /**
+     * Reset the contention counters of this monitor.
+     */
+    final void resetContention() {
+        contentionCount = 0;
+        spinAcquireCount = 0;
+    }
+
     /**
      * Is this monitor locked?
      *
@@ -0,0 +1,98 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.vm.scheduler;
+
+import org.jnode.vm.classmgr.VmType;
+
+/**
+ * Snapshot of the contention counters of an inflated monitor.
+ *
+ * @see MonitorManager#getContendedMonitors(int)
+ */
+public final class MonitorContention {
+
+    private final String className;
+    private final int contentionCount;
+    private final int spinAcquireCount;
+    private final long averageHoldCycles;
+    private final VmThread owner;
+
+    /**
+     * Take a snapshot of the given monitor.
+     *
+     * @param m
+     */
+    MonitorContention(Monitor m) {
+        final VmType<?> type = m.getObjectType();
+        this.className = (type != null) ? type.getName() : "?";
+        this.contentionCount = m.getContentionCount();
+        this.spinAcquireCount = m.getSpinAcquireCount();
+        this.averageHoldCycles = m.getAverageHoldCycles();
+        this.owner = m.getOwner();
+    }
+
+    /**
+     * Gets the name of the class of the locked object.
+     *
+     * @return the class name
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Gets the number of times a thread found the monitor owned by another
+     * thread.
+     *
+     * @return the contention count
+     */
+    public int getContentionCount() {
+        return contentionCount;
+    }
+
+    /**
+     * Gets the number of contended enters that obtained the monitor by
+     * spinning instead of waiting.
+     *
+     * @return the spin acquire count
+     */
+    public int getSpinAcquireCount() {
+        return spinAcquireCount;
+    }
+
+    /**
+     * Gets the moving average of the number of cpu cycles the monitor is held.
+     *
+     * @return the average hold time in cpu cycles
+     */
+    public long getAverageHoldCycles() {
+        return averageHoldCycles;
+    }
+
+    /**
+     * Gets the thread that owned the monitor when this snapshot was taken.
+     *
+     * @return the owner, or null if the monitor was not owned.
+     */
+    public VmThread getOwner() {
+        return owner;
+    }
+}
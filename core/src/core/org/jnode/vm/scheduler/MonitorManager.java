@@ -28,6 +28,8 @@ import org.jnode.vm.Unsafe;
 import org.jnode.vm.VmMagic;
 import org.jnode.vm.classmgr.ObjectFlags;
 import org.jnode.vm.classmgr.ObjectLayout;
+import org.jnode.vm.facade.VmUtils;
+import org.jnode.vm.facade.VmWriteBarrier;
 import org.vmmagic.unboxed.Address;
 import org.vmmagic.unboxed.ObjectReference;
 import org.vmmagic.unboxed.Word;
@@ -39,6 +41,24 @@ import org.vmmagic.unboxed.Word;
 @Uninterruptible
 public final class MonitorManager {
 
+    /**
+     * The number of most contended monitors that are tracked.
+     */
+    private static final int CONTENTION_TABLE_SIZE = 64;
+
+    /**
+     * The most contended monitors. Monitors are added when their
+     * contention count reaches a power of 2, replacing the least
+     * contended monitor when the table is full.
+     * Note that the table keeps these monitors and their objects alive.
+     */
+    private static final Monitor[] contentionTable = new Monitor[CONTENTION_TABLE_SIZE];
+
+    /**
+     * Lock protecting contentionTable.
+     */
+    private static final ProcessorLock contentionLock = new ProcessorLock();
+
     /**
      * A fast implementation of the monitorEnter opcode. This implementation is
      * based on a thin-lock, present if the status word of the header of each
@@ -270,6 +290,7 @@ public final class MonitorManager {
 
             if (m == null) {
                 m = new Monitor(VmMagic.currentProcessor().getCurrentThread(), 1);
+                m.setObjectType(VmMagic.getObjectType(k));
                 monAddr = ObjectReference.fromObject(m).toAddress().toWord();
                 if (!monAddr.and(Word.fromIntZeroExtend(ObjectFlags.LOCK_EXPANDED
                     | ObjectFlags.STATUS_FLAGS_MASK)).isZero()) {
@@ -291,6 +312,12 @@ public final class MonitorManager {
             final Word newlockword = monAddr.or(statusFlags).or(Word.fromIntZeroExtend(ObjectFlags.LOCK_EXPANDED));
             if (statusPtr.attempt(oldlockword, newlockword)) {
                 // successfully obtained inflated lock.
+                // The object header now refers to the monitor, so tell
+                // the heap manager about it, like a putfield would.
+                final VmWriteBarrier wb = VmUtils.getVm().getHeapManager().getWriteBarrier();
+                if (wb != null) {
+                    wb.putfieldWriteBarrier(k, ObjectLayout.FLAGS_SLOT * Address.size(), m);
+                }
                 return m;
             }
         }
@@ -356,6 +383,107 @@ public final class MonitorManager {
         }
     }
 
+    /**
+     * Called by a monitor when a thread has found it owned by another thread.
+     *
+     * @param m
+     * @param contentionCount The new contention count of the monitor
+     */
+    static void contentionDetected(Monitor m, int contentionCount) {
+        if (m.contentionRegistered || ((contentionCount & (contentionCount - 1)) != 0)) {
+            // Already registered, or not a power of 2
+            return;
+        }
+        contentionLock.lock();
+        try {
+            if (m.contentionRegistered) {
+                return;
+            }
+            int victim = -1;
+            int victimCount = contentionCount;
+            for (int i = 0; i < CONTENTION_TABLE_SIZE; i++) {
+                final Monitor e = contentionTable[i];
+                if (e == null) {
+                    victim = i;
+                    break;
+                }
+                final int cnt = e.getContentionCount();
+                if (cnt < victimCount) {
+                    victim = i;
+                    victimCount = cnt;
+                }
+            }
+            if (victim >= 0) {
+                final Monitor old = contentionTable[victim];
+                if (old != null) {
+                    old.contentionRegistered = false;
+                }
+                contentionTable[victim] = m;
+                m.contentionRegistered = true;
+            }
+        } finally {
+            contentionLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the most contended monitors, ordered by contention count
+     * (highest first).
+     *
+     * @param max The maximum number of monitors to return.
+     * @return The contention information of the monitors.
+     */
+    public static MonitorContention[] getContendedMonitors(int max) {
+        final Monitor[] monitors = new Monitor[CONTENTION_TABLE_SIZE];
+        contentionLock.lock();
+        try {
+            System.arraycopy(contentionTable, 0, monitors, 0, CONTENTION_TABLE_SIZE);
+        } finally {
+            contentionLock.unlock();
+        }
+
+        int count = 0;
+        final MonitorContention[] all = new MonitorContention[CONTENTION_TABLE_SIZE];
+        for (Monitor m : monitors) {
+            if ((m != null) && (m.getContentionCount() > 0)) {
+                all[count++] = new MonitorContention(m);
+            }
+        }
+        // Insertion sort, the table is small
+        for (int i = 1; i < count; i++) {
+            final MonitorContention c = all[i];
+            int j = i - 1;
+            while ((j >= 0) && (all[j].getContentionCount() < c.getContentionCount())) {
+                all[j + 1] = all[j];
+                j--;
+            }
+            all[j + 1] = c;
+        }
+        final MonitorContention[] result = new MonitorContention[Math.min(count, max)];
+        System.arraycopy(all, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Clear the contention counters of the tracked monitors and stop
+     * tracking them.
+     */
+    public static void resetContendedMonitors() {
+        contentionLock.lock();
+        try {
+            for (int i = 0; i < CONTENTION_TABLE_SIZE; i++) {
+                final Monitor m = contentionTable[i];
+                if (m != null) {
+                    m.resetContention();
+                    m.contentionRegistered = false;
+                    contentionTable[i] = null;
+                }
+            }
+        } finally {
+            contentionLock.unlock();
+        }
+    }
+
     /**
      * Make sure the given thread id does fit into the space reserved for it by
      * the thinlock stuff.
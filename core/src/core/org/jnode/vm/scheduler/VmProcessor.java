@@ -122,6 +122,16 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
      */
     private final VmScheduler scheduler;
 
+    /**
+     * The threads that are ready to run on this processor.
+     */
+    final VmThreadQueue.ScheduleQueue readyQueue;
+
+    /**
+     * Lock used to protect the ready queue.
+     */
+    final ProcessorLock readyQueueLock;
+
     /**
      * The kernel debugger that is used.
      */
@@ -232,6 +242,8 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
         this.me = this;
         this.architecture = architecture;
         this.scheduler = scheduler;
+        this.readyQueue = new VmThreadQueue.ScheduleQueue("ready-" + idString);
+        this.readyQueueLock = new ProcessorLock();
         this.kernelDebugger = new KernelDebugger(scheduler);
         this.staticsTable = sharedStatics.getTable();
         this.isolatedStatics = isolatedStatics;
@@ -247,6 +259,7 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
             compilerIds[i] = compilers[i].getMagic();
             gcMapIterators[i] = compilers[i].createGCMapIterator();
         }
+        scheduler.registerProcessor(this);
     }
 
     /**
@@ -465,6 +478,7 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
             }
 
             newThread.wakeUpByScheduler();
+            newThread.lastProcessor = this;
             this.nextThread = newThread;
 
             final int priority = newThread.priority;
@@ -537,6 +551,8 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
     public final void systemReadyForThreadSwitch() {
         if (idleThread == null) {
             idleThread = new IdleThread();
+            // The idle thread must never be taken by another processor
+            ThreadHelper.getVmThreadKS(idleThread).setRequiredProcessor(this);
             idleThread.start();
         }
         getTSIAddress().atomicOr(Word.fromIntSignExtend(TSI_SYSTEM_READY));
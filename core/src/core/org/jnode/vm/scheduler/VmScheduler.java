@@ -30,12 +30,21 @@ import org.jnode.vm.BaseVmArchitecture;
 import org.jnode.vm.VmMagic;
 import org.jnode.vm.VmStackReader;
 import org.jnode.vm.VmSystem;
+import org.jnode.vm.classmgr.ObjectFlags;
 import org.jnode.vm.facade.VmThreadVisitor;
 import org.jnode.vm.facade.VmUtils;
 
 /**
  * Thread scheduler. This scheduler is used by all processors in the system, so
  * all access to data structures are protected by processor locks.
+ * <p/>
+ * Every processor has its own ready queue, protected by its own lock, so
+ * thread switches on different processors do not contend with each other.
+ * A thread that becomes ready is added to the queue of the processor that
+ * has last run it. A processor takes threads from another queue when that
+ * queue holds a thread with a higher priority than its own best thread,
+ * which includes the case where it has nothing but its idle thread to run.
+ * The sleep queue is shared and protected by the scheduler lock.
  *
  * @author Ewout Prangsma (epr@users.sourceforge.net)
  */
@@ -58,9 +67,26 @@ public final class VmScheduler {
     private final VmThreadQueue.AllThreadsQueue allThreadsQueue;
 
     /**
-     * My ready queue.
+     * All threads, indexed by their id using open addressing.
+     * The length is a power of 2 and the table is never more than half full.
+     * Protected by allThreadsLock.
      */
-    private final VmThreadQueue.ScheduleQueue readyQueue;
+    private VmThread[] threadTable = new VmThread[INITIAL_THREAD_TABLE_SIZE];
+
+    /**
+     * The number of threads in threadTable.
+     */
+    private int threadCount;
+
+    /**
+     * Initial length of threadTable.
+     */
+    private static final int INITIAL_THREAD_TABLE_SIZE = 256;
+
+    /**
+     * All processors that have a ready queue.
+     */
+    private volatile VmProcessor[] processors = new VmProcessor[0];
 
     /**
      * My sleep queue.
@@ -68,10 +94,17 @@ public final class VmScheduler {
     private final VmThreadQueue.SleepQueue sleepQueue;
 
     /**
-     * Lock used to protect the ready and sleep queue.
+     * Lock used to protect the sleep queue and the list of processors.
      */
     private final ProcessorLock queueLock;
 
+    /**
+     * Wakeup time of the first thread in the sleep queue, or Long.MAX_VALUE
+     * if the sleep queue is empty. Written while holding queueLock, read
+     * without it, so a processor can skip the lock when no thread can wake up yet.
+     */
+    private volatile long nextWakeupTime = Long.MAX_VALUE;
+
     /**
      * Default constructor.
      */
@@ -81,7 +114,6 @@ public final class VmScheduler {
         this.allThreadsQueue = new VmThreadQueue.AllThreadsQueue("scheduler-all");
 
         this.queueLock = new ProcessorLock();
-        this.readyQueue = new VmThreadQueue.ScheduleQueue("scheduler-ready");
         this.sleepQueue = new VmThreadQueue.SleepQueue("scheduler-sleep");
     }
 
@@ -92,13 +124,16 @@ public final class VmScheduler {
      */
     @Uninterruptible
     final VmThread getThreadById(int id) {
-        // final SpinLock lock = vm.allThreadsLock;
-        VmThreadQueueEntry e = this.allThreadsQueue.first;
-        while (e != null) {
-            if (e.thread.getId() == id) {
-                return e.thread;
+        // The table is replaced, never changed in place, when it grows.
+        final VmThread[] table = this.threadTable;
+        final int mask = table.length - 1;
+        int i = hashThreadId(id) & mask;
+        VmThread t;
+        while ((t = table[i]) != null) {
+            if (t.getId() == id) {
+                return t;
             }
-            e = e.next;
+            i = (i + 1) & mask;
         }
         return null;
     }
@@ -110,17 +145,162 @@ public final class VmScheduler {
      */
     final void registerThread(VmThread thread) {
         if (VmUtils.isWritingImage()) {
+            if ((threadCount + 1) * 2 > threadTable.length) {
+                rehashThreadTable(new VmThread[threadTable.length * 2]);
+            }
+            addToThreadTable(thread);
             allThreadsQueue.add(thread, "Vm");
         } else {
-            allThreadsLock.lock();
-            try {
-                allThreadsQueue.add(thread, "Vm");
-            } finally {
-                allThreadsLock.unlock();
+            while (true) {
+                // Allocate a larger table outside of the lock
+                VmThread[] newTable = null;
+                if ((threadCount + 1) * 2 > threadTable.length) {
+                    newTable = new VmThread[threadTable.length * 2];
+                }
+                allThreadsLock.lock();
+                try {
+                    if ((newTable != null) && (newTable.length > threadTable.length)) {
+                        rehashThreadTable(newTable);
+                    }
+                    if ((threadCount + 1) * 2 <= threadTable.length) {
+                        addToThreadTable(thread);
+                        allThreadsQueue.add(thread, "Vm");
+                        return;
+                    }
+                } finally {
+                    allThreadsLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the start index in threadTable of the given thread id.
+     *
+     * @param id
+     * @return The unmasked index
+     */
+    @Inline
+    @Uninterruptible
+    private static int hashThreadId(int id) {
+        return id >>> ObjectFlags.THREAD_ID_SHIFT;
+    }
+
+    /**
+     * Add the given thread to threadTable. There must be room for it.
+     *
+     * @param thread
+     */
+    @Uninterruptible
+    private void addToThreadTable(VmThread thread) {
+        final VmThread[] table = this.threadTable;
+        final int mask = table.length - 1;
+        int i = hashThreadId(thread.getId()) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = thread;
+        threadCount++;
+    }
+
+    /**
+     * Remove the given thread from threadTable. The entries after it are
+     * moved back, so no deleted markers are needed. Every entry is copied
+     * to its new slot before its old slot is reused, so
+     * {@link #getThreadById(int)} does not need the lock.
+     *
+     * @param thread
+     */
+    @Uninterruptible
+    private void removeFromThreadTable(VmThread thread) {
+        final VmThread[] table = this.threadTable;
+        final int mask = table.length - 1;
+        int i = hashThreadId(thread.getId()) & mask;
+        while (table[i] != thread) {
+            if (table[i] == null) {
+                // Not registered
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        threadCount--;
+        // Slot i is the hole
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            final VmThread t = table[j];
+            if (t == null) {
+                break;
+            }
+            final int k = hashThreadId(t.getId()) & mask;
+            // Move t into the hole, unless its home slot lies
+            // cyclically in (i, j]
+            final boolean stay = (i <= j) ? ((i < k) && (k <= j)) : ((i < k) || (k <= j));
+            if (!stay) {
+                table[i] = t;
+                i = j;
+            }
+        }
+        table[i] = null;
+    }
+
+    /**
+     * Move all threads of threadTable into the given (empty) table and
+     * make it the new threadTable.
+     *
+     * @param newTable
+     */
+    @Uninterruptible
+    private void rehashThreadTable(VmThread[] newTable) {
+        final VmThread[] old = this.threadTable;
+        final int mask = newTable.length - 1;
+        for (int i = 0; i < old.length; i++) {
+            final VmThread t = old[i];
+            if (t != null) {
+                int k = hashThreadId(t.getId()) & mask;
+                while (newTable[k] != null) {
+                    k = (k + 1) & mask;
+                }
+                newTable[k] = t;
+            }
+        }
+        this.threadTable = newTable;
+    }
+
+    /**
+     * Register a processor, so its ready queue is used by this scheduler.
+     *
+     * @param cpu
+     */
+    final void registerProcessor(VmProcessor cpu) {
+        final boolean locking = !VmUtils.isWritingImage();
+        if (locking) {
+            queueLock.lock();
+        }
+        try {
+            final VmProcessor[] old = processors;
+            final VmProcessor[] arr = new VmProcessor[old.length + 1];
+            System.arraycopy(old, 0, arr, 0, old.length);
+            arr[old.length] = cpu;
+            processors = arr;
+        } finally {
+            if (locking) {
+                queueLock.unlock();
             }
         }
     }
 
+    /**
+     * Gets the number of processors that have a ready queue.
+     *
+     * @return the number of processors
+     */
+    @Inline
+    @Uninterruptible
+    final int getProcessorCount() {
+        return processors.length;
+    }
+
     /**
      * Remove the given thread from the list of all threads.
      *
@@ -130,10 +310,17 @@ public final class VmScheduler {
         allThreadsLock.lock();
         try {
             allThreadsQueue.remove(thread);
+            removeFromThreadTable(thread);
             //todo recent change, more testing needed
             //remove the thread from readyQueue and sleepQueue too
-            readyQueue.remove(thread);
-            sleepQueue.remove(thread);
+            removeFromReadyQueue(thread);
+            queueLock.lock();
+            try {
+                sleepQueue.remove(thread);
+                nextWakeupTime = sleepQueue.firstWakeupTime();
+            } finally {
+                queueLock.unlock();
+            }
         } finally {
             allThreadsLock.unlock();
         }
@@ -168,23 +355,65 @@ public final class VmScheduler {
     @Uninterruptible
     final void addToReadyQueue(VmThread thread, boolean ignorePriority,
                                String caller) {
-        try {
-            // Get access to queues
-            queueLock.lock();
+        if (!(thread.isRunning() || thread.isYielding())) {
+            Unsafe
+                .debug("Thread must be in running state to add to ready queue, not ");
+            Unsafe.debug(thread.getThreadState());
+            architecture.getStackReader().debugStackTrace();
+            Unsafe.die("addToReadyQueue");
+        }
 
-            if (thread.isRunning() || thread.isYielding()) {
+        if (thread.sleepQueueEntry.isInUse()) {
+            try {
+                // Get access to the sleep queue
+                queueLock.lock();
                 sleepQueue.remove(thread);
-                readyQueue.add(thread, ignorePriority, caller);
-            } else {
-                Unsafe
-                    .debug("Thread must be in running state to add to ready queue, not ");
-                Unsafe.debug(thread.getThreadState());
-                architecture.getStackReader().debugStackTrace();
-                Unsafe.die("addToReadyQueue");
+                nextWakeupTime = sleepQueue.firstWakeupTime();
+            } finally {
+                queueLock.unlock();
+            }
+        }
+
+        // Prefer the processor that has run this thread before
+        VmProcessor cpu = thread.getRequiredProcessor();
+        if (cpu == null) {
+            cpu = thread.lastProcessor;
+            if (cpu == null) {
+                cpu = VmMagic.currentProcessor();
             }
+        }
+        final ProcessorLock lock = cpu.readyQueueLock;
+        try {
+            lock.lock();
+            cpu.readyQueue.add(thread, ignorePriority, caller);
+            thread.readyQueueProcessor = cpu;
         } finally {
-            // Release access to queues
-            queueLock.unlock();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the given thread from the ready queue it is on (if any).
+     *
+     * @param thread
+     */
+    @KernelSpace
+    @Uninterruptible
+    private void removeFromReadyQueue(VmThread thread) {
+        VmProcessor cpu;
+        while ((cpu = thread.readyQueueProcessor) != null) {
+            final ProcessorLock lock = cpu.readyQueueLock;
+            try {
+                lock.lock();
+                // The thread may have been taken by another processor
+                if (thread.readyQueueProcessor == cpu) {
+                    cpu.readyQueue.remove(thread);
+                    thread.readyQueueProcessor = null;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
         }
     }
 
@@ -201,6 +430,7 @@ public final class VmScheduler {
             queueLock.lock();
 
             sleepQueue.add(thread, null);
+            nextWakeupTime = sleepQueue.firstWakeupTime();
         } finally {
             // Release access to queues
             queueLock.unlock();
@@ -216,19 +446,114 @@ public final class VmScheduler {
     @KernelSpace
     @Uninterruptible
     final VmThread popFirstReadyThread() {
+        final VmProcessor current = VmMagic.currentProcessor();
+        final ProcessorLock lock = current.readyQueueLock;
+        VmThread newThread;
+        final int minPriority;
+        final VmProcessor victim;
         try {
-            // Get access to queues
-            queueLock.lock();
+            lock.lock();
+            newThread = current.readyQueue.first(current);
+            minPriority = (newThread != null) ? newThread.priority : -1;
+            victim = findVictim(current, minPriority);
+            if (victim == null) {
+                if (newThread != null) {
+                    current.readyQueue.remove(newThread);
+                    newThread.readyQueueProcessor = null;
+                }
+                return newThread;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Another processor has a more urgent thread waiting.
+        // Our own lock has been released, so we cannot deadlock
+        // with a processor that steals from us.
+        newThread = steal(victim, minPriority);
+        if (newThread != null) {
+            return newThread;
+        }
 
-            final VmThread newThread = readyQueue.first(VmMagic.currentProcessor());
+        // Nothing to steal after all, use our own queue
+        try {
+            lock.lock();
+            newThread = current.readyQueue.first(current);
             if (newThread != null) {
-                readyQueue.remove(newThread);
-                return newThread;
+                current.readyQueue.remove(newThread);
+                newThread.readyQueueProcessor = null;
+            }
+            return newThread;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Look for another processor that has a thread with a higher priority
+     * than the given priority at the front of its ready queue.
+     * The queues are not locked, so the result is only a hint.
+     *
+     * @param current
+     * @param minPriority
+     * @return The processor with the most urgent thread, or null if there is
+     *         no such processor.
+     */
+    @KernelSpace
+    @Uninterruptible
+    private VmProcessor findVictim(VmProcessor current, int minPriority) {
+        final VmProcessor[] processors = this.processors;
+        final int cnt = processors.length;
+        VmProcessor victim = null;
+        int best = minPriority;
+        for (int i = 0; i < cnt; i++) {
+            final VmProcessor cpu = processors[i];
+            if (cpu != current) {
+                final VmThreadQueueEntry first = cpu.readyQueue.first;
+                if (first != null) {
+                    final VmThread thread = first.thread;
+                    if ((thread.priority > best) && (thread.getRequiredProcessor() == null)) {
+                        best = thread.priority;
+                        victim = cpu;
+                    }
+                }
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Take the first thread from the ready queue of the given processor that
+     * can run on any processor and has a higher priority than the given
+     * priority.
+     *
+     * @param victim
+     * @param minPriority
+     * @return The thread, or null if there is no such thread.
+     */
+    @KernelSpace
+    @Uninterruptible
+    private VmThread steal(VmProcessor victim, int minPriority) {
+        final ProcessorLock lock = victim.readyQueueLock;
+        try {
+            lock.lock();
+            VmThreadQueueEntry e = victim.readyQueue.first;
+            // The queue is sorted by priority
+            while ((e != null) && (e.thread.priority > minPriority)) {
+                final VmThread thread = e.thread;
+                // The current thread of the victim may still be switching out
+                if ((thread.getRequiredProcessor() == null)
+                    && (thread.currentProcessor == null)
+                    && (thread != victim.currentThread)) {
+                    victim.readyQueue.remove(thread);
+                    thread.readyQueueProcessor = null;
+                    return thread;
+                }
+                e = e.next;
             }
             return null;
         } finally {
-            // Release access to queues
-            queueLock.unlock();
+            lock.unlock();
         }
     }
 
@@ -241,17 +566,20 @@ public final class VmScheduler {
     @KernelSpace
     @Uninterruptible
     final VmThread popFirstSleepingThread() {
+        final long curTime = VmSystem.currentKernelMillis();
+        if (curTime < nextWakeupTime) {
+            // No thread can wake up yet, don't bother taking the lock
+            return null;
+        }
         try {
             // Get access to queues
             queueLock.lock();
 
             final VmThread newThread = sleepQueue.first(VmMagic.currentProcessor());
-            if (newThread != null) {
-                final long curTime = VmSystem.currentKernelMillis();
-                if (newThread.canWakeup(curTime)) {
-                    sleepQueue.remove(newThread);
-                    return newThread;
-                }
+            if ((newThread != null) && newThread.canWakeup(curTime)) {
+                sleepQueue.remove(newThread);
+                nextWakeupTime = sleepQueue.firstWakeupTime();
+                return newThread;
             }
             return null;
         } finally {
@@ -270,7 +598,7 @@ public final class VmScheduler {
             // Get access to queues
             queueLock.lock();
 
-            readyQueue.dump(false, null);
+            dumpReadyQueues(false);
             sleepQueue.dump(false, null);
         } finally {
             // Release access to queues
@@ -278,32 +606,56 @@ public final class VmScheduler {
         }
     }
 
+    /**
+     * Dump the ready queues of all processors to the unsafe debug stream.
+     * The queues are not locked.
+     *
+     * @param dumpStack If true, the stacktrace of every thread is dumped as well.
+     */
+    @KernelSpace
+    @Uninterruptible
+    final void dumpReadyQueues(boolean dumpStack) {
+        final VmProcessor[] processors = this.processors;
+        final VmStackReader stackReader = dumpStack ? architecture.getStackReader() : null;
+        for (int i = 0; i < processors.length; i++) {
+            processors[i].readyQueue.dump(dumpStack, stackReader);
+        }
+    }
+
     /**
      * Lock the queues for access by the current processor.
+     * <p/>
+     * This claims the sleep queue lock and the ready queue lock of every
+     * processor. Every path through {@link VmProcessor#reschedule()} takes
+     * at least one of these locks before it picks a new thread, so no other
+     * processor can switch threads until {@link #unlock()} is called.
+     * The sleep queue lock is taken first and protects the processors array,
+     * so the same set of ready queue locks is released again.
+     * No code holds a ready queue lock while waiting for another lock,
+     * so this cannot deadlock.
      */
-    @Inline
     @Uninterruptible
     final void lock() {
         queueLock.lock();
+        final VmProcessor[] processors = this.processors;
+        final int cnt = processors.length;
+        for (int i = 0; i < cnt; i++) {
+            processors[i].readyQueueLock.lock();
+        }
     }
 
     /**
      * Unlock the queues.
      */
-    @Inline
     @Uninterruptible
     final void unlock() {
+        final VmProcessor[] processors = this.processors;
+        for (int i = processors.length - 1; i >= 0; i--) {
+            processors[i].readyQueueLock.unlock();
+        }
         queueLock.unlock();
     }
 
-    /**
-     * @return The queue containing all ready threads.
-     */
-    @Inline
-    final VmThreadQueue.ScheduleQueue getReadyQueue() {
-        return readyQueue;
-    }
-
     /**
      * @return The queue containing all sleeping threads.
      */
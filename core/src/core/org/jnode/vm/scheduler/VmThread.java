@@ -208,6 +208,18 @@ public abstract class VmThread extends VmSystemObject implements org.jnode.vm.fa
      */
     volatile VmProcessor currentProcessor;
 
+    /**
+     * The processor that has last run this thread. A thread that becomes
+     * ready is added to the ready queue of this processor.
+     */
+    volatile VmProcessor lastProcessor;
+
+    /**
+     * The processor whose ready queue contains this thread, or null.
+     * Protected by the ready queue lock of that processor.
+     */
+    volatile VmProcessor readyQueueProcessor;
+
     /**
      * State is set to CREATED by the static initializer. Once set to other than
      * CREATED, it should never go back. Alternates between RUNNING and
@@ -1223,9 +1235,13 @@ public abstract class VmThread extends VmSystemObject implements org.jnode.vm.fa
     }
 
     /**
-     * @param requiredProcessor the requiredProcessor to set
+     * Bind this thread to the given processor. A bound thread is only
+     * scheduled on that processor.
+     *
+     * @param requiredProcessor the requiredProcessor to set, or null to
+     *                          allow this thread to run on any processor.
      */
-    protected final void setRequiredProcessor(VmProcessor requiredProcessor) {
+    public final void setRequiredProcessor(VmProcessor requiredProcessor) {
         this.requiredProcessor = requiredProcessor;
     }
 
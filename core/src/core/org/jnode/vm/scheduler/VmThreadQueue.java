@@ -71,7 +71,8 @@ abstract class VmThreadQueue extends VmSystemObject {
 
     /**
      * Gets the first thread in the queue that has its currentProcessor field
-     * set to null of the given processor.
+     * set to null of the given processor and that is not bound to another
+     * processor.
      *
      * @param currentProcessor The processor making this request.
      * @return VmThread
@@ -82,8 +83,10 @@ abstract class VmThreadQueue extends VmSystemObject {
         VmThreadQueueEntry entry = this.first;
         while (entry != null) {
             final VmThread thread = entry.thread;
-            if ((thread.currentProcessor == null)
-                || (thread.currentProcessor == currentProcessor)) {
+            final VmProcessor required = thread.getRequiredProcessor();
+            if (((thread.currentProcessor == null)
+                || (thread.currentProcessor == currentProcessor))
+                && ((required == null) || (required == currentProcessor))) {
                 return thread;
             }
             entry = entry.next;
@@ -103,11 +106,24 @@ abstract class VmThreadQueue extends VmSystemObject {
             if (!visitor.visit(p.thread)) {
                 return false;
             }
-            p = p.next;
+            p = successor(p);
         }
         return true;
     }
 
+    /**
+     * Gets the entry that follows the given entry when walking through all
+     * entries of this queue.
+     *
+     * @param entry
+     * @return The next entry, or null if the given entry is the last one.
+     */
+    @KernelSpace
+    @Uninterruptible
+    protected VmThreadQueueEntry successor(VmThreadQueueEntry entry) {
+        return entry.next;
+    }
+
     /**
      * Is this queue empty?
      *
@@ -169,44 +185,6 @@ abstract class VmThreadQueue extends VmSystemObject {
         }
     }
 
-    /**
-     * Add the given thread to the given queue such that the queue is sorted by
-     * wakeup time. The nearest wakeup time is the first element in the queue.
-     *
-     * @param queue
-     * @param entry
-     * @param caller
-     * @return The new queue.
-     * @throws UninterruptiblePragma
-     */
-    protected final VmThreadQueueEntry addToQueueSortByWakeupTime(
-        VmThreadQueueEntry queue, VmThreadQueueEntry entry, String caller)
-        throws UninterruptiblePragma {
-        entry.setInUse(this, caller);
-        if (queue == null) {
-            return entry;
-        } else {
-            long threadWakeup = entry.thread.wakeupTime;
-            VmThreadQueueEntry t = queue;
-
-            if (threadWakeup < t.thread.wakeupTime) {
-                entry.next = t;
-                return entry;
-            }
-
-            while (t.next != null) {
-                if (threadWakeup < t.next.thread.wakeupTime) {
-                    entry.next = t.next;
-                    t.next = entry;
-                    return queue;
-                }
-                t = t.next;
-            }
-            t.next = entry;
-            return queue;
-        }
-    }
-
     /**
      * Remove the given thread from the given queue.
      *
@@ -267,7 +245,7 @@ abstract class VmThreadQueue extends VmSystemObject {
                     stackReader.debugStackTrace(e.thread);
                     Unsafe.debug("\n");
                 }
-                e = e.getNext();
+                e = successor(e);
             }
         }
         Unsafe.debug("\n");
@@ -299,6 +277,15 @@ abstract class VmThreadQueue extends VmSystemObject {
 
     /**
      * Queue for all sleeping threads.
+     * <p/>
+     * The threads are kept in a pairing heap ordered by wakeup time, so adding
+     * a thread takes constant time and removing a thread takes logarithmic
+     * (amortized) time, regardless of the number of sleeping threads. The
+     * heap is linked through the queue entries, so no memory is allocated.
+     * <p/>
+     * The first entry is the root of the heap, which is the thread with the
+     * nearest wakeup time. Only the root has no siblings, so {@link #first(VmProcessor)}
+     * never looks beyond the root.
      *
      * @author Ewout Prangsma (epr@users.sourceforge.net)
      */
@@ -311,16 +298,148 @@ abstract class VmThreadQueue extends VmSystemObject {
             super(name);
         }
 
+        /**
+         * Gets the wakeup time of the first thread in this queue.
+         *
+         * @return the nearest wakeup time, or Long.MAX_VALUE if the queue is empty.
+         */
+        @KernelSpace
+        @Uninterruptible
+        final long firstWakeupTime() {
+            final VmThreadQueueEntry first = this.first;
+            return (first != null) ? first.thread.wakeupTime : Long.MAX_VALUE;
+        }
+
         @Uninterruptible
         final void add(VmThread thread, String caller) {
-            first = addToQueueSortByWakeupTime(first, thread.sleepQueueEntry,
-                caller);
+            final VmThreadQueueEntry entry = thread.sleepQueueEntry;
+            entry.setInUse(this, caller);
+            entry.next = null;
+            entry.prev = null;
+            entry.child = null;
+            first = meld(first, entry);
         }
 
         @KernelSpace
         @Uninterruptible
         final void remove(VmThread thread) {
-            first = removeFromQueue(first, thread.sleepQueueEntry);
+            final VmThreadQueueEntry entry = thread.sleepQueueEntry;
+            if (!entry.isInUseBy(this)) {
+                return;
+            }
+            if (entry == first) {
+                first = mergePairs(entry.child);
+            } else {
+                // Cut the entry (with its children) from its parent
+                final VmThreadQueueEntry prev = entry.prev;
+                if (prev.child == entry) {
+                    prev.child = entry.next;
+                } else {
+                    prev.next = entry.next;
+                }
+                if (entry.next != null) {
+                    entry.next.prev = prev;
+                }
+                first = meld(first, mergePairs(entry.child));
+            }
+            entry.next = null;
+            entry.prev = null;
+            entry.child = null;
+            entry.setInUse(null, null);
+        }
+
+        /**
+         * Walk through the heap in preorder.
+         *
+         * @see VmThreadQueue#successor(VmThreadQueueEntry)
+         */
+        @KernelSpace
+        @Uninterruptible
+        protected final VmThreadQueueEntry successor(VmThreadQueueEntry entry) {
+            if (entry.child != null) {
+                return entry.child;
+            }
+            while (entry != null) {
+                if (entry.next != null) {
+                    return entry.next;
+                }
+                // Go to the parent, which is the prev of the first child
+                while ((entry.prev != null) && (entry.prev.child != entry)) {
+                    entry = entry.prev;
+                }
+                entry = entry.prev;
+            }
+            return null;
+        }
+
+        /**
+         * Meld two heaps.
+         *
+         * @param a Root of a heap, or null
+         * @param b Root of a heap, or null
+         * @return The root of the melded heap.
+         */
+        @KernelSpace
+        @Uninterruptible
+        private static VmThreadQueueEntry meld(VmThreadQueueEntry a, VmThreadQueueEntry b) {
+            if (a == null) {
+                return b;
+            } else if (b == null) {
+                return a;
+            }
+            if (b.thread.wakeupTime < a.thread.wakeupTime) {
+                final VmThreadQueueEntry tmp = a;
+                a = b;
+                b = tmp;
+            }
+            // Make b the first child of a
+            b.prev = a;
+            b.next = a.child;
+            if (a.child != null) {
+                a.child.prev = b;
+            }
+            a.child = b;
+            a.prev = null;
+            a.next = null;
+            return a;
+        }
+
+        /**
+         * Meld a list of siblings into a single heap, using the
+         * standard two pass method.
+         *
+         * @param list The first sibling, or null
+         * @return The root of the resulting heap.
+         */
+        @KernelSpace
+        @Uninterruptible
+        private static VmThreadQueueEntry mergePairs(VmThreadQueueEntry list) {
+            // First pass: meld pairs from left to right, collect the
+            // results in reverse order.
+            VmThreadQueueEntry pairs = null;
+            while (list != null) {
+                final VmThreadQueueEntry a = list;
+                final VmThreadQueueEntry b = a.next;
+                list = (b != null) ? b.next : null;
+                a.next = null;
+                a.prev = null;
+                if (b != null) {
+                    b.next = null;
+                    b.prev = null;
+                }
+                final VmThreadQueueEntry m = meld(a, b);
+                m.next = pairs;
+                pairs = m;
+            }
+            // Second pass: meld the pairs from right to left
+            VmThreadQueueEntry result = null;
+            while (pairs != null) {
+                final VmThreadQueueEntry p = pairs;
+                pairs = p.next;
+                p.next = null;
+                result = meld(result, p);
+            }
+            return result;
         }
     }
 
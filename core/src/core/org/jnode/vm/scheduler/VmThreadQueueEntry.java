@@ -37,6 +37,9 @@ import org.jnode.annotation.Uninterruptible;
 final class VmThreadQueueEntry extends VmSystemObject {
 
     protected VmThreadQueueEntry next;
+    // Links used by the heap of the sleep queue only
+    protected VmThreadQueueEntry prev;
+    protected VmThreadQueueEntry child;
     private VmThreadQueue inUseByQueue;
     protected final VmThread thread;
     private String lastCaller;
@@ -71,6 +74,16 @@ final class VmThreadQueueEntry extends VmSystemObject {
         return (inUseByQueue != null);
     }
 
+    /**
+     * Is this entry used on the given queue.
+     *
+     * @param q
+     * @return boolean
+     */
+    final boolean isInUseBy(VmThreadQueue q) {
+        return (inUseByQueue == q);
+    }
+
     /**
      * @param q
      * @param caller
@@ -30,6 +30,7 @@ import org.jnode.assembler.x86.X86Register;
 import org.jnode.assembler.x86.X86Register.GPR;
 import org.jnode.assembler.x86.X86Register.GPR64;
 import org.jnode.vm.JvmType;
+import org.jnode.vm.LoadCompileService;
 import org.jnode.vm.classmgr.VmArray;
 import org.jnode.vm.classmgr.VmInstanceField;
 import org.jnode.vm.classmgr.VmIsolatedStaticsEntry;
@@ -122,6 +123,13 @@ public class X86CompilerHelper {
 
     private final Map<VmType<?>, Label> classInitLabels = new HashMap<VmType<?>, Label>();
 
+    private final boolean isBootstrap;
+
+    /**
+     * Label of the code that calls the tier-up method, or null
+     */
+    private Label tierUpLabel;
+
     /**
      * Create a new instance
      *
@@ -154,6 +162,7 @@ public class X86CompilerHelper {
         }
         this.entryPoints = entryPoints;
         this.stackMgr = stackMgr;
+        this.isBootstrap = isBootstrap;
         final X86CpuID cpuId = (X86CpuID) os.getCPUID();
         haveCMOV = cpuId.hasFeature(X86CpuID.FEAT_CMOV);
     }
@@ -168,6 +177,7 @@ public class X86CompilerHelper {
      */
     public final void reset() {
         classInitLabels.clear();
+        tierUpLabel = null;
     }
 
     /**
@@ -444,23 +454,7 @@ public class X86CompilerHelper {
             // Set label
             os.setObjectRef(label);
             // Save registers
-            if (os.isCode32()) {
-                os.writePUSHA();
-            } else {
-                os.writePUSH(X86Register.RAX);
-                os.writePUSH(X86Register.RBX);
-                os.writePUSH(X86Register.RCX);
-                os.writePUSH(X86Register.RDX);
-                os.writePUSH(X86Register.RSI);
-                os.writePUSH(X86Register.R8);
-                os.writePUSH(X86Register.R9);
-                os.writePUSH(X86Register.R10);
-                os.writePUSH(X86Register.R11);
-                // R12 contains processor and is preserved
-                os.writePUSH(X86Register.R13);
-                os.writePUSH(X86Register.R14);
-                os.writePUSH(X86Register.R15);
-            }
+            writePushAll();
             // Load cls
             if (os.isCode32()) {
                 writeGetStaticsEntry(label, AAX, entry.getKey());
@@ -471,28 +465,109 @@ public class X86CompilerHelper {
             // Call cls.initialize
             os.writePUSH(AAX); // cls
             invokeJavaMethod(entryPoints.getVmTypeInitialize());
-            if (os.isCode32()) {
-                os.writePOPA();
-            } else {
-                os.writePOP(X86Register.R15);
-                os.writePOP(X86Register.R14);
-                os.writePOP(X86Register.R13);
-                // R12 contains processor and is preserved
-                os.writePOP(X86Register.R11);
-                os.writePOP(X86Register.R10);
-                os.writePOP(X86Register.R9);
-                os.writePOP(X86Register.R8);
-                os.writePOP(X86Register.RSI);
-                os.writePOP(X86Register.RDX);
-                os.writePOP(X86Register.RCX);
-                os.writePOP(X86Register.RBX);
-                os.writePOP(X86Register.RAX);
-            }
+            writePopAll();
             // Return
             os.writeRET();
         }
     }
 
+    /**
+     * Write code to decrement the tier-up counter of the current method.
+     * On method entry, the method is also queued for recompilation at the
+     * next optimization level when the counter has dropped to zero.
+     * No counter is used in the boot image, in uninterruptible methods, or
+     * when there is no higher optimization level.
+     *
+     * @param curInstrLabel
+     * @param entry         True on method entry, false on a loop back-edge.
+     */
+    public final void writeTierUpCounter(Label curInstrLabel, boolean entry) {
+        if (isBootstrap || method.isUninterruptible() || !LoadCompileService.isTierUpSupported()) {
+            return;
+        }
+        final int offset = getSharedStaticsOffset(method.getTierUpCounterIndex());
+        os.writeDEC(BITS32, STATICS, offset);
+        if (entry) {
+            final Label doTierUp = new Label(curInstrLabel + "$$do_tierup");
+            final Label done = new Label(curInstrLabel + "$$done_tierup");
+            // Branch predication expects this forward jump NOT
+            // to be taken.
+            os.writeJCC(doTierUp, X86Constants.JLE);
+            os.writeJMP(done);
+            os.setObjectRef(doTierUp);
+            if (tierUpLabel == null) {
+                tierUpLabel = genLabel("$$tierup");
+            }
+            os.writeCALL(tierUpLabel);
+            os.setObjectRef(done);
+        }
+    }
+
+    /**
+     * Write the code that calls the tier-up method, if it is used.
+     *
+     * @see #writeTierUpCounter(Label, boolean)
+     */
+    public final void writeTierUpCode() {
+        if (tierUpLabel != null) {
+            os.setObjectRef(tierUpLabel);
+            writePushAll();
+            final VmType<?> declClass = method.getDeclaringClass();
+            os.writePUSH(declClass.getSharedStaticsIndex());
+            os.writePUSH(declClass.indexOf(method));
+            invokeJavaMethod(entryPoints.getTierUpMethod());
+            writePopAll();
+            os.writeRET();
+        }
+    }
+
+    /**
+     * Save all general purpose registers, except the ones
+     * that are preserved by java methods.
+     */
+    private void writePushAll() {
+        if (os.isCode32()) {
+            os.writePUSHA();
+        } else {
+            os.writePUSH(X86Register.RAX);
+            os.writePUSH(X86Register.RBX);
+            os.writePUSH(X86Register.RCX);
+            os.writePUSH(X86Register.RDX);
+            os.writePUSH(X86Register.RSI);
+            os.writePUSH(X86Register.R8);
+            os.writePUSH(X86Register.R9);
+            os.writePUSH(X86Register.R10);
+            os.writePUSH(X86Register.R11);
+            // R12 contains processor and is preserved
+            os.writePUSH(X86Register.R13);
+            os.writePUSH(X86Register.R14);
+            os.writePUSH(X86Register.R15);
+        }
+    }
+
+    /**
+     * Restore all registers saved by {@link #writePushAll()}.
+     */
+    private void writePopAll() {
+        if (os.isCode32()) {
+            os.writePOPA();
+        } else {
+            os.writePOP(X86Register.R15);
+            os.writePOP(X86Register.R14);
+            os.writePOP(X86Register.R13);
+            // R12 contains processor and is preserved
+            os.writePOP(X86Register.R11);
+            os.writePOP(X86Register.R10);
+            os.writePOP(X86Register.R9);
+            os.writePOP(X86Register.R8);
+            os.writePOP(X86Register.RSI);
+            os.writePOP(X86Register.RDX);
+            os.writePOP(X86Register.RCX);
+            os.writePOP(X86Register.RBX);
+            os.writePOP(X86Register.RAX);
+        }
+    }
+
     /**
      * Write stack overflow test code.
      *
@@ -934,12 +1009,21 @@ public class X86CompilerHelper {
      * @return The byte offset from this.STATICS to the entry.
      */
     public final int getSharedStaticsOffset(VmSharedStaticsEntry entry) {
+        return getSharedStaticsOffset(entry.getSharedStaticsIndex());
+    }
+
+    /**
+     * Gets the offset from the beginning of the shared statics table to the
+     * entry with the given index.
+     *
+     * @param index
+     * @return The byte offset from the statics table to the entry
+     */
+    public final int getSharedStaticsOffset(int index) {
         if (os.isCode32()) {
-            return (VmArray.DATA_OFFSET * 4)
-                + (entry.getSharedStaticsIndex() << 2);
+            return (VmArray.DATA_OFFSET * 4) + (index << 2);
         } else {
-            return (VmArray.DATA_OFFSET * 8)
-                + (entry.getSharedStaticsIndex() << 2);
+            return (VmArray.DATA_OFFSET * 8) + (index << 2);
         }
     }
 
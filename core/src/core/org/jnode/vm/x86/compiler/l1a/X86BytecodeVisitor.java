@@ -4425,6 +4425,7 @@ final class X86BytecodeVisitor extends InlineBytecodeVisitor {
      */
     public final void yieldPoint() {
         helper.writeYieldPoint(getCurInstrLabel());
+        helper.writeTierUpCounter(getCurInstrLabel(), false);
     }
 
     /**
@@ -220,8 +220,8 @@ final class X86StackFrame {
         // Create class initialization code (if needed)
         helper.writeClassInitialize(method);
 
-        // Increment the invocation count
-        //helper.writeIncInvocationCount(aax); (NOT USED for now, aax is also invalid now)
+        // Decrement the tier-up counter
+        helper.writeTierUpCounter(helper.genLabel("$$tierup_entry"), true);
 
         // Fixed framelayout
         saveRegisters();
@@ -252,6 +252,9 @@ final class X86StackFrame {
         // Write class initializers
         helper.writeClassInitializers();
 
+        // Write tier-up code
+        helper.writeTierUpCode();
+
         // End header       
 
         // No set the exception start&endPtr's
@@ -5428,6 +5428,7 @@ final class X86BytecodeVisitor extends InlineBytecodeVisitor implements
      */
     public final void yieldPoint() {
         helper.writeYieldPoint(getCurInstrLabel());
+        helper.writeTierUpCounter(getCurInstrLabel(), false);
     }
 
     /**
@@ -213,8 +213,8 @@ final class X86StackFrame implements X86CompilerConstants {
         // Create class initialization code (if needed)
         helper.writeClassInitialize(method);
 
-        // Increment the invocation count
-        //helper.writeIncInvocationCount(aax); (NOT USED for now, aax is also invalid now)
+        // Decrement the tier-up counter
+        helper.writeTierUpCounter(helper.genLabel("$$tierup_entry"), true);
 
         // Fixed framelayout
         saveRegisters();
@@ -245,6 +245,9 @@ final class X86StackFrame implements X86CompilerConstants {
         // Write class initializers
         helper.writeClassInitializers();
 
+        // Write tier-up code
+        helper.writeTierUpCode();
+
         // End header       
 
         // No set the exception start&endPtr's
@@ -0,0 +1,104 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps a file into memory and reads it back, read-only and read-write.
+ * Give the directory for the test file as argument, the current
+ * directory is used otherwise.
+ */
+public class MappedFileTest {
+
+    private static final int SIZE = 10000;
+
+    public static void main(String[] args) throws IOException {
+        final File dir = new File((args.length > 0) ? args[0] : ".");
+        final File file = new File(dir, "mappedfile.tst");
+        final byte[] data = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                final FileChannel channel = raf.getChannel();
+
+                // Read-only mapping of a region in the middle of the file
+                final MappedByteBuffer ro = channel.map(FileChannel.MapMode.READ_ONLY, 100, 5000);
+                for (int i = 0; i < 5000; i++) {
+                    check("read-only", i, data[100 + i], ro.get(i));
+                }
+
+                // Read-write mapping, changes are written back on force
+                final MappedByteBuffer rw = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+                for (int i = 0; i < SIZE; i++) {
+                    check("read-write", i, data[i], rw.get(i));
+                    rw.put(i, (byte) ~data[i]);
+                }
+                rw.force();
+            } finally {
+                raf.close();
+            }
+
+            final byte[] written = new byte[SIZE];
+            final FileInputStream in = new FileInputStream(file);
+            try {
+                int ofs = 0;
+                while (ofs < SIZE) {
+                    final int cnt = in.read(written, ofs, SIZE - ofs);
+                    if (cnt < 0) {
+                        break;
+                    }
+                    ofs += cnt;
+                }
+            } finally {
+                in.close();
+            }
+            for (int i = 0; i < SIZE; i++) {
+                check("written back", i, (byte) ~data[i], written[i]);
+            }
+            System.out.println("Mapped file test passed");
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void check(String msg, int index, byte expected, byte actual) {
+        if (expected != actual) {
+            throw new AssertionError(msg + ": byte " + index + " is " + actual + ", expected " + expected);
+        }
+    }
+}
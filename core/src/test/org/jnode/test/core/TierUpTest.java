@@ -0,0 +1,84 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.core;
+
+import org.jnode.vm.LoadCompileService;
+import org.jnode.vm.classmgr.VmMethod;
+import org.jnode.vm.classmgr.VmType;
+
+/**
+ * Calls a hot method until it has been recompiled at two higher optimization
+ * levels, to check that the tier-up counter is re-armed after each recompilation.
+ * Run this test inside JNode.
+ */
+public class TierUpTest {
+
+    private static final int MAX_CALLS = 100 * VmMethod.TIER_UP_THRESHOLD;
+
+    public static void main(String[] args) throws InterruptedException {
+        if (!LoadCompileService.isTierUpSupported()) {
+            System.out.println("Tier-up is not supported, test skipped");
+            return;
+        }
+        final VmMethod method = VmType.fromClass(TierUpTest.class).getDeclaredMethod("hot", "(I)I");
+        if (method == null) {
+            System.out.println("FAILED: method hot not found");
+            return;
+        }
+        hot(1);
+        final int startLevel = method.getNativeCodeOptLevel();
+        if (!LoadCompileService.canTierUp(startLevel) || !LoadCompileService.canTierUp(startLevel + 1)) {
+            System.out.println("Less than two levels above " + startLevel + ", test skipped");
+            return;
+        }
+        System.out.println("Start level: " + startLevel);
+
+        int tierUps = 0;
+        int level = startLevel;
+        int sum = 0;
+        for (int i = 0; (i < MAX_CALLS) && (tierUps < 2); i++) {
+            sum += hot(i & 15);
+            if ((i % 1000) == 0) {
+                // Give the background compiler a chance to run
+                Thread.sleep(1);
+            }
+            final int newLevel = method.getNativeCodeOptLevel();
+            if (newLevel > level) {
+                System.out.println("Tiered up to level " + newLevel + " after " + i + " calls");
+                level = newLevel;
+                tierUps++;
+            }
+        }
+        if (tierUps < 2) {
+            System.out.println("FAILED: only " + tierUps + " tier-ups, level " + level + " (" + sum + ")");
+        } else {
+            System.out.println("PASSED (" + sum + ")");
+        }
+    }
+
+    private static int hot(int n) {
+        int result = 0;
+        for (int i = 0; i < n; i++) {
+            result += i * n;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.command;
+
+import java.io.PrintWriter;
+import org.jnode.driver.Device;
+import org.jnode.driver.block.BlockDeviceAPI;
+import org.jnode.fs.check.CheckListener;
+import org.jnode.fs.check.CheckReport;
+import org.jnode.fs.check.CheckRunner;
+import org.jnode.fs.check.CheckTask;
+import org.jnode.fs.check.FileSystemChecker;
+import org.jnode.fs.service.FileSystemService;
+import org.jnode.naming.InitialNaming;
+import org.jnode.shell.AbstractCommand;
+import org.jnode.shell.syntax.Argument;
+import org.jnode.shell.syntax.DeviceArgument;
+import org.jnode.shell.syntax.FlagArgument;
+import org.jnode.shell.syntax.IntegerArgument;
+import org.jnode.util.NumberUtils;
+
+/**
+ * Checks the consistency of the file system on a block device, using the checkers registered with the file system
+ * service.
+ */
+public class FsckCommand extends AbstractCommand {
+
+    private static final String help_device = "the device holding the file system";
+    private static final String help_threads = "the number of threads to check with (default: one per processor)";
+    private static final String help_verbose = "report the completion of each part of the check";
+    private static final String help_super = "Check a file system";
+    private static final String fmt_no_checker = "No file system checker found for %s%n";
+    private static final String fmt_mounted = "%s is mounted, the check may report changes being made to it%n";
+    private static final String fmt_start = "Checking the %s file system on %s using %d threads%n";
+    private static final String fmt_progress = "%d/%d checked, %s read (%s/s)%n";
+    private static final String fmt_task = "%d/%d %s checked, %s read (%s/s)%n";
+    private static final String fmt_summary = "%d errors, %d warnings, %s read in %d ms (%s/s)%n";
+    private static final String str_clean = "The file system is clean";
+    private static final String fmt_more = "... and %d more%n";
+
+    /**
+     * The minimum time between two progress lines, in milliseconds.
+     */
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    private final DeviceArgument argDevice
+        = new DeviceArgument("device", Argument.MANDATORY | Argument.EXISTING, help_device, BlockDeviceAPI.class);
+    private final IntegerArgument argThreads
+        = new IntegerArgument("threads", Argument.OPTIONAL, 1, 256, help_threads);
+    private final FlagArgument argVerbose = new FlagArgument("verbose", Argument.OPTIONAL, help_verbose);
+
+    public FsckCommand() {
+        super(help_super);
+        registerArguments(argDevice, argThreads, argVerbose);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new FsckCommand().execute(args);
+    }
+
+    public void execute() throws Exception {
+        final FileSystemService fss = InitialNaming.lookup(FileSystemService.NAME);
+        final PrintWriter out = getOutput().getPrintWriter();
+        final PrintWriter err = getError().getPrintWriter();
+        final Device dev = argDevice.getValue();
+        final BlockDeviceAPI api = dev.getAPI(BlockDeviceAPI.class);
+
+        FileSystemChecker checker = null;
+        for (FileSystemChecker c : fss.fileSystemCheckers()) {
+            if (c.supports(api)) {
+                checker = c;
+                break;
+            }
+        }
+        if (checker == null) {
+            err.format(fmt_no_checker, dev.getId());
+            exit(1);
+        }
+        if (fss.getFileSystem(dev) != null) {
+            err.format(fmt_mounted, dev.getId());
+        }
+
+        final int threads = argThreads.isSet() ? argThreads.getValue() : CheckRunner.DEFAULT_THREADS;
+        final boolean verbose = argVerbose.isSet();
+        out.format(fmt_start, checker.getName(), dev.getId(), threads);
+        out.flush();
+
+        final CheckReport report = new CheckRunner(threads).run(checker, api, new CheckListener() {
+            private long lastProgress = System.currentTimeMillis();
+
+            public void taskCompleted(CheckTask task, CheckReport report) {
+                final long now = System.currentTimeMillis();
+                final String read = NumberUtils.toBinaryByte(report.getBytesRead());
+                final String rate = NumberUtils.toBinaryByte(report.getThroughput());
+                if (verbose) {
+                    out.format(fmt_task, report.getCompletedTaskCount(), report.getTaskCount(), task.getName(),
+                        read, rate);
+                } else if (now - lastProgress >= PROGRESS_INTERVAL) {
+                    out.format(fmt_progress, report.getCompletedTaskCount(), report.getTaskCount(), read, rate);
+                } else {
+                    return;
+                }
+                out.flush();
+                lastProgress = now;
+            }
+        });
+
+        print(out, report.getWarnings(), report.getWarningCount());
+        print(out, report.getErrors(), report.getErrorCount());
+        if (report.isClean()) {
+            out.println(str_clean);
+        }
+        out.format(fmt_summary, report.getErrorCount(), report.getWarningCount(),
+            NumberUtils.toBinaryByte(report.getBytesRead()), report.getElapsedTime(),
+            NumberUtils.toBinaryByte(report.getThroughput()));
+        if (!report.isClean()) {
+            exit(1);
+        }
+    }
+
+    private void print(PrintWriter out, Iterable<String> messages, int count) {
+        int printed = 0;
+        for (String message : messages) {
+            out.println(message);
+            printed++;
+        }
+        if (count > printed) {
+            out.format(fmt_more, count - printed);
+        }
+    }
+}
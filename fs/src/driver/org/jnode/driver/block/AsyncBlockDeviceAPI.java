@@ -0,0 +1,59 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.driver.block;
+
+import java.io.IOException;
+import org.jnode.driver.DeviceAPI;
+
+/**
+ * An API for block devices that can have more than one request in flight.
+ * <p/>
+ * Requests are queued per device and carried out in an order that suits the device, adjacent requests may be merged
+ * into a single transfer. Overlapping requests are carried out in the order they were submitted if one of them is a
+ * write. Devices that only implement {@link BlockDeviceAPI} can be used through
+ * {@link AsyncBlockDeviceAdapter#getAsyncAPI(org.jnode.driver.Device)}.
+ */
+public interface AsyncBlockDeviceAPI extends DeviceAPI {
+
+    /**
+     * Gets the total length in bytes
+     *
+     * @return long
+     * @throws IOException
+     */
+    public long getLength() throws IOException;
+
+    /**
+     * Queues a request. The position of the request buffer is not changed by the transfer.
+     *
+     * @param request the request.
+     * @return the request, to wait for it.
+     * @throws IOException if the request is out of the bounds of the device.
+     */
+    public BlockRequest submit(BlockRequest request) throws IOException;
+
+    /**
+     * Waits for all queued requests to complete, then flushes data in caches to the block device.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException;
+}
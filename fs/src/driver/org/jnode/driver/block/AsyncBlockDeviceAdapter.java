@@ -0,0 +1,269 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.driver.block;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.apache.log4j.Logger;
+import org.jnode.driver.ApiNotFoundException;
+import org.jnode.driver.Device;
+
+/**
+ * An {@link AsyncBlockDeviceAPI} for devices that only implement the synchronous {@link BlockDeviceAPI}.
+ * <p/>
+ * Requests are queued in a {@link BlockRequestQueue} and carried out by a single dispatcher thread per device, so
+ * any number of callers can have requests in flight without a thread each. Each batch of adjacent requests is
+ * carried out with a single read or write. The dispatcher thread stops when the queue has been idle for a while.
+ */
+public class AsyncBlockDeviceAdapter implements AsyncBlockDeviceAPI {
+
+    /**
+     * The time in milliseconds the dispatcher waits for new requests before it stops.
+     */
+    private static final long IDLE_TIMEOUT = 1000;
+
+    private static final Logger log = Logger.getLogger(AsyncBlockDeviceAdapter.class);
+
+    /**
+     * The adapters by device, so all users of a device share its queue.
+     */
+    private static final Map<BlockDeviceAPI, WeakReference<AsyncBlockDeviceAdapter>> adapters =
+        new WeakHashMap<BlockDeviceAPI, WeakReference<AsyncBlockDeviceAdapter>>();
+
+    private static int threadCount;
+
+    private final BlockDeviceAPI api;
+
+    private final BlockRequestQueue queue;
+
+    /**
+     * The dispatcher thread, or {@code null} if it is not running.
+     */
+    private Thread dispatcher;
+
+    /**
+     * The number of requests taken from the queue that have not completed yet.
+     */
+    private int active;
+
+    /**
+     * Gets the asynchronous API of a device, using an adapter if the device only implements {@link BlockDeviceAPI}.
+     *
+     * @param device the device.
+     * @return the asynchronous API.
+     * @throws ApiNotFoundException if the device is not a block device.
+     */
+    public static AsyncBlockDeviceAPI getAsyncAPI(Device device) throws ApiNotFoundException {
+        if (device.implementsAPI(AsyncBlockDeviceAPI.class)) {
+            return device.getAPI(AsyncBlockDeviceAPI.class);
+        }
+        return getAsyncAPI(device.getAPI(BlockDeviceAPI.class));
+    }
+
+    /**
+     * Gets the adapter for a block device API, creating it if required.
+     *
+     * @param api the block device API.
+     * @return the adapter.
+     */
+    public static synchronized AsyncBlockDeviceAdapter getAsyncAPI(BlockDeviceAPI api) {
+        final WeakReference<AsyncBlockDeviceAdapter> ref = adapters.get(api);
+        AsyncBlockDeviceAdapter adapter = (ref != null) ? ref.get() : null;
+        if (adapter == null) {
+            adapter = new AsyncBlockDeviceAdapter(api, new BlockRequestQueue());
+            adapters.put(api, new WeakReference<AsyncBlockDeviceAdapter>(adapter));
+        }
+        return adapter;
+    }
+
+    /**
+     * Create an adapter with its own queue. Use {@link #getAsyncAPI(BlockDeviceAPI)} to share the queue of a device.
+     *
+     * @param api   the block device API.
+     * @param queue the request queue.
+     */
+    public AsyncBlockDeviceAdapter(BlockDeviceAPI api, BlockRequestQueue queue) {
+        this.api = api;
+        this.queue = queue;
+    }
+
+    /**
+     * @see org.jnode.driver.block.AsyncBlockDeviceAPI#getLength()
+     */
+    public long getLength() throws IOException {
+        return api.getLength();
+    }
+
+    /**
+     * @see org.jnode.driver.block.AsyncBlockDeviceAPI#submit(BlockRequest)
+     */
+    public BlockRequest submit(BlockRequest request) throws IOException {
+        BlockDeviceAPIHelper.checkBounds(api, request.getDevOffset(), request.getLength());
+        synchronized (this) {
+            queue.add(request);
+            if (dispatcher == null) {
+                dispatcher = new Thread(new Runnable() {
+                    public void run() {
+                        dispatch();
+                    }
+                }, "async-block-" + nextThreadNumber());
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+            } else {
+                notifyAll();
+            }
+        }
+        return request;
+    }
+
+    /**
+     * @see org.jnode.driver.block.AsyncBlockDeviceAPI#flush()
+     */
+    public void flush() throws IOException {
+        synchronized (this) {
+            while (!queue.isEmpty() || active > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException("Interrupted waiting for queued requests");
+                }
+            }
+        }
+        api.flush();
+    }
+
+    /**
+     * Gets the number of queued requests that have not been started yet.
+     *
+     * @return the number of requests.
+     */
+    public synchronized int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * Carries out queued requests until the queue has been idle for {@link #IDLE_TIMEOUT}.
+     */
+    private void dispatch() {
+        while (true) {
+            final List<BlockRequest> batch;
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    try {
+                        wait(IDLE_TIMEOUT);
+                    } catch (InterruptedException ex) {
+                        // Ignore
+                    }
+                    if (queue.isEmpty()) {
+                        dispatcher = null;
+                        return;
+                    }
+                }
+                batch = queue.next();
+                active += batch.size();
+            }
+            try {
+                execute(batch);
+            } finally {
+                synchronized (this) {
+                    active -= batch.size();
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries out a batch of adjacent requests of the same type, skipping requests that have been cancelled.
+     *
+     * @param batch the batch.
+     */
+    private void execute(List<BlockRequest> batch) {
+        int start = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (!batch.get(i).start()) {
+                // Cancelled, so the requests on either side are no longer adjacent
+                executeRun(batch.subList(start, i));
+                start = i + 1;
+            }
+        }
+        executeRun(batch.subList(start, batch.size()));
+    }
+
+    /**
+     * Carries out a run of adjacent requests of the same type with a single transfer.
+     *
+     * @param run the requests.
+     */
+    private void executeRun(List<BlockRequest> run) {
+        if (run.isEmpty()) {
+            return;
+        }
+        Throwable error = null;
+        try {
+            final BlockRequest first = run.get(0);
+            if (run.size() == 1) {
+                if (first.getType() == BlockRequest.Type.READ) {
+                    api.read(first.getDevOffset(), first.getBuffer().duplicate());
+                } else {
+                    api.write(first.getDevOffset(), first.getBuffer().duplicate());
+                }
+            } else {
+                final BlockRequest last = run.get(run.size() - 1);
+                final ByteBuffer data = ByteBuffer.allocate((int) (last.getEndOffset() - first.getDevOffset()));
+                if (first.getType() == BlockRequest.Type.READ) {
+                    api.read(first.getDevOffset(), data);
+                    data.clear();
+                    for (BlockRequest request : run) {
+                        data.limit(data.position() + request.getLength());
+                        request.getBuffer().duplicate().put(data);
+                    }
+                } else {
+                    for (BlockRequest request : run) {
+                        data.put(request.getBuffer().duplicate());
+                    }
+                    data.flip();
+                    api.write(first.getDevOffset(), data);
+                }
+            }
+        } catch (IOException ex) {
+            error = ex;
+        } catch (RuntimeException ex) {
+            error = ex;
+        }
+        for (BlockRequest request : run) {
+            try {
+                request.complete(error);
+            } catch (RuntimeException ex) {
+                log.error("Error in block request listener", ex);
+            }
+        }
+    }
+
+    private static synchronized int nextThreadNumber() {
+        return threadCount++;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.driver.block;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A read or write request submitted to an {@link AsyncBlockDeviceAPI}.
+ * <p/>
+ * The request is a {@link Future} of the buffer it transfers. A request can be cancelled until the device has
+ * started it, and a listener can be set to be told when it completes.
+ */
+public final class BlockRequest implements Future<ByteBuffer> {
+
+    /**
+     * The request types.
+     */
+    public enum Type {
+        READ,
+        WRITE
+    }
+
+    private final Type type;
+
+    private final long devOffset;
+
+    private final ByteBuffer buffer;
+
+    private final int length;
+
+    private final BlockRequestListener listener;
+
+    /**
+     * The time the request was queued, in {@link System#nanoTime()} units.
+     */
+    private long queueTime;
+
+    /**
+     * The submission order of the request in its queue.
+     */
+    private long sequence;
+
+    private boolean started;
+
+    private boolean done;
+
+    private boolean cancelled;
+
+    private Throwable error;
+
+    /**
+     * Creates a new request.
+     *
+     * @param type      the request type.
+     * @param devOffset the device offset.
+     * @param buffer    the buffer to read into or write from, between its position and limit.
+     * @param listener  the listener to tell when the request is done, or {@code null}.
+     */
+    public BlockRequest(Type type, long devOffset, ByteBuffer buffer, BlockRequestListener listener) {
+        if (devOffset < 0) {
+            throw new IllegalArgumentException("devOffset < 0");
+        }
+        this.type = type;
+        this.devOffset = devOffset;
+        this.buffer = buffer;
+        this.length = buffer.remaining();
+        this.listener = listener;
+    }
+
+    /**
+     * Creates a read request.
+     *
+     * @param devOffset the device offset.
+     * @param dest      the buffer to read into.
+     * @param listener  the listener to tell when the request is done, or {@code null}.
+     * @return the request.
+     */
+    public static BlockRequest read(long devOffset, ByteBuffer dest, BlockRequestListener listener) {
+        return new BlockRequest(Type.READ, devOffset, dest, listener);
+    }
+
+    /**
+     * Creates a write request.
+     *
+     * @param devOffset the device offset.
+     * @param src       the buffer to write from.
+     * @param listener  the listener to tell when the request is done, or {@code null}.
+     * @return the request.
+     */
+    public static BlockRequest write(long devOffset, ByteBuffer src, BlockRequestListener listener) {
+        return new BlockRequest(Type.WRITE, devOffset, src, listener);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getDevOffset() {
+        return devOffset;
+    }
+
+    /**
+     * Gets the device offset following the request.
+     *
+     * @return the end offset.
+     */
+    public long getEndOffset() {
+        return devOffset + length;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Gets the number of bytes to transfer.
+     *
+     * @return the length.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    long getQueueTime() {
+        return queueTime;
+    }
+
+    void setQueueTime(long queueTime) {
+        this.queueTime = queueTime;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Marks the request as started, unless it was cancelled.
+     *
+     * @return {@code true} if the request should be carried out.
+     */
+    synchronized boolean start() {
+        if (cancelled) {
+            return false;
+        }
+        started = true;
+        return true;
+    }
+
+    /**
+     * Completes the request and tells the listener.
+     *
+     * @param error the error, or {@code null} if the request succeeded.
+     */
+    void complete(Throwable error) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.error = error;
+            done = true;
+            notifyAll();
+        }
+        if (listener != null) {
+            listener.requestCompleted(this);
+        }
+    }
+
+    /**
+     * Waits for the request to complete.
+     *
+     * @throws IOException if the request failed, was cancelled or the wait was interrupted.
+     */
+    public void waitFor() throws IOException {
+        try {
+            get();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted waiting for " + this);
+        } catch (CancellationException ex) {
+            throw new InterruptedIOException(this + " was cancelled");
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            final IOException ioe = new IOException("Error in " + this);
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Gets the error the request failed with.
+     *
+     * @return the error, or {@code null} if the request has not failed (yet).
+     */
+    public synchronized Throwable getError() {
+        return error;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (started || done) {
+                return false;
+            }
+            cancelled = true;
+        }
+        complete(null);
+        return true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized ByteBuffer get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    public synchronized ByteBuffer get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        final long end = System.nanoTime() + remaining;
+        while (!done) {
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = end - System.nanoTime();
+        }
+        return getResult();
+    }
+
+    private ByteBuffer getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return buffer;
+    }
+
+    @Override
+    public String toString() {
+        return type + " request [offset " + devOffset + ", length " + length + "]";
+    }
+}
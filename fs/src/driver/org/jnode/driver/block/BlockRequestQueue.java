@@ -0,0 +1,267 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.driver.block;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A queue of block requests that hands them out in elevator order, with deadlines.
+ * <p/>
+ * Requests are normally handed out in ascending offset order starting from the end of the previous batch, wrapping
+ * around to the lowest offset (C-LOOK). When the oldest read or write has waited longer than its deadline, it is
+ * handed out first so requests far from the head are not starved. Requests of the same type that follow each other
+ * on the device are handed out together in one batch so they can be carried out as a single transfer.
+ * <p/>
+ * The queue is not synchronized.
+ */
+public class BlockRequestQueue {
+
+    /**
+     * The default read deadline in milliseconds.
+     */
+    public static final long DEFAULT_READ_DEADLINE = 500;
+
+    /**
+     * The default write deadline in milliseconds.
+     */
+    public static final long DEFAULT_WRITE_DEADLINE = 5000;
+
+    /**
+     * The default maximum number of bytes in a batch.
+     */
+    public static final int DEFAULT_MAX_BATCH = 128 * 1024;
+
+    /**
+     * The queued requests by offset, requests with the same offset in submission order.
+     */
+    private final TreeMap<Long, List<BlockRequest>> sorted = new TreeMap<Long, List<BlockRequest>>();
+
+    /**
+     * The queued reads in submission order, which is also the order of their deadlines.
+     */
+    private final LinkedHashSet<BlockRequest> reads = new LinkedHashSet<BlockRequest>();
+
+    /**
+     * The queued writes in submission order, which is also the order of their deadlines.
+     */
+    private final LinkedHashSet<BlockRequest> writes = new LinkedHashSet<BlockRequest>();
+
+    private final long readDeadline;
+
+    private final long writeDeadline;
+
+    private final int maxBatch;
+
+    /**
+     * The device offset following the last batch.
+     */
+    private long head;
+
+    /**
+     * The number of requests added so far, to keep track of the submission order.
+     */
+    private long sequence;
+
+    /**
+     * The number of queued requests.
+     */
+    private int count;
+
+    /**
+     * The length of the longest queued request, which limits how far back an overlapping request can start.
+     */
+    private int maxLength;
+
+    /**
+     * Create a queue with the default deadlines and batch size.
+     */
+    public BlockRequestQueue() {
+        this(DEFAULT_READ_DEADLINE, DEFAULT_WRITE_DEADLINE, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * Create a queue.
+     *
+     * @param readDeadline  the read deadline in milliseconds.
+     * @param writeDeadline the write deadline in milliseconds.
+     * @param maxBatch      the maximum number of bytes in a batch, a single larger request is still handed out.
+     */
+    public BlockRequestQueue(long readDeadline, long writeDeadline, int maxBatch) {
+        this.readDeadline = readDeadline * 1000000L;
+        this.writeDeadline = writeDeadline * 1000000L;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Adds a request to the queue.
+     *
+     * @param request the request.
+     */
+    public void add(BlockRequest request) {
+        request.setQueueTime(System.nanoTime());
+        request.setSequence(sequence++);
+
+        // Requests with the same offset are kept in submission order
+        List<BlockRequest> requests = sorted.get(request.getDevOffset());
+        if (requests == null) {
+            requests = new ArrayList<BlockRequest>(1);
+            sorted.put(request.getDevOffset(), requests);
+        }
+        requests.add(request);
+        getFifo(request).add(request);
+        count++;
+        maxLength = Math.max(maxLength, request.getLength());
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Removes the next batch of requests from the queue. The requests of a batch have the same type and each
+     * starts where the previous one ends.
+     *
+     * @return the batch, or an empty list if the queue is empty.
+     */
+    public List<BlockRequest> next() {
+        final List<BlockRequest> batch = new ArrayList<BlockRequest>();
+        if (count == 0) {
+            return batch;
+        }
+
+        BlockRequest first = getExpired(System.nanoTime());
+        if (first == null) {
+            Map.Entry<Long, List<BlockRequest>> entry = sorted.ceilingEntry(head);
+            if (entry == null) {
+                entry = sorted.firstEntry();
+            }
+            first = entry.getValue().get(0);
+        }
+        first = getPredecessor(first);
+
+        int length = first.getLength();
+        batch.add(first);
+        remove(first);
+        BlockRequest last = first;
+        while (count > 0) {
+            // The first request at or after the end of the last one
+            final Map.Entry<Long, List<BlockRequest>> entry = sorted.ceilingEntry(last.getEndOffset());
+            if (entry == null) {
+                break;
+            }
+            final BlockRequest request = entry.getValue().get(0);
+            if (request.getType() != first.getType() || request.getDevOffset() != last.getEndOffset() ||
+                length + request.getLength() > maxBatch || hasPredecessor(request)) {
+                break;
+            }
+            batch.add(request);
+            remove(request);
+            length += request.getLength();
+            last = request;
+        }
+
+        head = last.getEndOffset();
+        return batch;
+    }
+
+    /**
+     * Removes a request from the queue.
+     */
+    private void remove(BlockRequest request) {
+        final List<BlockRequest> requests = sorted.get(request.getDevOffset());
+        requests.remove(request);
+        if (requests.isEmpty()) {
+            sorted.remove(request.getDevOffset());
+        }
+        getFifo(request).remove(request);
+        if (--count == 0) {
+            maxLength = 0;
+        }
+    }
+
+    /**
+     * Gets the oldest read or write whose deadline has passed.
+     */
+    private BlockRequest getExpired(long now) {
+        if (!reads.isEmpty()) {
+            final BlockRequest read = reads.iterator().next();
+            if (now - read.getQueueTime() >= readDeadline) {
+                return read;
+            }
+        }
+        if (!writes.isEmpty()) {
+            final BlockRequest write = writes.iterator().next();
+            if (now - write.getQueueTime() >= writeDeadline) {
+                return write;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the earliest submitted request that must be carried out before the given one. That is a request that
+     * overlaps it where one of the two is a write.
+     */
+    private BlockRequest getPredecessor(BlockRequest request) {
+        BlockRequest result = request;
+        for (BlockRequest other = findPredecessor(result); other != null; other = findPredecessor(result)) {
+            result = other;
+        }
+        return result;
+    }
+
+    private boolean hasPredecessor(BlockRequest request) {
+        return findPredecessor(request) != null;
+    }
+
+    private BlockRequest findPredecessor(BlockRequest request) {
+        BlockRequest result = null;
+        // Only requests starting less than the longest request length before this one can overlap it
+        final long from = request.getDevOffset() - maxLength;
+        for (List<BlockRequest> requests : sorted.subMap(from, false, request.getEndOffset(), false).values()) {
+            for (BlockRequest other : requests) {
+                if (other != request && other.getEndOffset() > request.getDevOffset() &&
+                    (other.getType() == BlockRequest.Type.WRITE || request.getType() == BlockRequest.Type.WRITE) &&
+                    isSubmittedBefore(other, request) &&
+                    (result == null || isSubmittedBefore(other, result))) {
+                    result = other;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean isSubmittedBefore(BlockRequest r1, BlockRequest r2) {
+        return r1.getSequence() < r2.getSequence();
+    }
+
+    private LinkedHashSet<BlockRequest> getFifo(BlockRequest request) {
+        return request.getType() == BlockRequest.Type.READ ? reads : writes;
+    }
+}
@@ -63,19 +63,24 @@ public class FileDevice extends Device implements FSBlockDeviceAPI {
     }
 
     /**
-     * (non-Javadoc)
+     * Reads and writes are synchronized, since a seek and the transfer that follows it on the shared file must
+     * not be interleaved with the background read-ahead and write-back of the buffer cache. Buffers backed by an
+     * array are transferred straight to or from that array.
      *
      * @see org.jnode.driver.block.BlockDeviceAPI#read(long, java.nio.ByteBuffer)
      */
-    public void read(long devOffset, ByteBuffer destBuf) throws IOException {
+    public synchronized void read(long devOffset, ByteBuffer destBuf) throws IOException {
         BlockDeviceAPIHelper.checkBounds(this, devOffset, destBuf.remaining());
         raf.seek(devOffset);
 
-        //TODO optimize it also to use ByteBuffer at lower level
-        ByteBufferUtils.ByteArray destBA = ByteBufferUtils.toByteArray(destBuf);
-        byte[] dest = destBA.toArray();
-        raf.read(dest, 0, dest.length);
-        destBA.refreshByteBuffer();
+        if (destBuf.hasArray()) {
+            raf.readFully(destBuf.array(), destBuf.arrayOffset() + destBuf.position(), destBuf.remaining());
+            destBuf.position(destBuf.limit());
+        } else {
+            final byte[] dest = new byte[destBuf.remaining()];
+            raf.readFully(dest);
+            destBuf.put(dest);
+        }
     }
 
     /**
@@ -83,14 +88,17 @@ public class FileDevice extends Device implements FSBlockDeviceAPI {
      *
      * @see org.jnode.driver.block.BlockDeviceAPI#write(long, java.nio.ByteBuffer)
      */
-    public void write(long devOffset, ByteBuffer srcBuf) throws IOException {
+    public synchronized void write(long devOffset, ByteBuffer srcBuf) throws IOException {
         //log.debug("fd.write devOffset=" + devOffset + ", length=" + length);
         BlockDeviceAPIHelper.checkBounds(this, devOffset, srcBuf.remaining());
         raf.seek(devOffset);
 
-        //TODO optimize it also to use ByteBuffer at lower level
-        byte[] src = ByteBufferUtils.toArray(srcBuf);
-        raf.write(src, 0, src.length);
+        if (srcBuf.hasArray()) {
+            raf.write(srcBuf.array(), srcBuf.arrayOffset() + srcBuf.position(), srcBuf.remaining());
+            srcBuf.position(srcBuf.limit());
+        } else {
+            raf.write(ByteBufferUtils.toArray(srcBuf));
+        }
     }
 
     /**
@@ -0,0 +1,165 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The problems found by a {@link FileSystemCheck}, along with its progress. Problems may be added from any thread.
+ * Only the first {@link #MAX_MESSAGES} errors and warnings are kept, but all of them are counted.
+ */
+public class CheckReport {
+
+    /**
+     * The maximum number of error and of warning messages kept.
+     */
+    public static final int MAX_MESSAGES = 1000;
+
+    private final String name;
+    private final List<String> errors = new ArrayList<String>();
+    private final List<String> warnings = new ArrayList<String>();
+    private int errorCount;
+    private int warningCount;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final long startTime = System.currentTimeMillis();
+    private long endTime;
+    private int taskCount;
+    private int completedTaskCount;
+
+    /**
+     * Creates a new report.
+     *
+     * @param name the name of the file system type being checked.
+     */
+    public CheckReport(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the name of the file system type being checked.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Adds an inconsistency in the file system.
+     *
+     * @param message the description of the problem.
+     */
+    public synchronized void error(String message) {
+        if (errorCount++ < MAX_MESSAGES) {
+            errors.add(message);
+        }
+    }
+
+    /**
+     * Adds a problem that does not make the file system inconsistent, such as a stale free space count.
+     *
+     * @param message the description of the problem.
+     */
+    public synchronized void warning(String message) {
+        if (warningCount++ < MAX_MESSAGES) {
+            warnings.add(message);
+        }
+    }
+
+    public synchronized List<String> getErrors() {
+        return new ArrayList<String>(errors);
+    }
+
+    public synchronized List<String> getWarnings() {
+        return new ArrayList<String>(warnings);
+    }
+
+    public synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    public synchronized int getWarningCount() {
+        return warningCount;
+    }
+
+    /**
+     * Were no errors found?
+     *
+     * @return {@code true} if the file system is consistent.
+     */
+    public synchronized boolean isClean() {
+        return errorCount == 0;
+    }
+
+    /**
+     * Adds to the number of bytes read from the device.
+     *
+     * @param count the number of bytes.
+     */
+    public void addBytesRead(long count) {
+        bytesRead.addAndGet(count);
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Gets the time spent on the check so far, or in total once it has finished.
+     *
+     * @return the time in milliseconds.
+     */
+    public synchronized long getElapsedTime() {
+        return (endTime != 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * Gets the average read throughput of the check.
+     *
+     * @return the throughput in bytes per second.
+     */
+    public long getThroughput() {
+        final long elapsed = getElapsedTime();
+        return (elapsed > 0) ? getBytesRead() * 1000 / elapsed : 0;
+    }
+
+    public synchronized int getTaskCount() {
+        return taskCount;
+    }
+
+    public synchronized int getCompletedTaskCount() {
+        return completedTaskCount;
+    }
+
+    synchronized void setTaskCount(int taskCount) {
+        this.taskCount = taskCount;
+    }
+
+    synchronized void taskCompleted() {
+        completedTaskCount++;
+    }
+
+    synchronized void finished() {
+        endTime = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.check;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.log4j.Logger;
+import org.jnode.driver.block.BlockDeviceAPI;
+
+/**
+ * Runs file system checks, spreading the tasks of each check over a pool of threads so that checking a large volume
+ * is bounded by the disk rather than by a single processor.
+ */
+public class CheckRunner {
+
+    /** My logger */
+    private static final Logger log = Logger.getLogger(CheckRunner.class);
+
+    /**
+     * The number of threads used by default.
+     */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private final int threads;
+
+    /**
+     * Creates a new runner using {@link #DEFAULT_THREADS} threads.
+     */
+    public CheckRunner() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * Creates a new runner.
+     *
+     * @param threads the maximum number of tasks to run at the same time.
+     */
+    public CheckRunner(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads < 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Checks the file system on a device. A task that fails with an exception is added to the report as an error,
+     * and the remaining tasks still run, but the final cross-checks are then skipped.
+     *
+     * @param checker  the checker for the file system on the device.
+     * @param api      the device.
+     * @param listener the listener to notify of progress, or {@code null}.
+     * @return the report.
+     * @throws IOException if an error occurs reading the fixed metadata of the file system, or the check is
+     *                     interrupted.
+     */
+    public CheckReport run(FileSystemChecker checker, BlockDeviceAPI api, CheckListener listener)
+        throws IOException {
+        final CheckReport report = new CheckReport(checker.getName());
+        final FileSystemCheck check = checker.createCheck(api);
+        final List<CheckTask> tasks = check.prepare(report);
+        report.setTaskCount(tasks.size());
+
+        final AtomicBoolean failed = new AtomicBoolean();
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())), new ThreadFactory() {
+                private int count;
+
+                public synchronized Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "fs-check-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try {
+            final CompletionService<CheckTask> completion = new ExecutorCompletionService<CheckTask>(executor);
+            for (final CheckTask task : tasks) {
+                completion.submit(new Callable<CheckTask>() {
+                    public CheckTask call() {
+                        try {
+                            task.run(report);
+                        } catch (IOException ex) {
+                            fail(task, ex);
+                        } catch (RuntimeException ex) {
+                            // Badly damaged structures can send a task outside of its buffers
+                            fail(task, ex);
+                        }
+                        return task;
+                    }
+
+                    private void fail(CheckTask task, Exception ex) {
+                        log.debug("Check of " + task.getName() + " failed", ex);
+                        report.error(task.getName() + ": check failed: " + ex);
+                        failed.set(true);
+                    }
+                });
+            }
+
+            for (int i = 0; i < tasks.size(); i++) {
+                final CheckTask task = completion.take().get();
+                report.taskCompleted();
+                if (listener != null) {
+                    listener.taskCompleted(task, report);
+                }
+            }
+
+            if (failed.get()) {
+                report.warning("Not all of the file system could be checked, so it was not cross-checked");
+            } else {
+                check.complete(report);
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while checking the file system");
+        } catch (ExecutionException ex) {
+            // The tasks catch their own exceptions, so this is only an error or a bug
+            throw (IOException) new IOException("Error checking the file system").initCause(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+            report.finished();
+        }
+
+        return report;
+    }
+}
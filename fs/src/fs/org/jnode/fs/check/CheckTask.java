@@ -0,0 +1,45 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.check;
+
+import java.io.IOException;
+
+/**
+ * An independent part of a {@link FileSystemCheck}. Tasks of the same check may run concurrently, so a task must
+ * only write to state that no other task touches.
+ */
+public interface CheckTask {
+
+    /**
+     * Gets a short description of the part of the file system checked by this task, e.g. "group 12".
+     *
+     * @return the name.
+     */
+    public String getName();
+
+    /**
+     * Runs this task.
+     *
+     * @param report the report to add problems to.
+     * @throws IOException if an error occurs reading the device.
+     */
+    public void run(CheckReport report) throws IOException;
+}
@@ -0,0 +1,84 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.check;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.jnode.driver.block.BlockDeviceAPI;
+
+/**
+ * A single run of a {@link FileSystemChecker} over a device.
+ * <p/>
+ * A check first reads and validates the fixed metadata of the file system and splits the rest of the work into
+ * tasks that do not depend on each other, such as one task per block group. The tasks are run in parallel by a
+ * {@link CheckRunner} and, once all of them have completed, the check cross-checks what they found.
+ */
+public abstract class FileSystemCheck {
+
+    /**
+     * The device being checked.
+     */
+    protected final BlockDeviceAPI api;
+
+    /**
+     * Creates a new check.
+     *
+     * @param api the device to check.
+     */
+    protected FileSystemCheck(BlockDeviceAPI api) {
+        this.api = api;
+    }
+
+    /**
+     * Reads and validates the fixed metadata of the file system.
+     *
+     * @param report the report to add problems to.
+     * @return the tasks to run, possibly empty if the metadata is too damaged to go any further.
+     * @throws IOException if an error occurs reading the device.
+     */
+    public abstract List<CheckTask> prepare(CheckReport report) throws IOException;
+
+    /**
+     * Cross-checks the results of the tasks. This is only called if every task ran to completion.
+     *
+     * @param report the report to add problems to.
+     * @throws IOException if an error occurs reading the device.
+     */
+    public void complete(CheckReport report) throws IOException {
+    }
+
+    /**
+     * Reads a part of the device, counting the bytes read in the report.
+     *
+     * @param offset the device offset to read from.
+     * @param length the number of bytes to read.
+     * @param report the report.
+     * @return the data read.
+     * @throws IOException if an error occurs reading the device.
+     */
+    protected final byte[] read(long offset, int length, CheckReport report) throws IOException {
+        final byte[] data = new byte[length];
+        api.read(offset, ByteBuffer.wrap(data));
+        report.addBytesRead(length);
+        return data;
+    }
+}
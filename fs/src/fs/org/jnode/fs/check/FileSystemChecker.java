@@ -0,0 +1,57 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.check;
+
+import java.io.IOException;
+import org.jnode.driver.block.BlockDeviceAPI;
+
+/**
+ * Checks the consistency of the on-disk structures of a class of file systems. Checkers work on the raw block
+ * device, so the file system does not have to be mounted (or even mountable) to be checked.
+ * <p/>
+ * Checkers are registered through the <tt>org.jnode.fs.checkers</tt> extension point.
+ */
+public interface FileSystemChecker {
+
+    /**
+     * Gets the name of the file system type this checker handles.
+     *
+     * @return the name.
+     */
+    public String getName();
+
+    /**
+     * Can this checker check the file system on the given device?
+     *
+     * @param api the device to check.
+     * @return {@code true} if the device holds a file system of this type.
+     * @throws IOException if an error occurs reading the device.
+     */
+    public boolean supports(BlockDeviceAPI api) throws IOException;
+
+    /**
+     * Creates a new check of the file system on the given device.
+     *
+     * @param api the device to check.
+     * @return the check.
+     */
+    public FileSystemCheck createCheck(BlockDeviceAPI api);
+}
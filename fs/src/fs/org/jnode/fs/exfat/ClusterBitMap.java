@@ -21,9 +21,16 @@
 package org.jnode.fs.exfat;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.jnode.fs.util.FSUtils;
 
 /**
  * The exFAT free space bitmap.
+ * <p/>
+ * The bitmap is read into memory in large chunks the first time it is used and kept as an array of longs, so
+ * queries do not touch the device and the used clusters are counted 64 at a time. The bitmap takes one bit per
+ * cluster, e.g. 8MB for a 256GB volume with 4KB clusters.
  *
  * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
  */
@@ -62,6 +69,22 @@ public final class ClusterBitMap {
     private final long devOffset;
     private final DeviceAccess da;
 
+    /**
+     * The number of bytes read from the device at a time when loading the bitmap, a multiple of 8.
+     */
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The bitmap, bit {@code n} of the file system at bit {@code n % 64} of word {@code n / 64}, or {@code null} if
+     * it has not been read yet.
+     */
+    private long[] words;
+
+    /**
+     * The number of set bits in the bitmap.
+     */
+    private long usedClusterCount;
+
     private ClusterBitMap(
         ExFatSuperBlock sb, long startCluster, long size)
         throws IOException {
@@ -78,9 +101,8 @@ public final class ClusterBitMap {
         Cluster.checkValid(cluster, this.sb);
 
         final long bitNum = cluster - Cluster.FIRST_DATA_CLUSTER;
-        final long offset = bitNum / 8;
-        final int bits = this.da.getUint8(offset + this.devOffset);
-        return (bits & (1 << (bitNum % 8))) == 0;
+        final long[] bits = getWords();
+        return (bits[(int) (bitNum >>> 6)] & (1L << bitNum)) == 0;
     }
 
     /**
@@ -102,14 +124,50 @@ public final class ClusterBitMap {
     }
 
     public long getUsedClusterCount() throws IOException {
-        long result = 0;
+        getWords();
+        return usedClusterCount;
+    }
+
+    /**
+     * Gets the bitmap words, reading the bitmap if required.
+     *
+     * @return the words.
+     * @throws IOException if an error occurs reading the bitmap.
+     */
+    private synchronized long[] getWords() throws IOException {
+        if (words != null) {
+            return words;
+        }
 
-        for (long i = 0; i < size; i++) {
-            final int bits = this.da.getUint8(this.devOffset + i);
-            result += Integer.bitCount(bits);
+        final long[] result = new long[FSUtils.checkedCast((size + 7) / 8)];
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_CHUNK_SIZE, size));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        long used = 0;
+        int word = 0;
+        for (long offset = 0; offset < size; offset += buffer.limit()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - offset));
+            this.da.read(buffer, this.devOffset + offset);
+            buffer.rewind();
+
+            while (buffer.remaining() >= 8) {
+                result[word] = buffer.getLong();
+                used += Long.bitCount(result[word++]);
+            }
+
+            if (buffer.hasRemaining()) {
+                // The last few bytes of the bitmap
+                long last = 0;
+                for (int shift = 0; buffer.hasRemaining(); shift += 8) {
+                    last |= (long) (buffer.get() & 0xff) << shift;
+                }
+                result[word] = last;
+                used += Long.bitCount(result[word++]);
+            }
         }
 
-        return result;
+        usedClusterCount = used;
+        words = result;
+        return words;
     }
-
 }
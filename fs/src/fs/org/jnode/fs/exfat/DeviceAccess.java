@@ -36,31 +36,70 @@ final class DeviceAccess {
      */
     public static final int BYTES_PER_CHAR = 2;
 
+    /**
+     * The size of the window of the device the single value reads are served from.
+     */
+    private static final int WINDOW_SIZE = 512;
+
     private final BlockDeviceAPI dev;
     private final ByteBuffer buffer;
 
+    /**
+     * The last window read from the device. The file system is read-only, so it never gets stale.
+     */
+    private final ByteBuffer window;
+
+    /**
+     * The device offset of the window, or -1 if nothing has been read yet.
+     */
+    private long windowOffset = -1;
+
     public DeviceAccess(BlockDeviceAPI dev) {
         this.dev = dev;
         this.buffer = ByteBuffer.allocate(8);
         this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.window = ByteBuffer.allocate(WINDOW_SIZE);
+        this.window.order(ByteOrder.LITTLE_ENDIAN);
     }
 
     public int getUint8(long offset) throws IOException {
-        this.buffer.rewind();
-        this.buffer.limit(1);
-        this.dev.read(offset, buffer);
-        this.buffer.rewind();
-
-        return getUint8(this.buffer);
+        return getUint8(getBuffer(offset, 1));
     }
 
     public long getUint32(long offset) throws IOException {
-        this.buffer.rewind();
-        this.buffer.limit(4);
-        this.dev.read(offset, buffer);
-        this.buffer.rewind();
+        return getUint32(getBuffer(offset, 4));
+    }
+
+    /**
+     * Gets a buffer positioned at a value on the device. Values within a single window are read from the cached
+     * window, so walking the FAT or the upcase table does not read the device for every value.
+     *
+     * @param offset the device offset of the value.
+     * @param length the length of the value in bytes.
+     * @return the buffer.
+     * @throws IOException if an error occurs reading the device.
+     */
+    private ByteBuffer getBuffer(long offset, int length) throws IOException {
+        final long start = offset - (offset % WINDOW_SIZE);
+        if (offset + length > start + WINDOW_SIZE ||
+            (start != this.windowOffset && start + WINDOW_SIZE > this.dev.getLength())) {
+            // The value crosses the end of the window, or the window would cross the end of the device
+            this.buffer.rewind();
+            this.buffer.limit(length);
+            this.dev.read(offset, buffer);
+            this.buffer.rewind();
+            return this.buffer;
+        }
 
-        return getUint32(buffer);
+        if (start != this.windowOffset) {
+            this.windowOffset = -1;
+            this.window.clear();
+            this.dev.read(start, window);
+            this.windowOffset = start;
+        }
+        this.window.limit(WINDOW_SIZE);
+        this.window.position((int) (offset - start));
+        return this.window;
     }
 
     public static int getUint8(ByteBuffer src) {
@@ -90,12 +129,7 @@ final class DeviceAccess {
     }
 
     public char getChar(long offset) throws IOException {
-        this.buffer.rewind();
-        this.buffer.limit(BYTES_PER_CHAR);
-        this.dev.read(offset, buffer);
-        this.buffer.rewind();
-
-        return getChar(buffer);
+        return getChar(getBuffer(offset, BYTES_PER_CHAR));
     }
 
     public void read(ByteBuffer dest, long offset) throws IOException {
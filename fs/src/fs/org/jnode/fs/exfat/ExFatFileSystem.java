@@ -73,12 +73,12 @@ public final class ExFatFileSystem extends AbstractFileSystem<NodeEntry> {
 
     @Override
     public long getTotalSpace() throws IOException {
-        return -1;
+        return sb.getClusterCount() * sb.getBytesPerCluster();
     }
 
     @Override
     public long getFreeSpace() throws IOException {
-        return -1;
+        return (sb.getClusterCount() - bitmap.getUsedClusterCount()) * sb.getBytesPerCluster();
     }
 
     @Override
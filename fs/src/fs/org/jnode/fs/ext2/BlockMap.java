@@ -0,0 +1,137 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.ext2;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A cache of the logical to physical block mapping of an inode. The mapping is stored as runs of blocks that are
+ * contiguous on disk, so a lookup does not have to read any indirect blocks or extent tree nodes once the run
+ * containing the block has been recorded.
+ * <p/>
+ * The map is filled lazily as blocks are looked up, and is cleared when it grows beyond {@link #MAX_RUNS} runs.
+ */
+public final class BlockMap {
+
+    /**
+     * The maximum number of runs kept per inode.
+     */
+    public static final int MAX_RUNS = 256;
+
+    /**
+     * The runs, by logical index of their first block.
+     */
+    private final TreeMap<Long, Run> runs = new TreeMap<Long, Run>();
+
+    /**
+     * Gets the physical block number of a logical block.
+     *
+     * @param index the logical index of the block.
+     * @return the physical block number, or -1 if the block is not mapped.
+     */
+    public synchronized long lookup(long index) {
+        final Map.Entry<Long, Run> entry = runs.floorEntry(index);
+        if (entry == null) {
+            return -1;
+        }
+        final Run run = entry.getValue();
+        final long offset = index - entry.getKey();
+        return (offset < run.count) ? run.blockNr + offset : -1;
+    }
+
+    /**
+     * Records a run of contiguous blocks. The run is merged with the preceding run if that ends right before it,
+     * both logically and physically.
+     *
+     * @param index   the logical index of the first block.
+     * @param blockNr the physical block number of the first block.
+     * @param count   the number of blocks in the run.
+     */
+    public synchronized void add(long index, long blockNr, long count) {
+        if (count <= 0) {
+            return;
+        }
+        final Map.Entry<Long, Run> prev = runs.floorEntry(index);
+        if (prev != null) {
+            final long prevIndex = prev.getKey();
+            final Run run = prev.getValue();
+            if (prevIndex + run.count >= index) {
+                // Overlaps or touches the preceding run
+                if (run.blockNr + (index - prevIndex) == blockNr) {
+                    run.count = Math.max(run.count, index - prevIndex + count);
+                    return;
+                }
+                if (prevIndex + run.count > index) {
+                    // Inconsistent with the recorded mapping, start over
+                    runs.clear();
+                }
+            }
+        }
+        if (runs.size() >= MAX_RUNS) {
+            runs.clear();
+        }
+        runs.put(index, new Run(blockNr, count));
+    }
+
+    /**
+     * Removes the mapping of all blocks starting at the given logical index.
+     *
+     * @param index the logical index of the first block to remove.
+     */
+    public synchronized void truncate(long index) {
+        runs.tailMap(index, true).clear();
+        final Map.Entry<Long, Run> last = runs.lastEntry();
+        if (last != null) {
+            final Run run = last.getValue();
+            run.count = Math.min(run.count, index - last.getKey());
+        }
+    }
+
+    /**
+     * Removes all mappings.
+     */
+    public synchronized void clear() {
+        runs.clear();
+    }
+
+    /**
+     * Gets the number of runs in this map.
+     *
+     * @return the number of runs.
+     */
+    public synchronized int size() {
+        return runs.size();
+    }
+
+    /**
+     * A run of blocks that are contiguous on disk.
+     */
+    private static final class Run {
+        final long blockNr;
+        long count;
+
+        Run(long blockNr, long count) {
+            this.blockNr = blockNr;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.ext2;
+
+/**
+ * The name hash functions used by the directory index (HTree). These follow the legacy, half-MD4 and TEA hashes of
+ * the Linux ext2/3/4 implementation, each with a signed and an unsigned char variant.
+ */
+public final class DirectoryHash {
+
+    /**
+     * The hash value that marks the end of the directory, which a name must never hash to.
+     */
+    private static final long HTREE_EOF = 0x7fffffffL;
+
+    /**
+     * The default seed used when the superblock seed is all zeros.
+     */
+    private static final int[] DEFAULT_SEED = {0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476};
+
+    private static final int TEA_DELTA = 0x9E3779B9;
+
+    private static final int MD4_K2 = 0x5A827999;
+
+    private static final int MD4_K3 = 0x6ED9EBA1;
+
+    private DirectoryHash() {
+    }
+
+    /**
+     * Hashes a directory entry name.
+     *
+     * @param name    the name bytes.
+     * @param version the hash version, one of the {@code Ext2Constants.EXT2_HASH_*} constants.
+     * @param seed    the hash seed from the superblock.
+     * @return the (major) hash as an unsigned 32 bit value with the low bit clear.
+     * @throws IllegalArgumentException if the hash version is not supported.
+     */
+    public static long hash(byte[] name, int version, int[] seed) {
+        boolean unsigned = false;
+        int hash;
+        int[] buf;
+
+        switch (version) {
+            case Ext2Constants.EXT2_HASH_LEGACY_UNSIGNED:
+                unsigned = true;
+                // fall through
+            case Ext2Constants.EXT2_HASH_LEGACY:
+                hash = legacyHash(name, unsigned);
+                break;
+
+            case Ext2Constants.EXT2_HASH_HALF_MD4_UNSIGNED:
+                unsigned = true;
+                // fall through
+            case Ext2Constants.EXT2_HASH_HALF_MD4:
+                buf = initialBuffer(seed);
+                int[] md4In = new int[8];
+                for (int offset = 0; offset < name.length; offset += 32) {
+                    toHashBuffer(name, offset, md4In, unsigned);
+                    halfMd4Transform(buf, md4In);
+                }
+                hash = buf[1];
+                break;
+
+            case Ext2Constants.EXT2_HASH_TEA_UNSIGNED:
+                unsigned = true;
+                // fall through
+            case Ext2Constants.EXT2_HASH_TEA:
+                buf = initialBuffer(seed);
+                int[] teaIn = new int[4];
+                for (int offset = 0; offset < name.length; offset += 16) {
+                    toHashBuffer(name, offset, teaIn, unsigned);
+                    teaTransform(buf, teaIn);
+                }
+                hash = buf[0];
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unsupported directory hash version: " + version);
+        }
+
+        long result = hash & 0xfffffffeL;
+        if (result == HTREE_EOF << 1) {
+            result = (HTREE_EOF - 1) << 1;
+        }
+        return result;
+    }
+
+    private static int[] initialBuffer(int[] seed) {
+        if (seed != null) {
+            for (int word : seed) {
+                if (word != 0) {
+                    return seed.clone();
+                }
+            }
+        }
+        return DEFAULT_SEED.clone();
+    }
+
+    private static int legacyHash(byte[] name, boolean unsigned) {
+        int hash0 = 0x12a3fe2d;
+        int hash1 = 0x37abe8f9;
+        for (byte b : name) {
+            int c = unsigned ? (b & 0xff) : b;
+            int hash = hash1 + (hash0 ^ (c * 7152373));
+            if ((hash & 0x80000000) != 0) {
+                hash -= 0x7fffffff;
+            }
+            hash1 = hash0;
+            hash0 = hash;
+        }
+        return hash0 << 1;
+    }
+
+    /**
+     * Packs (part of) the name into the hash input words, padding with the name length.
+     */
+    private static void toHashBuffer(byte[] name, int offset, int[] buf, boolean unsigned) {
+        int len = name.length - offset;
+        int pad = len | (len << 8);
+        pad |= pad << 16;
+
+        int val = pad;
+        int num = buf.length;
+        int index = 0;
+        len = Math.min(len, num * 4);
+        for (int i = 0; i < len; i++) {
+            byte b = name[offset + i];
+            val = (unsigned ? (b & 0xff) : b) + (val << 8);
+            if ((i % 4) == 3) {
+                buf[index++] = val;
+                val = pad;
+                num--;
+            }
+        }
+        if (--num >= 0) {
+            buf[index++] = val;
+        }
+        while (--num >= 0) {
+            buf[index++] = pad;
+        }
+    }
+
+    private static void teaTransform(int[] buf, int[] in) {
+        int sum = 0;
+        int b0 = buf[0];
+        int b1 = buf[1];
+        int a = in[0];
+        int b = in[1];
+        int c = in[2];
+        int d = in[3];
+
+        for (int n = 0; n < 16; n++) {
+            sum += TEA_DELTA;
+            b0 += ((b1 << 4) + a) ^ (b1 + sum) ^ ((b1 >>> 5) + b);
+            b1 += ((b0 << 4) + c) ^ (b0 + sum) ^ ((b0 >>> 5) + d);
+        }
+
+        buf[0] += b0;
+        buf[1] += b1;
+    }
+
+    private static void halfMd4Transform(int[] buf, int[] in) {
+        int a = buf[0];
+        int b = buf[1];
+        int c = buf[2];
+        int d = buf[3];
+
+        // Round 1
+        a = Integer.rotateLeft(a + f(b, c, d) + in[0], 3);
+        d = Integer.rotateLeft(d + f(a, b, c) + in[1], 7);
+        c = Integer.rotateLeft(c + f(d, a, b) + in[2], 11);
+        b = Integer.rotateLeft(b + f(c, d, a) + in[3], 19);
+        a = Integer.rotateLeft(a + f(b, c, d) + in[4], 3);
+        d = Integer.rotateLeft(d + f(a, b, c) + in[5], 7);
+        c = Integer.rotateLeft(c + f(d, a, b) + in[6], 11);
+        b = Integer.rotateLeft(b + f(c, d, a) + in[7], 19);
+
+        // Round 2
+        a = Integer.rotateLeft(a + g(b, c, d) + in[1] + MD4_K2, 3);
+        d = Integer.rotateLeft(d + g(a, b, c) + in[3] + MD4_K2, 5);
+        c = Integer.rotateLeft(c + g(d, a, b) + in[5] + MD4_K2, 9);
+        b = Integer.rotateLeft(b + g(c, d, a) + in[7] + MD4_K2, 13);
+        a = Integer.rotateLeft(a + g(b, c, d) + in[0] + MD4_K2, 3);
+        d = Integer.rotateLeft(d + g(a, b, c) + in[2] + MD4_K2, 5);
+        c = Integer.rotateLeft(c + g(d, a, b) + in[4] + MD4_K2, 9);
+        b = Integer.rotateLeft(b + g(c, d, a) + in[6] + MD4_K2, 13);
+
+        // Round 3
+        a = Integer.rotateLeft(a + h(b, c, d) + in[3] + MD4_K3, 3);
+        d = Integer.rotateLeft(d + h(a, b, c) + in[7] + MD4_K3, 9);
+        c = Integer.rotateLeft(c + h(d, a, b) + in[2] + MD4_K3, 11);
+        b = Integer.rotateLeft(b + h(c, d, a) + in[6] + MD4_K3, 15);
+        a = Integer.rotateLeft(a + h(b, c, d) + in[1] + MD4_K3, 3);
+        d = Integer.rotateLeft(d + h(a, b, c) + in[5] + MD4_K3, 9);
+        c = Integer.rotateLeft(c + h(d, a, b) + in[0] + MD4_K3, 11);
+        b = Integer.rotateLeft(b + h(c, d, a) + in[4] + MD4_K3, 15);
+
+        buf[0] += a;
+        buf[1] += b;
+        buf[2] += c;
+        buf[3] += d;
+    }
+
+    private static int f(int x, int y, int z) {
+        return z ^ (x & (y ^ z));
+    }
+
+    private static int g(int x, int y, int z) {
+        return (x & y) + ((x ^ y) & z);
+    }
+
+    private static int h(int x, int y, int z) {
+        return x ^ y ^ z;
+    }
+}
@@ -23,7 +23,9 @@ package org.jnode.fs.ext2;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import org.apache.log4j.Logger;
 import org.jnode.fs.FSDirectoryId;
@@ -44,6 +46,11 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
 
     protected Ext2Entry entry;
 
+    /**
+     * The entries found through the directory index before all the entries were read.
+     */
+    private final Map<String, Ext2Entry> lookedUpEntries = new HashMap<String, Ext2Entry>();
+
     private final Logger log = Logger.getLogger(getClass());
 
     /**
@@ -55,8 +62,7 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
         Ext2FileSystem fs = (Ext2FileSystem) entry.getFileSystem();
         this.entry = entry;
         boolean readOnly;
-        if ((iNode.getFlags() & Ext2Constants.EXT2_INDEX_FL) != 0 ||
-            (iNode.getFlags() & Ext2Constants.EXT4_HUGE_FILE_FL) != 0 ||
+        if ((iNode.getFlags() & Ext2Constants.EXT4_HUGE_FILE_FL) != 0 ||
             (iNode.getFlags() & Ext2Constants.EXT4_INODE_EXTENTS_FLAG) != 0) {
             readOnly = true; //force readonly
 
@@ -64,8 +70,6 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
                 log.debug("inode uses extents: " + entry);
             if ((iNode.getFlags() & Ext2Constants.EXT4_HUGE_FILE_FL) != 0)
                 log.info("inode is for a huge-file: " + entry);
-            if ((iNode.getFlags() & Ext2Constants.EXT2_INDEX_FL) != 0)
-                log.info("inode uses index: " + entry);
         } else {
             readOnly = fs.isReadOnly();
         }
@@ -231,6 +235,12 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
             try {
                 Ext2File dir = new Ext2File(entry); //read itself as a file
 
+                if (isIndexed() && addIndexedRecord(dir, dr)) {
+                    iNode.setMtime(System.currentTimeMillis() / 1000);
+                    iNode.update();
+                    return;
+                }
+
                 //find the last directory record (if any)
                 Ext2FSEntryIterator iterator = new Ext2FSEntryIterator(entry);
                 Ext2DirectoryRecord rec = null;
@@ -314,6 +324,62 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
         }
     }
 
+    /**
+     * Adds a record through the directory index. If the index is full or cannot be used, the index flag is cleared
+     * so the directory is treated as a linear one from now on (as kernels without dir_index support do), and the
+     * record is appended linearly by the caller. e2fsck -D can rebuild the index later.
+     *
+     * @return {@code true} if the record was added.
+     */
+    private boolean addIndexedRecord(Ext2File dir, Ext2DirectoryRecord dr) throws IOException {
+        try {
+            if (new Ext2DirectoryIndex((Ext2FileSystem) getFileSystem(), dir, iNode).add(dr)) {
+                return true;
+            }
+            log.info("Directory index is full, clearing the index flag: " + entry);
+        } catch (FileSystemException e) {
+            log.warn("Unusable directory index, clearing the index flag: " + entry, e);
+        }
+        iNode.setFlags(iNode.getFlags() & ~Ext2Constants.EXT2_INDEX_FL);
+        return false;
+    }
+
+    /**
+     * Checks whether this directory has a hash index.
+     */
+    private boolean isIndexed() {
+        return (iNode.getFlags() & Ext2Constants.EXT2_INDEX_FL) != 0;
+    }
+
+    /**
+     * Looks up a single entry through the directory index, if there is one, rather than reading the whole directory.
+     * Entries found this way are remembered, so the same name always gives the same entry, also once all the entries
+     * have been read.
+     */
+    @Override
+    protected synchronized FSEntry lookupEntry(String name) throws IOException {
+        if (isIndexed()) {
+            Ext2Entry found = lookedUpEntries.get(name);
+            if (found != null) {
+                return found;
+            }
+            Ext2FileSystem fs = (Ext2FileSystem) getFileSystem();
+            try {
+                Ext2DirectoryRecord dr = new Ext2DirectoryIndex(fs, new Ext2File(entry), iNode).lookup(name);
+                if (dr == null) {
+                    return null;
+                }
+                found = new Ext2Entry(fs.getINode(dr.getINodeNr()), dr.getFileOffset(), dr.getName(), dr.getType(),
+                    fs, this);
+                lookedUpEntries.put(name, found);
+                return found;
+            } catch (FileSystemException e) {
+                log.warn("Unusable directory index, falling back to a linear lookup: " + entry, e);
+            }
+        }
+        return super.lookupEntry(name);
+    }
+
     /**
      * Return the number of the block that contains the given byte
      */
@@ -444,15 +510,21 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
      *
      * @return the FSEntryTable containing the directory's entries.
      */
-    protected FSEntryTable readEntries() throws IOException {
+    protected synchronized FSEntryTable readEntries() throws IOException {
         Ext2FSEntryIterator it = new Ext2FSEntryIterator(entry);
         ArrayList<FSEntry> entries = new ArrayList<FSEntry>();
 
         while (it.hasNext()) {
-            final FSEntry entry = it.next();
+            FSEntry entry = it.next();
+            // Keep the entries that have been handed out already
+            final Ext2Entry found = lookedUpEntries.get(entry.getName());
+            if ((found != null) && (found.getINode().getINodeNr() == ((Ext2Entry) entry).getINode().getINodeNr())) {
+                entry = found;
+            }
             log.debug("readEntries: entry=" + FSUtils.toString(entry, false));
             entries.add(entry);
         }
+        lookedUpEntries.clear();
 
         FSEntryTable table = new FSEntryTable((AbstractFileSystem<?>) getFileSystem(), entries);
 
@@ -0,0 +1,677 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.jnode.fs.ext2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.log4j.Logger;
+import org.jnode.fs.FileSystemException;
+import org.jnode.util.LittleEndian;
+
+/**
+ * The hash index (HTree) of a directory with the {@link Ext2Constants#EXT2_INDEX_FL} flag set.
+ * <p/>
+ * Block 0 of an indexed directory holds the "." and ".." records followed by the root of the index, and the index
+ * nodes below it are directory blocks holding a single empty record. To linear readers both look like ordinary
+ * directory blocks. Each index entry maps a name hash to a leaf block, so a lookup reads the root, at most one index
+ * node and (unless names collide) a single leaf block.
+ * <p/>
+ * Adding a record splits the leaf block when it is full, and splits an index node (or pushes the root entries down
+ * into a new index node) when that is full in turn. Like Linux, leaves are never merged when records are removed.
+ */
+class Ext2DirectoryIndex {
+
+    private final Logger log = Logger.getLogger(getClass());
+
+    /**
+     * The offset of the dx_root_info structure in the root block.
+     */
+    private static final int ROOT_INFO_OFFSET = 24;
+
+    /**
+     * The offset of the entries in an index node block.
+     */
+    private static final int NODE_ENTRIES_OFFSET = 8;
+
+    /**
+     * The size of an index entry.
+     */
+    private static final int ENTRY_SIZE = 8;
+
+    /**
+     * The maximum number of index node levels below the root (without the large directory feature).
+     */
+    private static final int MAX_INDIRECT_LEVELS = 1;
+
+    /**
+     * The file system.
+     */
+    private final Ext2FileSystem fs;
+
+    /**
+     * The directory file, used for reading.
+     */
+    private final Ext2File dir;
+
+    /**
+     * The directory inode, used for writing. The caller must hold its lock while adding records.
+     */
+    private final INode iNode;
+
+    /**
+     * The file system block size.
+     */
+    private final int blockSize;
+
+    /**
+     * The hash seed from the superblock.
+     */
+    private final int[] seed;
+
+    /**
+     * Whether the file system hashes names as unsigned chars.
+     */
+    private final boolean unsignedHash;
+
+    /**
+     * The hash version of this directory, read from the root.
+     */
+    private int hashVersion;
+
+    /**
+     * The number of index node levels below the root.
+     */
+    private int indirectLevels;
+
+    /**
+     * @param fs    the file system.
+     * @param dir   the indexed directory, read as a file.
+     * @param iNode the inode of the directory.
+     */
+    Ext2DirectoryIndex(Ext2FileSystem fs, Ext2File dir, INode iNode) {
+        this(fs, dir, iNode, fs.getBlockSize(), fs.getSuperblock().getHashSeed(),
+            (fs.getSuperblock().getFlags() & Ext2Constants.EXT2_FLAGS_UNSIGNED_HASH) != 0);
+    }
+
+    /**
+     * @param fs           the file system.
+     * @param dir          the indexed directory, read as a file.
+     * @param iNode        the inode of the directory.
+     * @param blockSize    the file system block size.
+     * @param seed         the hash seed.
+     * @param unsignedHash whether names are hashed as unsigned chars.
+     */
+    Ext2DirectoryIndex(Ext2FileSystem fs, Ext2File dir, INode iNode, int blockSize, int[] seed,
+                       boolean unsignedHash) {
+        this.fs = fs;
+        this.dir = dir;
+        this.iNode = iNode;
+        this.blockSize = blockSize;
+        this.seed = seed;
+        this.unsignedHash = unsignedHash;
+    }
+
+    /**
+     * Looks up the record with the given name.
+     *
+     * @param name the name.
+     * @return the record, or {@code null} if the directory does not contain the name.
+     * @throws IOException         if an error occurs reading the directory.
+     * @throws FileSystemException if the index is corrupt or uses an unsupported format.
+     */
+    Ext2DirectoryRecord lookup(String name) throws IOException, FileSystemException {
+        byte[] nameBytes = name.getBytes(Ext2FileSystem.ENTRY_NAME_CHARSET);
+        if (name.equals(".") || name.equals("..")) {
+            // "." and ".." are not hashed, they are the first records of the root block
+            return findRecord(0, nameBytes);
+        }
+
+        Frame root = readRoot();
+        long hash = hash(nameBytes);
+        List<Frame> frames = probe(root, hash);
+        while (true) {
+            Frame leafFrame = frames.get(frames.size() - 1);
+            Ext2DirectoryRecord record = findRecord(leafFrame.getBlock(leafFrame.at), nameBytes);
+            if (record != null) {
+                return record;
+            }
+            if (!nextLeaf(frames, hash)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Adds a record to the leaf block for its hash, splitting the leaf and index nodes as needed.
+     *
+     * @param dr the record to add. Its file offset is set to where it was written.
+     * @return {@code true} if the record was added, {@code false} if the index is full.
+     * @throws IOException         if an error occurs reading or writing the directory.
+     * @throws FileSystemException if the index is corrupt or uses an unsupported format.
+     */
+    boolean add(Ext2DirectoryRecord dr) throws IOException, FileSystemException {
+        byte[] record = Arrays.copyOfRange(dr.getData(), dr.getOffset(), dr.getOffset() + 8 + dr.getNameLen());
+        Frame root = readRoot();
+        long hash = hash(getName(record, 0));
+
+        List<Frame> frames = probe(root, hash);
+        Frame leafFrame = frames.get(frames.size() - 1);
+        long leafBlock = leafFrame.getBlock(leafFrame.at);
+        byte[] leaf = readBlock(leafBlock);
+
+        int offset = insertRecord(leaf, record);
+        if (offset >= 0) {
+            writeBlock(leafBlock, leaf);
+            dr.setFileOffset(leafBlock * blockSize + offset);
+            return true;
+        }
+
+        if (!makeRoom(frames)) {
+            return false;
+        }
+        splitLeaf(frames.get(frames.size() - 1), leafBlock, leaf, record, dr);
+        return true;
+    }
+
+    /**
+     * Reads the root of the index, and the hash version and depth of the index from it.
+     *
+     * @return the frame for the root.
+     */
+    private Frame readRoot() throws IOException, FileSystemException {
+        byte[] data = readBlock(0);
+        long reservedZero = LittleEndian.getUInt32(data, ROOT_INFO_OFFSET);
+        int version = LittleEndian.getUInt8(data, ROOT_INFO_OFFSET + 4);
+        int infoLength = LittleEndian.getUInt8(data, ROOT_INFO_OFFSET + 5);
+        indirectLevels = LittleEndian.getUInt8(data, ROOT_INFO_OFFSET + 6);
+
+        if (reservedZero != 0 || infoLength != 8 || indirectLevels > MAX_INDIRECT_LEVELS) {
+            throw new FileSystemException("Unsupported directory index root (info length " + infoLength +
+                ", levels " + indirectLevels + ")");
+        }
+        if (version > Ext2Constants.EXT2_HASH_TEA) {
+            throw new FileSystemException("Unsupported directory index hash version: " + version);
+        }
+        hashVersion = unsignedHash ? version + Ext2Constants.EXT2_HASH_LEGACY_UNSIGNED : version;
+
+        return new Frame(0, data, ROOT_INFO_OFFSET + infoLength).validate();
+    }
+
+    /**
+     * Reads the index nodes from the root down to the leaf level for the given hash.
+     *
+     * @param root the root frame.
+     * @param hash the hash.
+     * @return the frames from the root to the lowest index node.
+     */
+    private List<Frame> probe(Frame root, long hash) throws IOException, FileSystemException {
+        List<Frame> frames = new ArrayList<Frame>(indirectLevels + 1);
+        Frame frame = root;
+        while (true) {
+            frame.at = frame.search(hash);
+            frames.add(frame);
+            if (frames.size() > indirectLevels) {
+                return frames;
+            }
+            frame = readNode(frame.getBlock(frame.at));
+        }
+    }
+
+    /**
+     * Reads an index node block.
+     *
+     * @param block the logical block in the directory.
+     * @return the frame for the node.
+     */
+    private Frame readNode(long block) throws IOException, FileSystemException {
+        return new Frame(block, readBlock(block), NODE_ENTRIES_OFFSET).validate();
+    }
+
+    /**
+     * Moves the frames on to the next leaf block if it continues the given hash, which happens when names with the
+     * same hash were split over more than one leaf.
+     *
+     * @param frames the frames, updated in place.
+     * @param hash   the hash being searched for.
+     * @return {@code true} if there is a next leaf to search.
+     */
+    private boolean nextLeaf(List<Frame> frames, long hash) throws IOException, FileSystemException {
+        int level = frames.size() - 1;
+        while (frames.get(level).at + 1 >= frames.get(level).getCount()) {
+            if (level == 0) {
+                return false;
+            }
+            level--;
+        }
+
+        Frame frame = frames.get(level);
+        frame.at++;
+        if ((frame.getHash(frame.at) & ~1L) != hash) {
+            return false;
+        }
+
+        for (int i = level + 1; i < frames.size(); i++) {
+            Frame parent = frames.get(i - 1);
+            Frame child = readNode(parent.getBlock(parent.at));
+            child.at = 0;
+            frames.set(i, child);
+        }
+        return true;
+    }
+
+    /**
+     * Makes room for one more entry in the lowest index node.
+     *
+     * @param frames the frames from {@link #probe(Frame, long)}, updated to point at the node that has room.
+     * @return {@code false} if the index cannot grow any further.
+     */
+    private boolean makeRoom(List<Frame> frames) throws IOException, FileSystemException {
+        int level = frames.size() - 1;
+        Frame frame = frames.get(level);
+        if (frame.getCount() < frame.getLimit()) {
+            return true;
+        }
+
+        if (level == 0) {
+            if (indirectLevels >= MAX_INDIRECT_LEVELS) {
+                return false;
+            }
+            pushDownRoot(frames);
+            return true;
+        }
+
+        Frame parent = frames.get(level - 1);
+        if (parent.getCount() >= parent.getLimit()) {
+            return false;
+        }
+        splitNode(frames, level);
+        return true;
+    }
+
+    /**
+     * Moves all root entries into a new index node, leaving the root with a single entry pointing at it.
+     */
+    private void pushDownRoot(List<Frame> frames) throws IOException, FileSystemException {
+        Frame root = frames.get(0);
+        int count = root.getCount();
+
+        long block = nextBlock();
+        Frame node = new Frame(block, newNodeBlock(), NODE_ENTRIES_OFFSET);
+        System.arraycopy(root.data, root.entries, node.data, node.entries, count * ENTRY_SIZE);
+        node.setLimit(getNodeLimit(root));
+        node.setCount(count);
+        node.at = root.at;
+        writeBlock(block, node.data);
+
+        root.setCount(1);
+        root.setBlock(0, block);
+        root.at = 0;
+        indirectLevels++;
+        root.data[ROOT_INFO_OFFSET + 6] = (byte) indirectLevels;
+        writeBlock(0, root.data);
+
+        frames.add(1, node);
+        log.debug("Added an index level to directory index");
+    }
+
+    /**
+     * Splits a full index node, moving the upper half of its entries into a new node.
+     */
+    private void splitNode(List<Frame> frames, int level) throws IOException, FileSystemException {
+        Frame node = frames.get(level);
+        Frame parent = frames.get(level - 1);
+        int count = node.getCount();
+        int half = count / 2;
+
+        long block = nextBlock();
+        Frame sibling = new Frame(block, newNodeBlock(), NODE_ENTRIES_OFFSET);
+        long separator = node.getHash(half);
+        System.arraycopy(node.data, node.entries + half * ENTRY_SIZE, sibling.data, sibling.entries,
+            (count - half) * ENTRY_SIZE);
+        sibling.setLimit(node.getLimit());
+        sibling.setCount(count - half);
+        node.setCount(half);
+        writeBlock(block, sibling.data);
+        writeBlock(node.block, node.data);
+
+        parent.insert(parent.at + 1, separator, block);
+        writeBlock(parent.block, parent.data);
+
+        if (node.at >= half) {
+            sibling.at = node.at - half;
+            parent.at++;
+            frames.set(level, sibling);
+        }
+    }
+
+    /**
+     * Splits a full leaf block by hash, moving the upper half of its records and possibly the new record into a new
+     * leaf block.
+     */
+    private void splitLeaf(Frame frame, long leafBlock, byte[] leaf, byte[] record, Ext2DirectoryRecord dr)
+        throws IOException, FileSystemException {
+        List<LeafRecord> records = new ArrayList<LeafRecord>();
+        int offset = 0;
+        while (offset < blockSize) {
+            int recLen = LittleEndian.getUInt16(leaf, offset + 4);
+            if (recLen < 8) {
+                break;
+            }
+            if (LittleEndian.getUInt32(leaf, offset) != 0) {
+                int nameLen = LittleEndian.getUInt8(leaf, offset + 6);
+                byte[] data = Arrays.copyOfRange(leaf, offset, offset + 8 + nameLen);
+                records.add(new LeafRecord(data, hash(getName(data, 0))));
+            }
+            offset += recLen;
+        }
+        LeafRecord newRecord = new LeafRecord(record, hash(getName(record, 0)));
+        records.add(newRecord);
+
+        Collections.sort(records, new Comparator<LeafRecord>() {
+            @Override
+            public int compare(LeafRecord r1, LeafRecord r2) {
+                return r1.hash < r2.hash ? -1 : (r1.hash == r2.hash ? 0 : 1);
+            }
+        });
+
+        // Split by size so both halves have room left
+        int total = 0;
+        for (LeafRecord r : records) {
+            total += r.size();
+        }
+        int split = 0;
+        int lowerSize = 0;
+        while (split < records.size() && lowerSize + records.get(split).size() <= total / 2) {
+            lowerSize += records.get(split).size();
+            split++;
+        }
+        split = Math.max(1, Math.min(records.size() - 1, split));
+
+        long splitHash = records.get(split).hash;
+        if (records.get(split - 1).hash == splitHash) {
+            // Names with this hash continue in the new block
+            splitHash |= 1;
+        }
+
+        long newBlock = nextBlock();
+        byte[] upper = packRecords(records.subList(split, records.size()), newBlock, newRecord, dr);
+        byte[] lower = packRecords(records.subList(0, split), leafBlock, newRecord, dr);
+        writeBlock(newBlock, upper);
+        writeBlock(leafBlock, lower);
+
+        frame.insert(frame.at + 1, splitHash, newBlock);
+        writeBlock(frame.block, frame.data);
+    }
+
+    /**
+     * Packs records into a new leaf block, the last record padded to the end of the block.
+     */
+    private byte[] packRecords(List<LeafRecord> records, long block, LeafRecord newRecord, Ext2DirectoryRecord dr) {
+        byte[] data = new byte[blockSize];
+        int offset = 0;
+        for (int i = 0; i < records.size(); i++) {
+            LeafRecord r = records.get(i);
+            int recLen = (i == records.size() - 1) ? blockSize - offset : r.size();
+            System.arraycopy(r.data, 0, data, offset, r.data.length);
+            LittleEndian.setInt16(data, offset + 4, recLen);
+            if (r == newRecord) {
+                dr.setFileOffset(block * blockSize + offset);
+            }
+            offset += recLen;
+        }
+        return data;
+    }
+
+    /**
+     * Inserts a record into the free space of a leaf block.
+     *
+     * @param leaf   the leaf block.
+     * @param record the record without padding.
+     * @return the offset the record was written at, or -1 if the block has no room.
+     */
+    private int insertRecord(byte[] leaf, byte[] record) {
+        int needed = align(record.length);
+        int offset = 0;
+        while (offset < blockSize) {
+            int recLen = LittleEndian.getUInt16(leaf, offset + 4);
+            if (recLen < 8) {
+                return -1;
+            }
+            int used = LittleEndian.getUInt32(leaf, offset) == 0 ? 0 :
+                align(8 + LittleEndian.getUInt8(leaf, offset + 6));
+            if (recLen - used >= needed) {
+                if (used > 0) {
+                    LittleEndian.setInt16(leaf, offset + 4, used);
+                }
+                int newOffset = offset + used;
+                System.arraycopy(record, 0, leaf, newOffset, record.length);
+                LittleEndian.setInt16(leaf, newOffset + 4, recLen - used);
+                return newOffset;
+            }
+            offset += recLen;
+        }
+        return -1;
+    }
+
+    /**
+     * Searches a leaf block for a record with the given name.
+     */
+    private Ext2DirectoryRecord findRecord(long block, byte[] name) throws IOException, FileSystemException {
+        byte[] data = readBlock(block);
+        int offset = 0;
+        while (offset < blockSize) {
+            int recLen = LittleEndian.getUInt16(data, offset + 4);
+            if (recLen < 8 || offset + recLen > blockSize) {
+                throw new FileSystemException("Invalid directory record length " + recLen + " in block " + block);
+            }
+            if (LittleEndian.getUInt32(data, offset) != 0 && LittleEndian.getUInt8(data, offset + 6) == name.length &&
+                regionMatches(data, offset + 8, name)) {
+                return new Ext2DirectoryRecord(fs, data, offset, (int) (block * blockSize + offset));
+            }
+            offset += recLen;
+        }
+        return null;
+    }
+
+    private static boolean regionMatches(byte[] data, int offset, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (data[offset + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] getName(byte[] record, int offset) {
+        int nameLen = LittleEndian.getUInt8(record, offset + 6);
+        return Arrays.copyOfRange(record, offset + 8, offset + 8 + nameLen);
+    }
+
+    private static int align(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private long hash(byte[] name) {
+        return DirectoryHash.hash(name, hashVersion, seed);
+    }
+
+    /**
+     * Gets the entry limit of a new index node, leaving the same room for a checksum tail as the root does.
+     */
+    private int getNodeLimit(Frame root) {
+        int tail = (blockSize - root.entries) / ENTRY_SIZE - root.getLimit();
+        return (blockSize - NODE_ENTRIES_OFFSET) / ENTRY_SIZE - tail;
+    }
+
+    /**
+     * Creates an index node block, which looks like a block with a single empty record to linear readers.
+     */
+    private byte[] newNodeBlock() {
+        byte[] data = new byte[blockSize];
+        LittleEndian.setInt16(data, 4, blockSize);
+        return data;
+    }
+
+    /**
+     * Gets the logical block number the next block appended to the directory will have.
+     */
+    protected long nextBlock() {
+        return (iNode.getSize() + blockSize - 1) / blockSize;
+    }
+
+    /**
+     * Reads a block of the directory.
+     *
+     * @param block the logical block.
+     * @return the block data.
+     */
+    protected byte[] readBlock(long block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        dir.read(block * blockSize, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Writes a block of the directory, growing the directory if the block is past its end. This goes to the inode
+     * rather than through {@link Ext2File#write(long, ByteBuffer)}, which would set the directory size to the end of
+     * the block written.
+     *
+     * @param block the logical block.
+     * @param data  the block data.
+     */
+    protected void writeBlock(long block, byte[] data) throws IOException, FileSystemException {
+        if (block >= iNode.getAllocatedBlockCount()) {
+            iNode.allocateDataBlock(block);
+        }
+        iNode.writeDataBlock(block, data);
+        long end = (block + 1) * blockSize;
+        if (iNode.getSize() < end) {
+            iNode.setSize(end);
+        }
+    }
+
+    /**
+     * A record read from a leaf block, with its hash.
+     */
+    private static final class LeafRecord {
+        private final byte[] data;
+        private final long hash;
+
+        LeafRecord(byte[] data, long hash) {
+            this.data = data;
+            this.hash = hash;
+        }
+
+        int size() {
+            return align(data.length);
+        }
+    }
+
+    /**
+     * An index block (the root or an index node) on the path from the root to a leaf, and the entry being followed.
+     * The first entry of a block holds the limit and count in place of a hash.
+     */
+    private static final class Frame {
+        private final long block;
+        private final byte[] data;
+        private final int entries;
+        private int at;
+
+        Frame(long block, byte[] data, int entries) {
+            this.block = block;
+            this.data = data;
+            this.entries = entries;
+        }
+
+        /**
+         * Checks the count and limit read from disk are sane.
+         */
+        Frame validate() throws FileSystemException {
+            if (getCount() == 0 || getCount() > getLimit() || entries + getLimit() * ENTRY_SIZE > data.length) {
+                throw new FileSystemException("Invalid directory index node " + block + " (count " + getCount() +
+                    ", limit " + getLimit() + ")");
+            }
+            return this;
+        }
+
+        int getLimit() {
+            return LittleEndian.getUInt16(data, entries);
+        }
+
+        void setLimit(int limit) {
+            LittleEndian.setInt16(data, entries, limit);
+        }
+
+        int getCount() {
+            return LittleEndian.getUInt16(data, entries + 2);
+        }
+
+        void setCount(int count) {
+            LittleEndian.setInt16(data, entries + 2, count);
+        }
+
+        long getHash(int index) {
+            return index == 0 ? 0 : LittleEndian.getUInt32(data, entries + index * ENTRY_SIZE);
+        }
+
+        long getBlock(int index) {
+            return LittleEndian.getUInt32(data, entries + index * ENTRY_SIZE + 4) & 0x0fffffffL;
+        }
+
+        void setBlock(int index, long blockNr) {
+            Ext2Utils.set32(data, entries + index * ENTRY_SIZE + 4, blockNr);
+        }
+
+        /**
+         * Inserts an entry, shifting the following entries up.
+         */
+        void insert(int index, long hash, long blockNr) {
+            int count = getCount();
+            int offset = entries + index * ENTRY_SIZE;
+            System.arraycopy(data, offset, data, offset + ENTRY_SIZE, (count - index) * ENTRY_SIZE);
+            Ext2Utils.set32(data, offset, hash);
+            Ext2Utils.set32(data, offset + 4, blockNr);
+            setCount(count + 1);
+        }
+
+        /**
+         * Finds the entry whose range contains the given hash.
+         */
+        int search(long hash) {
+            int low = 1;
+            int high = getCount() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (getHash(mid) > hash) {
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low - 1;
+        }
+    }
+}
@@ -27,16 +27,45 @@ import org.jnode.fs.FSFileSlackSpace;
 import org.jnode.fs.FileSystemException;
 import org.jnode.fs.ReadOnlyFileSystemException;
 import org.jnode.fs.spi.AbstractFSFile;
-import org.jnode.util.ByteBufferUtils;
 
 /**
  * @author Andras Nagy
  */
 public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
 
+    /**
+     * The number of blocks read ahead when sequential access is first detected.
+     */
+    private static final int MIN_READ_AHEAD = 8;
+
+    /**
+     * The maximum number of blocks read ahead.
+     */
+    private static final int MAX_READ_AHEAD = 128;
+
+    /**
+     * The maximum number of blocks read with a single device read.
+     */
+    private static final int MAX_RUN = 64;
+
     String name;
     INode iNode;
 
+    /**
+     * The file offset following the previous read, used to detect sequential reads.
+     */
+    private long nextReadOffset = -1;
+
+    /**
+     * The index of the first block that has not been read ahead.
+     */
+    private long readAheadBlock;
+
+    /**
+     * The number of blocks to read ahead, doubled on every read ahead of a sequential reader.
+     */
+    private int readAheadWindow = MIN_READ_AHEAD;
+
     private final Logger log = Logger.getLogger(getClass());
 
     public Ext2File(Ext2Entry entry) {
@@ -161,10 +190,6 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
      */
     public void readImpl(long fileOffset, ByteBuffer destBuf) throws IOException {
         final int len = destBuf.remaining();
-        final int off = 0;
-        // TODO optimize it also to use ByteBuffer at lower level
-        final ByteBufferUtils.ByteArray destBA = ByteBufferUtils.toByteArray(destBuf);
-        final byte[] dest = destBA.toArray();
 
         // synchronize to the inode cache to make sure that the inode does not
         // get flushed between reading it and locking it
@@ -186,7 +211,7 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
 
         if (log.isDebugEnabled()) {
             log.debug("File:" + name + " size:" + getLength() + " read offset: " + fileOffset + " len: "
-                + dest.length);
+                + len);
         }
 
         // a single inode may be represented by more than one Ext2Directory
@@ -196,26 +221,15 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
         // so synchronize to the inode
         synchronized (iNode) {
             try {
+                final int start = destBuf.position();
                 if ((iNode.getMode() & Ext2Constants.EXT2_S_IFLNK) == Ext2Constants.EXT2_S_IFLNK) {
                     // Sym-links are a special case: the data seems to be stored inline in the iNode
-                    System.arraycopy(iNode.getINodeBlockData(), 0, dest, 0, Math.min(64, dest.length));
+                    destBuf.put(iNode.getINodeBlockData(), 0, Math.min(64, len));
                 } else {
-                    long blockSize = iNode.getExt2FileSystem().getBlockSize();
-                    long bytesRead = 0;
-                    while (bytesRead < len) {
-                        long blockNr = (fileOffset + bytesRead) / blockSize;
-                        long blockOffset = (fileOffset + bytesRead) % blockSize;
-                        long copyLength = Math.min(len - bytesRead, blockSize - blockOffset);
-
-                        log.debug("blockNr: " + blockNr + ", blockOffset: " + blockOffset + ", copyLength: "
-                            + copyLength + ", bytesRead: " + bytesRead);
-
-                        System.arraycopy(iNode.getDataBlock(blockNr), (int) blockOffset, dest, off + (int) bytesRead,
-                            (int) copyLength);
-
-                        bytesRead += copyLength;
-                    }
+                    readBlocks(fileOffset, destBuf, len);
+                    readAhead(fileOffset, len);
                 }
+                destBuf.position(start + len);
             } catch (Throwable ex) {
                 final IOException ioe = new IOException();
                 ioe.initCause(ex);
@@ -225,16 +239,100 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
                 iNode.decLocked();
             }
         }
+    }
+
+    /**
+     * Read the data of this file into the destination buffer. Whole blocks that are not cached are read straight
+     * into the destination buffer, using a single device read for every run of physically contiguous blocks.
+     * Other blocks are read through the block cache.
+     *
+     * @param fileOffset the offset to read from.
+     * @param destBuf    the destination buffer.
+     * @param len        the number of bytes to read.
+     * @throws IOException if an error occurs reading.
+     */
+    private void readBlocks(long fileOffset, ByteBuffer destBuf, int len) throws IOException {
+        final Ext2FileSystem fs = iNode.getExt2FileSystem();
+        final int blockSize = fs.getBlockSize();
+        int bytesRead = 0;
+        while (bytesRead < len) {
+            final long blockIndex = (fileOffset + bytesRead) / blockSize;
+            final int blockOffset = (int) ((fileOffset + bytesRead) % blockSize);
+            final long blockNr = iNode.getDataBlockNr(blockIndex);
+            final byte[] cached = fs.getCachedBlock(blockNr);
+
+            if ((cached == null) && (blockNr != 0) && (blockOffset == 0) && (len - bytesRead >= blockSize)) {
+                // Find the run of contiguous blocks that are not cached
+                final int maxCount = Math.min(MAX_RUN, (len - bytesRead) / blockSize);
+                int count = 1;
+                while ((count < maxCount) && (iNode.getDataBlockNr(blockIndex + count) == blockNr + count)
+                    && (fs.getCachedBlock(blockNr + count) == null)) {
+                    count++;
+                }
+                final int runLength = count * blockSize;
+                final ByteBuffer run = destBuf.duplicate();
+                run.limit(run.position() + runLength);
+                fs.readBlocks(blockNr, run);
+                destBuf.position(destBuf.position() + runLength);
+                bytesRead += runLength;
+            } else {
+                // Partial or cached block
+                final int copyLength = Math.min(len - bytesRead, blockSize - blockOffset);
+                final byte[] data = (cached != null) ? cached : fs.getBlock(blockNr);
+                destBuf.put(data, blockOffset, copyLength);
+                bytesRead += copyLength;
+            }
+        }
+    }
+
+    /**
+     * Detect sequential reads and read the next blocks of the file into the block cache in the background.
+     * The read-ahead window grows as long as the file is read sequentially.
+     *
+     * @param fileOffset the offset of the current read.
+     * @param len        the length of the current read.
+     * @throws IOException if an error occurs reading.
+     */
+    private void readAhead(long fileOffset, int len) throws IOException {
+        final boolean sequential = (fileOffset == nextReadOffset);
+        nextReadOffset = fileOffset + len;
+        if (!sequential) {
+            readAheadWindow = MIN_READ_AHEAD;
+            readAheadBlock = 0;
+            return;
+        }
+        if (len == 0) {
+            return;
+        }
 
-        destBA.refreshByteBuffer();
+        final Ext2FileSystem fs = iNode.getExt2FileSystem();
+        final int blockSize = fs.getBlockSize();
+        final long lastBlock = (nextReadOffset - 1) / blockSize;
+        if (readAheadBlock > lastBlock + readAheadWindow / 2) {
+            // Far enough ahead already
+            return;
+        }
+        final long fileBlocks = (getLength() + blockSize - 1) / blockSize;
+        long index = Math.max(readAheadBlock, lastBlock + 1);
+        final long end = Math.min(index + readAheadWindow, fileBlocks);
+        while (index < end) {
+            final long blockNr = iNode.getDataBlockNr(index);
+            int count = 1;
+            while ((index + count < end) && (iNode.getDataBlockNr(index + count) == blockNr + count)) {
+                count++;
+            }
+            if (blockNr != 0) {
+                fs.readAhead(blockNr, count);
+            }
+            index += count;
+        }
+        readAheadBlock = Math.max(readAheadBlock, end);
+        readAheadWindow = Math.min(readAheadWindow * 2, MAX_READ_AHEAD);
     }
 
     @Override
     public void write(long fileOffset, ByteBuffer srcBuf) throws IOException {
         final int len = srcBuf.remaining();
-        final int off = 0;
-        // TODO optimize it also to use ByteBuffer at lower level
-        final byte[] src = ByteBufferUtils.toArray(srcBuf);
 
         if (getFileSystem().isReadOnly()) {
             throw new ReadOnlyFileSystemException("write in readonly filesystem");
@@ -268,7 +366,6 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
                 if (fileOffset > getLength()) throw new IOException(
                     "Can't write beyond the end of the file! (fileOffset: " + fileOffset + ", getLength()"
                         + getLength());
-                if (off + len > src.length) throw new IOException("src is shorter than what you want to write");
 
                 log.debug("write(fileOffset=" + fileOffset + ", src, off, len=" + len + ")");
 
@@ -280,18 +377,9 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
                     long blockOffset = (fileOffset + bytesWritten) % blockSize;
                     long copyLength = Math.min(len - bytesWritten, blockSize - blockOffset);
 
-                    // If only a part of the block is written, then read the
-                    // block and update its contents with the data in src. If the
-                    // whole block is overwritten, then skip reading it.
-                    byte[] dest;
-                    if (!((blockOffset == 0) && (copyLength == blockSize)) && (blockIndex < blocksAllocated))
-                        dest = iNode.getDataBlock(blockIndex);
-                    else dest = new byte[(int) blockSize];
-
-                    System.arraycopy(src, (int) (off + bytesWritten), dest, (int) blockOffset, (int) copyLength);
-
                     // allocate a new block if needed
-                    if (blockIndex >= blocksAllocated) {
+                    final boolean allocated = (blockIndex < blocksAllocated);
+                    if (!allocated) {
                         try {
                             iNode.allocateDataBlock(blockIndex);
                         } catch (FileSystemException ex) {
@@ -302,8 +390,16 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
                         blocksAllocated++;
                     }
 
-                    // write the block
-                    iNode.writeDataBlock(blockIndex, dest);
+                    if ((blockOffset == 0) && (copyLength == blockSize)) {
+                        // The whole block is overwritten, so copy it straight from src into the block cache
+                        iNode.writeDataBlock(blockIndex, srcBuf);
+                    } else {
+                        // Only a part of the block is written, so update the cached block with the data in src. A
+                        // new block is zero filled.
+                        final byte[] dest = allocated ? iNode.getDataBlock(blockIndex) : new byte[(int) blockSize];
+                        srcBuf.get(dest, (int) blockOffset, (int) copyLength);
+                        iNode.writeDataBlock(blockIndex, dest);
+                    }
 
                     bytesWritten += copyLength;
                 }
@@ -34,11 +34,10 @@ import org.jnode.fs.FSEntry;
 import org.jnode.fs.FSFile;
 import org.jnode.fs.FileSystemException;
 import org.jnode.fs.ReadOnlyFileSystemException;
-import org.jnode.fs.ext2.cache.Block;
-import org.jnode.fs.ext2.cache.BlockCache;
 import org.jnode.fs.ext2.cache.INodeCache;
 import org.jnode.fs.ext4.MultipleMountProtection;
 import org.jnode.fs.spi.AbstractFileSystem;
+import org.jnode.fs.spi.BufferCache;
 
 /**
  * @author Andras Nagy
@@ -60,7 +59,12 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
 
     private int groupCount;
 
-    private BlockCache blockCache;
+    private final BufferCache blockCache;
+
+    /**
+     * Lock held while a block bitmap or inode bitmap is read and updated
+     */
+    private final Object blockLock = new Object();
 
     private INodeCache inodeCache;
 
@@ -77,7 +81,7 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
     /**
      * if true, writeBlock() does not return until the block is written to disk
      */
-    private boolean SYNC_WRITE = true;
+    private boolean SYNC_WRITE = false;
 
     /**
      * Constructor for Ext2FileSystem in specified readOnly mode
@@ -87,7 +91,7 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
     public Ext2FileSystem(Device device, boolean readOnly, Ext2FileSystemType type) throws FileSystemException {
         super(device, readOnly, type);
 
-        blockCache = new BlockCache(50, (float) 0.75);
+        blockCache = BufferCache.getInstance();
         inodeCache = new INodeCache(50, (float) 0.75);
 
         // groupDescriptorLock = new Object();
@@ -323,11 +327,7 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
         updateFS();
 
         // flush the blocks
-        synchronized (blockCache) {
-            for (Block block : blockCache.values()) {
-                block.flush();
-            }
-        }
+        blockCache.flush(getApi());
 
         log.info("Filesystem flushed");
     }
@@ -343,6 +343,7 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
         // mark the filesystem clean
         superblock.setState(Ext2Constants.EXT2_VALID_FS);
         super.close();
+        blockCache.invalidate(getApi());
     }
 
     /**
@@ -384,57 +385,53 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
     }
 
     /**
-     * Read a data block and put it in the cache if it is not yet cached, otherwise get it from the cache. Synchronized
-     * access to the blockCache is important as the bitmap operations are synchronized to the blocks (actually, to
-     * Block.getData()), so at any point in time it has to be sure that no two copies of the same block are stored in
-     * the cache.
+     * Read a data block and put it in the cache if it is not yet cached, otherwise get it from the cache. The cache
+     * holds at most one copy of a block, so the bitmap operations can synchronize to the returned data, as long as
+     * they hold blockLock while the block is read and updated.
      *
      * @return data block nr
      */
     public byte[] getBlock(long nr) throws IOException {
         if (isClosed()) throw new IOException("FS closed (fs instance: " + this + ")");
-        // log.debug("blockCache size: "+blockCache.size());
 
-        int blockSize = superblock.getBlockSize();
-        Block result;
+        log.debug("Reading block " + nr);
+        return blockCache.read(getApi(), nr, superblock.getBlockSize());
+    }
 
-        Integer key = Integer.valueOf((int) nr);
-        synchronized (blockCache) {
-            // check if the block has already been retrieved
-            if (blockCache.containsKey(key)) {
-                result = blockCache.get(key);
-                return result.getData();
-            }
-        }
+    /**
+     * Gets a data block if it is in the cache.
+     *
+     * @param nr the block number
+     * @return the data of the block, or null if the block is not cached
+     */
+    public byte[] getCachedBlock(long nr) {
+        return blockCache.peek(getApi(), nr, superblock.getBlockSize());
+    }
 
-        // perform the time-consuming disk read outside of the synchronized
-        // block
-        // advantage:
-        // -the lock is held for a shorter time, so other blocks that are
-        // already in the cache can be returned immediately and
-        // do not have to wait for a long disk read
-        // disadvantage:
-        // -a single block can be retrieved more than once. However,
-        // the block will be put in the cache only once in the second
-        // synchronized block
-        ByteBuffer data = ByteBuffer.allocate(blockSize);
-        log.debug("Reading block " + nr + " (offset: " + nr * blockSize + ") from disk");
-        getApi().read(nr * blockSize, data);
-
-        // synchronize again
-        synchronized (blockCache) {
-            // check if the block has already been retrieved
-            if (!blockCache.containsKey(key)) {
-                result = new Block(this, nr, data.array());
-                blockCache.put(key, result);
-                return result.getData();
-            } else {
-                // it is important to ALWAYS return the block that is in
-                // the cache (it is used in synchronization)
-                result = blockCache.get(key);
-                return result.getData();
-            }
-        }
+    /**
+     * Read consecutive blocks straight from the device, bypassing the cache. The number of blocks read is
+     * determined by the remaining space in dest. Blocks that are cached must not be read this way, as the cached
+     * copy may be newer.
+     *
+     * @param nr   the number of the first block
+     * @param dest the buffer to read into
+     * @throws IOException
+     */
+    public void readBlocks(long nr, ByteBuffer dest) throws IOException {
+        if (isClosed()) throw new IOException("FS closed (fs instance: " + this + ")");
+
+        getApi().read(nr * superblock.getBlockSize(), dest);
+    }
+
+    /**
+     * Read consecutive blocks into the cache in the background.
+     *
+     * @param nr    the number of the first block
+     * @param count the number of blocks
+     * @throws IOException
+     */
+    public void readAhead(long nr, int count) throws IOException {
+        blockCache.readAhead(getApi(), nr, count, superblock.getBlockSize());
     }
 
     /**
@@ -442,8 +439,8 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
      *
      * @param nr         block number
      * @param data       block data
-     * @param forceWrite if forceWrite is false, the block is only updated in the cache (if it was in the cache). If
-     *                   forceWrite is true, or the block is not in the cache, write it to disk.
+     * @param forceWrite if forceWrite is false, the block is only updated in the cache and written back later. If
+     *                   forceWrite is true, the block is also written to disk.
      * @throws IOException
      */
     public void writeBlock(long nr, byte[] data, boolean forceWrite) throws IOException {
@@ -451,34 +448,24 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
 
         if (isReadOnly()) throw new ReadOnlyFileSystemException("Filesystem is mounted read-only!");
 
-        Block block;
-
-        Integer key = Integer.valueOf((int) nr);
-        int blockSize = superblock.getBlockSize();
-        // check if the block is in the cache
-        synchronized (blockCache) {
-            if (blockCache.containsKey(key)) {
-                block = blockCache.get(key);
-                // update the data in the cache
-                block.setData(data);
-                if (forceWrite || SYNC_WRITE) {
-                    // write the block to disk
-                    ByteBuffer dataBuf = ByteBuffer.wrap(data, 0, blockSize);
-                    getApi().write(nr * blockSize, dataBuf);
-                    // timedWrite(nr, data);
-                    block.setDirty(false);
-
-                    log.debug("writing block " + nr + " to disk");
-                } else block.setDirty(true);
-            } else {
-                // If the block was not in the cache, I see no reason to put it
-                // in the cache when it is written.
-                // It is simply written to disk.
-                ByteBuffer dataBuf = ByteBuffer.wrap(data, 0, blockSize);
-                getApi().write(nr * blockSize, dataBuf);
-                // timedWrite(nr, data);
-            }
-        }
+        blockCache.write(getApi(), nr, superblock.getBlockSize(), data, forceWrite || SYNC_WRITE);
+    }
+
+    /**
+     * Update the block in cache, or write the block to disk, copying the data straight from a buffer.
+     *
+     * @param nr         block number
+     * @param src        block data, the buffer position is advanced by the block size
+     * @param forceWrite if forceWrite is false, the block is only updated in the cache and written back later. If
+     *                   forceWrite is true, the block is also written to disk.
+     * @throws IOException
+     */
+    public void writeBlock(long nr, ByteBuffer src, boolean forceWrite) throws IOException {
+        if (isClosed()) throw new IOException("FS closed");
+
+        if (isReadOnly()) throw new ReadOnlyFileSystemException("Filesystem is mounted read-only!");
+
+        blockCache.write(getApi(), nr, superblock.getBlockSize(), src, forceWrite || SYNC_WRITE);
     }
 
     /*
@@ -578,10 +565,10 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
 
         if (blockNr < firstNonMetadataBlock) return new BlockReservation(false, -1, -1);
 
-        // synchronize to the blockCache to avoid flushing the block between
-        // reading it
+        // synchronize to blockLock to avoid reading a second copy of the
+        // block between reading it
         // and synchronizing to it
-        synchronized (blockCache) {
+        synchronized (blockLock) {
             byte[] bitmap = getBlock(groupDescriptors[group].getBlockBitmap());
             synchronized (bitmap) {
                 BlockReservation result = BlockBitmap.testAndSetBlock(bitmap, index);
@@ -660,10 +647,10 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
     protected INodeReservation findFreeINode(int blockGroup) throws IOException {
         GroupDescriptor gdesc = groupDescriptors[blockGroup];
         if (gdesc.getFreeInodesCount() > 0) {
-            // synchronize to the blockCache to avoid flushing the block between
-            // reading it
+            // synchronize to blockLock to avoid reading a second copy of the
+            // block between reading it
             // and synchronizing to it
-            synchronized (blockCache) {
+            synchronized (blockLock) {
                 byte[] bitmap = getBlock(gdesc.getInodeBitmap());
 
                 synchronized (bitmap) {
@@ -755,10 +742,10 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
         if (blockNr < firstNonMetadataBlock) throw new FileSystemException(
             "Attempt to free a filesystem metadata block!");
 
-        // synchronize to the blockCache to avoid flushing the block between
-        // reading it
+        // synchronize to blockLock to avoid reading a second copy of the
+        // block between reading it
         // and synchronizing to it
-        synchronized (blockCache) {
+        synchronized (blockLock) {
             byte[] bitmap = getBlock(gdesc.getBlockBitmap());
 
             // at any time, only one copy of the Block exists in the cache, so
@@ -803,10 +790,10 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
 
         BlockReservation result;
 
-        // synchronize to the blockCache to avoid flushing the block between
-        // reading it
+        // synchronize to blockLock to avoid reading a second copy of the
+        // block between reading it
         // and synchronizing to it
-        synchronized (blockCache) {
+        synchronized (blockLock) {
             byte[] bitmapBlock = getBlock(gdesc.getBlockBitmap());
 
             // at any time, only one copy of the Block exists in the cache, so
@@ -953,10 +940,10 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
     }
 
     /**
-     * @return Returns the blockCache (outside of this class only used to synchronize to)
+     * @return Returns the lock that is held while a bitmap block is read and updated
      */
-    protected synchronized BlockCache getBlockCache() {
-        return blockCache;
+    protected Object getBlockLock() {
+        return blockLock;
     }
 
     /**
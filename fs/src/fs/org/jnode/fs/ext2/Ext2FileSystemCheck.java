@@ -0,0 +1,590 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.ext2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import org.jnode.driver.block.BlockDeviceAPI;
+import org.jnode.fs.FileSystemException;
+import org.jnode.fs.check.CheckReport;
+import org.jnode.fs.check.CheckTask;
+import org.jnode.fs.check.FileSystemCheck;
+import org.jnode.util.LittleEndian;
+
+/**
+ * A check of the block group structures of an ext2 file system.
+ * <p/>
+ * Each block group is checked by its own task: the bitmaps are counted against the free counts in the group
+ * descriptor, and every inode in the inode table is checked against the inode bitmap. Once all groups have been
+ * checked the block bitmaps are cross-checked against the locations of the group metadata and against the block
+ * pointers held in the inodes, which also finds blocks claimed twice. Indirect blocks, extent trees and directory
+ * contents are not walked.
+ */
+final class Ext2FileSystemCheck extends FileSystemCheck {
+
+    /**
+     * The number of bytes of the inode table read at a time.
+     */
+    private static final int INODE_TABLE_CHUNK = 256 * 1024;
+
+    /**
+     * The inode flag for inodes holding their data inline.
+     */
+    private static final long INLINE_DATA_FL = 0x10000000;
+
+    private Superblock superblock;
+    private int blockSize;
+    private long firstDataBlock;
+    private long blocksCount;
+    private long blocksPerGroup;
+    private int inodesPerGroup;
+    private int inodeSize;
+    private long firstInode;
+    private int groupCount;
+    private int descSize;
+    private int gdtBlocks;
+    private boolean gdtChecksums;
+    private GroupDescriptor[] groups;
+
+    /**
+     * Are the block bitmaps cross-checked against the blocks claimed by the metadata and the inodes? The bitmaps
+     * and claims are only kept if they are, which needs a bit per block.
+     */
+    private boolean crossCheck;
+
+    /*
+     * Results of the group tasks, each element is only written by the task for that group.
+     */
+    private boolean[] checked;
+    private byte[][] blockBitmaps;
+    private int[] freeBlocks;
+    private int[] freeInodes;
+    private long[][] claims;
+    private int[] claimCounts;
+
+    Ext2FileSystemCheck(BlockDeviceAPI api) {
+        super(api);
+    }
+
+    /**
+     * @see org.jnode.fs.check.FileSystemCheck#prepare(org.jnode.fs.check.CheckReport)
+     */
+    public List<CheckTask> prepare(CheckReport report) throws IOException {
+        final byte[] data = read(1024, Superblock.SUPERBLOCK_LENGTH, report);
+        superblock = new Superblock();
+        try {
+            superblock.read(data, null);
+        } catch (FileSystemException ex) {
+            report.error(ex.getMessage());
+            return Collections.emptyList();
+        }
+        if (!checkSuperblock(data, report)) {
+            return Collections.emptyList();
+        }
+
+        final long incompat = superblock.getFeatureIncompat();
+        if ((incompat & Ext2Constants.EXT2_FEATURE_INCOMPAT_META_BG) != 0) {
+            report.warning("The meta block group layout is not supported, so the block groups were not checked");
+            return Collections.emptyList();
+        }
+        if (((incompat & Ext2Constants.EXT4_FEATURE_INCOMPAT_64BIT) != 0) &&
+            (LittleEndian.getUInt32(data, 0x150) != 0)) {
+            report.warning("File systems with more than 2^32 blocks are not supported, so the block groups were " +
+                "not checked");
+            return Collections.emptyList();
+        }
+        descSize = superblock.getGroupDescriptorSize();
+        if ((descSize < GroupDescriptor.GROUPDESCRIPTOR_LENGTH) || (descSize > blockSize) ||
+            (Integer.bitCount(descSize) != 1)) {
+            report.error("Invalid group descriptor size: " + descSize);
+            return Collections.emptyList();
+        }
+
+        gdtBlocks = (int) Ext2Utils.ceilDiv((long) groupCount * descSize, blockSize);
+        // The uninitialized group flags are only valid if the descriptors are checksummed
+        gdtChecksums = (superblock.getFeatureROCompat() &
+            (Ext2Constants.EXT4_FEATURE_RO_COMPAT_GDT_CSUM | Ext2Constants.EXT4_FEATURE_RO_COMPAT_METADATA_CSUM)) != 0;
+        final byte[] table = read((firstDataBlock + 1) * blockSize, gdtBlocks * blockSize, report);
+
+        groups = new GroupDescriptor[groupCount];
+        freeBlocks = new int[groupCount];
+        freeInodes = new int[groupCount];
+        checked = new boolean[groupCount];
+        crossCheck = blocksCount <= Integer.MAX_VALUE;
+        if (crossCheck) {
+            blockBitmaps = new byte[groupCount][];
+            claims = new long[groupCount][];
+            claimCounts = new int[groupCount];
+        }
+
+        final List<CheckTask> tasks = new ArrayList<CheckTask>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groups[i] = new GroupDescriptor();
+            groups[i].read(i, table, i * descSize);
+            freeBlocks[i] = groups[i].getFreeBlocksCount();
+            freeInodes[i] = groups[i].getFreeInodesCount();
+            if (hasHighFields(table, i * descSize)) {
+                report.warning("group " + i + ": descriptors using the upper 32 bits of 64-bit fields are not " +
+                    "supported, so the group was not checked");
+            } else if (checkGroupDescriptor(i, report)) {
+                checked[i] = true;
+                tasks.add(new GroupTask(i));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Checks the superblock fields everything else depends on, and reads them in.
+     *
+     * @param data the raw superblock.
+     * @param report the report.
+     * @return {@code true} if the block groups can be checked.
+     */
+    private boolean checkSuperblock(byte[] data, CheckReport report) {
+        final long logBlockSize = LittleEndian.getUInt32(data, 24);
+        if (logBlockSize > 6) {
+            report.error("Invalid block size: " + (1024L << Math.min(logBlockSize, 32)));
+            return false;
+        }
+        blockSize = superblock.getBlockSize();
+        firstDataBlock = superblock.getFirstDataBlock();
+        blocksCount = superblock.getBlocksCount();
+        blocksPerGroup = superblock.getBlocksPerGroup();
+        inodesPerGroup = (int) Math.min(superblock.getINodesPerGroup(), Integer.MAX_VALUE);
+        inodeSize = superblock.getINodeSize();
+        firstInode = superblock.getFirstInode();
+
+        boolean ok = true;
+        if (firstDataBlock != ((blockSize == 1024) ? 1 : 0)) {
+            report.error("Invalid first data block: " + firstDataBlock);
+            ok = false;
+        }
+        if ((blocksPerGroup < 1) || (blocksPerGroup > blockSize * 8)) {
+            report.error("Invalid number of blocks per group: " + blocksPerGroup);
+            ok = false;
+        }
+        if ((inodesPerGroup < 1) || (inodesPerGroup > blockSize * 8)) {
+            report.error("Invalid number of inodes per group: " + inodesPerGroup);
+            ok = false;
+        }
+        if ((inodeSize < INode.EXT2_GOOD_OLD_INODE_SIZE) || (inodeSize > blockSize) ||
+            (Integer.bitCount(inodeSize) != 1)) {
+            report.error("Invalid inode size: " + inodeSize);
+            ok = false;
+        }
+        if (blocksCount <= firstDataBlock) {
+            report.error("Invalid number of blocks: " + blocksCount);
+            ok = false;
+        }
+        if (!ok) {
+            return false;
+        }
+
+        final long deviceBlocks;
+        try {
+            deviceBlocks = api.getLength() / blockSize;
+        } catch (IOException ex) {
+            report.error("Cannot get the device length: " + ex.getMessage());
+            return false;
+        }
+        if (blocksCount > deviceBlocks) {
+            report.error("The file system has " + blocksCount + " blocks but the device only has " + deviceBlocks);
+            return false;
+        }
+
+        groupCount = (int) Ext2Utils.ceilDiv(blocksCount - firstDataBlock, blocksPerGroup);
+        if (superblock.getINodesCount() != (long) groupCount * inodesPerGroup) {
+            report.error("The file system has " + superblock.getINodesCount() + " inodes but " + groupCount +
+                " groups of " + inodesPerGroup);
+        }
+        if (superblock.getFreeBlocksCount() > blocksCount) {
+            report.error("More free blocks (" + superblock.getFreeBlocksCount() + ") than blocks");
+        }
+        if (superblock.getFreeInodesCount() > superblock.getINodesCount()) {
+            report.error("More free inodes (" + superblock.getFreeInodesCount() + ") than inodes");
+        }
+        if ((superblock.getState() & Ext2Constants.EXT2_ERROR_FS) != 0) {
+            report.warning("The file system is marked as having errors");
+        } else if ((superblock.getState() & Ext2Constants.EXT2_VALID_FS) == 0) {
+            report.warning("The file system was not cleanly unmounted");
+        }
+        return true;
+    }
+
+    /**
+     * Does a 64-bit group descriptor use the upper halves of its block locations or counts? Those only appear on
+     * file systems too large for the rest of this check.
+     */
+    private boolean hasHighFields(byte[] table, int offset) {
+        if (descSize == GroupDescriptor.GROUPDESCRIPTOR_LENGTH) {
+            return false;
+        }
+        for (int i = 0x20; i < 0x34; i += 4) {
+            if (LittleEndian.getInt32(table, offset + i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks that the metadata locations in a group descriptor lie within the file system, and within the group
+     * itself unless flexible block groups are in use.
+     *
+     * @param group the group.
+     * @param report the report.
+     * @return {@code true} if the group can be checked.
+     */
+    private boolean checkGroupDescriptor(int group, CheckReport report) {
+        final GroupDescriptor desc = groups[group];
+        final long start;
+        final long end;
+        if (superblock.isUsingFlexibleBlockGroups()) {
+            start = firstDataBlock;
+            end = blocksCount;
+        } else {
+            start = getGroupStart(group);
+            end = start + getGroupBlocks(group);
+        }
+
+        boolean ok = checkLocation(group, "block bitmap", desc.getBlockBitmap(), 1, start, end, report);
+        ok &= checkLocation(group, "inode bitmap", desc.getInodeBitmap(), 1, start, end, report);
+        ok &= checkLocation(group, "inode table", desc.getInodeTable(), getInodeTableBlocks(), start, end, report);
+        return ok;
+    }
+
+    private boolean checkLocation(int group, String what, long block, long count, long start, long end,
+                                  CheckReport report) {
+        if ((block < start) || (block + count > end)) {
+            report.error("group " + group + ": " + what + " at block " + block + " is outside of blocks " + start +
+                "-" + (end - 1));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @see org.jnode.fs.check.FileSystemCheck#complete(org.jnode.fs.check.CheckReport)
+     */
+    public void complete(CheckReport report) {
+        if (groups == null) {
+            return;
+        }
+        if (!crossCheck) {
+            report.warning("The file system is too large to cross-check the block bitmaps");
+        } else {
+            final BitSet claimed = new BitSet((int) blocksCount);
+            for (int i = 0; i < groupCount; i++) {
+                if (!checked[i]) {
+                    continue;
+                }
+                if (hasSuperblockCopy(i)) {
+                    long count = 1 + gdtBlocks;
+                    if ((superblock.getFeatureCompat() & Ext2Constants.EXT2_FEATURE_COMPAT_RESIZE_INO) != 0) {
+                        count += superblock.getReservedGdtBlocks();
+                    }
+                    claimMetadata(claimed, getGroupStart(i), count, "superblock copy of group " + i, report);
+                }
+                final GroupDescriptor desc = groups[i];
+                claimMetadata(claimed, desc.getBlockBitmap(), 1, "block bitmap of group " + i, report);
+                claimMetadata(claimed, desc.getInodeBitmap(), 1, "inode bitmap of group " + i, report);
+                claimMetadata(claimed, desc.getInodeTable(), getInodeTableBlocks(), "inode table of group " + i,
+                    report);
+            }
+
+            for (int i = 0; i < groupCount; i++) {
+                for (int j = 0; j < claimCounts[i]; j++) {
+                    final long block = claims[i][j] >>> 32;
+                    final long inode = claims[i][j] & 0xFFFFFFFFL;
+                    if (claimed.get((int) block)) {
+                        report.error("Block " + block + " of inode " + inode + " is also used elsewhere");
+                    }
+                    claimed.set((int) block);
+                    if (!isBlockUsed(block)) {
+                        report.error("Block " + block + " of inode " + inode + " is marked free");
+                    }
+                }
+            }
+        }
+
+        long totalFreeBlocks = 0;
+        long totalFreeInodes = 0;
+        for (int i = 0; i < groupCount; i++) {
+            totalFreeBlocks += freeBlocks[i];
+            totalFreeInodes += freeInodes[i];
+        }
+        if (totalFreeBlocks != superblock.getFreeBlocksCount()) {
+            report.warning("The superblock has " + superblock.getFreeBlocksCount() +
+                " free blocks but the groups have " + totalFreeBlocks);
+        }
+        if (totalFreeInodes != superblock.getFreeInodesCount()) {
+            report.warning("The superblock has " + superblock.getFreeInodesCount() +
+                " free inodes but the groups have " + totalFreeInodes);
+        }
+    }
+
+    private void claimMetadata(BitSet claimed, long block, long count, String what, CheckReport report) {
+        for (long b = block; (b < block + count) && (b < blocksCount); b++) {
+            if (claimed.get((int) b)) {
+                report.error("Block " + b + " of the " + what + " is also used elsewhere");
+            }
+            claimed.set((int) b);
+            if (!isBlockUsed(b)) {
+                report.error("Block " + b + " of the " + what + " is marked free");
+            }
+        }
+    }
+
+    /**
+     * Is a block marked used in its group's block bitmap? Blocks in groups whose bitmap was not initialized or could
+     * not be read are assumed to be used.
+     */
+    private boolean isBlockUsed(long block) {
+        final int group = (int) ((block - firstDataBlock) / blocksPerGroup);
+        final byte[] bitmap = blockBitmaps[group];
+        return (bitmap == null) || isSet(bitmap, (int) ((block - firstDataBlock) % blocksPerGroup));
+    }
+
+    private long getGroupStart(int group) {
+        return firstDataBlock + group * blocksPerGroup;
+    }
+
+    private int getGroupBlocks(int group) {
+        return (int) Math.min(blocksPerGroup, blocksCount - getGroupStart(group));
+    }
+
+    private long getInodeTableBlocks() {
+        return Ext2Utils.ceilDiv((long) inodesPerGroup * inodeSize, blockSize);
+    }
+
+    /**
+     * Does a group hold a copy of the superblock and group descriptor table?
+     */
+    private boolean hasSuperblockCopy(int group) {
+        if ((group <= 1) ||
+            (superblock.getFeatureROCompat() & Ext2Constants.EXT2_FEATURE_RO_COMPAT_SPARSE_SUPER) == 0) {
+            return true;
+        }
+        return isPowerOf(group, 3) || isPowerOf(group, 5) || isPowerOf(group, 7);
+    }
+
+    private static boolean isPowerOf(int value, int base) {
+        while (value % base == 0) {
+            value /= base;
+        }
+        return value == 1;
+    }
+
+    private static boolean isSet(byte[] bitmap, int index) {
+        return (bitmap[index >> 3] & (1 << (index & 7))) != 0;
+    }
+
+    /**
+     * Counts the bits set in the first part of a bitmap.
+     *
+     * @param bitmap the bitmap.
+     * @param count the number of bits to look at.
+     * @return the number of bits set.
+     */
+    private static int countSet(byte[] bitmap, int count) {
+        int set = 0;
+        final int bytes = count >> 3;
+        for (int i = 0; i < bytes; i++) {
+            set += Integer.bitCount(bitmap[i] & 0xFF);
+        }
+        for (int i = bytes << 3; i < count; i++) {
+            if (isSet(bitmap, i)) {
+                set++;
+            }
+        }
+        return set;
+    }
+
+    /**
+     * The check of a single block group.
+     */
+    private final class GroupTask implements CheckTask {
+
+        private final int group;
+        private final GroupDescriptor desc;
+        private final String name;
+
+        GroupTask(int group) {
+            this.group = group;
+            this.desc = groups[group];
+            this.name = "group " + group;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void run(CheckReport report) throws IOException {
+            final int flags = gdtChecksums ? desc.getFlags() : 0;
+
+            if ((flags & Ext2Constants.EXT4_BG_BLOCK_UNINIT) == 0) {
+                final byte[] bitmap = read(desc.getBlockBitmap() * blockSize, blockSize, report);
+                final int free = getGroupBlocks(group) - countSet(bitmap, getGroupBlocks(group));
+                if (free != desc.getFreeBlocksCount()) {
+                    report.error(name + ": the descriptor has " + desc.getFreeBlocksCount() +
+                        " free blocks but the bitmap has " + free);
+                }
+                freeBlocks[group] = free;
+                if (crossCheck) {
+                    blockBitmaps[group] = bitmap;
+                }
+            }
+
+            if ((flags & Ext2Constants.EXT4_BG_INODE_UNINIT) == 0) {
+                final byte[] bitmap = read(desc.getInodeBitmap() * blockSize, blockSize, report);
+                final int free = inodesPerGroup - countSet(bitmap, inodesPerGroup);
+                if (free != desc.getFreeInodesCount()) {
+                    report.error(name + ": the descriptor has " + desc.getFreeInodesCount() +
+                        " free inodes but the bitmap has " + free);
+                }
+                freeInodes[group] = free;
+                checkInodeTable(bitmap, report);
+            }
+        }
+
+        /**
+         * Checks the inodes of the group against the inode bitmap and collects their block pointers.
+         */
+        private void checkInodeTable(byte[] bitmap, CheckReport report) throws IOException {
+            int count = inodesPerGroup;
+            if (gdtChecksums) {
+                if (desc.getItableUnused() > inodesPerGroup) {
+                    report.error(name + ": invalid number of unused inodes: " + desc.getItableUnused());
+                } else {
+                    count -= desc.getItableUnused();
+                }
+            }
+            for (int i = count; i < inodesPerGroup; i++) {
+                if (isSet(bitmap, i)) {
+                    report.error("Inode " + getInodeNr(i) + " is marked in use but lies in the unused part of the " +
+                        "inode table");
+                }
+            }
+
+            int dirs = 0;
+            final int perChunk = Math.max(1, INODE_TABLE_CHUNK / inodeSize);
+            for (int first = 0; first < count; first += perChunk) {
+                final int inodes = Math.min(perChunk, count - first);
+                final long offset = desc.getInodeTable() * blockSize + (long) first * inodeSize;
+                final byte[] data = read(offset, (int) Ext2Utils.ceilDiv(inodes * inodeSize, blockSize) * blockSize,
+                    report);
+                for (int i = 0; i < inodes; i++) {
+                    if (checkInode(data, i * inodeSize, first + i, isSet(bitmap, first + i), report)) {
+                        dirs++;
+                    }
+                }
+            }
+
+            if ((count == inodesPerGroup) && (dirs != desc.getUsedDirsCount())) {
+                report.error(name + ": the descriptor has " + desc.getUsedDirsCount() + " directories but the " +
+                    "inode table has " + dirs);
+            }
+        }
+
+        /**
+         * Checks a single inode.
+         *
+         * @return {@code true} if the inode is a directory in use.
+         */
+        private boolean checkInode(byte[] data, int offset, int index, boolean marked, CheckReport report) {
+            final long inode = getInodeNr(index);
+            final int mode = LittleEndian.getUInt16(data, offset);
+            final long size = LittleEndian.getUInt32(data, offset + 4);
+            final long dtime = LittleEndian.getUInt32(data, offset + 20);
+            final int links = LittleEndian.getUInt16(data, offset + 26);
+            final long flags = LittleEndian.getUInt32(data, offset + 32);
+            final boolean inUse = (mode != 0) && (links != 0) && (dtime == 0);
+            final int type = mode & Ext2Constants.EXT2_S_IFMT;
+
+            if (inode < firstInode) {
+                // Reserved inodes are always allocated, but only the root directory is checked further
+                if (!marked) {
+                    report.error("Reserved inode " + inode + " is marked free");
+                }
+                if (inode != Ext2Constants.EXT2_ROOT_INO) {
+                    return false;
+                }
+                if (!inUse || (type != Ext2Constants.EXT2_S_IFDIR)) {
+                    report.error("The root inode is not a directory");
+                    return false;
+                }
+            } else if (inUse && !marked) {
+                report.error("Inode " + inode + " is in use but marked free");
+            } else if (!inUse && marked) {
+                report.error("Inode " + inode + " is marked in use but is not in use");
+            }
+            if (!inUse) {
+                return false;
+            }
+
+            final boolean hasBlocks;
+            if ((flags & (Ext2Constants.EXT4_INODE_EXTENTS_FLAG | INLINE_DATA_FL)) != 0) {
+                hasBlocks = false;
+            } else if (type == Ext2Constants.EXT2_S_IFLNK) {
+                // Fast symlinks keep the target in the block pointers
+                hasBlocks = size >= 60;
+            } else {
+                hasBlocks = (type == Ext2Constants.EXT2_S_IFREG) || (type == Ext2Constants.EXT2_S_IFDIR);
+            }
+
+            if (hasBlocks) {
+                for (int i = 0; i < 15; i++) {
+                    final long block = LittleEndian.getUInt32(data, offset + 40 + i * 4);
+                    if (block == 0) {
+                        continue;
+                    }
+                    if ((block < firstDataBlock) || (block >= blocksCount)) {
+                        report.error("Inode " + inode + " points to block " + block + ", outside of the file system");
+                    } else if (crossCheck) {
+                        claim(block, inode);
+                    }
+                }
+            }
+            return type == Ext2Constants.EXT2_S_IFDIR;
+        }
+
+        private void claim(long block, long inode) {
+            long[] list = claims[group];
+            if (list == null) {
+                list = new long[256];
+            } else if (claimCounts[group] == list.length) {
+                final long[] newList = new long[list.length * 2];
+                System.arraycopy(list, 0, newList, 0, list.length);
+                list = newList;
+            }
+            list[claimCounts[group]++] = (block << 32) | inode;
+            claims[group] = list;
+        }
+
+        private long getInodeNr(int index) {
+            return (long) group * inodesPerGroup + index + 1;
+        }
+    }
+}
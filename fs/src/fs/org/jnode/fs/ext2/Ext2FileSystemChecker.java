@@ -0,0 +1,62 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.ext2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.jnode.driver.block.BlockDeviceAPI;
+import org.jnode.fs.check.FileSystemCheck;
+import org.jnode.fs.check.FileSystemChecker;
+import org.jnode.util.LittleEndian;
+
+/**
+ * Checker for ext2 file systems, and the block group structures of ext3 and ext4.
+ *
+ * @see Ext2FileSystemCheck
+ */
+public class Ext2FileSystemChecker implements FileSystemChecker {
+
+    /**
+     * @see org.jnode.fs.check.FileSystemChecker#getName()
+     */
+    public String getName() {
+        return "EXT2";
+    }
+
+    /**
+     * @see org.jnode.fs.check.FileSystemChecker#supports(org.jnode.driver.block.BlockDeviceAPI)
+     */
+    public boolean supports(BlockDeviceAPI api) throws IOException {
+        if (api.getLength() < 2 * Superblock.SUPERBLOCK_LENGTH) {
+            return false;
+        }
+        final byte[] data = new byte[Superblock.SUPERBLOCK_LENGTH];
+        api.read(1024, ByteBuffer.wrap(data));
+        return LittleEndian.getUInt16(data, 56) == 0xEF53;
+    }
+
+    /**
+     * @see org.jnode.fs.check.FileSystemChecker#createCheck(org.jnode.driver.block.BlockDeviceAPI)
+     */
+    public FileSystemCheck createCheck(BlockDeviceAPI api) {
+        return new Ext2FileSystemCheck(api);
+    }
+}
@@ -57,6 +57,20 @@ public class GroupDescriptor {
         setDirty(false);
     }
 
+    /**
+     * Reads the group descriptor from a copy of the group descriptor table, for use without a file system, e.g.
+     * when checking an unmounted device.
+     * 
+     * @param groupNr the group number.
+     * @param table the group descriptor table.
+     * @param offset the offset of the descriptor in the table.
+     */
+    void read(int groupNr, byte[] table, int offset) {
+        System.arraycopy(table, offset, data, 0, GROUPDESCRIPTOR_LENGTH);
+        this.groupNr = groupNr;
+        setDirty(false);
+    }
+
     /*
      * create() and read() precedes any access to the inners of the group
      * descriptor, so no synchronization is needed
@@ -203,6 +217,25 @@ public class GroupDescriptor {
         setDirty(true);
     }
 
+    /**
+     * Gets the block group flags, e.g. whether the bitmaps have been initialized.
+     * 
+     * @return the flags.
+     */
+    public int getFlags() {
+        return LittleEndian.getUInt16(data, 18);
+    }
+
+    /**
+     * Gets the number of unused inodes at the end of the inode table, only valid with the group descriptor
+     * checksum feature.
+     * 
+     * @return the number of unused inodes.
+     */
+    public int getItableUnused() {
+        return LittleEndian.getUInt16(data, 28);
+    }
+
     /**
      * @return the dirty flag for the descriptor
      */
@@ -21,6 +21,7 @@
 package org.jnode.fs.ext2;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -29,6 +30,7 @@ import org.jnode.fs.FileSystemException;
 import org.jnode.fs.ext2.exception.UnallocatedBlockException;
 import org.jnode.fs.ext2.xattr.XAttrEntry;
 import org.jnode.fs.ext2.xattr.XAttrHeader;
+import org.jnode.fs.ext4.Extent;
 import org.jnode.fs.ext4.ExtentHeader;
 import org.jnode.fs.util.FSUtils;
 import org.jnode.util.LittleEndian;
@@ -69,6 +71,11 @@ public class INode {
      */
     private ExtentHeader extentHeader;
 
+    /**
+     * The cached logical to physical block mapping.
+     */
+    private final BlockMap blockMap = new BlockMap();
+
     /**
      * Create an INode object from an existing inode on the disk.
      *
@@ -84,6 +91,7 @@ public class INode {
 
     public void read(byte[] data) {
         System.arraycopy(data, 0, this.data, 0, fs.getSuperblock().getINodeSize());
+        blockMap.clear();
         setDirty(false);
     }
 
@@ -275,28 +283,30 @@ public class INode {
 
     /**
      * Parse the indirect blocks of level <code>indirectionLevel</code> and
-     * return the address of the <code>offset</code> th block. For example,
-     * indirectRead( doubleIndirectBlockNumber, 45, 3) will return the 45th
-     * block that is reachable via triple indirection, which is the (12 +
-     * getIndirectCount() +getIndirectCount()^2 + 45)th block of the inode (12
-     * direct blocks, getIndirectCount() simple indirect blocks,
-     * getIndirectCount()^2 double indirect blocks, 45th triple indirect block).
+     * return the (simple) indirect block that holds the address of the
+     * <code>offset</code> th block. For example,
+     * indirectLeaf( tripleIndirectBlockNumber, 45, 3) will return the indirect
+     * block that holds the address of the 45th block that is reachable via
+     * triple indirection, which is the (12 + getIndirectCount()
+     * +getIndirectCount()^2 + 45)th block of the inode (12 direct blocks,
+     * getIndirectCount() simple indirect blocks, getIndirectCount()^2 double
+     * indirect blocks, 45th triple indirect block). The address itself is at
+     * index <code>offset % getIndirectCount()</code> of the returned block.
      *
-     * @param indirectionLevel 0 is a direct block, 1 is a simple indirect block, and
-     *                         so on.
+     * @param indirectionLevel 1 is a simple indirect block, and so on.
      */
-    private final long indirectRead(long dataBlockNr, long offset, int indirectionLevel)
+    private final byte[] indirectLeaf(long dataBlockNr, long offset, int indirectionLevel)
         throws IOException {
         byte[] data = fs.getBlock(dataBlockNr);
         if (indirectionLevel == 1)
             //data is a (simple) indirect block
-            return LittleEndian.getUInt32(data, (int) offset * 4);
+            return data;
 
         long blockIndex = offset / (long) Math.pow(getIndirectCount(), indirectionLevel - 1);
         long blockOffset = offset % (long) Math.pow(getIndirectCount(), indirectionLevel - 1);
         long blockNr = LittleEndian.getUInt32(data, (int) blockIndex * 4);
 
-        return indirectRead(blockNr, blockOffset, indirectionLevel - 1);
+        return indirectLeaf(blockNr, blockOffset, indirectionLevel - 1);
     }
 
     /**
@@ -399,12 +409,28 @@ public class INode {
      * @throws IOException
      */
     public long getDataBlockNr(long i) throws IOException {
+        final long mapped = blockMap.lookup(i);
+        if (mapped >= 0) {
+            return mapped;
+        }
+
         if ((getFlags() & Ext2Constants.EXT4_INODE_EXTENTS_FLAG) != 0) {
             if (extentHeader == null) {
                 extentHeader = new ExtentHeader(getINodeBlockData());
             }
 
-            return extentHeader.getBlockNumber(fs, i);
+            final Extent extent = extentHeader.getExtent(fs, i);
+            final long blockNr = i - extent.getBlockIndex() + extent.getStartLow();
+            // Lengths above 32768 mark uninitialised extents
+            int length = extent.getBlockCount();
+            if (length > 32768) {
+                length -= 32768;
+            }
+            // Only record the block if it is covered by the extent, i.e. it is not in a hole
+            if (i >= extent.getBlockIndex()) {
+                blockMap.add(i, blockNr, extent.getBlockIndex() + length - i);
+            }
+            return blockNr;
         } else {
             return getDataBlockNrIndirect(i);
         }
@@ -435,35 +461,67 @@ public class INode {
         //get the direct blocks (0; 11)
         if (i < 12) {
             log.debug("getDataBlockNr(): block nr: " + LittleEndian.getUInt32(data, 40 + (int) i * 4));
-            return LittleEndian.getUInt32(data, 40 + (int) i * 4);
+            return mapRun(i, data, 40 + (int) i * 4, 40 + 12 * 4, blockCount);
         }
 
         //see the indirect blocks (12; indirectCount-1)
-        i -= 12;
-        if (i < indirectCount) {
+        long offset = i - 12;
+        if (offset < indirectCount) {
             //the 12th index points to the indirect block
-            return indirectRead(LittleEndian.getUInt32(data, 40 + 12 * 4), i, 1);
+            byte[] leaf = indirectLeaf(LittleEndian.getUInt32(data, 40 + 12 * 4), offset, 1);
+            return mapRun(i, leaf, (int) offset * 4, leaf.length, blockCount);
         }
 
         //see the double indirect blocks (indirectCount; doubleIndirectCount-1)
-        i -= indirectCount;
-        if (i < indirectCount * indirectCount) {
+        offset -= indirectCount;
+        if (offset < indirectCount * indirectCount) {
             //the 13th index points to the double indirect block
-            return indirectRead(LittleEndian.getUInt32(data, 40 + 13 * 4), i, 2);
+            byte[] leaf = indirectLeaf(LittleEndian.getUInt32(data, 40 + 13 * 4), offset, 2);
+            return mapRun(i, leaf, (int) (offset % indirectCount) * 4, leaf.length, blockCount);
         }
 
         //see the triple indirect blocks (doubleIndirectCount;
         // tripleIndirectCount-1)
-        i -= indirectCount * indirectCount;
-        if (i < indirectCount * indirectCount * indirectCount) {
+        offset -= indirectCount * indirectCount;
+        if (offset < indirectCount * indirectCount * indirectCount) {
             //the 14th index points to the triple indirect block
-            return indirectRead(LittleEndian.getUInt32(data, 40 + 14 * 4), i, 3);
+            byte[] leaf = indirectLeaf(LittleEndian.getUInt32(data, 40 + 14 * 4), offset, 3);
+            return mapRun(i, leaf, (int) (offset % indirectCount) * 4, leaf.length, blockCount);
         }
 
         //shouldn't get here
         throw new IOException("Internal FS exception: getDataBlockIndex(i=" + i + ")");
     }
 
+    /**
+     * Read the address of the ith block of the inode from a table of block
+     * addresses (the direct blocks of the inode, or an indirect block), and
+     * record the run of contiguous blocks that starts at it in the block map.
+     *
+     * @param i          the index of the block in the inode
+     * @param table      the table of block addresses
+     * @param offset     the offset of the address of the ith block in the table
+     * @param end        the end of the table
+     * @param blockCount the number of blocks allocated for the inode
+     * @return the block number
+     */
+    private long mapRun(long i, byte[] table, int offset, int end, long blockCount) {
+        final long blockNr = LittleEndian.getUInt32(table, offset);
+        if (blockNr == 0) {
+            return blockNr;
+        }
+
+        long count = 1;
+        offset += 4;
+        while ((offset < end) && (i + count < blockCount) &&
+            (LittleEndian.getUInt32(table, offset) == blockNr + count)) {
+            count++;
+            offset += 4;
+        }
+        blockMap.add(i, blockNr, count);
+        return blockNr;
+    }
+
     /**
      * Read the ith block of the inode (i is a sequential index from the
      * beginning of the file, and not an absolute block number)
@@ -636,6 +694,7 @@ public class INode {
         }
 
         desc.setLastAllocatedBlockIndex(i - 1);
+        blockMap.truncate(i);
 
         //preallocated blocks follow the last allocated block: when the last
         // block is freed,
@@ -724,6 +783,24 @@ public class INode {
         }
     }
 
+    /**
+     * Write the i. data block of the inode from a buffer, without copying it
+     * to an intermediate array first.
+     * <p/>
+     * This method assumes that the block has already been reserved.
+     *
+     * @param i
+     * @param src the block data, the buffer position is advanced by the block size
+     */
+    public void writeDataBlock(long i, ByteBuffer src) throws IOException {
+        if (i < getAllocatedBlockCount()) {
+            fs.writeBlock(getDataBlockNr(i), src, false);
+        } else {
+            throw new UnallocatedBlockException("Block " + i + " not yet reserved " +
+                "for the inode");
+        }
+    }
+
     /**
      * Get the number of blocks allocated so far for the inode. It is possible
      * that a new block has been allocated, but not yet been written to. In this
@@ -754,6 +831,7 @@ public class INode {
             throw new IOException("Allocate block " + getAllocatedBlockCount() + " first!");
         }
 
+        blockMap.truncate(i);
         long newBlock = findFreeBlock(i);
 
         log.debug("Allocated new block " + newBlock);
@@ -699,6 +699,50 @@ public class Superblock {
         return LittleEndian.getInt64(data, 360);
     }
 
+    /**
+     * Gets the size of the group descriptors, which are larger than {@link GroupDescriptor#GROUPDESCRIPTOR_LENGTH}
+     * on file systems with the 64-bit feature.
+     *
+     * @return the size in bytes.
+     */
+    public int getGroupDescriptorSize() {
+        if ((getFeatureIncompat() & Ext2Constants.EXT4_FEATURE_INCOMPAT_64BIT) != 0)
+            return LittleEndian.getUInt16(data, 254);
+        else
+            return GroupDescriptor.GROUPDESCRIPTOR_LENGTH;
+    }
+
+    /**
+     * Gets the number of blocks reserved after the group descriptor table for growing the file system.
+     *
+     * @return the number of reserved blocks, only used if the resize inode feature is set.
+     */
+    public int getReservedGdtBlocks() {
+        return LittleEndian.getUInt16(data, 206);
+    }
+
+    /**
+     * Gets the seed for the directory index hash.
+     *
+     * @return the four seed words, all zero if the default seed should be used.
+     */
+    public int[] getHashSeed() {
+        int[] seed = new int[4];
+        for (int i = 0; i < seed.length; i++) {
+            seed[i] = LittleEndian.getInt32(data, 236 + i * 4);
+        }
+        return seed;
+    }
+
+    /**
+     * Gets the miscellaneous flags, e.g. whether directory hashes use signed or unsigned chars.
+     *
+     * @return the flags.
+     */
+    public long getFlags() {
+        return LittleEndian.getUInt32(data, 352);
+    }
+
     public long getBlocksPerFlex() {
         int logBlocksPerFlex = LittleEndian.getUInt8(data, 372);
         return 1L << logBlocksPerFlex;
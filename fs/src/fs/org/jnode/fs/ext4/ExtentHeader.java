@@ -126,15 +126,27 @@ public class ExtentHeader {
     }
 
     public long getBlockNumber(Ext2FileSystem fs, long index) throws IOException {
+        Extent extent = getExtent(fs, index);
+        return index - extent.getBlockIndex() + extent.getStartLow();
+    }
+
+    /**
+     * Gets the leaf extent that covers the given block, walking down the extent tree as needed.
+     *
+     * @param fs    the file system to read the index nodes from.
+     * @param index the index of the block to match.
+     * @return the matching extent.
+     * @throws IOException if an error occurs reading an index node.
+     */
+    public Extent getExtent(Ext2FileSystem fs, long index) throws IOException {
         if (getDepth() > 0) {
             ExtentIndex extentIndex = binarySearchIndexes(index, getIndexEntries());
             byte[] indexData = fs.getBlock(extentIndex.getLeafLow());
 
             ExtentHeader indexHeader = new ExtentHeader(indexData);
-            return indexHeader.getBlockNumber(fs, index);
+            return indexHeader.getExtent(fs, index);
         } else {
-            Extent extent = binarySearchExtents(index, getExtentEntries());
-            return index - extent.getBlockIndex() + extent.getStartLow();
+            return binarySearchExtents(index, getExtentEntries());
         }
     }
 
@@ -0,0 +1,320 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.fat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import org.jnode.driver.block.BlockDeviceAPI;
+import org.jnode.fs.check.CheckReport;
+import org.jnode.fs.check.CheckTask;
+import org.jnode.fs.check.FileSystemCheck;
+import org.jnode.util.LittleEndian;
+
+/**
+ * A check of the allocation tables of a FAT file system.
+ * <p/>
+ * The tables are split into regions that are checked in parallel: every copy of the table is read for the region,
+ * the copies are compared with the first one and each entry is checked to be free, bad, an end of chain marker or a
+ * link to a valid cluster. Once all regions have been checked the cluster chains are followed to find clusters
+ * linked from more than one place and chains that loop back on themselves. Directory contents are not walked, so
+ * chains that no directory entry refers to are not detected.
+ */
+final class FatFileSystemCheck extends FileSystemCheck {
+
+    /**
+     * The number of table entries checked by a single task.
+     */
+    private static final int REGION_ENTRIES = 64 * 1024;
+
+    private BootSector bs;
+    private FatType type;
+
+    /**
+     * The size of a table entry in bits, FAT12 entries are packed so it is not always a whole number of bytes.
+     */
+    private int entryBits;
+
+    private int bytesPerSector;
+    private long fatOffset;
+    private long fatLength;
+    private int fatCount;
+    private int clusterCount;
+
+    /**
+     * The entries of the first table, each region is only written by the task for that region.
+     */
+    private int[] entries;
+
+    private int badValue;
+    private int eofValue;
+    private long freeClusters;
+
+    FatFileSystemCheck(BlockDeviceAPI api) {
+        super(api);
+    }
+
+    /**
+     * @see org.jnode.fs.check.FileSystemCheck#prepare(org.jnode.fs.check.CheckReport)
+     */
+    public List<CheckTask> prepare(CheckReport report) throws IOException {
+        bs = new BootSector(read(0, 512, report));
+        bytesPerSector = bs.getBytesPerSector();
+        fatCount = bs.getNrFats();
+
+        final long sectorsPerFat = (bs.getSectorsPerFat() != 0) ? bs.getSectorsPerFat() : bs.get32(0x24);
+        final long totalSectors = (bs.getNrLogicalSectors() != 0) ? bs.getNrLogicalSectors() : bs.get32(0x20);
+        final long rootDirSectors = (bs.getNrRootDirEntries() * 32L + bytesPerSector - 1) / bytesPerSector;
+        final long dataSectors =
+            totalSectors - (bs.getNrReservedSectors() + fatCount * sectorsPerFat + rootDirSectors);
+        if (dataSectors <= 0) {
+            report.error("The file system has no data area");
+            return Collections.emptyList();
+        }
+        if (totalSectors * bytesPerSector > api.getLength()) {
+            report.error("The file system has " + totalSectors + " sectors but the device only has " +
+                api.getLength() / bytesPerSector);
+            return Collections.emptyList();
+        }
+
+        // The type is determined by the number of clusters alone
+        final long clusters = dataSectors / bs.getSectorsPerCluster();
+        if (clusters < 4085) {
+            type = FatType.FAT12;
+            entryBits = 12;
+            badValue = 0xFF7;
+        } else if (clusters < 65525) {
+            type = FatType.FAT16;
+            entryBits = 16;
+            badValue = 0xFFF7;
+        } else {
+            type = FatType.FAT32;
+            entryBits = 32;
+            badValue = 0x0FFFFFF7;
+        }
+        eofValue = badValue + 1;
+        clusterCount = (int) Math.min(clusters, badValue - 2);
+
+        fatOffset = (long) bs.getNrReservedSectors() * bytesPerSector;
+        fatLength = sectorsPerFat * bytesPerSector;
+        final long entriesPerFat = fatLength * 8 / entryBits;
+        if (entriesPerFat < clusterCount + 2) {
+            report.error("The " + type + " table has room for " + entriesPerFat + " entries but there are " +
+                clusterCount + " clusters");
+            return Collections.emptyList();
+        }
+
+        final int media = bs.getMediumDescriptor();
+        if ((media != 0xF0) && (media < 0xF8)) {
+            report.warning("Invalid media descriptor: 0x" + Integer.toHexString(media));
+        }
+        if (type == FatType.FAT32) {
+            final long rootCluster = bs.get32(0x2C);
+            if ((rootCluster < 2) || (rootCluster >= clusterCount + 2)) {
+                report.error("Invalid root directory cluster: " + rootCluster);
+            }
+        }
+
+        entries = new int[clusterCount + 2];
+        final List<CheckTask> tasks = new ArrayList<CheckTask>();
+        for (int start = 0; start < entries.length; start += REGION_ENTRIES) {
+            tasks.add(new RegionTask(start, Math.min(start + REGION_ENTRIES, entries.length)));
+        }
+        return tasks;
+    }
+
+    /**
+     * @see org.jnode.fs.check.FileSystemCheck#complete(org.jnode.fs.check.CheckReport)
+     */
+    public void complete(CheckReport report) throws IOException {
+        if (entries == null) {
+            return;
+        }
+
+        final int maxCluster = clusterCount + 1;
+        final BitSet linked = new BitSet(entries.length);
+        for (int cluster = 2; cluster <= maxCluster; cluster++) {
+            final int next = entries[cluster];
+            if ((next >= 2) && (next <= maxCluster)) {
+                if (!isUsed(entries[next])) {
+                    report.error("Cluster " + cluster + " is linked to " +
+                        ((entries[next] == 0) ? "free" : "bad") + " cluster " + next);
+                }
+                if (linked.get(next)) {
+                    report.error("Cluster " + next + " is linked from more than one cluster");
+                }
+                linked.set(next);
+            }
+        }
+
+        // Follow every chain from its first cluster, anything used but not reached is part of a loop
+        final BitSet reached = new BitSet(entries.length);
+        for (int cluster = 2; cluster <= maxCluster; cluster++) {
+            if (isUsed(entries[cluster]) && !linked.get(cluster)) {
+                int next = cluster;
+                while ((next >= 2) && (next <= maxCluster) && !reached.get(next)) {
+                    reached.set(next);
+                    next = entries[next];
+                }
+            }
+        }
+        int looped = 0;
+        for (int cluster = 2; cluster <= maxCluster; cluster++) {
+            if (isUsed(entries[cluster]) && !reached.get(cluster)) {
+                looped++;
+            }
+        }
+        if (looped > 0) {
+            report.error(looped + " clusters are part of chains that loop back on themselves");
+        }
+
+        if (type == FatType.FAT32) {
+            final long rootCluster = bs.get32(0x2C);
+            if ((rootCluster >= 2) && (rootCluster <= maxCluster)) {
+                if (!isUsed(entries[(int) rootCluster])) {
+                    report.error("The root directory cluster " + rootCluster + " is not in use");
+                } else if (linked.get((int) rootCluster)) {
+                    report.error("The root directory cluster " + rootCluster + " is linked from another cluster");
+                }
+            }
+            checkFsInfo(report);
+        }
+    }
+
+    /**
+     * Checks the free cluster count in the FAT32 file system information sector, which is only a hint.
+     */
+    private void checkFsInfo(CheckReport report) throws IOException {
+        final int sector = bs.get16(0x30);
+        if ((sector == 0) || (sector == 0xFFFF) || (sector >= bs.getNrReservedSectors())) {
+            return;
+        }
+        final byte[] info = read((long) sector * bytesPerSector, bytesPerSector, report);
+        if ((LittleEndian.getInt32(info, 0) != 0x41615252) || (LittleEndian.getInt32(info, 484) != 0x61417272)) {
+            report.warning("Invalid file system information sector " + sector);
+            return;
+        }
+        final long free = LittleEndian.getUInt32(info, 488);
+        if ((free != 0xFFFFFFFFL) && (free != freeClusters)) {
+            report.warning("The file system information sector has " + free + " free clusters but the table has " +
+                freeClusters);
+        }
+    }
+
+    /**
+     * Gets the table offset of an entry, rounded down to a whole byte for the odd FAT12 entries.
+     */
+    private long getEntryOffset(long index) {
+        return index * entryBits / 8;
+    }
+
+    private boolean isUsed(int entry) {
+        return (entry != 0) && (entry != badValue);
+    }
+
+    private synchronized void addFreeClusters(int count) {
+        freeClusters += count;
+    }
+
+    /**
+     * The check of the entries of one region of the tables.
+     */
+    private final class RegionTask implements CheckTask {
+
+        private final int start;
+        private final int end;
+
+        RegionTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getName() {
+            return "clusters " + start + "-" + (end - 1);
+        }
+
+        public void run(CheckReport report) throws IOException {
+            // Read whole sectors, FAT12 entries are packed so the region need not start on a byte
+            final long from = getEntryOffset(start) / bytesPerSector * bytesPerSector;
+            final long endOffset = ((long) end * entryBits + 7) / 8;
+            final long to = Math.min(fatLength, (endOffset + bytesPerSector - 1) / bytesPerSector * bytesPerSector);
+
+            final byte[] first = read(fatOffset + from, (int) (to - from), report);
+            for (int i = start; i < end; i++) {
+                entries[i] = getEntry(first, from, i);
+            }
+
+            for (int fat = 1; fat < fatCount; fat++) {
+                final byte[] copy = read(fatOffset + fat * fatLength + from, (int) (to - from), report);
+                int differences = 0;
+                for (int i = start; i < end; i++) {
+                    if (getEntry(copy, from, i) != entries[i]) {
+                        differences++;
+                    }
+                }
+                if (differences > 0) {
+                    report.error("FAT " + fat + " differs from FAT 0 in " + differences + " entries of " + getName());
+                }
+            }
+
+            int free = 0;
+            for (int i = Math.max(start, 2); i < end; i++) {
+                final int next = entries[i];
+                if (next == 0) {
+                    free++;
+                } else if (next == i) {
+                    report.error("Cluster " + i + " is linked to itself");
+                } else if ((next != badValue) && (next < eofValue) && ((next < 2) || (next > clusterCount + 1))) {
+                    report.error("Cluster " + i + " is linked to invalid cluster " + next);
+                }
+            }
+            addFreeClusters(free);
+
+            if ((start == 0) && ((entries[0] & 0xFF) != bs.getMediumDescriptor())) {
+                report.warning("The first FAT entry does not match the media descriptor");
+            }
+        }
+
+        /**
+         * Decodes an entry of the table.
+         *
+         * @param data the part of the table read, starting at table offset {@code from}.
+         * @param from the table offset of the data.
+         * @param index the entry.
+         * @return the entry, with the reserved upper bits of FAT32 entries cleared.
+         */
+        private int getEntry(byte[] data, long from, int index) {
+            final int offset = (int) (getEntryOffset(index) - from);
+            switch (type) {
+                case FAT12: {
+                    final int v = LittleEndian.getUInt16(data, offset);
+                    return ((index & 1) == 0) ? (v & 0xFFF) : (v >> 4);
+                }
+                case FAT16:
+                    return LittleEndian.getUInt16(data, offset);
+                default:
+                    return LittleEndian.getInt32(data, offset) & 0x0FFFFFFF;
+            }
+        }
+    }
+}
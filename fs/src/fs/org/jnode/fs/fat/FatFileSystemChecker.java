@@ -0,0 +1,71 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.fat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.jnode.driver.block.BlockDeviceAPI;
+import org.jnode.fs.check.FileSystemCheck;
+import org.jnode.fs.check.FileSystemChecker;
+
+/**
+ * Checker for FAT12, FAT16 and FAT32 file systems.
+ *
+ * @see FatFileSystemCheck
+ */
+public class FatFileSystemChecker implements FileSystemChecker {
+
+    /**
+     * @see org.jnode.fs.check.FileSystemChecker#getName()
+     */
+    public String getName() {
+        return "FAT";
+    }
+
+    /**
+     * @see org.jnode.fs.check.FileSystemChecker#supports(org.jnode.driver.block.BlockDeviceAPI)
+     */
+    public boolean supports(BlockDeviceAPI api) throws IOException {
+        if (api.getLength() < 512) {
+            return false;
+        }
+        final byte[] data = new byte[512];
+        api.read(0, ByteBuffer.wrap(data));
+        if (((data[510] & 0xFF) != 0x55) || ((data[511] & 0xFF) != 0xAA)) {
+            return false;
+        }
+
+        final BootSector bs = new BootSector(data);
+        final int bytesPerSector = bs.getBytesPerSector();
+        final int sectorsPerCluster = bs.getSectorsPerCluster();
+        final long sectorsPerFat = (bs.getSectorsPerFat() != 0) ? bs.getSectorsPerFat() : bs.get32(0x24);
+        return (bytesPerSector >= 512) && (bytesPerSector <= 4096) && (Integer.bitCount(bytesPerSector) == 1) &&
+            (sectorsPerCluster >= 1) && (sectorsPerCluster <= 128) && (Integer.bitCount(sectorsPerCluster) == 1) &&
+            (bs.getNrReservedSectors() >= 1) && (bs.getNrFats() >= 1) && (sectorsPerFat != 0);
+    }
+
+    /**
+     * @see org.jnode.fs.check.FileSystemChecker#createCheck(org.jnode.driver.block.BlockDeviceAPI)
+     */
+    public FileSystemCheck createCheck(BlockDeviceAPI api) {
+        return new FatFileSystemCheck(api);
+    }
+}
@@ -39,6 +39,7 @@ import org.jnode.fs.hfsplus.compression.CompressedAttributeData;
 import org.jnode.fs.hfsplus.compression.HfsPlusCompressionFactory;
 import org.jnode.fs.hfsplus.extent.Extent;
 import org.jnode.fs.hfsplus.tree.LeafRecord;
+import org.jnode.fs.hfsplus.tree.NodeCache;
 import org.jnode.fs.spi.AbstractFileSystem;
 
 public class HfsPlusFileSystem extends AbstractFileSystem<HfsPlusEntry> {
@@ -64,6 +65,11 @@ public class HfsPlusFileSystem extends AbstractFileSystem<HfsPlusEntry> {
      */
     private Attributes attributes;
 
+    /**
+     * The cache of B-tree nodes read from the catalog, extents overflow and attributes files.
+     */
+    private final NodeCache nodeCache = new NodeCache();
+
     /**
      * The HFS+ private data directory. Used by HFS+ to stored hard linked file data.
      */
@@ -178,6 +184,15 @@ public class HfsPlusFileSystem extends AbstractFileSystem<HfsPlusEntry> {
         return attributes;
     }
 
+    /**
+     * Gets the cache of B-tree nodes for this file system.
+     *
+     * @return the node cache.
+     */
+    public final NodeCache getNodeCache() {
+        return nodeCache;
+    }
+
     public final SuperBlock getVolumeHeader() {
         return volumeHeader;
     }
@@ -243,6 +258,7 @@ public class HfsPlusFileSystem extends AbstractFileSystem<HfsPlusEntry> {
      */
     public void create(HFSPlusParams params) throws FileSystemException {
         volumeHeader = new SuperBlock(this, true);
+        nodeCache.clear();
         try {
             params.initializeDefaultsValues(this);
             volumeHeader.create(params);
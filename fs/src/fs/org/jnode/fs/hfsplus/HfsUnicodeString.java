@@ -79,6 +79,65 @@ public class HfsUnicodeString {
         return data;
     }
 
+    /**
+     * Compares this string with another one the way HFS+ orders catalog keys: case-insensitively, with the ignorable
+     * Unicode characters skipped and {@code 0x0000} sorting after every other character. See TN1150 section
+     * "Unicode Subtleties".
+     *
+     * @param other the string to compare with.
+     * @return a negative number, zero or a positive number if this string sorts before, equal to or after the other.
+     */
+    public final int compareFolded(HfsUnicodeString other) {
+        String otherString = other.string;
+        int index = 0;
+        int otherIndex = 0;
+        while (true) {
+            char c = 0;
+            while (c == 0 && index < string.length()) {
+                c = foldChar(string.charAt(index++));
+            }
+            char otherChar = 0;
+            while (otherChar == 0 && otherIndex < otherString.length()) {
+                otherChar = foldChar(otherString.charAt(otherIndex++));
+            }
+            if (c != otherChar) {
+                return c < otherChar ? -1 : 1;
+            }
+            if (c == 0) {
+                // Both strings are exhausted
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Compares this string with another one the way case-sensitive HFSX volumes order catalog keys: character by
+     * character, as unsigned 16-bit values.
+     *
+     * @param other the string to compare with.
+     * @return a negative number, zero or a positive number if this string sorts before, equal to or after the other.
+     */
+    public final int compareBinary(HfsUnicodeString other) {
+        return string.compareTo(other.string);
+    }
+
+    /**
+     * Folds a character for {@link #compareFolded(HfsUnicodeString)}.
+     *
+     * @param c the character.
+     * @return the folded character, or {@code 0} if the character is ignored.
+     */
+    private static char foldChar(char c) {
+        if (c == 0) {
+            return 0xFFFF;
+        }
+        if ((c >= 0x200C && c <= 0x200F) || (c >= 0x202A && c <= 0x202E) || (c >= 0x206A && c <= 0x206F) ||
+            c == 0xFEFF) {
+            return 0;
+        }
+        return Character.toLowerCase(c);
+    }
+
     @Override
     public String toString() {
         return string;
@@ -30,6 +30,8 @@ import org.jnode.fs.hfsplus.catalog.CatalogNodeId;
 import org.jnode.fs.hfsplus.tree.BTHeaderRecord;
 import org.jnode.fs.hfsplus.tree.IndexRecord;
 import org.jnode.fs.hfsplus.tree.LeafRecord;
+import org.jnode.fs.hfsplus.tree.Node;
+import org.jnode.fs.hfsplus.tree.NodeCache;
 import org.jnode.fs.hfsplus.tree.NodeDescriptor;
 import org.jnode.util.BigEndian;
 import org.jnode.util.ByteBufferUtils;
@@ -120,16 +122,11 @@ public class Attributes {
         }
 
         LeafRecord leafRecord = null;
-        int nodeSize = bthr.getNodeSize();
-        ByteBuffer nodeData = ByteBuffer.allocate(nodeSize);
-        attributesFile.read(fs, (nodeNumber * nodeSize), nodeData);
-        nodeData.rewind();
-        byte[] data = ByteBufferUtils.toArray(nodeData);
-        NodeDescriptor nodeDescriptor = new NodeDescriptor(data, 0);
+        AttributeKey key = new AttributeKey(fileId, attributeName);
+        Node<?> node = getNode(nodeNumber);
 
-        if (nodeDescriptor.isIndexNode()) {
-            AttributeIndexNode node = new AttributeIndexNode(data, nodeSize);
-            IndexRecord[] records = node.findAll(new AttributeKey(fileId, attributeName));
+        if (node instanceof AttributeIndexNode) {
+            IndexRecord[] records = ((AttributeIndexNode) node).findAll(key);
 
             for (IndexRecord indexRecord : records) {
                 AttributeData attributeData = getAttribute(fileId, attributeName, indexRecord.getIndex());
@@ -138,9 +135,8 @@ public class Attributes {
                 }
             }
 
-        } else if (nodeDescriptor.isLeafNode()) {
-            AttributeLeafNode node = new AttributeLeafNode(data, nodeSize);
-            leafRecord = node.find(new AttributeKey(fileId, attributeName));
+        } else if (node instanceof AttributeLeafNode) {
+            leafRecord = ((AttributeLeafNode) node).find(key);
         }
 
         if (leafRecord == null) {
@@ -160,4 +156,36 @@ public class Attributes {
             return null;
         }
     }
+
+    /**
+     * Reads a node of the attributes B-tree, using the file system's node cache.
+     *
+     * @param nodeNumber the node number.
+     * @return the index or leaf node, or {@code null} if the node is neither.
+     * @throws IOException if an error occurs.
+     */
+    private Node<?> getNode(long nodeNumber) throws IOException {
+        NodeCache cache = fs.getNodeCache();
+        Node<?> node = cache.get(this, nodeNumber);
+        if (node != null) {
+            return node;
+        }
+
+        int nodeSize = bthr.getNodeSize();
+        ByteBuffer nodeData = ByteBuffer.allocate(nodeSize);
+        attributesFile.read(fs, (nodeNumber * nodeSize), nodeData);
+        byte[] data = nodeData.array();
+        NodeDescriptor nodeDescriptor = new NodeDescriptor(data, 0);
+
+        if (nodeDescriptor.isIndexNode()) {
+            node = new AttributeIndexNode(data, nodeSize);
+        } else if (nodeDescriptor.isLeafNode()) {
+            node = new AttributeLeafNode(data, nodeSize);
+        } else {
+            return null;
+        }
+
+        cache.put(this, nodeNumber, node);
+        return node;
+    }
 }
@@ -34,6 +34,8 @@ import org.jnode.fs.hfsplus.SuperBlock;
 import org.jnode.fs.hfsplus.tree.BTHeaderRecord;
 import org.jnode.fs.hfsplus.tree.IndexRecord;
 import org.jnode.fs.hfsplus.tree.LeafRecord;
+import org.jnode.fs.hfsplus.tree.Node;
+import org.jnode.fs.hfsplus.tree.NodeCache;
 import org.jnode.fs.hfsplus.tree.NodeDescriptor;
 import org.jnode.util.ByteBufferUtils;
 import org.jnode.util.NumberUtils;
@@ -53,6 +55,11 @@ public class Catalog {
      */
     private BTHeaderRecord bthr;
 
+    /**
+     * Are node names compared as binary values? Only case-sensitive HFSX volumes do this, other volumes fold case.
+     */
+    private boolean binaryCompare;
+
     private HfsPlusForkData catalogFile;
 
     private ByteBuffer buffer;
@@ -81,6 +88,9 @@ public class Catalog {
             log.debug("Load catalog header record.");
             bthr = new BTHeaderRecord(data, NodeDescriptor.BT_NODE_DESCRIPTOR_LENGTH);
             log.debug(bthr.toString());
+            // The key compare type is ignored on plain HFS+ volumes
+            binaryCompare = sb.getMagic() == SuperBlock.HFSX_SUPER_MAGIC &&
+                bthr.getKeyCompareType() == BTHeaderRecord.KEY_COMPARE_TYPE_BINARY;
 
         }
     }
@@ -206,36 +216,38 @@ public class Catalog {
     }
 
     /**
+     * Finds the first leaf record with the given parent, whatever its node name.
+     *
      * @param parentID
      * @return the leaf record, or possibly {code null}.
      * @throws IOException
      */
     public final LeafRecord getRecord(final CatalogNodeId parentID) throws IOException {
-        long currentOffset = 0;
-        LeafRecord lr = null;
-        int nodeSize = bthr.getNodeSize();
-        ByteBuffer nodeData = ByteBuffer.allocate(nodeSize);
-        catalogFile.read(fs, (bthr.getRootNode() * nodeSize), nodeData);
-        nodeData.rewind();
-        byte[] data = ByteBufferUtils.toArray(nodeData);
-        NodeDescriptor nd = new NodeDescriptor(data, 0);
+        CatalogKey key = new CatalogKey(parentID);
+        Node<?> node = getNode(bthr.getRootNode());
 
-        while (nd.isIndexNode()) {
-            CatalogIndexNode node = new CatalogIndexNode(data, nodeSize);
-            IndexRecord record = (IndexRecord) node.find(new CatalogKey(parentID));
-            currentOffset = record.getIndex() * nodeSize;
-            nodeData = ByteBuffer.allocate(nodeSize);
-            catalogFile.read(fs, currentOffset, nodeData);
-            nodeData.rewind();
-            data = ByteBufferUtils.toArray(nodeData);
-            nd = new NodeDescriptor(nodeData.array(), 0);
+        while (node instanceof CatalogIndexNode) {
+            // The first child that may hold a record of the parent, even if its key already has a name
+            IndexRecord[] records = ((CatalogIndexNode) node).findAll(key);
+            if (records.length == 0) {
+                return null;
+            }
+            node = getNode(records[0].getIndex());
         }
 
-        if (nd.isLeafNode()) {
-            CatalogLeafNode node = new CatalogLeafNode(data, nodeSize);
-            lr = (LeafRecord) node.find(new CatalogKey(parentID));
+        if (node instanceof CatalogLeafNode) {
+            LeafRecord[] records = ((CatalogLeafNode) node).findAll(key);
+            if (records.length == 0 && node.getNodeDescriptor().getFLink() != 0) {
+                // The empty name sorts before every other name, so the first record of the parent may be the first
+                // record of the next leaf
+                node = getNode(node.getNodeDescriptor().getFLink());
+                if (node instanceof CatalogLeafNode) {
+                    records = ((CatalogLeafNode) node).findAll(key);
+                }
+            }
+            return records.length == 0 ? null : records[0];
         }
-        return lr;
+        return null;
     }
 
     /**
@@ -262,26 +274,18 @@ public class Catalog {
     public final LeafRecord[] getRecords(final CatalogNodeId parentID, final long nodeNumber)
         throws IOException {
         try {
-            long currentNodeNumber = nodeNumber;
-            int nodeSize = getBTHeaderRecord().getNodeSize();
-            ByteBuffer nodeData = ByteBuffer.allocate(nodeSize);
-            catalogFile.read(fs, (currentNodeNumber * nodeSize), nodeData);
-            byte[] datas = nodeData.array();
-            NodeDescriptor nd = new NodeDescriptor(datas, 0);
-            if (nd.isIndexNode()) {
-                CatalogIndexNode node = new CatalogIndexNode(datas, nodeSize);
-                IndexRecord[] records = node.findAll(new CatalogKey(parentID));
+            Node<?> node = getNode(nodeNumber);
+            if (node instanceof CatalogIndexNode) {
+                IndexRecord[] records = ((CatalogIndexNode) node).findAll(new CatalogKey(parentID));
                 List<LeafRecord> lfList = new LinkedList<LeafRecord>();
                 for (IndexRecord rec : records) {
                     LeafRecord[] lfr = getRecords(parentID, rec.getIndex());
                     Collections.addAll(lfList, lfr);
                 }
                 return lfList.toArray(new LeafRecord[lfList.size()]);
-            } else if (nd.isLeafNode()) {
-                CatalogLeafNode node = new CatalogLeafNode(nodeData.array(), nodeSize);
-                return node.findAll(new CatalogKey(parentID));
+            } else if (node instanceof CatalogLeafNode) {
+                return ((CatalogLeafNode) node).findAll(new CatalogKey(parentID));
             } else {
-                log.info(String.format("Node %d wasn't a leaf or index: %s\n%s", nodeNumber, nd, NumberUtils.hex(datas)));
                 return new LeafRecord[0];
             }
 
@@ -299,28 +303,55 @@ public class Catalog {
      */
     public final LeafRecord getRecord(final CatalogNodeId parentID, final HfsUnicodeString nodeName)
         throws IOException {
-        long currentNodeNumber = getBTHeaderRecord().getRootNode();
-        int nodeSize = getBTHeaderRecord().getNodeSize();
-        ByteBuffer nodeData = ByteBuffer.allocate(nodeSize);
-        catalogFile.read(fs, (currentNodeNumber * nodeSize), nodeData);
-        NodeDescriptor nd = new NodeDescriptor(nodeData.array(), 0);
-        long currentOffset = 0;
-        CatalogKey cKey = new CatalogKey(parentID, nodeName);
-        while (nd.isIndexNode()) {
-            CatalogIndexNode node = new CatalogIndexNode(nodeData.array(), nodeSize);
-            IndexRecord record = node.find(cKey);
-            currentNodeNumber = record.getIndex();
-            currentOffset = record.getIndex() * nodeSize;
-            nodeData = ByteBuffer.allocate(nodeSize);
-            catalogFile.read(fs, currentOffset, buffer);
-            node = new CatalogIndexNode(nodeData.array(), nodeSize);
+        CatalogKey cKey = new CatalogKey(parentID, nodeName, binaryCompare);
+        Node<?> node = getNode(getBTHeaderRecord().getRootNode());
+
+        while (node instanceof CatalogIndexNode) {
+            IndexRecord record = ((CatalogIndexNode) node).findChild(cKey);
+            if (record == null) {
+                return null;
+            }
+            node = getNode(record.getIndex());
         }
-        LeafRecord lr = null;
-        if (nd.isLeafNode()) {
-            CatalogLeafNode node = new CatalogLeafNode(nodeData.array(), nodeSize);
-            lr = node.find(cKey);
+
+        if (node instanceof CatalogLeafNode) {
+            return ((CatalogLeafNode) node).find(cKey);
         }
-        return lr;
+        return null;
+    }
+
+    /**
+     * Reads a node of the catalog B-tree. Nodes are kept in the file system's node cache so walking the tree again
+     * does not go back to the device.
+     *
+     * @param nodeNumber the node number.
+     * @return the index or leaf node, or {@code null} if the node is neither.
+     * @throws IOException if an error occurs.
+     */
+    private Node<?> getNode(long nodeNumber) throws IOException {
+        NodeCache cache = fs.getNodeCache();
+        Node<?> node = cache.get(this, nodeNumber);
+        if (node != null) {
+            return node;
+        }
+
+        int nodeSize = bthr.getNodeSize();
+        ByteBuffer nodeData = ByteBuffer.allocate(nodeSize);
+        catalogFile.read(fs, (nodeNumber * nodeSize), nodeData);
+        byte[] data = nodeData.array();
+        NodeDescriptor nd = new NodeDescriptor(data, 0);
+
+        if (nd.isIndexNode()) {
+            node = new CatalogIndexNode(data, nodeSize);
+        } else if (nd.isLeafNode()) {
+            node = new CatalogLeafNode(data, nodeSize);
+        } else {
+            log.info(String.format("Node %d wasn't a leaf or index: %s\n%s", nodeNumber, nd, NumberUtils.hex(data)));
+            return null;
+        }
+
+        cache.put(this, nodeNumber, node);
+        return node;
     }
 
     public final NodeDescriptor getBTNodeDescriptor() {
@@ -40,6 +40,7 @@ public class CatalogKey extends AbstractKey {
 
     public static final int MINIMUM_KEY_LENGTH = 6;
     public static final int MAXIMUM_KEY_LENGTH = 516;
+    private static final HfsUnicodeString EMPTY_NAME = new HfsUnicodeString("");
     /**
      * Catalog node id of the folder that contains file or folder represented by
      * the record. For thread records, contains the catalog node id of the file
@@ -50,6 +51,10 @@ public class CatalogKey extends AbstractKey {
      * Name of the file or folder, empty for thread records.
      */
     private HfsUnicodeString nodeName;
+    /**
+     * Are node names compared as binary values instead of case-insensitively?
+     */
+    private boolean binaryCompare;
 
     /**
      * Create catalog key from existing data.
@@ -92,8 +97,22 @@ public class CatalogKey extends AbstractKey {
      * 
      */
     public CatalogKey(final CatalogNodeId parentID, final HfsUnicodeString name) {
+        this(parentID, name, false);
+    }
+
+    /**
+     * Create new catalog key based on parent CNID and the name of the file or
+     * folder, for a catalog with the given key compare type.
+     *
+     * @param parentID Parent catalog node identifier.
+     * @param name Name of the file or folder.
+     * @param binaryCompare {@code true} if the catalog compares node names as binary values, as HFSX volumes with
+     *            {@link org.jnode.fs.hfsplus.tree.BTHeaderRecord#KEY_COMPARE_TYPE_BINARY} do.
+     */
+    public CatalogKey(final CatalogNodeId parentID, final HfsUnicodeString name, final boolean binaryCompare) {
         this.parentId = parentID;
         this.nodeName = name;
+        this.binaryCompare = binaryCompare;
         this.keyLength = MINIMUM_KEY_LENGTH + (name.getLength() * 2) + 2;
     }
 
@@ -107,7 +126,10 @@ public class CatalogKey extends AbstractKey {
 
     /**
      * Compare two catalog keys. These keys are compared by parent id and next
-     * by node name.
+     * by node name, using the case-insensitive HFS+ ordering, or the binary
+     * ordering if either key was created for a binary compare catalog. Keys
+     * read from the B-tree do not know the compare type of their catalog, so
+     * the search key decides.
      * 
      * @param key
      * 
@@ -118,21 +140,39 @@ public class CatalogKey extends AbstractKey {
             CatalogKey ck = (CatalogKey) key;
             res = this.getParentId().compareTo(ck.getParentId());
             if (res == 0) {
-                // Note: this is unlikely to be correct. See TN1150 section "Unicode Subtleties" for details
-                // For reading in data is should be safe since the B-Tree will be pre-sorted, but for adding new entries
-                // it will cause the order to be wrong.
-                res = this.getNodeName().getUnicodeString()
-                    .compareTo(ck.getNodeName().getUnicodeString());
+                if (binaryCompare || ck.binaryCompare) {
+                    res = nameOrEmpty(this).compareBinary(nameOrEmpty(ck));
+                } else {
+                    res = nameOrEmpty(this).compareFolded(nameOrEmpty(ck));
+                }
             }
         }
         return res;
     }
 
+    /**
+     * Gets the node name of a key, treating a key without a name (a key of the minimum length) as having an empty
+     * name.
+     *
+     * @param key the key.
+     * @return the node name.
+     */
+    private static HfsUnicodeString nameOrEmpty(CatalogKey key) {
+        return key.nodeName == null ? EMPTY_NAME : key.nodeName;
+    }
+
     @Override
     public int hashCode() {
         return 73 ^ parentId.hashCode();
     }
 
+    /**
+     * Checks whether the other key has the same parent id. The node name is not compared, so this matches all the
+     * records of a folder; use {@link #compareTo(Key)} to match a single record.
+     *
+     * @param obj the other key.
+     * @return {@code true} if the parent ids are equal.
+     */
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof CatalogKey)) {
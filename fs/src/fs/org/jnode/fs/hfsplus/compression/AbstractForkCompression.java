@@ -0,0 +1,205 @@
+package org.jnode.fs.hfsplus.compression;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.jnode.fs.hfsplus.HfsPlusFile;
+import org.jnode.fs.hfsplus.HfsPlusFileSystem;
+import org.jnode.fs.util.FSUtils;
+
+/**
+ * Base class for compressed data stored off in the file's resource fork as a table of independently compressed
+ * chunks.
+ * <p/>
+ * Decompressed chunks are kept in a small cache so reads that touch the same chunk again do not decompress it again.
+ * Chunks needed by a read, and the chunk after a sequential read, are decompressed in parallel on a shared pool while
+ * the earlier chunks are copied out.
+ */
+public abstract class AbstractForkCompression implements HfsPlusCompression, Closeable {
+
+    /**
+     * The fork compression chunk size.
+     */
+    protected static final int FORK_CHUNK_SIZE = 0x10000;
+
+    /**
+     * The maximum number of chunks decompressed in parallel for a read.
+     */
+    private static final int PARALLEL_CHUNKS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The maximum number of decompressed (or in progress) chunks to keep per file.
+     */
+    private static final int CACHED_CHUNKS = PARALLEL_CHUNKS * 2;
+
+    /**
+     * The pool shared by all files for decompressing chunks.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * The HFS+ file.
+     */
+    protected final HfsPlusFile file;
+
+    /**
+     * The decompressed chunks, in least recently used order.
+     */
+    private final Map<Integer, Future<byte[]>> chunks =
+        new LinkedHashMap<Integer, Future<byte[]>>(CACHED_CHUNKS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Future<byte[]>> eldest) {
+                return size() > CACHED_CHUNKS;
+            }
+        };
+
+    /**
+     * The file offset following the last read, used to detect sequential reads.
+     */
+    private long nextReadOffset = -1;
+
+    /**
+     * Creates a new decompressor.
+     *
+     * @param file the file to read from.
+     */
+    protected AbstractForkCompression(HfsPlusFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the number of chunks in the compressed fork, reading in the chunk table if required.
+     *
+     * @param fs the file system.
+     * @return the number of chunks.
+     * @throws IOException if an error occurs.
+     */
+    protected abstract int getChunkCount(HfsPlusFileSystem fs) throws IOException;
+
+    /**
+     * Reads in and decompresses a chunk. This is called on the decompression pool so it must not depend on state
+     * other than the chunk table read by {@link #getChunkCount(HfsPlusFileSystem)}.
+     *
+     * @param fs    the file system.
+     * @param chunk the chunk to decompress.
+     * @return the decompressed data, {@link #FORK_CHUNK_SIZE} bytes long.
+     * @throws IOException if an error occurs.
+     */
+    protected abstract byte[] decompressChunk(HfsPlusFileSystem fs, int chunk) throws IOException;
+
+    @Override
+    public synchronized void read(HfsPlusFileSystem fs, long fileOffset, ByteBuffer dest) throws IOException {
+        if (dest.remaining() == 0) {
+            return;
+        }
+
+        int chunkCount = getChunkCount(fs);
+        int lastChunk = FSUtils.checkedCast((fileOffset + dest.remaining() - 1) / FORK_CHUNK_SIZE);
+        if (fileOffset == nextReadOffset) {
+            // Sequential read, so keep the next chunk decompressing while the caller consumes this data
+            lastChunk++;
+        }
+        nextReadOffset = fileOffset + dest.remaining();
+
+        while (dest.remaining() > 0) {
+            int chunk = FSUtils.checkedCast(fileOffset / FORK_CHUNK_SIZE);
+            int last = Math.min(Math.min(lastChunk, chunk + PARALLEL_CHUNKS - 1), chunkCount - 1);
+            for (int i = chunk + 1; i <= last; i++) {
+                getChunk(fs, i);
+            }
+
+            byte[] uncompressed = waitFor(chunk, getChunk(fs, chunk));
+
+            int offsetInChunk = (int) (fileOffset % FORK_CHUNK_SIZE);
+            int copySize = Math.min(dest.remaining(), FORK_CHUNK_SIZE - offsetInChunk);
+            dest.put(uncompressed, offsetInChunk, copySize);
+
+            fileOffset += copySize;
+        }
+    }
+
+    /**
+     * Gets a chunk from the cache, submitting it for decompression if it is not there.
+     *
+     * @param fs    the file system.
+     * @param chunk the chunk.
+     * @return the future for the decompressed chunk.
+     */
+    private Future<byte[]> getChunk(final HfsPlusFileSystem fs, final int chunk) {
+        Future<byte[]> future = chunks.get(chunk);
+        if (future == null) {
+            future = getExecutor().submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return decompressChunk(fs, chunk);
+                }
+            });
+            chunks.put(chunk, future);
+        }
+        return future;
+    }
+
+    /**
+     * Waits for a chunk to be decompressed. A chunk that failed is dropped from the cache so a later read retries it.
+     *
+     * @param chunk  the chunk.
+     * @param future the future for the chunk.
+     * @return the decompressed chunk.
+     * @throws IOException if an error occurred decompressing the chunk.
+     */
+    private byte[] waitFor(int chunk, Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for decompression");
+        } catch (ExecutionException e) {
+            chunks.remove(chunk);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Error decompressing data", cause);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Future<byte[]> future : chunks.values()) {
+            future.cancel(false);
+        }
+        chunks.clear();
+        nextReadOffset = -1;
+    }
+
+    /**
+     * Gets the shared decompression pool, creating it if required.
+     *
+     * @return the executor.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(PARALLEL_CHUNKS, new ThreadFactory() {
+                private int count;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "hfsplus-decompress-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -2,6 +2,7 @@ package org.jnode.fs.hfsplus.compression;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import org.apache.log4j.Logger;
 import org.jnode.fs.hfsplus.HfsPlusFile;
 import org.jnode.fs.hfsplus.HfsPlusFileSystem;
@@ -17,18 +18,13 @@ import org.jnode.util.LittleEndian;
  *
  * @author Luke Quinane
  */
-public class LzvnForkCompression implements HfsPlusCompression {
+public class LzvnForkCompression extends AbstractForkCompression {
 
     /**
      * The logger for this class.
      */
     private static final Logger log = Logger.getLogger(LzvnForkCompression.class);
 
-    /**
-     * The LZVN fork compression chunk size.
-     */
-    private static final int LZVN_FORK_CHUNK_SIZE = 0x10000;
-
     /**
      * The LZVN fork compression chunk workspace size.
      */
@@ -71,15 +67,10 @@ public class LzvnForkCompression implements HfsPlusCompression {
     private static final int LZVN_11 = 11;
     private static final int LZVN_CASE_TABLE = 127;
 
-    /**
-     * The HFS+ file.
-     */
-    private final HfsPlusFile file;
-
     /**
      * The detail of the fork compression if it is being used.
      */
-    private LzvnForkCompressionDetails lzvnForkCompressionDetails;
+    private volatile LzvnForkCompressionDetails lzvnForkCompressionDetails;
 
     /**
      * Creates a new decompressor.
@@ -87,37 +78,32 @@ public class LzvnForkCompression implements HfsPlusCompression {
      * @param file the file to read from.
      */
     public LzvnForkCompression(HfsPlusFile file) {
-        this.file = file;
+        super(file);
     }
 
     @Override
-    public void read(HfsPlusFileSystem fs, long fileOffset, ByteBuffer dest) throws IOException {
+    protected int getChunkCount(HfsPlusFileSystem fs) throws IOException {
         if (lzvnForkCompressionDetails == null) {
             lzvnForkCompressionDetails = new LzvnForkCompressionDetails(fs, file.getCatalogFile().getResources());
         }
+        return lzvnForkCompressionDetails.getChunkCount();
+    }
 
-        while (dest.remaining() > 0) {
-            int chunk = (int) (fileOffset / LZVN_FORK_CHUNK_SIZE);
-            long chunkOffset = lzvnForkCompressionDetails.getChunkOffset(chunk);
-            long nextChunkOffset = lzvnForkCompressionDetails.getChunkOffset(chunk + 1);
-            long chunkLength = nextChunkOffset - chunkOffset;
-
-            // Read in the compressed chunk
-            ByteBuffer compressed = ByteBuffer.allocate((int) chunkLength);
-            file.getCatalogFile().getResources().read(fs, chunkOffset, compressed);
+    @Override
+    protected byte[] decompressChunk(HfsPlusFileSystem fs, int chunk) throws IOException {
+        long chunkOffset = lzvnForkCompressionDetails.getChunkOffset(chunk);
+        long nextChunkOffset = lzvnForkCompressionDetails.getChunkOffset(chunk + 1);
+        long chunkLength = nextChunkOffset - chunkOffset;
 
-            // Decompress the chunk
-            ByteBuffer uncompressed = ByteBuffer.allocate(LZVN_FORK_WORKSPACE_SIZE);
-            int decodedLength = lzvnDecode(compressed, uncompressed);
+        // Read in the compressed chunk
+        ByteBuffer compressed = ByteBuffer.allocate((int) chunkLength);
+        file.getCatalogFile().getResources().read(fs, chunkOffset, compressed);
 
-            // Copy the data into the destination buffer
-            uncompressed.position((int) fileOffset % LZVN_FORK_CHUNK_SIZE);
-            int copySize = Math.min(dest.remaining(), decodedLength);
-            uncompressed.limit(Math.min(uncompressed.capacity(), uncompressed.position() + copySize));
-            dest.put(uncompressed);
+        // Decompress the chunk
+        ByteBuffer uncompressed = ByteBuffer.allocate(LZVN_FORK_WORKSPACE_SIZE);
+        lzvnDecode(compressed, uncompressed);
 
-            fileOffset += copySize;
-        }
+        return Arrays.copyOf(uncompressed.array(), FORK_CHUNK_SIZE);
     }
 
     /**
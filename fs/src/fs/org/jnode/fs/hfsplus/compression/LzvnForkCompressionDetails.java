@@ -50,6 +50,16 @@ public class LzvnForkCompressionDetails {
         }
     }
 
+    /**
+     * Gets the number of compressed chunks.
+     *
+     * @return the chunk count.
+     */
+    public int getChunkCount() {
+        // The offset table has a trailing entry for the end of the last chunk
+        return chunkCount - 1;
+    }
+
     /**
      * Looks up the chunk offset for the given chunk.
      *
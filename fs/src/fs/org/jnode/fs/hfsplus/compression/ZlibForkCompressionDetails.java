@@ -66,6 +66,15 @@ public class ZlibForkCompressionDetails {
         return lengthArray.get(chunk);
     }
 
+    /**
+     * Gets the number of compressed chunks.
+     *
+     * @return the chunk count.
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
     /**
      * Looks up the chunk offset for the given chunk.
      *
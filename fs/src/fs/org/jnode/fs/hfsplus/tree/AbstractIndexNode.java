@@ -20,7 +20,8 @@
  
 package org.jnode.fs.hfsplus.tree;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.log4j.Logger;
 
 public abstract class AbstractIndexNode<K extends Key> extends AbstractNode<K, IndexRecord> {
@@ -59,27 +60,33 @@ public abstract class AbstractIndexNode<K extends Key> extends AbstractNode<K, I
      * @return an array of NodeRecords
      */
     public final IndexRecord[] findAll(final K key) {
-        LinkedList<IndexRecord> result = new LinkedList<IndexRecord>();
-        IndexRecord largestMatchingRecord = null;
-        K largestMatchingKey = null;
+        List<IndexRecord> result = new ArrayList<IndexRecord>();
+        int index = lowerBound(key);
 
-        for (IndexRecord record : records) {
-            K recordKey = (K) record.getKey();
-
-            if (recordKey.compareTo(key) < 0) {
-                // The keys/records should be sorted in this index record so take the highest key less than the parent
-                largestMatchingKey = recordKey;
-                largestMatchingRecord = record;
-            } else if (recordKey.equals(key)) {
-                result.addLast(record);
-            }
+        if (index > 0) {
+            // The keys/records are sorted in this index node so take the highest key less than the parent
+            result.add(records.get(index - 1));
         }
 
-        if (largestMatchingKey != null) {
-            result.addFirst(largestMatchingRecord);
+        for (; index < records.size() && matches(index, key); index++) {
+            result.add(records.get(index));
         }
 
         return result.toArray(new IndexRecord[result.size()]);
     }
-}
 
+    /**
+     * Finds the record for the child node that may contain the given key, i.e. the record with the highest key that
+     * is less than or equal to the given key.
+     *
+     * @param key the key to search for.
+     * @return the index record, or {@code null} if all keys in this node are greater than the given key.
+     */
+    public final IndexRecord findChild(final K key) {
+        int index = lowerBound(key);
+        if (index < records.size() && records.get(index).getKey().compareTo(key) == 0) {
+            return records.get(index);
+        }
+        return index > 0 ? records.get(index - 1) : null;
+    }
+}
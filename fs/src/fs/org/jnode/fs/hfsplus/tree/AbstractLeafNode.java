@@ -20,7 +20,7 @@
  
 package org.jnode.fs.hfsplus.tree;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import org.apache.log4j.Logger;
 
@@ -54,15 +54,13 @@ public abstract class AbstractLeafNode<K extends Key> extends AbstractNode<K, Le
     }
 
     public final LeafRecord[] findAll(K key) {
-        List<LeafRecord> list = new LinkedList<LeafRecord>();
-        for (LeafRecord record : records) {
-            log.debug("Record: " + record.toString() + " Key: " + key);
-            K recordKey = (K) record.getKey();
-            if (recordKey != null && recordKey.equals(key)) {
-                list.add(record);
+        List<LeafRecord> list = new ArrayList<LeafRecord>();
+        int index = firstMatch(key);
+        if (index >= 0) {
+            for (; index < records.size() && matches(index, key); index++) {
+                list.add(records.get(index));
             }
         }
         return list.toArray(new LeafRecord[list.size()]);
     }
 }
-
@@ -113,22 +113,71 @@ public abstract class AbstractNode<K extends Key, T extends NodeRecord> implemen
     }
 
     /**
-     * Find a matching record.
+     * Find the record with the given key. All the fields of the key must match.
      *
      * @param key the key to match.
      * @return a NodeRecord or {@code null}
      */
     public final T find(K key) {
-        for (T record : records) {
-            log.debug("Record: " + record.toString() + " Key: " + key);
-            K recordKey = (K) record.getKey();
-            if (recordKey != null && recordKey.equals(key)) {
-                return record;
+        int index = lowerBound(key);
+        if (index < records.size()) {
+            Key recordKey = records.get(index).getKey();
+            if (recordKey != null && recordKey.compareTo(key) == 0) {
+                return records.get(index);
             }
         }
         return null;
     }
 
+    /**
+     * Finds the index of the first record whose key is not less than the given key. The records in a node are sorted
+     * by key, so this is a binary search.
+     *
+     * @param key the key to search for.
+     * @return the index, or the number of records if all keys are less than the given key.
+     */
+    protected final int lowerBound(K key) {
+        int low = 0;
+        int high = records.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Key recordKey = records.get(mid).getKey();
+            if (recordKey != null && recordKey.compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the index of the first record whose key equals the given key. Keys may match on a prefix of their fields
+     * only (e.g. the parent ID of a catalog key), so the matching records form a run around the lower bound.
+     *
+     * @param key the key to match.
+     * @return the index, or {@code -1} if no record matches.
+     */
+    protected final int firstMatch(K key) {
+        int index = lowerBound(key);
+        while (index > 0 && matches(index - 1, key)) {
+            index--;
+        }
+        return index < records.size() && matches(index, key) ? index : -1;
+    }
+
+    /**
+     * Checks whether the key of the record at the given index equals the given key.
+     *
+     * @param index the record index.
+     * @param key the key to match.
+     * @return {@code true} if the keys are equal.
+     */
+    protected final boolean matches(int index, K key) {
+        Key recordKey = records.get(index).getKey();
+        return recordKey != null && recordKey.equals(key);
+    }
+
     @Override
     public boolean addNodeRecord(T record) {
         int freeSpace = getFreeSize();
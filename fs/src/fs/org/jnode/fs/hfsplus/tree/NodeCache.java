@@ -0,0 +1,128 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.hfsplus.tree;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed B-tree nodes, shared by the catalog, extents overflow and attributes trees of a file
+ * system. Nodes are keyed by the tree that owns them and their node number, and the least recently used node is
+ * evicted once the cache is full.
+ */
+public class NodeCache {
+
+    /**
+     * The default number of nodes to cache.
+     */
+    public static final int DEFAULT_CAPACITY = 512;
+
+    /**
+     * The cached nodes.
+     */
+    private final Map<NodeKey, Node<?>> nodes;
+
+    /**
+     * Creates a new cache with the default capacity.
+     */
+    public NodeCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity the maximum number of nodes to cache.
+     */
+    public NodeCache(final int capacity) {
+        nodes = new LinkedHashMap<NodeKey, Node<?>>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<NodeKey, Node<?>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets a cached node.
+     *
+     * @param tree       the tree that owns the node.
+     * @param nodeNumber the node number.
+     * @return the node, or {@code null} if it is not cached.
+     */
+    public synchronized Node<?> get(Object tree, long nodeNumber) {
+        return nodes.get(new NodeKey(tree, nodeNumber));
+    }
+
+    /**
+     * Adds a node to the cache.
+     *
+     * @param tree       the tree that owns the node.
+     * @param nodeNumber the node number.
+     * @param node       the node.
+     */
+    public synchronized void put(Object tree, long nodeNumber, Node<?> node) {
+        nodes.put(new NodeKey(tree, nodeNumber), node);
+    }
+
+    /**
+     * Removes all nodes from the cache.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+    }
+
+    /**
+     * Gets the number of cached nodes.
+     *
+     * @return the number of cached nodes.
+     */
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * The key of a cached node. Trees are compared by identity.
+     */
+    private static final class NodeKey {
+        private final Object tree;
+        private final long nodeNumber;
+
+        NodeKey(Object tree, long nodeNumber) {
+            this.tree = tree;
+            this.nodeNumber = nodeNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(tree) * 31 + (int) (nodeNumber ^ (nodeNumber >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof NodeKey)) {
+                return false;
+            }
+            NodeKey other = (NodeKey) obj;
+            return tree == other.tree && nodeNumber == other.nodeNumber;
+        }
+    }
+}
@@ -23,8 +23,10 @@ package org.jnode.fs.jfat;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.BitSet;
 import org.jnode.driver.block.BlockDeviceAPI;
 import org.jnode.fs.FileSystemException;
+import org.jnode.fs.FileSystemFullException;
 
 
 /**
@@ -39,6 +41,12 @@ public abstract class Fat {
 
     private int lastfree;
 
+    /*
+     * the free clusters, built from the FAT on first use and kept in sync by set()
+     */
+    private BitSet freemap;
+    private int freecount;
+
     private final ByteBuffer clearbuf;
 
     protected Fat(BootSector bs, BlockDeviceAPI api) {
@@ -156,6 +164,43 @@ public abstract class Fat {
         getApi().write(getClusterPosition(cluster) + offset, src);
     }
 
+    /**
+     * Reads from a run of physically adjacent clusters with a single device
+     * transfer.
+     *
+     * @param cluster the first cluster of the run
+     * @param offset the offset within the first cluster
+     * @param dst the buffer to fill
+     */
+    public void readClusters(int cluster, int offset, ByteBuffer dst) throws IOException {
+        checkRun(cluster, offset, dst.remaining());
+        getApi().read(getClusterPosition(cluster) + offset, dst);
+    }
+
+    /**
+     * Writes to a run of physically adjacent clusters with a single device
+     * transfer.
+     *
+     * @param cluster the first cluster of the run
+     * @param offset the offset within the first cluster
+     * @param src the data to write
+     */
+    public void writeClusters(int cluster, int offset, ByteBuffer src) throws IOException {
+        checkRun(cluster, offset, src.remaining());
+        getApi().write(getClusterPosition(cluster) + offset, src);
+    }
+
+    private void checkRun(int cluster, int offset, int length) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset<0");
+        }
+
+        final long end = (long) cluster + (offset + (long) length - 1) / getClusterSize();
+        if (cluster < firstCluster() || end >= size()) {
+            throw new IllegalArgumentException("illegal cluster run: " + cluster + "-" + end);
+        }
+    }
+
     public void clearCluster(int cluster, int start, int end) throws IOException {
         if (start < 0) {
             throw new IllegalArgumentException("start<0");
@@ -241,7 +286,34 @@ public abstract class Fat {
 
     public abstract int get(int index) throws IOException;
 
-    public abstract int set(int index, int element) throws IOException;
+    /**
+     * Sets a FAT entry and keeps the free cluster map in sync.
+     *
+     * @return the previous value of the entry
+     */
+    public final int set(int index, int element) throws IOException {
+        final int old = setImpl(index, element);
+
+        if (freemap != null && index >= firstCluster()) {
+            final boolean wasFree = freemap.get(index);
+            if (isFree(element)) {
+                if (!wasFree) {
+                    freemap.set(index);
+                    freecount++;
+                }
+            } else if (wasFree) {
+                freemap.clear(index);
+                freecount--;
+                if (index == lastfree) {
+                    lastfree = nextFree(index + 1);
+                }
+            }
+        }
+
+        return old;
+    }
+
+    protected abstract int setImpl(int index, int element) throws IOException;
 
     public void flush() throws IOException {
         cache.flush();
@@ -264,13 +336,94 @@ public abstract class Fat {
     }
 
     public final int freeEntries() throws IOException {
-        int count = 0;
-        for (int i = 0; i < size(); i++) {
-            if (isFreeEntry(i)) {
-                count++;
+        getFreeMap();
+        return freecount;
+    }
+
+    /**
+     * Gets the map of free clusters, scanning the FAT the first time.
+     */
+    private BitSet getFreeMap() throws IOException {
+        if (freemap == null) {
+            final BitSet map = new BitSet(size());
+            int count = 0;
+            for (int i = firstCluster(); i < size(); i++) {
+                if (isFreeEntry(i)) {
+                    map.set(i);
+                    count++;
+                }
             }
+            freecount = count;
+            freemap = map;
+        }
+        return freemap;
+    }
+
+    /**
+     * Gets the first free cluster at or after the given one, wrapping around
+     * to the first cluster.
+     */
+    private int nextFree(int index) {
+        int i = freemap.nextSetBit(index);
+        if (i < 0) {
+            i = freemap.nextSetBit(firstCluster());
         }
-        return count;
+        return (i < 0) ? firstCluster() : i;
+    }
+
+    /**
+     * Finds the first run of at least n free clusters starting in [from, to).
+     *
+     * @return the first cluster of the run, or -1 if there is none
+     */
+    private int findRun(BitSet map, int from, int to, int n) {
+        for (int i = map.nextSetBit(from); i >= 0 && i < to; i = map.nextSetBit(i)) {
+            final int end = map.nextClearBit(i);
+            if (end - i >= n) {
+                return i;
+            }
+            i = end;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds n free clusters for a chain, searching from the last free
+     * cluster onwards and wrapping around. A single contiguous run is
+     * preferred; when there is none, the free runs are used in order. The
+     * clusters are not allocated: that happens when they are linked with set().
+     *
+     * @return the clusters, in chain order
+     * @throws FileSystemFullException if there are less than n free clusters
+     */
+    public final int[] findFreeClusters(int n) throws IOException {
+        final BitSet map = getFreeMap();
+        if (freecount < n) {
+            throw new FileSystemFullException("no free clusters");
+        }
+
+        final int[] clusters = new int[n];
+        int start = findRun(map, lastfree, size(), n);
+        if (start < 0) {
+            start = findRun(map, firstCluster(), lastfree, n);
+        }
+
+        if (start >= 0) {
+            for (int i = 0; i < n; i++) {
+                clusters[i] = start + i;
+            }
+        } else {
+            int found = 0;
+            for (int i = map.nextSetBit(lastfree); i >= 0 && found < n; i = map.nextSetBit(i + 1)) {
+                clusters[found++] = i;
+            }
+            for (int i = map.nextSetBit(firstCluster()); i >= 0 && i < lastfree && found < n; i =
+                    map.nextSetBit(i + 1)) {
+                clusters[found++] = i;
+            }
+        }
+
+        return clusters;
     }
 
     public final boolean isFat32() {
@@ -50,7 +50,7 @@ public class Fat12 extends Fat {
         return value;
     }
 
-    public int set(int index, int element) throws IOException {
+    protected int setImpl(int index, int element) throws IOException {
         throw new UnsupportedOperationException("Can't write to FAT-12 yet");
     }
 
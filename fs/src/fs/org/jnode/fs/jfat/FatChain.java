@@ -27,7 +27,6 @@ import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 
 import org.apache.log4j.Logger;
-import org.jnode.fs.FileSystemFullException;
 
 /**
  * @author gvt
@@ -47,6 +46,15 @@ public class FatChain {
     private ChainPosition position;
     private ChainIterator iterator;
 
+    /*
+     * every MARK_INTERVAL clusters the chain cluster is remembered, so seeking
+     * does not have to follow the chain from its head: marks[k] is the cluster
+     * at index (k + 1) * MARK_INTERVAL - 1
+     */
+    private static final int MARK_INTERVAL = 64;
+    private int[] marks = new int[16];
+    private int markCount;
+
     public FatChain(FatFileSystem fs, int startEntry) {
         this.fs = fs;
         this.fat = fs.getFat();
@@ -76,6 +84,7 @@ public class FatChain {
             throw new IllegalArgumentException("illegal head: " + value);
 
         head = value;
+        markCount = 0;
 
         iterator.reset();
         position.setPosition(0);
@@ -95,6 +104,28 @@ public class FatChain {
         return new ChainIterator();
     }
 
+    /*
+     * remember the cluster at the given chain index, if it is the next mark
+     */
+    private void mark(int index, int cluster) {
+        if ((index + 1) % MARK_INTERVAL != 0 || (index + 1) / MARK_INTERVAL != markCount + 1)
+            return;
+
+        if (markCount == marks.length) {
+            int[] tmp = new int[marks.length * 2];
+            System.arraycopy(marks, 0, tmp, 0, markCount);
+            marks = tmp;
+        }
+        marks[markCount++] = cluster;
+    }
+
+    /*
+     * forget the marks beyond a chain of the given size
+     */
+    private void truncateMarks(int size) {
+        markCount = Math.min(markCount, size / MARK_INTERVAL);
+    }
+
     public ChainIterator listIterator(int index) throws IOException {
         return new ChainIterator(index);
     }
@@ -135,35 +166,17 @@ public class FatChain {
         if (dolog)
             mylog("n[" + n + "] m[" + m + "] offset[" + offset + "]");
 
-        final int last;
-        int i, found = 0, l = 0;
-        int k = (offset > 0) ? 2 : 1;
+        final int k = (offset > 0) ? 2 : 1;
 
-        for (i = fat.getLastFree(); i < fat.size(); i++) {
-            if (fat.isFreeEntry(i)) {
-                l = i;
-                found++;
-            }
-            if (found == n)
-                break;
-        }
-
-        if (found < n) {
-            for (i = fat.firstCluster(); i < fat.getLastFree(); i++) {
-                if (fat.isFreeEntry(i))
-                    found++;
-                if (found == n)
-                    break;
-            }
-        }
-
-        if (found < n)
-            throw new FileSystemFullException("no free clusters");
-
-        last = l;
+        /*
+         * the clusters come back in chain order, as one contiguous run when
+         * possible
+         */
+        final int[] clusters = fat.findFreeClusters(n);
+        final int last = clusters[n - 1];
 
         if (dolog)
-            mylog("found[" + found + "] last[" + last + "]");
+            mylog("found[" + n + "] last[" + last + "]");
 
         fat.set(last, fat.eofChain());
         if (dolog)
@@ -175,55 +188,29 @@ public class FatChain {
             fat.clearCluster(last);
         }
 
-        //
-        found = 0;
-        l = last;
-        i = last;
-        //
-        for (; found < (n - m - k); i--) {
-            if (fat.isFreeEntry(i)) {
-                fat.set(i, l);
+        /*
+         * link the clusters from the tail back to the head: the tail ones
+         * are kept as they are, then one is cleared up to offset and the
+         * head ones are cleared entirely
+         */
+        int l = last;
+        int found = 0;
+        for (int j = n - 2; j >= 0; j--, found++) {
+            final int i = clusters[j];
+            if (found < (n - m - k)) {
                 if (dolog)
                     mylog((n - found - 1) + "\t|allo|\t" + i + " " + l);
-                l = i;
-                found++;
-            }
-        }
-        //
-        if (offset > 0) {
-            for (;; i--) {
-                if (fat.isFreeEntry(i)) {
-                    fat.clearCluster(i, 0, offset);
-                    fat.set(i, l);
-                    if (dolog)
-                        mylog((n - found - 1) + "\t|part|\t" + i + " " + l);
-                    l = i;
-                    found++;
-                    break;
-                }
-
-            }
-        }
-        //
-        for (; found < (n - 1); i--) {
-            if (fat.isFreeEntry(i)) {
+            } else if (offset > 0 && found == Math.max(0, n - m - k)) {
+                fat.clearCluster(i, 0, offset);
+                if (dolog)
+                    mylog((n - found - 1) + "\t|part|\t" + i + " " + l);
+            } else {
                 fat.clearCluster(i);
-                fat.set(i, l);
                 if (dolog)
                     mylog((n - found - 1) + "\t|zero|\t" + i + " " + l);
-                l = i;
-                found++;
-            }
-        }
-
-        //
-        fat.rewindFree();
-        //
-        for (i = last; i < fat.size(); i++) {
-            if (fat.isFreeEntry(i)) {
-                fat.setLastFree(i);
-                break;
             }
+            fat.set(i, l);
+            l = i;
         }
 
         if (dolog)
@@ -301,6 +288,11 @@ public class FatChain {
                     mylog(l + ":" + fat.freeEntry());
             }
         } finally {
+            /*
+             * the iterators mark the clusters they walk, also the ones that
+             * were just freed
+             */
+            truncateMarks(count - n);
             fat.flush();
         }
 
@@ -357,6 +349,14 @@ public class FatChain {
 
             size = Math.min(sz, l);
 
+            /*
+             * extend the transfer over the physically adjacent clusters
+             */
+            for (int end = cluster; size < l && i.hasNextAdjacent(end); ) {
+                end = i.next();
+                size += Math.min(p.getSize(), l - size);
+            }
+
             if (dolog)
                 mylog("read " + size + " bytes from cluster " + cluster + " at offset " + ofs);
 
@@ -364,7 +364,7 @@ public class FatChain {
 
             try {
                 dst.limit(dst.position() + size);
-                fat.readCluster(cluster, ofs, dst);
+                fat.readClusters(cluster, ofs, dst);
             } finally {
                 dst.limit(limit);
             }
@@ -464,18 +464,26 @@ public class FatChain {
                 }
             }
 
-            cluster = i.next();
+            final int first = i.next();
 
             size = Math.min(sz, l);
 
+            /*
+             * extend the transfer over the physically adjacent clusters
+             */
+            for (cluster = first; size < l && i.hasNextAdjacent(cluster); ) {
+                cluster = i.next();
+                size += Math.min(clsize, l - size);
+            }
+
             if (dolog)
-                mylog("write " + size + " bytes to cluster " + cluster + " at offset " + ofs);
+                mylog("write " + size + " bytes to cluster " + first + " at offset " + ofs);
 
             int limit = src.limit();
 
             try {
                 src.limit(src.position() + size);
-                fat.writeCluster(cluster, ofs, src);
+                fat.writeClusters(first, ofs, src);
             } finally {
                 src.limit(limit);
             }
@@ -640,10 +648,32 @@ public class FatChain {
             index = 0;
         }
 
+        /*
+         * jump to the nearest mark at or before position, if that is closer
+         * than the current index
+         */
+        private void seek(int position) throws IOException {
+            int k = Math.min(position / MARK_INTERVAL, markCount);
+            if (k == 0) {
+                if (position < index)
+                    reset();
+                return;
+            }
+
+            int markIndex = k * MARK_INTERVAL;
+            if (markIndex > index || position < index) {
+                address = marks[k - 1];
+                cursor = fat.get(address);
+                index = markIndex;
+            }
+        }
+
         private void setPosition(int position) throws IOException {
             if (position < 0)
                 throw new IllegalArgumentException("negative index: " + position);
 
+            seek(position);
+
             if (position > index) {
                 for (int i = index; i < position; i++)
                     next();
@@ -657,7 +687,12 @@ public class FatChain {
         private int getCluster(int position) throws IOException {
             int cluster = 0;
 
+            if (position > 0)
+                seek(position);
+
             if (position > index) {
+                if (index > 0)
+                    cluster = address;
                 for (int i = index; i < position; i++)
                     if (hasNext())
                         cluster = next();
@@ -696,6 +731,13 @@ public class FatChain {
             return (fat.hasNext(cursor));
         }
 
+        /*
+         * is the next cluster of the chain physically adjacent to the given one?
+         */
+        private boolean hasNextAdjacent(int cluster) {
+            return hasNext() && (cursor == cluster + 1);
+        }
+
         public int next() throws IOException {
             if (!hasNext())
                 throw new NoSuchElementException();
@@ -710,6 +752,8 @@ public class FatChain {
             if (fat.isFree(cursor))
                 throw new IOException("free entry in chain at: " + address);
 
+            mark(index, address);
+
             index++;
 
             return address;
@@ -20,7 +20,9 @@
  
 package org.jnode.fs.ntfs;
 
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.LinkedList;
 
 import org.jnode.fs.FSEntry;
 import org.jnode.fs.ntfs.index.IndexEntry;
@@ -33,8 +35,18 @@ import org.jnode.fs.ntfs.index.NTFSIndex;
  */
 final class DirectoryEntryIterator implements Iterator<FSEntry> {
 
+    /**
+     * The number of entries whose file records are prefetched together.
+     */
+    private static final int PREFETCH_BATCH = 64;
+
     private final Iterator<IndexEntry> indexIterator;
 
+    /**
+     * The entries read from the index but not returned yet.
+     */
+    private final LinkedList<NTFSEntry> pending = new LinkedList<NTFSEntry>();
+
     private final NTFSFileSystem fs;
 
     private NTFSEntry nextEntry;
@@ -78,20 +90,37 @@ final class DirectoryEntryIterator implements Iterator<FSEntry> {
      * Read the next entry.
      */
     private final void readNextEntry() {
-        while (true) {
-            if (!indexIterator.hasNext()) {
-                nextEntry = null;
-                return;
-            }
+        if (pending.isEmpty()) {
+            readEntries();
+        }
+        nextEntry = pending.poll();
+    }
 
+    /**
+     * Read the next batch of entries, and tell the MFT that their file records are likely to be needed.
+     */
+    private void readEntries() {
+        final long[] references = new long[PREFETCH_BATCH];
+        int count = 0;
+        while (count < PREFETCH_BATCH && indexIterator.hasNext()) {
             final IndexEntry indexEntry = indexIterator.next();
             FileNameAttribute.Structure fileName = new FileNameAttribute.Structure(
                 indexEntry, IndexEntry.CONTENT_OFFSET);
 
             if (fileName.getNameSpace() != FileNameAttribute.NameSpace.DOS) {
                 // Skip DOS filename entries.
-                nextEntry = new NTFSEntry(fs, indexEntry);
-                return;
+                pending.add(new NTFSEntry(fs, indexEntry));
+                references[count++] = indexEntry.getFileReferenceNumber();
+            }
+        }
+
+        if (count > 1) {
+            final long[] batch = new long[count];
+            System.arraycopy(references, 0, batch, 0, count);
+            try {
+                fs.getNTFSVolume().getMFT().prefetchRecords(batch);
+            } catch (IOException e) {
+                // Only a hint, the records are read on demand anyway
             }
         }
     }
@@ -593,7 +593,12 @@ public class FileRecord extends NTFSRecord {
         final long startCluster = fileOffset / clusterSize;
         final long endCluster = (fileOffset + len - 1) / clusterSize;
         final int nrClusters = (int) (endCluster - startCluster + 1);
-        final byte[] tmp = new byte[nrClusters * clusterSize];
+        final int tmpLength = nrClusters * clusterSize;
+
+        // Whole clusters are read straight into dest, otherwise they go through a temporary buffer
+        final boolean direct = (fileOffset % clusterSize == 0) && (len == tmpLength);
+        final byte[] tmp = direct ? dest : new byte[tmpLength];
+        final int tmpOffset = direct ? off : 0;
 
         long clusterOffset = 0;
         long clusterWithinNresData = startCluster;
@@ -605,7 +610,7 @@ public class FileRecord extends NTFSRecord {
 
             final NTFSNonResidentAttribute nresData = (NTFSNonResidentAttribute) attr;
 
-            readClusters += nresData.readVCN(clusterWithinNresData, tmp, 0, nrClusters);
+            readClusters += nresData.readVCN(clusterWithinNresData, tmp, tmpOffset, nrClusters);
 
             if (readClusters > 0) {
                 // If if the data is past the 'initialised' part of the attribute. If it is uninitialised then it must
@@ -615,10 +620,10 @@ public class FileRecord extends NTFSRecord {
 
                 if (endOffset > initialisedSize && limitToInitialised) {
                     int delta = (int)(endOffset - initialisedSize);
-                    int startIndex = Math.max((int)(tmp.length - delta), 0);
+                    int startIndex = Math.max((int)(tmpLength - delta), 0);
 
-                    if (startIndex < tmp.length) {
-                        Arrays.fill(tmp, startIndex, tmp.length, (byte) 0);
+                    if (startIndex < tmpLength) {
+                        Arrays.fill(tmp, tmpOffset + startIndex, tmpOffset + tmpLength, (byte) 0);
                     }
                 }
             }
@@ -649,7 +654,9 @@ public class FileRecord extends NTFSRecord {
                 ", file offset = " + fileOffset + ", file record = " + this);
         }
 
-        System.arraycopy(tmp, (int) (fileOffset % clusterSize), dest, off, len);
+        if (!direct) {
+            System.arraycopy(tmp, (int) (fileOffset % clusterSize), dest, off, len);
+        }
     }
 
     @Override
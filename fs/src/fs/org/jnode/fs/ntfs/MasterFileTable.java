@@ -21,6 +21,9 @@
 package org.jnode.fs.ntfs;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.jnode.fs.ntfs.attribute.NTFSAttribute;
 import org.jnode.fs.ntfs.index.IndexEntry;
 
@@ -124,11 +127,42 @@ public class MasterFileTable extends FileRecord {
         public static final int FIRST_USER = 16;
     }
 
+    /**
+     * The maximum number of file records kept in the record cache.
+     */
+    private static final int RECORD_CACHE_SIZE = 1024;
+
+    /**
+     * The maximum number of records that are read with a single read.
+     */
+    private static final int MAX_BATCH_RECORDS = 64;
+
     /**
      * The cached length of the MFT.
      */
     private long mftLength;
 
+    /**
+     * The most recently used file records, by index. The records are kept with their fix-ups applied and their
+     * attributes parsed.
+     */
+    private final Map<Long, FileRecord> recordCache = new LinkedHashMap<Long, FileRecord>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, FileRecord> eldest) {
+            return size() > RECORD_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Records that are likely to be needed soon, mapped to the batch of records they should be read with.
+     */
+    private final Map<Long, long[]> prefetchHints = new LinkedHashMap<Long, long[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+            return size() > RECORD_CACHE_SIZE;
+        }
+    };
+
     /**
      * @param volume
      * @param buffer
@@ -194,11 +228,111 @@ public class MasterFileTable extends FileRecord {
     public FileRecord getRecordUnchecked(long index) throws IOException {
         log.debug("getRecord(" + index + ")");
 
+        long[] batch;
+        synchronized (recordCache) {
+            final FileRecord cached = recordCache.get(index);
+            if (cached != null) {
+                return cached;
+            }
+            batch = prefetchHints.get(index);
+        }
+
+        if (batch != null) {
+            readRecords(batch);
+            synchronized (recordCache) {
+                final FileRecord cached = recordCache.get(index);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+
         final NTFSVolume volume = getVolume();
 
         // read the buffer
         final byte[] buffer = readRecord(index);
-        return new FileRecord(volume, index, buffer, 0);
+        final FileRecord fileRecord = new FileRecord(volume, index, buffer, 0);
+        synchronized (recordCache) {
+            recordCache.put(index, fileRecord);
+        }
+        return fileRecord;
+    }
+
+    /**
+     * Indicates that the records with the given indexes are likely to be needed soon. The records are not read
+     * right away: when the first of them is needed, all of them are read, using a single read for every run of
+     * consecutive records.
+     *
+     * @param indexes the indexes of the records.
+     */
+    public void prefetchRecords(long[] indexes) {
+        synchronized (recordCache) {
+            for (long index : indexes) {
+                if (!recordCache.containsKey(index)) {
+                    prefetchHints.put(index, indexes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the records with the given indexes into the record cache, using a single read for every run of
+     * consecutive records.
+     *
+     * @param indexes the indexes of the records.
+     * @throws IOException if an error occurs reading.
+     */
+    private void readRecords(long[] indexes) throws IOException {
+        final long[] sorted = indexes.clone();
+        Arrays.sort(sorted);
+
+        final NTFSVolume volume = getVolume();
+        final int bytesPerFileRecord = volume.getBootRecord().getFileRecordSize();
+        final long maxIndex = getMftLength() / bytesPerFileRecord;
+
+        int i = 0;
+        while (i < sorted.length) {
+            final long first = sorted[i];
+            synchronized (recordCache) {
+                prefetchHints.remove(first);
+                if (recordCache.containsKey(first) || first >= maxIndex) {
+                    i++;
+                    continue;
+                }
+            }
+
+            // Find the run of consecutive records
+            int count = 1;
+            while (i + count < sorted.length && count < MAX_BATCH_RECORDS && sorted[i + count] == first + count) {
+                count++;
+            }
+            count = (int) Math.min(count, maxIndex - first);
+
+            final byte[] buffer = new byte[count * bytesPerFileRecord];
+            readData(first * bytesPerFileRecord, buffer, 0, buffer.length);
+
+            for (int r = 0; r < count; r++) {
+                final long index = first + r;
+                final byte[] recordBuffer = new byte[bytesPerFileRecord];
+                System.arraycopy(buffer, r * bytesPerFileRecord, recordBuffer, 0, bytesPerFileRecord);
+                synchronized (recordCache) {
+                    prefetchHints.remove(index);
+                    if (recordCache.containsKey(index)) {
+                        continue;
+                    }
+                }
+                try {
+                    final FileRecord fileRecord = new FileRecord(volume, index, recordBuffer, 0);
+                    synchronized (recordCache) {
+                        recordCache.put(index, fileRecord);
+                    }
+                } catch (IOException e) {
+                    // Leave it to getRecord() to report the problem if the record is needed
+                    log.debug("Failed to prefetch record " + index, e);
+                }
+            }
+            i += count;
+        }
     }
 
     /**
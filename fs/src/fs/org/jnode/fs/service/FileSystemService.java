@@ -29,6 +29,7 @@ import org.jnode.driver.Device;
 import org.jnode.fs.FileSystem;
 import org.jnode.fs.FileSystemException;
 import org.jnode.fs.FileSystemType;
+import org.jnode.fs.check.FileSystemChecker;
 
 /**
  * @author epr
@@ -54,6 +55,11 @@ public interface FileSystemService {
     public <T extends FileSystemType<?>> T getFileSystemType(Class<T> name)
         throws FileSystemException;
 
+    /**
+     * Gets all registered file system checkers.
+     */
+    public Collection<FileSystemChecker> fileSystemCheckers();
+
     /**
      * Register a mounted filesystem
      * 
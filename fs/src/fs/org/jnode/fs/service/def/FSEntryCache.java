@@ -20,53 +20,108 @@
  
 package org.jnode.fs.service.def;
 
+import gnu.java.security.action.GetPropertyAction;
+import java.io.File;
+import java.security.AccessController;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jnode.fs.FSEntry;
 
 /**
+ * A cache of directory entries, organized as a tree that mirrors the directory
+ * hierarchy. Every node is keyed by its parent node and its name, and holds
+ * either an entry, the knowledge that no entry exists by that name (a
+ * negative entry), or nothing at all if it is only there to reach its children.
+ * <p/>
+ * Lookups do not take any lock. Updates are serialized on the cache. When the
+ * cache holds more than its capacity, nodes are evicted using the clock
+ * algorithm, so recently used entries tend to stay. Only nodes without
+ * children are evicted, so a directory stays cached as long as anything below
+ * it does. Removing a path removes the whole subtree below it.
+ * <p/>
+ * Every node counts the changes made to its children. A negative entry is
+ * only trusted as long as the count of its parent has not changed since it
+ * was recorded.
+ * 
  * @author epr
  */
-@SuppressWarnings("serial")
 final class FSEntryCache {
 
-    /** The actual cache */
-    private final Map<String, FSEntry> entries = new LinkedHashMap<String, FSEntry>() {
-        @Override
-        protected boolean removeEldestEntry(Entry<String, FSEntry> eldest) {
-            return size() > 100;
-        }
-    };
+    /** The default maximum number of cached nodes */
+    private static final int DEFAULT_CAPACITY = Integer.parseInt(AccessController.doPrivileged(
+        new GetPropertyAction("org.jnode.fs.entryCacheSize", "4096")));
+
+    /** The root of the tree, which stands for the empty path */
+    private final Node root = new Node(null, "");
+
+    /** The head of the circular list of nodes in eviction order */
+    private final Node clock = new Node(null, "");
+
+    /** The maximum number of cached nodes */
+    private final int capacity;
+
+    /** The number of cached nodes, the root excluded */
+    private int size;
 
     /**
      * Create a new instance
      * 
      */
     public FSEntryCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new instance
+     * 
+     * @param capacity the maximum number of cached nodes
+     */
+    public FSEntryCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        clock.clockNext = clock;
+        clock.clockPrev = clock;
     }
 
     /**
      * Gets a cached entry for a given path.
      * 
      * @param path must be an absolute path
+     * @return the entry, or null if the entry is not cached or is known to
+     *         be missing
      */
-    public synchronized FSEntry getEntry(String path) {
-        final FSEntry entry = entries.get(path);
-        if (entry != null) {
-            if (entry.isValid()) {
-                return entry;
-            } else {
-                entries.remove(path);
-                return null;
-            }
+    public FSEntry getEntry(String path) {
+        final Node node = find(path);
+        if (node == null) {
+            return null;
+        }
+        final FSEntry entry = node.entry;
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isValid()) {
+            node.referenced = true;
+            return entry;
         } else {
+            remove(node);
             return null;
         }
     }
 
+    /**
+     * Is the given path known not to exist?
+     * 
+     * @param path must be an absolute path
+     */
+    public boolean isMissing(String path) {
+        final Node node = find(path);
+        if ((node != null) && node.missing && (node.parentModCount == node.parent.modCount)) {
+            node.referenced = true;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Puts an entry in the cache. Any existing entry for the given path will be
      * removed.
@@ -75,7 +130,36 @@ final class FSEntryCache {
      * @param entry
      */
     public synchronized void setEntry(String path, FSEntry entry) {
-        entries.put(path, entry);
+        final Node node = getOrCreate(path);
+        if (node.entry != entry) {
+            // Anything cached below the old entry belongs to it
+            removeChildren(node);
+            node.parent.modCount++;
+        }
+        node.entry = entry;
+        node.missing = false;
+        // All parents exist now
+        for (Node n = node.parent; n != null; n = n.parent) {
+            n.missing = false;
+        }
+        evict();
+    }
+
+    /**
+     * Records that no entry exists at the given path.
+     * 
+     * @param path must be an absolute path
+     */
+    public synchronized void setMissing(String path) {
+        final Node node = getOrCreate(path);
+        removeChildren(node);
+        if (node.entry != null) {
+            node.parent.modCount++;
+        }
+        node.entry = null;
+        node.missing = true;
+        node.parentModCount = node.parent.modCount;
+        evict();
     }
 
     /**
@@ -83,16 +167,252 @@ final class FSEntryCache {
      * 
      * @param rootPathStr must be an absolute path
      */
-    public synchronized void removeEntries(String rootPathStr) {
-        entries.remove(rootPathStr);
-        final ArrayList<String> removePathList = new ArrayList<String>();
-        for (String pathStr : entries.keySet()) {
-            if (pathStr.startsWith(rootPathStr)) {
-                removePathList.add(pathStr);
+    public void removeEntries(String rootPathStr) {
+        final Node node = find(rootPathStr);
+        if (node != null) {
+            remove(node);
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        removeChildren(root);
+        root.entry = null;
+    }
+
+    /**
+     * Gets the number of cached nodes.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the maximum number of cached nodes.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Find the node for the given path.
+     * 
+     * @param path must be an absolute path
+     * @return the node, or null if there is none
+     */
+    private Node find(String path) {
+        Node node = root;
+        final int length = path.length();
+        int start = 0;
+        while ((node != null) && (start < length)) {
+            int end = path.indexOf(File.separatorChar, start);
+            if (end < 0) {
+                end = length;
+            }
+            node = node.getChild(path.substring(start, end));
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * Find the node for the given path, creating it and its parents when
+     * needed.
+     * 
+     * @param path must be an absolute path
+     */
+    private Node getOrCreate(String path) {
+        Node node = root;
+        final int length = path.length();
+        int start = 0;
+        while (start < length) {
+            int end = path.indexOf(File.separatorChar, start);
+            if (end < 0) {
+                end = length;
             }
+            final String name = path.substring(start, end);
+            Node child = node.getChild(name);
+            if (child == null) {
+                child = new Node(node, name);
+                if (!node.hasChildren()) {
+                    // Directories are not evicted while they have children
+                    unlink(node);
+                }
+                node.addChild(child);
+                link(child);
+                size++;
+            }
+            node = child;
+            start = end + 1;
         }
-        for (String path : removePathList) {
-            entries.remove(path);
+        return node;
+    }
+
+    /**
+     * Remove a node and all nodes below it.
+     */
+    private synchronized void remove(Node node) {
+        if (node == root) {
+            clear();
+        } else if (!node.removed) {
+            final Node parent = node.parent;
+            parent.removeChild(node);
+            parent.modCount++;
+            size -= detach(node);
+            if (!parent.hasChildren()) {
+                relink(parent);
+            }
+        }
+    }
+
+    /**
+     * Remove all nodes below the given node.
+     */
+    private void removeChildren(Node node) {
+        if (node.children != null) {
+            for (Node child : new ArrayList<Node>(node.children.values())) {
+                node.removeChild(child);
+                size -= detach(child);
+            }
+            node.modCount++;
+            relink(node);
+        }
+    }
+
+    /**
+     * Mark a node and all nodes below it as removed.
+     * 
+     * @return the number of nodes removed
+     */
+    private int detach(Node node) {
+        unlink(node);
+        node.removed = true;
+        node.entry = null;
+        node.missing = false;
+        int count = 1;
+        if (node.children != null) {
+            for (Node child : node.children.values()) {
+                count += detach(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Evict nodes until the cache is within its capacity. A node that was
+     * used since the clock hand last passed it gets a second chance.
+     */
+    private void evict() {
+        while ((size > capacity) && (clock.clockNext != clock)) {
+            final Node node = clock.clockNext;
+            if (node.referenced) {
+                node.referenced = false;
+                unlink(node);
+                link(node);
+            } else {
+                remove(node);
+            }
+        }
+    }
+
+    /**
+     * Add a node at the end of the eviction order.
+     */
+    private void link(Node node) {
+        final Node last = clock.clockPrev;
+        node.clockPrev = last;
+        node.clockNext = clock;
+        last.clockNext = node;
+        clock.clockPrev = node;
+    }
+
+    /**
+     * Put a node that no longer has children back in the eviction order.
+     */
+    private void relink(Node node) {
+        if ((node != root) && !node.removed && (node.clockNext == null)) {
+            link(node);
+        }
+    }
+
+    /**
+     * Take a node out of the eviction order, if it is in it.
+     */
+    private void unlink(Node node) {
+        if (node.clockNext != null) {
+            node.clockPrev.clockNext = node.clockNext;
+            node.clockNext.clockPrev = node.clockPrev;
+            node.clockNext = null;
+            node.clockPrev = null;
+        }
+    }
+
+    /**
+     * A node in the tree of cached entries.
+     */
+    private static final class Node {
+
+        /** The parent node, null for the root */
+        final Node parent;
+
+        /** The name of this node within its parent */
+        final String name;
+
+        /** The child nodes, by name, created on demand */
+        volatile ConcurrentHashMap<String, Node> children;
+
+        /** The cached entry, or null */
+        volatile FSEntry entry;
+
+        /** Is it known that there is no entry with this path? */
+        volatile boolean missing;
+
+        /** The number of changes made to the children of this node */
+        volatile int modCount;
+
+        /** The modCount of the parent when this node was found missing */
+        volatile int parentModCount;
+
+        /** Has this node been used since the clock hand last passed it? */
+        volatile boolean referenced;
+
+        /** Has this node been removed from the cache? */
+        volatile boolean removed;
+
+        /** The previous node in the eviction order, guarded by the cache */
+        Node clockPrev;
+
+        /** The next node in the eviction order, guarded by the cache */
+        Node clockNext;
+
+        Node(Node parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        Node getChild(String name) {
+            final ConcurrentHashMap<String, Node> children = this.children;
+            return (children != null) ? children.get(name) : null;
+        }
+
+        boolean hasChildren() {
+            final ConcurrentHashMap<String, Node> children = this.children;
+            return (children != null) && !children.isEmpty();
+        }
+
+        void addChild(Node child) {
+            if (children == null) {
+                children = new ConcurrentHashMap<String, Node>();
+            }
+            children.put(child.name, child);
+        }
+
+        void removeChild(Node child) {
+            if (children != null) {
+                children.remove(child.name, child);
+            }
         }
     }
 }
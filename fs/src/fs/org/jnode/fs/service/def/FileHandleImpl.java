@@ -24,9 +24,11 @@ import java.io.IOException;
 import java.io.VMOpenMode;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.MappedRawData;
 
 import org.jnode.fs.FSFile;
 import org.jnode.java.io.VMFileHandle;
+import org.jnode.java.nio.MappedFileRegion;
 
 /**
  * @author epr
@@ -264,8 +266,72 @@ final class FileHandleImpl implements VMFileHandle {
         return true;
     }
 
-    public MappedByteBuffer mapImpl(char mode, long position, int size) {
-        // TODO Auto-generated method stub
-        return null;
+    /**
+     * Map a region of this file into memory. The region is read through the
+     * file system, and thus through its block cache. The memory of a
+     * read-write mapping is written back to the file on force() and when the
+     * mapping is released.
+     * 
+     * @param mode 'r' for read-only, '+' for read-write or 'c' for a private
+     *            (copy-on-write) mapping
+     * @param position
+     * @param size
+     * @throws IOException
+     */
+    public synchronized MappedByteBuffer mapImpl(char mode, long position, int size)
+        throws IOException {
+        if (closed) {
+            throw new IOException("File closed");
+        }
+        if ((position < 0) || (size < 0)) {
+            throw new IllegalArgumentException("position " + position + ", size " + size);
+        }
+        final boolean writeBack = (mode == '+');
+        if (writeBack) {
+            if (readOnly) {
+                throw new IOException("Cannot write");
+            }
+            // A read-write mapping beyond the end of the file extends it
+            if (position + size > file.getLength()) {
+                file.setLength(position + size);
+            }
+        }
+        final MappedFileRegion region = new FileRegion(position, size, writeBack);
+        return MappedRawData.map(region, size, (mode == 'r'));
+    }
+
+    /**
+     * A region of this file that is mapped into memory.
+     */
+    private final class FileRegion implements MappedFileRegion {
+
+        /** The position in the file of the region */
+        private final long position;
+        /** The size of the region */
+        private final int size;
+        /** Must changes be written back to the file? */
+        private final boolean writeBack;
+
+        FileRegion(long position, int size, boolean writeBack) {
+            this.position = position;
+            this.size = size;
+            this.writeBack = writeBack;
+        }
+
+        public void load(ByteBuffer dest) throws IOException {
+            // The part of the region beyond the end of the file reads as zeros
+            final long avail = Math.max(0L, file.getLength() - position);
+            dest.limit((int) Math.min(size, avail));
+            file.read(position, dest);
+        }
+
+        public void force(ByteBuffer src) throws IOException {
+            if (writeBack) {
+                synchronized (FileHandleImpl.this) {
+                    file.write(position, src);
+                    file.flush();
+                }
+            }
+        }
     }
 }
@@ -33,6 +33,7 @@ import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 import org.jnode.driver.Device;
+import org.jnode.fs.BlockDeviceFileSystemType;
 import org.jnode.fs.FSAccessRights;
 import org.jnode.fs.FSDirectory;
 import org.jnode.fs.FSEntry;
@@ -338,12 +339,18 @@ final class FileSystemAPIImpl implements VMFileSystemAPI {
             if (entry != null) {
                 return entry;
             }
+            if (entryCache.isMissing(path)) {
+                return null;
+            }
             final FSDirectory parentEntry = getParentDirectoryEntry(path);
             if (parentEntry != null) {
                 try {
                     entry = parentEntry.getEntry(stripParentPath(path));
 
                     if (entry == null) {
+                        if (isLocal(parentEntry)) {
+                            entryCache.setMissing(path);
+                        }
                         return null;
                     }
 
@@ -386,6 +393,7 @@ final class FileSystemAPIImpl implements VMFileSystemAPI {
 
                 // Ok, add the file
                 entry = parent.addFile(getName(file));
+                entryCache.setEntry(file, entry);
             } else {
                 throw new FileNotFoundException(file);
             }
@@ -412,6 +420,7 @@ final class FileSystemAPIImpl implements VMFileSystemAPI {
         }
         // Ok, add the dir
         entry = directory.addDirectory(getName(file));
+        entryCache.setEntry(file, entry);
         return true;
     }
 
@@ -431,6 +440,7 @@ final class FileSystemAPIImpl implements VMFileSystemAPI {
             return false;
         // Ok, make the file
         entry = directory.addFile(getName(file));
+        entryCache.setEntry(file, entry);
         return true;
     }
 
@@ -459,6 +469,8 @@ final class FileSystemAPIImpl implements VMFileSystemAPI {
         if (fullPath.charAt(0) != File.separatorChar) {
             fullPath = File.separatorChar + fullPath;
         }
+        // The cache holds paths without the leading separator
+        entryCache.removeEntries(fullPath.substring(1));
 
         mountPoints.put(fullPath, fs); // TODO handle removal (+ add unmount
                                         // method) of filesystems
@@ -491,6 +503,13 @@ final class FileSystemAPIImpl implements VMFileSystemAPI {
      */
     final void unregisterFileSystem(Device dev) {
         vfs.unregisterFileSystem(dev);
+
+        // Forget all entries of the filesystem
+        for (Map.Entry<String, FileSystem<?>> mount : mountPoints.entrySet()) {
+            if (mount.getValue().getDevice() == dev) {
+                entryCache.removeEntries(mount.getKey().substring(1));
+            }
+        }
     }
 
     /**
@@ -514,6 +533,19 @@ final class FileSystemAPIImpl implements VMFileSystemAPI {
         return dirEntry.getDirectory();
     }
 
+    /**
+     * Is the given directory stored on a local block device? Only such
+     * directories are changed through this API alone, so only their missing
+     * entries can be cached. Remote and virtual file systems (nfs, smbfs,
+     * ftpfs, jifs) can change without the cache noticing.
+     * 
+     * @param directory
+     */
+    private boolean isLocal(FSDirectory directory) {
+        final FileSystem<?> fs = directory.getFileSystem();
+        return (fs != null) && (fs.getType() instanceof BlockDeviceFileSystemType);
+    }
+
     /**
      * @param path
      * @return
@@ -0,0 +1,125 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.service.def;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.jnode.fs.check.FileSystemChecker;
+import org.jnode.plugin.ConfigurationElement;
+import org.jnode.plugin.Extension;
+import org.jnode.plugin.ExtensionPoint;
+import org.jnode.plugin.ExtensionPointListener;
+
+/**
+ * This class manages the {@link FileSystemChecker}s registered through the checkers extension point.
+ */
+final class FileSystemCheckerManager implements ExtensionPointListener {
+
+    /** My logger */
+    private static final Logger log = Logger.getLogger(FileSystemCheckerManager.class);
+    /** All registered file system checkers */
+    private final List<FileSystemChecker> checkers = new ArrayList<FileSystemChecker>();
+    /** The extension point for file system checkers */
+    private final ExtensionPoint checkersEP;
+
+    /**
+     * Construct new file system checker manager.
+     * 
+     * @param checkersEP {@link ExtensionPoint} for file system checkers, or null if the plugin descriptor does not
+     *            declare it (e.g. when the file system service is created by tests), in which case there are no
+     *            checkers.
+     */
+    protected FileSystemCheckerManager(ExtensionPoint checkersEP) {
+        this.checkersEP = checkersEP;
+        refreshFileSystemCheckers();
+    }
+
+    /**
+     * Gets all registered file system checkers
+     * 
+     * @return a copy of the registered checkers.
+     */
+    public synchronized Collection<FileSystemChecker> fileSystemCheckers() {
+        return new ArrayList<FileSystemChecker>(checkers);
+    }
+
+    /**
+     * Load all known file system checkers.
+     */
+    protected final void refreshFileSystemCheckers() {
+        final List<FileSystemChecker> newCheckers = new ArrayList<FileSystemChecker>();
+        final Extension[] extensions = (checkersEP != null) ? checkersEP.getExtensions() : new Extension[0];
+        for (int i = 0; i < extensions.length; i++) {
+            final ConfigurationElement[] elements = extensions[i].getConfigurationElements();
+            for (int j = 0; j < elements.length; j++) {
+                createChecker(newCheckers, elements[j]);
+            }
+        }
+
+        synchronized (this) {
+            this.checkers.clear();
+            this.checkers.addAll(newCheckers);
+        }
+    }
+
+    /**
+     * Create a file system checker from a given configuration element.
+     * 
+     * @param checkers the list to add the checker to.
+     * @param element the configuration element.
+     */
+    private void createChecker(List<FileSystemChecker> checkers, ConfigurationElement element) {
+        final String className = element.getAttribute("class");
+        if (className != null) {
+            try {
+                final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+                checkers.add((FileSystemChecker) cl.loadClass(className).newInstance());
+            } catch (ClassCastException ex) {
+                log.error("FileSystemChecker " + className + " does not implement FileSystemChecker.");
+            } catch (ClassNotFoundException ex) {
+                log.error("Cannot load FileSystemChecker " + className);
+            } catch (IllegalAccessException ex) {
+                log.error("No access to FileSystemChecker " + className);
+            } catch (InstantiationException ex) {
+                log.error("Cannot instantiate FileSystemChecker " + className);
+            }
+        }
+    }
+
+    /**
+     * @see org.jnode.plugin.ExtensionPointListener#extensionAdded(org.jnode.plugin.ExtensionPoint,
+     *      org.jnode.plugin.Extension)
+     */
+    public void extensionAdded(ExtensionPoint point, Extension extension) {
+        refreshFileSystemCheckers();
+    }
+
+    /**
+     * @see org.jnode.plugin.ExtensionPointListener#extensionRemoved(org.jnode.plugin.ExtensionPoint, 
+     *      org.jnode.plugin.Extension)
+     */
+    public void extensionRemoved(ExtensionPoint point, Extension extension) {
+        refreshFileSystemCheckers();
+    }
+}
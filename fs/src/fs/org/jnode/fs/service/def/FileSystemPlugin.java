@@ -38,6 +38,7 @@ import org.jnode.driver.DriverException;
 import org.jnode.fs.FileSystem;
 import org.jnode.fs.FileSystemException;
 import org.jnode.fs.FileSystemType;
+import org.jnode.fs.check.FileSystemChecker;
 import org.jnode.fs.service.FileSystemService;
 import org.jnode.java.io.VMFileSystemAPI;
 import org.jnode.naming.InitialNaming;
@@ -56,6 +57,9 @@ public class FileSystemPlugin extends Plugin implements FileSystemService {
     /** Manager of fs types */
     private final FileSystemTypeManager fsTypeManager;
 
+    /** Manager of fs checkers */
+    private final FileSystemCheckerManager fsCheckerManager;
+
     /** Manager of mounted filesystems */
     private final FileSystemManager fsm;
 
@@ -78,6 +82,7 @@ public class FileSystemPlugin extends Plugin implements FileSystemService {
     public FileSystemPlugin(PluginDescriptor descriptor) {
         super(descriptor);
         this.fsTypeManager = new FileSystemTypeManager(descriptor.getExtensionPoint("types"));
+        this.fsCheckerManager = new FileSystemCheckerManager(descriptor.getExtensionPoint("checkers"));
         this.fsm = new FileSystemManager();
         this.vfsDev = new VirtualFSDevice();
         this.vfs = new VirtualFS(vfsDev);
@@ -92,6 +97,13 @@ public class FileSystemPlugin extends Plugin implements FileSystemService {
         return fsTypeManager.fileSystemTypes();
     }
 
+    /**
+     * Gets all registered file system checkers.
+     */
+    public Collection<FileSystemChecker> fileSystemCheckers() {
+        return fsCheckerManager.fileSystemCheckers();
+    }
+
     /**
      * Register a mounted filesystem
      *
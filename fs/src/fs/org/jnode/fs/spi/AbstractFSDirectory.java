@@ -109,6 +109,21 @@ public abstract class AbstractFSDirectory extends AbstractFSObject implements FS
      * @see org.jnode.fs.FSDirectory#getEntry(java.lang.String)
      */
     public final FSEntry getEntry(String name) throws IOException {
+        if (isEntriesLoaded()) {
+            return entries.get(name);
+        }
+        return lookupEntry(name);
+    }
+
+    /**
+     * Looks up an entry before the entries of this directory are loaded. By default this loads all the entries,
+     * directories with an on-disk index can override it to find a single entry without reading them all.
+     *
+     * @param name the name of the entry.
+     * @return the entry, or {@code null} if there is no entry with the given name.
+     * @throws IOException if an error occurs.
+     */
+    protected FSEntry lookupEntry(String name) throws IOException {
         // ensure entries are loaded from BlockDevice
         checkEntriesLoaded();
 
@@ -145,6 +160,7 @@ public abstract class AbstractFSDirectory extends AbstractFSObject implements FS
     public synchronized void remove(String name) throws IOException {
         if (!canWrite())
             throw new IOException("Filesystem or directory is mounted read-only!");
+        checkEntriesLoaded();
         if (entries.remove(name) >= 0) {
             setDirty();
             flush();
@@ -0,0 +1,630 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.spi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.jnode.driver.block.BlockDeviceAPI;
+
+/**
+ * A buffer cache shared by all block device based file systems.
+ * <p/>
+ * Blocks are keyed by device, block size and block number. For every key there
+ * is at most one buffer in the cache, so a file system can synchronize on the
+ * data array of a block. The cache is sized as a fraction of the heap and
+ * evicts the least recently used clean blocks. Dirty blocks are written back to
+ * the device by a flusher thread, or when a file system flushes its device.
+ *
+ * @see #getInstance()
+ */
+public final class BufferCache {
+
+    /**
+     * The cache uses at most 1/HEAP_FRACTION of the maximum heap size.
+     */
+    private static final int HEAP_FRACTION = 16;
+
+    /**
+     * The minimum size of the cache in bytes.
+     */
+    private static final long MIN_CAPACITY = 256 * 1024;
+
+    /**
+     * Interval of the flusher thread in milliseconds.
+     */
+    private static final long FLUSH_INTERVAL = 5000;
+
+    /**
+     * Maximum number of pending read-ahead requests, further requests are dropped.
+     */
+    private static final int MAX_READ_AHEAD_REQUESTS = 16;
+
+    private static final Logger log = Logger.getLogger(BufferCache.class);
+
+    private static BufferCache instance;
+
+    /**
+     * The cached buffers in least recently used order.
+     */
+    private final LinkedHashMap<Key, Buffer> buffers = new LinkedHashMap<Key, Buffer>(256, 0.75f, true);
+
+    /**
+     * The maximum number of bytes of cached data, dirty blocks may make the
+     * cache grow beyond this until they are written back.
+     */
+    private final long capacity;
+
+    /**
+     * The number of bytes of cached data.
+     */
+    private long size;
+
+    private int dirtyCount;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long writeBacks;
+
+    private long readAheadBlocks;
+
+    /**
+     * Incremented whenever a block is changed, written to a device or invalidated, so a
+     * read or read-ahead can detect that the data it has read may be stale.
+     */
+    private long modCount;
+
+    private Thread flusher;
+
+    /**
+     * Pending read-ahead requests, or null if read-ahead is done by the caller.
+     */
+    private LinkedList<Key> readAheadQueue;
+
+    /**
+     * Gets the buffer cache shared by all file systems.
+     *
+     * @return the buffer cache
+     */
+    public static synchronized BufferCache getInstance() {
+        if (instance == null) {
+            instance = new BufferCache(Math.max(MIN_CAPACITY, Runtime.getRuntime().maxMemory() / HEAP_FRACTION));
+            instance.startFlusher();
+            instance.startReadAhead();
+        }
+        return instance;
+    }
+
+    /**
+     * Create a buffer cache without a flusher thread.
+     *
+     * @param capacity the maximum number of bytes of clean cached data.
+     */
+    public BufferCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets the data of a block, reading it from the device if it is not
+     * cached. The returned array is the cached copy of the block, changes
+     * to it must be made known by {@link #write(BlockDeviceAPI, long, int, byte[], boolean)}.
+     *
+     * @param api       the device
+     * @param blockNr   the block number
+     * @param blockSize the size of a block in bytes
+     * @return the data of the block
+     * @throws IOException
+     */
+    public byte[] read(BlockDeviceAPI api, long blockNr, int blockSize) throws IOException {
+        final Key key = new Key(api, blockNr, blockSize);
+        long startModCount;
+        synchronized (this) {
+            final Buffer buffer = buffers.get(key);
+            if (buffer != null) {
+                hits++;
+                return buffer.data;
+            }
+            misses++;
+            startModCount = modCount;
+        }
+
+        while (true) {
+            // Read outside of the lock, so other blocks can be served from the
+            // cache meanwhile. A block may be read twice, but only one copy
+            // is put in the cache.
+            final ByteBuffer data = ByteBuffer.allocate(blockSize);
+            api.read(blockNr * blockSize, data);
+
+            synchronized (this) {
+                final Buffer cached = buffers.get(key);
+                if (cached != null) {
+                    return cached.data;
+                }
+                if (modCount == startModCount) {
+                    final Buffer buffer = new Buffer(key, data.array());
+                    add(buffer);
+                    return buffer.data;
+                }
+                // The block may have been changed, written back and evicted
+                // while it was read, so the data may be stale. Read it again.
+                startModCount = modCount;
+            }
+        }
+    }
+
+    /**
+     * Gets the data of a block, if it is cached.
+     *
+     * @param api       the device
+     * @param blockNr   the block number
+     * @param blockSize the size of a block in bytes
+     * @return the data of the block, or null if the block is not cached
+     */
+    public synchronized byte[] peek(BlockDeviceAPI api, long blockNr, int blockSize) {
+        final Buffer buffer = buffers.get(new Key(api, blockNr, blockSize));
+        return (buffer != null) ? buffer.data : null;
+    }
+
+    /**
+     * Read a run of consecutive blocks into the cache with a single device read.
+     * This is done in the background when the shared instance is used, blocks that
+     * are already cached are left untouched.
+     *
+     * @param api       the device
+     * @param blockNr   the number of the first block
+     * @param count     the number of blocks
+     * @param blockSize the size of a block in bytes
+     * @throws IOException
+     */
+    public void readAhead(BlockDeviceAPI api, long blockNr, int count, int blockSize) throws IOException {
+        final Key run = new Key(api, blockNr, blockSize, count);
+        synchronized (this) {
+            if (readAheadQueue != null) {
+                if (readAheadQueue.size() < MAX_READ_AHEAD_REQUESTS) {
+                    readAheadQueue.add(run);
+                    notifyAll();
+                }
+                return;
+            }
+        }
+        doReadAhead(run);
+    }
+
+    /**
+     * Update the data of a block.
+     *
+     * @param api          the device
+     * @param blockNr      the block number
+     * @param blockSize    the size of a block in bytes
+     * @param data         the new data of the block
+     * @param writeThrough if true, the block is written to the device
+     *                     immediately, otherwise it is written back later.
+     * @throws IOException
+     */
+    public void write(BlockDeviceAPI api, long blockNr, int blockSize, byte[] data, boolean writeThrough)
+        throws IOException {
+        write(api, blockNr, blockSize, data, null, writeThrough);
+    }
+
+    /**
+     * Update the data of a block from a buffer. The data is copied straight
+     * into the cached block, the buffer position is advanced by the block size.
+     *
+     * @param api          the device
+     * @param blockNr      the block number
+     * @param blockSize    the size of a block in bytes
+     * @param src          the new data of the block
+     * @param writeThrough if true, the block is written to the device
+     *                     immediately, otherwise it is written back later.
+     * @throws IOException
+     */
+    public void write(BlockDeviceAPI api, long blockNr, int blockSize, ByteBuffer src, boolean writeThrough)
+        throws IOException {
+        write(api, blockNr, blockSize, null, src, writeThrough);
+    }
+
+    /**
+     * Update the data of a block from either an array or a buffer.
+     */
+    private void write(BlockDeviceAPI api, long blockNr, int blockSize, byte[] data, ByteBuffer src,
+                       boolean writeThrough) throws IOException {
+        final Key key = new Key(api, blockNr, blockSize);
+        final Buffer buffer;
+        final int version;
+        synchronized (this) {
+            Buffer b = buffers.get(key);
+            if (b == null) {
+                b = new Buffer(key, new byte[blockSize]);
+                add(b);
+            }
+            if (src != null) {
+                src.get(b.data, 0, blockSize);
+            } else if (b.data != data) {
+                System.arraycopy(data, 0, b.data, 0, blockSize);
+            }
+            if (!b.dirty) {
+                b.dirty = true;
+                dirtyCount++;
+            }
+            b.version++;
+            modCount++;
+            buffer = b;
+            version = b.version;
+        }
+        if (writeThrough) {
+            writeBack(buffer, version);
+        }
+    }
+
+    /**
+     * Write all dirty blocks of the given device to the device.
+     *
+     * @param api the device
+     * @throws IOException
+     */
+    public void flush(BlockDeviceAPI api) throws IOException {
+        writeBack(getDirtyBuffers(api));
+    }
+
+    /**
+     * Remove all blocks of the given device from the cache. Dirty blocks
+     * are lost, so the device must be flushed first.
+     *
+     * @param api the device
+     */
+    public synchronized void invalidate(BlockDeviceAPI api) {
+        modCount++;
+        for (Iterator<Buffer> i = buffers.values().iterator(); i.hasNext();) {
+            final Buffer b = i.next();
+            if (b.key.api == api) {
+                i.remove();
+                remove(b);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of reads that were served from the cache.
+     *
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of reads that had to go to the device.
+     *
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Gets the percentage of reads that were served from the cache.
+     *
+     * @return the hit rate, 0..100
+     */
+    public synchronized int getHitRate() {
+        final long total = hits + misses;
+        return (total == 0) ? 0 : (int) (hits * 100 / total);
+    }
+
+    /**
+     * Gets the number of blocks that were removed to make room for other blocks.
+     *
+     * @return the eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of dirty blocks that were written to their device.
+     *
+     * @return the write back count
+     */
+    public synchronized long getWriteBackCount() {
+        return writeBacks;
+    }
+
+    /**
+     * Gets the number of blocks that were read ahead into the cache.
+     *
+     * @return the read-ahead count
+     */
+    public synchronized long getReadAheadCount() {
+        return readAheadBlocks;
+    }
+
+    /**
+     * Gets the number of dirty blocks in the cache.
+     *
+     * @return the dirty count
+     */
+    public synchronized int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    /**
+     * Gets the number of bytes of cached data.
+     *
+     * @return the size
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the maximum number of bytes of clean cached data.
+     *
+     * @return the capacity
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public synchronized String toString() {
+        return "BufferCache[size " + size + "/" + capacity + ", blocks " + buffers.size()
+            + ", dirty " + dirtyCount + ", hits " + hits + ", misses " + misses + " (" + getHitRate()
+            + "%), evictions " + evictions + ", writebacks " + writeBacks + ", read-ahead " + readAheadBlocks + "]";
+    }
+
+    /**
+     * Add a buffer to the cache and make room for it.
+     */
+    private void add(Buffer buffer) {
+        buffers.put(buffer.key, buffer);
+        size += buffer.data.length;
+        if (size > capacity) {
+            // Remove the least recently used clean blocks
+            boolean dirtySeen = false;
+            for (Iterator<Buffer> i = buffers.values().iterator(); i.hasNext() && (size > capacity);) {
+                final Buffer b = i.next();
+                if (b.dirty) {
+                    dirtySeen = true;
+                } else if (b != buffer) {
+                    i.remove();
+                    remove(b);
+                    evictions++;
+                }
+            }
+            if (dirtySeen && (flusher != null)) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Update the bookkeeping for a buffer that has been removed.
+     */
+    private void remove(Buffer buffer) {
+        size -= buffer.data.length;
+        if (buffer.dirty) {
+            dirtyCount--;
+        }
+    }
+
+    /**
+     * Gets the dirty buffers of a device, or of all devices if api is null.
+     */
+    private synchronized List<Buffer> getDirtyBuffers(BlockDeviceAPI api) {
+        final List<Buffer> result = new ArrayList<Buffer>();
+        if (dirtyCount > 0) {
+            for (Buffer b : buffers.values()) {
+                if (b.dirty && ((api == null) || (b.key.api == api))) {
+                    result.add(b);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write the given buffers to their device.
+     */
+    private void writeBack(List<Buffer> list) throws IOException {
+        for (Buffer b : list) {
+            final int version;
+            synchronized (this) {
+                version = b.version;
+            }
+            writeBack(b, version);
+        }
+    }
+
+    /**
+     * Write a buffer to its device. The buffer is clean afterwards, unless it
+     * has been changed while it was written.
+     */
+    private void writeBack(Buffer buffer, int version) throws IOException {
+        final Key key = buffer.key;
+        key.api.write(key.blockNr * key.blockSize, ByteBuffer.wrap(buffer.data, 0, key.blockSize));
+        synchronized (this) {
+            writeBacks++;
+            modCount++;
+            if (buffer.dirty && (buffer.version == version)) {
+                buffer.dirty = false;
+                if (buffers.get(key) == buffer) {
+                    dirtyCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a run of blocks and add the blocks that are not cached yet.
+     */
+    private void doReadAhead(Key run) throws IOException {
+        final int blockSize = run.blockSize;
+        final long startModCount;
+        synchronized (this) {
+            startModCount = modCount;
+        }
+        final byte[] data = new byte[run.count * blockSize];
+        run.api.read(run.blockNr * blockSize, ByteBuffer.wrap(data));
+        synchronized (this) {
+            if (modCount != startModCount) {
+                // A block may have been changed and written back meanwhile
+                return;
+            }
+            for (int i = 0; i < run.count; i++) {
+                final Key key = new Key(run.api, run.blockNr + i, blockSize);
+                if (!buffers.containsKey(key)) {
+                    final byte[] block = new byte[blockSize];
+                    System.arraycopy(data, i * blockSize, block, 0, blockSize);
+                    add(new Buffer(key, block));
+                    readAheadBlocks++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the thread that reads blocks ahead.
+     */
+    private void startReadAhead() {
+        readAheadQueue = new LinkedList<Key>();
+        final Thread t = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    final Key run;
+                    synchronized (BufferCache.this) {
+                        while (readAheadQueue.isEmpty()) {
+                            try {
+                                BufferCache.this.wait();
+                            } catch (InterruptedException ex) {
+                                // Ignore
+                            }
+                        }
+                        run = readAheadQueue.removeFirst();
+                    }
+                    try {
+                        doReadAhead(run);
+                    } catch (IOException ex) {
+                        log.debug("Error reading ahead", ex);
+                    } catch (RuntimeException ex) {
+                        log.error("Error reading ahead", ex);
+                    }
+                }
+            }
+        }, "buffer-cache-readahead");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Start the thread that writes back the dirty blocks.
+     */
+    private void startFlusher() {
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    synchronized (BufferCache.this) {
+                        try {
+                            BufferCache.this.wait(FLUSH_INTERVAL);
+                        } catch (InterruptedException ex) {
+                            // Ignore
+                        }
+                    }
+                    try {
+                        writeBack(getDirtyBuffers(null));
+                    } catch (IOException ex) {
+                        log.error("Error writing back a block", ex);
+                    } catch (RuntimeException ex) {
+                        log.error("Error writing back a block", ex);
+                    }
+                }
+            }
+        }, "buffer-cache-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Key of a cached block, or a run of blocks to read ahead.
+     */
+    private static final class Key {
+        final BlockDeviceAPI api;
+        final long blockNr;
+        final int blockSize;
+        final int count;
+
+        Key(BlockDeviceAPI api, long blockNr, int blockSize) {
+            this(api, blockNr, blockSize, 1);
+        }
+
+        Key(BlockDeviceAPI api, long blockNr, int blockSize, int count) {
+            this.api = api;
+            this.blockNr = blockNr;
+            this.blockSize = blockSize;
+            this.count = count;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(api) * 31 + (int) (blockNr ^ (blockNr >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) obj;
+            return (k.api == api) && (k.blockNr == blockNr) && (k.blockSize == blockSize);
+        }
+    }
+
+    /**
+     * A cached block.
+     */
+    private static final class Buffer {
+        final Key key;
+        final byte[] data;
+        boolean dirty;
+
+        /**
+         * Incremented on every change, so a write back can detect that the
+         * block has been changed while it was written.
+         */
+        int version;
+
+        Buffer(Key key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.service.def;
+
+import org.jnode.fs.FSEntry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FSEntryCacheTest {
+
+    private FSEntryCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new FSEntryCache(8);
+    }
+
+    @Test
+    public void testHierarchicalEntries() {
+        final FSEntry dir = entry();
+        final FSEntry file = entry();
+        cache.setEntry("a", dir);
+        cache.setEntry("a/b", file);
+        assertSame(dir, cache.getEntry("a"));
+        assertSame(file, cache.getEntry("a/b"));
+        assertNull(cache.getEntry("a/c"));
+
+        // Removing a directory removes everything below it
+        cache.removeEntries("a");
+        assertNull(cache.getEntry("a"));
+        assertNull(cache.getEntry("a/b"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReplaceEntryDropsChildren() {
+        cache.setEntry("a", entry());
+        cache.setEntry("a/b", entry());
+        final FSEntry other = entry();
+        cache.setEntry("a", other);
+        assertSame(other, cache.getEntry("a"));
+        assertNull(cache.getEntry("a/b"));
+    }
+
+    @Test
+    public void testInvalidEntry() {
+        final FSEntry file = mock(FSEntry.class);
+        when(file.isValid()).thenReturn(false);
+        cache.setEntry("a", file);
+        assertNull(cache.getEntry("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNegativeEntries() {
+        cache.setMissing("a/b");
+        assertTrue(cache.isMissing("a/b"));
+        assertFalse(cache.isMissing("a"));
+        assertNull(cache.getEntry("a/b"));
+
+        // Creating the entry replaces the negative entry
+        final FSEntry file = entry();
+        cache.setEntry("a/b", file);
+        assertFalse(cache.isMissing("a/b"));
+        assertSame(file, cache.getEntry("a/b"));
+
+        // A missing directory has no children
+        cache.setMissing("a");
+        assertTrue(cache.isMissing("a"));
+        assertNull(cache.getEntry("a/b"));
+    }
+
+    @Test
+    public void testNegativeEntriesDroppedOnDirectoryChange() {
+        cache.setEntry("a", entry());
+        cache.setMissing("a/b");
+        assertTrue(cache.isMissing("a/b"));
+
+        // Adding another entry to the directory invalidates the negative entry
+        cache.setEntry("a/c", entry());
+        assertFalse(cache.isMissing("a/b"));
+
+        // So does removing one
+        cache.setMissing("a/b");
+        assertTrue(cache.isMissing("a/b"));
+        cache.removeEntries("a/c");
+        assertFalse(cache.isMissing("a/b"));
+
+        // Negative entries in other directories are not affected
+        cache.setMissing("x/y");
+        cache.setEntry("a/d", entry());
+        assertTrue(cache.isMissing("x/y"));
+    }
+
+    @Test
+    public void testEvictionKeepsDirectoriesWithChildren() {
+        final FSEntry dir = entry();
+        final FSEntry hot = entry();
+        cache.setEntry("dir", dir);
+        cache.setEntry("dir/hot", hot);
+        for (int i = 0; i < 100; i++) {
+            // Only the child is used, the directory is reached through it
+            assertSame(hot, cache.getEntry("dir/hot"));
+            cache.setEntry("cold" + i, entry());
+            assertTrue(cache.size() <= cache.getCapacity());
+        }
+        assertSame(dir, cache.getEntry("dir"));
+        assertSame(hot, cache.getEntry("dir/hot"));
+
+        // Once its children are gone, the directory can be evicted too
+        cache.removeEntries("dir/hot");
+        for (int i = 0; i < 100; i++) {
+            cache.setEntry("cold" + i, entry());
+        }
+        assertNull(cache.getEntry("dir"));
+    }
+
+    @Test
+    public void testEviction() {
+        final FSEntry hot = entry();
+        cache.setEntry("hot", hot);
+        for (int i = 0; i < 100; i++) {
+            // Keep the hot entry referenced
+            assertSame(hot, cache.getEntry("hot"));
+            cache.setEntry("cold" + i, entry());
+            assertTrue(cache.size() <= cache.getCapacity());
+        }
+        assertSame(hot, cache.getEntry("hot"));
+        assertNull(cache.getEntry("cold0"));
+        assertTrue(cache.getEntry("cold99") != null);
+    }
+
+    @Test
+    public void testChurn() {
+        // Entries that come and go must not accumulate in the cache
+        for (int i = 0; i < 10000; i++) {
+            final String path = "dir/file" + i;
+            cache.setEntry(path, entry());
+            cache.setMissing(path + "/x");
+            cache.removeEntries(path);
+        }
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    private static FSEntry entry() {
+        final FSEntry entry = mock(FSEntry.class);
+        when(entry.isValid()).thenReturn(true);
+        return entry;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.driver.block;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.jnode.driver.block.AsyncBlockDeviceAdapter;
+import org.jnode.driver.block.BlockRequest;
+import org.jnode.driver.block.BlockRequestListener;
+import org.jnode.driver.block.BlockRequestQueue;
+import org.jnode.driver.block.ByteArrayDevice;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BlockRequestQueueTest {
+
+    private static final long NEVER = Long.MAX_VALUE / 1000000L;
+
+    @Test
+    public void testElevatorOrder() {
+        BlockRequestQueue queue = new BlockRequestQueue(NEVER, NEVER, 4096);
+        BlockRequest r1 = read(4096, 512);
+        BlockRequest r2 = read(0, 512);
+        BlockRequest r3 = read(8192, 512);
+        queue.add(r1);
+        queue.add(r2);
+        queue.add(r3);
+
+        assertBatch(queue.next(), r2);
+        BlockRequest r4 = read(1024, 512);
+        queue.add(r4);
+        assertBatch(queue.next(), r4);
+        assertBatch(queue.next(), r1);
+        assertBatch(queue.next(), r3);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testMergeAdjacentRequests() {
+        BlockRequestQueue queue = new BlockRequestQueue(NEVER, NEVER, 1024);
+        BlockRequest r1 = read(0, 512);
+        BlockRequest r2 = read(512, 512);
+        BlockRequest r3 = read(1024, 512);
+        BlockRequest w1 = write(1536, 512);
+        queue.add(r3);
+        queue.add(w1);
+        queue.add(r2);
+        queue.add(r1);
+
+        // Limited by the batch size
+        assertBatch(queue.next(), r1, r2);
+        // Writes are not merged with reads
+        assertBatch(queue.next(), r3);
+        assertBatch(queue.next(), w1);
+    }
+
+    @Test
+    public void testMergeOnlyContiguousRequests() {
+        BlockRequestQueue queue = new BlockRequestQueue(NEVER, NEVER, 4096);
+        BlockRequest r1 = read(0, 1024);
+        BlockRequest r2 = read(512, 512);
+        BlockRequest r3 = read(1024, 512);
+        BlockRequest r4 = read(2048, 512);
+        queue.add(r4);
+        queue.add(r3);
+        queue.add(r2);
+        queue.add(r1);
+
+        // r2 overlaps r1 and r4 leaves a gap after r3, so only r3 is merged
+        assertBatch(queue.next(), r1, r3);
+        assertBatch(queue.next(), r4);
+        assertBatch(queue.next(), r2);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testOverlappingWriteKeepsOrder() {
+        BlockRequestQueue queue = new BlockRequestQueue(NEVER, NEVER, 4096);
+        BlockRequest w1 = write(1024, 512);
+        BlockRequest r1 = read(0, 2048);
+        queue.add(w1);
+        queue.add(r1);
+
+        assertBatch(queue.next(), w1);
+        assertBatch(queue.next(), r1);
+    }
+
+    @Test
+    public void testLongWriteKeepsOrder() {
+        BlockRequestQueue queue = new BlockRequestQueue(NEVER, NEVER, 4096);
+        BlockRequest r1 = read(4096, 512);
+        queue.add(r1);
+        assertBatch(queue.next(), r1);
+
+        BlockRequest w1 = write(0, 65536);
+        BlockRequest r2 = read(61440, 512);
+        queue.add(w1);
+        queue.add(r2);
+
+        // The next request after the head overlaps the end of the earlier write
+        assertBatch(queue.next(), w1);
+        assertBatch(queue.next(), r2);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testDeadline() {
+        BlockRequestQueue queue = new BlockRequestQueue(0, NEVER, 4096);
+        BlockRequest r1 = read(8192, 512);
+        BlockRequest r2 = read(0, 512);
+        queue.add(r1);
+        queue.add(r2);
+
+        assertBatch(queue.next(), r1);
+        assertBatch(queue.next(), r2);
+    }
+
+    @Test
+    public void testAdapter() throws Exception {
+        byte[] disk = new byte[8192];
+        AsyncBlockDeviceAdapter adapter =
+            new AsyncBlockDeviceAdapter(new ByteArrayDevice(disk), new BlockRequestQueue());
+
+        final int[] completed = new int[1];
+        BlockRequestListener listener = new BlockRequestListener() {
+            public void requestCompleted(BlockRequest request) {
+                synchronized (completed) {
+                    completed[0]++;
+                }
+            }
+        };
+
+        BlockRequest[] writes = new BlockRequest[8];
+        for (int i = 0; i < writes.length; i++) {
+            byte[] data = new byte[512];
+            Arrays.fill(data, (byte) i);
+            writes[i] = adapter.submit(BlockRequest.write(i * 512, ByteBuffer.wrap(data), listener));
+        }
+        for (BlockRequest write : writes) {
+            write.waitFor();
+        }
+
+        ByteBuffer dest = ByteBuffer.allocate(1024);
+        BlockRequest read = adapter.submit(BlockRequest.read(3 * 512, dest, listener));
+        assertSame(dest, read.get());
+        assertEquals(0, dest.position());
+        assertEquals(3, dest.get(0));
+        assertEquals(4, dest.get(1023));
+
+        adapter.flush();
+        byte[] expected = new byte[512];
+        Arrays.fill(expected, (byte) 7);
+        assertArrayEquals(expected, Arrays.copyOfRange(disk, 7 * 512, 8 * 512));
+        synchronized (completed) {
+            assertEquals(9, completed[0]);
+        }
+    }
+
+    private static BlockRequest read(long offset, int length) {
+        return BlockRequest.read(offset, ByteBuffer.allocate(length), null);
+    }
+
+    private static BlockRequest write(long offset, int length) {
+        return BlockRequest.write(offset, ByteBuffer.allocate(length), null);
+    }
+
+    private static void assertBatch(List<BlockRequest> batch, BlockRequest... expected) {
+        assertEquals(expected.length, batch.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(expected[i], batch.get(i));
+        }
+    }
+}
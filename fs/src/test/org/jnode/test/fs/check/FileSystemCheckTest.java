@@ -0,0 +1,135 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.fs.check;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.jnode.driver.block.FileDevice;
+import org.jnode.fs.check.CheckReport;
+import org.jnode.fs.check.CheckRunner;
+import org.jnode.fs.check.FileSystemChecker;
+import org.jnode.fs.ext2.Ext2FileSystemChecker;
+import org.jnode.fs.fat.FatFileSystemChecker;
+import org.jnode.test.fs.FileSystemTestUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileSystemCheckTest {
+
+    @Test
+    public void testExt4FlexBgIsClean() throws Exception {
+        FileDevice device = new FileDevice(FileSystemTestUtils.getTestFile("test/fs/ext4/ext4-flex-bg.img"), "r");
+        try {
+            CheckReport report = check(new Ext2FileSystemChecker(), device);
+
+            assertEquals(16, report.getTaskCount());
+            assertEquals(16, report.getCompletedTaskCount());
+            assertTrue(report.getErrors().toString(), report.isClean());
+            assertFalse(new FatFileSystemChecker().supports(device));
+        } finally {
+            device.close();
+        }
+    }
+
+    @Test
+    public void testFat16IsClean() throws Exception {
+        FileDevice device = new FileDevice(FileSystemTestUtils.getTestFile("test/fs/jfat/test.fat16"), "r");
+        try {
+            CheckReport report = check(new FatFileSystemChecker(), device);
+
+            assertTrue(report.getErrors().toString(), report.isClean());
+            assertEquals(0, report.getWarningCount());
+            assertFalse(new Ext2FileSystemChecker().supports(device));
+        } finally {
+            device.close();
+        }
+    }
+
+    @Test
+    public void testFat32IsClean() throws Exception {
+        FileDevice device = new FileDevice(FileSystemTestUtils.getTestFile("test/fs/jfat/test.fat32"), "r");
+        try {
+            CheckReport report = check(new FatFileSystemChecker(), device);
+
+            assertEquals(2, report.getTaskCount());
+            assertTrue(report.getErrors().toString(), report.isClean());
+            assertEquals(0, report.getWarningCount());
+        } finally {
+            device.close();
+        }
+    }
+
+    @Test
+    public void testFat16CrossLinkedCluster() throws Exception {
+        File file = File.createTempFile("fsck", ".fat16");
+        file.deleteOnExit();
+        copy(FileSystemTestUtils.getTestFile("test/fs/jfat/test.fat16"), file);
+
+        FileDevice device = new FileDevice(file, "rw");
+        try {
+            // Link the free clusters 7 and 8 to the in-use cluster 2, in both copies of the table
+            byte[] link = {2, 0};
+            for (long fat : new long[] {512, 512 + 200 * 512}) {
+                device.write(fat + 7 * 2, ByteBuffer.wrap(link));
+                device.write(fat + 8 * 2, ByteBuffer.wrap(link));
+            }
+
+            CheckReport report = check(new FatFileSystemChecker(), device);
+
+            assertEquals(Arrays.asList("Cluster 2 is linked from more than one cluster"), report.getErrors());
+        } finally {
+            device.close();
+            file.delete();
+        }
+    }
+
+    private CheckReport check(FileSystemChecker checker, FileDevice device) throws IOException {
+        assertTrue(checker.supports(device));
+        return new CheckRunner(4).run(checker, device, null);
+    }
+
+    private void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -29,7 +29,7 @@ public class ExFatFileSystemTest {
         ExFatFileSystem fs = type.create(device, true);
 
         String expectedStructure =
-            "type: ExFAT vol:Disk Image total:-1 free:-1\n" +
+            "type: ExFAT vol:Disk Image total:2428928 free:2367488\n" +
                 "  null; \n" +
                 "    .DS_Store; 6148; f4ca5ca925aae4c51cf564b7e8fc5ead\n" +
                 "    test.txt; 179; 73ced839d7039cc88c03ddc225159bd5\n" +
@@ -0,0 +1,78 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.fs.ext2;
+
+import org.jnode.fs.ext2.BlockMap;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BlockMapTest {
+
+    @Test
+    public void testLookup() {
+        BlockMap map = new BlockMap();
+        map.add(0, 100, 12);
+        map.add(20, 500, 4);
+
+        assertEquals(100, map.lookup(0));
+        assertEquals(111, map.lookup(11));
+        assertEquals(-1, map.lookup(12));
+        assertEquals(503, map.lookup(23));
+        assertEquals(-1, map.lookup(24));
+    }
+
+    @Test
+    public void testMergesContiguousRuns() {
+        BlockMap map = new BlockMap();
+        map.add(0, 100, 12);
+        map.add(12, 112, 8);
+        map.add(20, 300, 8);
+
+        assertEquals(2, map.size());
+        assertEquals(119, map.lookup(19));
+        assertEquals(300, map.lookup(20));
+    }
+
+    @Test
+    public void testTruncate() {
+        BlockMap map = new BlockMap();
+        map.add(0, 100, 12);
+        map.add(12, 300, 8);
+        map.truncate(6);
+
+        assertEquals(1, map.size());
+        assertEquals(105, map.lookup(5));
+        assertEquals(-1, map.lookup(6));
+        assertEquals(-1, map.lookup(12));
+    }
+
+    @Test
+    public void testBounded() {
+        BlockMap map = new BlockMap();
+        for (int i = 0; i <= BlockMap.MAX_RUNS; i++) {
+            map.add(i * 2, i * 10, 1);
+        }
+
+        assertEquals(1, map.size());
+        assertEquals(BlockMap.MAX_RUNS * 10, map.lookup(BlockMap.MAX_RUNS * 2));
+    }
+}
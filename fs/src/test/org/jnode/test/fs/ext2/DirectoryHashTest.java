@@ -0,0 +1,75 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.fs.ext2;
+
+import java.nio.charset.Charset;
+import org.jnode.fs.ext2.DirectoryHash;
+import org.jnode.fs.ext2.Ext2Constants;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Expected values are from e2fsprogs' {@code debugfs dx_hash}.
+ */
+public class DirectoryHashTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static long hash(String name, int version) {
+        return DirectoryHash.hash(name.getBytes(UTF8), version, new int[4]);
+    }
+
+    @Test
+    public void testLegacy() {
+        assertEquals(0xe74b53e2L, hash("a", Ext2Constants.EXT2_HASH_LEGACY));
+        assertEquals(0x65a05776L, hash("hello.txt", Ext2Constants.EXT2_HASH_LEGACY));
+        assertEquals(0x11083c86L, hash("\u00e9", Ext2Constants.EXT2_HASH_LEGACY));
+        assertEquals(0x878ca486L, hash("\u00e9", Ext2Constants.EXT2_HASH_LEGACY_UNSIGNED));
+    }
+
+    @Test
+    public void testHalfMd4() {
+        assertEquals(0xd5fa7d7aL, hash("a", Ext2Constants.EXT2_HASH_HALF_MD4));
+        assertEquals(0xa26e1d86L, hash("hello.txt", Ext2Constants.EXT2_HASH_HALF_MD4));
+        assertEquals(0x63aab9e8L,
+            hash("some-longer-file-name-over-32-bytes-long.dat", Ext2Constants.EXT2_HASH_HALF_MD4));
+        assertEquals(0x89d4704eL, hash("\u00e9", Ext2Constants.EXT2_HASH_HALF_MD4));
+        assertEquals(0xfda9f3f8L, hash("\u00e9", Ext2Constants.EXT2_HASH_HALF_MD4_UNSIGNED));
+    }
+
+    @Test
+    public void testTea() {
+        assertEquals(0x6d0ea4c0L, hash("a", Ext2Constants.EXT2_HASH_TEA));
+        assertEquals(0x5107c3f2L, hash("hello.txt", Ext2Constants.EXT2_HASH_TEA));
+        assertEquals(0x20a97d0eL,
+            hash("some-longer-file-name-over-32-bytes-long.dat", Ext2Constants.EXT2_HASH_TEA));
+        assertEquals(0x591e9bd6L, hash("\u00e9", Ext2Constants.EXT2_HASH_TEA));
+        assertEquals(0x6daf7c00L, hash("\u00e9", Ext2Constants.EXT2_HASH_TEA_UNSIGNED));
+    }
+
+    @Test
+    public void testSeed() {
+        int[] seed = {0x67452301, 0xefcdab89, 0x67452301, 0xefcdab89};
+        assertEquals(0x42a85304L,
+            DirectoryHash.hash("hello.txt".getBytes(UTF8), Ext2Constants.EXT2_HASH_HALF_MD4, seed));
+    }
+}
@@ -132,6 +132,34 @@ public class Ext4FileSystemTest {
         Assert.assertEquals(65001, childCount);
     }
 
+    @Test
+    public void testLookupInIndexedDirectoryKeepsEntries() throws Exception {
+
+        device = new FileDevice(FileSystemTestUtils.getTestFile("test/fs/ext4/ext4-large-dir-with-index.dd"), "r");
+        Ext2FileSystemType type = fss.getFileSystemType(Ext2FileSystemType.ID);
+        Ext2FileSystem fs = type.create(device, true);
+
+        FSDirectory rootDirectory = fs.getRootEntry().getDirectory();
+        FSDirectory largeDirectory = rootDirectory.getEntry("large-directory").getDirectory();
+
+        // Found through the index, before the entries are read
+        FSEntry entry = largeDirectory.getEntry("6898.txt");
+        Assert.assertSame(entry, largeDirectory.getEntry("6898.txt"));
+        Assert.assertSame(entry.getFile(), largeDirectory.getEntry("6898.txt").getFile());
+
+        // Reading all the entries keeps the entry that was handed out
+        FSEntry listed = null;
+        Iterator<? extends FSEntry> iterator = largeDirectory.iterator();
+        while (iterator.hasNext()) {
+            FSEntry child = iterator.next();
+            if (child.getName().equals("6898.txt")) {
+                listed = child;
+            }
+        }
+        Assert.assertSame(entry, listed);
+        Assert.assertSame(entry, largeDirectory.getEntry("6898.txt"));
+    }
+
     @Test
     public void testReadExt4FlexBG() throws Exception {
 
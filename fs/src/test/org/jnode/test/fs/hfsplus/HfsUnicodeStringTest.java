@@ -24,6 +24,7 @@ import org.jnode.fs.hfsplus.HfsUnicodeString;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class HfsUnicodeStringTest {
     private byte[] STRING_AS_BYTES_ARRAY =
@@ -49,4 +50,34 @@ public class HfsUnicodeStringTest {
         }
     }
 
+    @Test
+    public void testCompareFolded() {
+        assertEquals(0, compare("Test.TXT", STRING_AS_TEXT));
+        assertTrue(compare("a", "B") < 0);
+        assertTrue(compare("b", "A") > 0);
+        assertTrue(compare("", "a") < 0);
+        assertTrue(compare("ab", "a") > 0);
+        // Ignorable characters are skipped
+        assertEquals(0, compare("a\u200Db", "ab"));
+        // A null character sorts after every other character
+        assertTrue(compare("a\u0000", "az") > 0);
+    }
+
+    @Test
+    public void testCompareBinary() {
+        assertTrue(compareBinary("Test.TXT", STRING_AS_TEXT) < 0);
+        assertEquals(0, compareBinary(STRING_AS_TEXT, STRING_AS_TEXT));
+        assertTrue(compareBinary("B", "a") < 0);
+        assertTrue(compareBinary("", "a") < 0);
+        // Ignorable characters are compared too
+        assertTrue(compareBinary("a\u200Db", "ab") > 0);
+    }
+
+    private static int compareBinary(String s1, String s2) {
+        return new HfsUnicodeString(s1).compareBinary(new HfsUnicodeString(s2));
+    }
+
+    private static int compare(String s1, String s2) {
+        return new HfsUnicodeString(s1).compareFolded(new HfsUnicodeString(s2));
+    }
 }
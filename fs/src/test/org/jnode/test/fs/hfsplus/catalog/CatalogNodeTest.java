@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.fs.hfsplus.catalog;
+
+import org.jnode.fs.hfsplus.HfsUnicodeString;
+import org.jnode.fs.hfsplus.catalog.CatalogIndexNode;
+import org.jnode.fs.hfsplus.catalog.CatalogKey;
+import org.jnode.fs.hfsplus.catalog.CatalogLeafNode;
+import org.jnode.fs.hfsplus.catalog.CatalogNodeId;
+import org.jnode.fs.hfsplus.tree.IndexRecord;
+import org.jnode.fs.hfsplus.tree.LeafRecord;
+import org.jnode.fs.hfsplus.tree.NodeDescriptor;
+import org.jnode.util.BigEndian;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CatalogNodeTest {
+
+    private static CatalogKey key(int parentId, String name) {
+        return new CatalogKey(new CatalogNodeId(parentId), new HfsUnicodeString(name));
+    }
+
+    private static CatalogKey binaryKey(int parentId, String name) {
+        return new CatalogKey(new CatalogNodeId(parentId), new HfsUnicodeString(name), true);
+    }
+
+    private static CatalogLeafNode leafNode() {
+        CatalogLeafNode node = new CatalogLeafNode(new NodeDescriptor(0, 0, NodeDescriptor.BT_LEAF_NODE, 1, 0), 4096);
+        node.addNodeRecord(new LeafRecord(key(16, "a"), new byte[]{0, 1}));
+        node.addNodeRecord(new LeafRecord(key(20, "a"), new byte[]{0, 2}));
+        node.addNodeRecord(new LeafRecord(key(20, "b"), new byte[]{0, 3}));
+        node.addNodeRecord(new LeafRecord(key(20, "c"), new byte[]{0, 4}));
+        node.addNodeRecord(new LeafRecord(key(25, "a"), new byte[]{0, 5}));
+        return node;
+    }
+
+    private static IndexRecord indexRecord(CatalogKey key, int childNode) {
+        byte[] data = new byte[key.getKeyLength() + 4];
+        BigEndian.setInt32(data, key.getKeyLength(), childNode);
+        return new IndexRecord(key, data, 0);
+    }
+
+    @Test
+    public void testLeafFindAll() {
+        CatalogLeafNode node = leafNode();
+
+        LeafRecord[] records = node.findAll(new CatalogKey(new CatalogNodeId(20)));
+        assertEquals(3, records.length);
+        assertEquals(2, records[0].getData()[1]);
+        assertEquals(4, records[2].getData()[1]);
+
+        assertEquals(0, node.findAll(new CatalogKey(new CatalogNodeId(18))).length);
+        assertEquals(1, node.findAll(new CatalogKey(new CatalogNodeId(25))).length);
+    }
+
+    @Test
+    public void testLeafFind() {
+        CatalogLeafNode node = leafNode();
+
+        assertEquals(3, node.find(key(20, "b")).getData()[1]);
+        assertEquals(1, node.find(key(16, "a")).getData()[1]);
+        assertNull(node.find(key(20, "d")));
+        assertNull(node.find(new CatalogKey(new CatalogNodeId(16))));
+        assertNull(node.find(new CatalogKey(new CatalogNodeId(30))));
+    }
+
+    @Test
+    public void testLeafFindIgnoresCase() {
+        CatalogLeafNode node = new CatalogLeafNode(new NodeDescriptor(0, 0, NodeDescriptor.BT_LEAF_NODE, 1, 0), 4096);
+        node.addNodeRecord(new LeafRecord(key(20, "a"), new byte[]{0, 1}));
+        node.addNodeRecord(new LeafRecord(key(20, "B"), new byte[]{0, 2}));
+        node.addNodeRecord(new LeafRecord(key(20, "c"), new byte[]{0, 3}));
+        node.addNodeRecord(new LeafRecord(key(20, "Zebra"), new byte[]{0, 4}));
+
+        assertEquals(2, node.find(key(20, "b")).getData()[1]);
+        assertEquals(2, node.find(key(20, "B")).getData()[1]);
+        assertEquals(3, node.find(key(20, "C")).getData()[1]);
+        assertEquals(4, node.find(key(20, "zebra")).getData()[1]);
+    }
+
+    @Test
+    public void testLeafFindBinaryCompare() {
+        // A case-sensitive HFSX catalog orders names by their binary value, so upper case sorts first
+        CatalogLeafNode node = new CatalogLeafNode(new NodeDescriptor(0, 0, NodeDescriptor.BT_LEAF_NODE, 1, 0), 4096);
+        node.addNodeRecord(new LeafRecord(key(20, "B"), new byte[]{0, 1}));
+        node.addNodeRecord(new LeafRecord(key(20, "Zebra"), new byte[]{0, 2}));
+        node.addNodeRecord(new LeafRecord(key(20, "b"), new byte[]{0, 3}));
+        node.addNodeRecord(new LeafRecord(key(20, "zebra"), new byte[]{0, 4}));
+
+        assertEquals(1, node.find(binaryKey(20, "B")).getData()[1]);
+        assertEquals(2, node.find(binaryKey(20, "Zebra")).getData()[1]);
+        assertEquals(3, node.find(binaryKey(20, "b")).getData()[1]);
+        assertEquals(4, node.find(binaryKey(20, "zebra")).getData()[1]);
+        assertNull(node.find(binaryKey(20, "ZEBRA")));
+
+        CatalogIndexNode index = new CatalogIndexNode(new NodeDescriptor(0, 0, NodeDescriptor.BT_INDEX_NODE, 2, 0), 4096);
+        index.addNodeRecord(indexRecord(key(20, "B"), 11));
+        index.addNodeRecord(indexRecord(key(20, "b"), 12));
+        assertEquals(11, index.findChild(binaryKey(20, "Zebra")).getIndex());
+        assertEquals(12, index.findChild(binaryKey(20, "zebra")).getIndex());
+    }
+
+    @Test
+    public void testIndexFindAll() {
+        CatalogIndexNode node = new CatalogIndexNode(new NodeDescriptor(0, 0, NodeDescriptor.BT_INDEX_NODE, 2, 0), 4096);
+        node.addNodeRecord(indexRecord(key(1, ""), 10));
+        node.addNodeRecord(indexRecord(key(20, "a"), 11));
+        node.addNodeRecord(indexRecord(key(20, "m"), 12));
+        node.addNodeRecord(indexRecord(key(30, "a"), 13));
+
+        IndexRecord[] records = node.findAll(new CatalogKey(new CatalogNodeId(20)));
+        assertEquals(3, records.length);
+        assertEquals(10, records[0].getIndex());
+        assertEquals(11, records[1].getIndex());
+        assertEquals(12, records[2].getIndex());
+
+        records = node.findAll(new CatalogKey(new CatalogNodeId(25)));
+        assertEquals(1, records.length);
+        assertEquals(12, records[0].getIndex());
+
+        assertEquals(12, node.findChild(key(20, "x")).getIndex());
+        assertEquals(11, node.findChild(key(20, "a")).getIndex());
+        assertNull(node.findChild(key(0, "a")));
+
+        // Names are ordered case-insensitively
+        assertEquals(12, node.findChild(key(20, "X")).getIndex());
+        assertEquals(11, node.findChild(key(20, "B")).getIndex());
+        assertEquals(12, node.findChild(key(20, "M")).getIndex());
+    }
+}
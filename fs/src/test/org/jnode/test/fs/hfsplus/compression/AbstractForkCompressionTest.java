@@ -0,0 +1,111 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.fs.hfsplus.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jnode.fs.hfsplus.HfsPlusFileSystem;
+import org.jnode.fs.hfsplus.compression.AbstractForkCompression;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AbstractForkCompressionTest {
+
+    private static final int CHUNK_SIZE = 0x10000;
+
+    /**
+     * Fills each chunk with its own chunk number and counts decompressions.
+     */
+    private static class TestCompression extends AbstractForkCompression {
+        private final int chunkCount;
+        private final AtomicInteger decompressed = new AtomicInteger();
+
+        TestCompression(int chunkCount) {
+            super(null);
+            this.chunkCount = chunkCount;
+        }
+
+        @Override
+        protected int getChunkCount(HfsPlusFileSystem fs) {
+            return chunkCount;
+        }
+
+        @Override
+        protected byte[] decompressChunk(HfsPlusFileSystem fs, int chunk) {
+            decompressed.incrementAndGet();
+            byte[] data = new byte[FORK_CHUNK_SIZE];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) chunk;
+            }
+            return data;
+        }
+    }
+
+    @Test
+    public void testReadAcrossChunks() throws IOException {
+        TestCompression compression = new TestCompression(4);
+
+        ByteBuffer dest = ByteBuffer.allocate(CHUNK_SIZE * 2);
+        compression.read(null, CHUNK_SIZE / 2, dest);
+
+        assertEquals(0, dest.get(0));
+        assertEquals(0, dest.get(CHUNK_SIZE / 2 - 1));
+        assertEquals(1, dest.get(CHUNK_SIZE / 2));
+        assertEquals(2, dest.get(CHUNK_SIZE * 2 - 1));
+        assertEquals(3, compression.decompressed.get());
+    }
+
+    @Test
+    public void testCachedChunkIsNotDecompressedAgain() throws IOException {
+        TestCompression compression = new TestCompression(4);
+
+        compression.read(null, 100, ByteBuffer.allocate(10));
+        compression.read(null, 5000, ByteBuffer.allocate(10));
+        assertEquals(1, compression.decompressed.get());
+
+        compression.close();
+        compression.read(null, 100, ByteBuffer.allocate(10));
+        assertEquals(2, compression.decompressed.get());
+    }
+
+    @Test
+    public void testSequentialReadDecompressesNextChunk() throws Exception {
+        TestCompression compression = new TestCompression(4);
+
+        compression.read(null, 0, ByteBuffer.allocate(CHUNK_SIZE / 2));
+
+        // The second read continues the first, so chunk 1 is decompressed in the background
+        compression.read(null, CHUNK_SIZE / 2, ByteBuffer.allocate(CHUNK_SIZE / 2));
+        for (int i = 0; i < 500 && compression.decompressed.get() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, compression.decompressed.get());
+
+        compression.close();
+        compression.read(null, CHUNK_SIZE * 3, ByteBuffer.allocate(10));
+        compression.read(null, CHUNK_SIZE * 3 + 10, ByteBuffer.allocate(10));
+
+        // The last chunk has nothing after it to read ahead
+        assertEquals(3, compression.decompressed.get());
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.fs.jfat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.jnode.driver.block.FileDevice;
+import org.jnode.fs.FileSystemFullException;
+import org.jnode.fs.jfat.Fat;
+import org.jnode.fs.jfat.FatChain;
+import org.jnode.fs.jfat.FatFileSystem;
+import org.jnode.fs.jfat.FatFileSystemType;
+import org.jnode.test.fs.FileSystemTestUtils;
+import org.jnode.util.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the free cluster allocation of {@link Fat} and the run and mark
+ * handling of {@link FatChain} on writable copies of the test images.
+ */
+public class FatChainTest {
+
+    /**
+     * The interval at which FatChain remembers the clusters of a chain.
+     */
+    private static final int MARK_INTERVAL = 64;
+
+    private File file;
+    private FileDevice device;
+
+    @After
+    public void tearDown() throws Exception {
+        if (device != null) {
+            device.close();
+        }
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFindFreeClustersFat16() throws Exception {
+        checkFindFreeClusters(open("test.fat16"));
+    }
+
+    @Test
+    public void testFindFreeClustersFat32() throws Exception {
+        checkFindFreeClusters(open("test.fat32"));
+    }
+
+    @Test
+    public void testChainAcrossMarksFat16() throws Exception {
+        checkChainAcrossMarks(open("test.fat16"));
+    }
+
+    @Test
+    public void testChainAcrossMarksFat32() throws Exception {
+        checkChainAcrossMarks(open("test.fat32"));
+    }
+
+    private void checkFindFreeClusters(FatFileSystem fs) throws Exception {
+        final Fat fat = fs.getFat();
+        final int free = fat.freeEntries();
+
+        // A fresh image has a contiguous run of free clusters
+        final int[] clusters = fat.findFreeClusters(100);
+        for (int i = 0; i < clusters.length; i++) {
+            assertTrue(fat.isFreeEntry(clusters[i]));
+            if (i > 0) {
+                assertEquals(clusters[i - 1] + 1, clusters[i]);
+            }
+        }
+        // Finding does not allocate
+        assertEquals(free, fat.freeEntries());
+
+        // Allocating through set() keeps the count and the map in sync
+        final int first = clusters[0];
+        fat.set(first, fat.eofChain());
+        assertFalse(fat.isFreeEntry(first));
+        assertEquals(free - 1, fat.freeEntries());
+        for (int cluster : fat.findFreeClusters(10)) {
+            assertTrue(cluster != first);
+        }
+
+        fat.set(first, fat.freeEntry());
+        assertTrue(fat.isFreeEntry(first));
+        assertEquals(free, fat.freeEntries());
+
+        try {
+            fat.findFreeClusters(free + 1);
+            fail("Expected FileSystemFullException");
+        } catch (FileSystemFullException ex) {
+            // Expected
+        }
+
+        // Without a long enough run, the free clusters are used in order
+        for (int cluster = fat.firstCluster(); cluster < fat.size(); cluster += 2) {
+            if (fat.isFreeEntry(cluster)) {
+                fat.set(cluster, fat.eofChain());
+            }
+        }
+        final int[] scattered = fat.findFreeClusters(3);
+        for (int i = 0; i < scattered.length; i++) {
+            assertTrue(fat.isFreeEntry(scattered[i]));
+            if (i > 0) {
+                assertTrue(scattered[i] > scattered[i - 1] + 1);
+            }
+        }
+    }
+
+    private void checkChainAcrossMarks(FatFileSystem fs) throws Exception {
+        final Fat fat = fs.getFat();
+        final int free = fat.freeEntries();
+        final int clsize = fs.getClusterSize();
+        final int count = 3 * MARK_INTERVAL + 10;
+        final byte[] data = new byte[count * clsize];
+        new Random(count).nextBytes(data);
+
+        // Interleave another chain, so the chain has a gap after 70 clusters
+        final int split = 70 * clsize;
+        final FatChain chain = newChain(fs);
+        final FatChain other = newChain(fs);
+        chain.write(0, ByteBuffer.wrap(data, 0, split));
+        other.write(0, ByteBuffer.wrap(new byte[5 * clsize]));
+        chain.write(split, ByteBuffer.wrap(data, split, data.length - split));
+        assertEquals(count, chain.size());
+        assertEquals(free - count - 5, fat.freeEntries());
+
+        // Read in an order that seeks backwards and forwards over the marks
+        final int[] indexes = {count - 1, 2 * MARK_INTERVAL, MARK_INTERVAL, MARK_INTERVAL - 1, 0, 70, 69,
+            MARK_INTERVAL + 1, 3 * MARK_INTERVAL, 2 * MARK_INTERVAL - 1};
+        for (int index : indexes) {
+            assertRange(chain, data, (long) index * clsize - clsize / 2, clsize);
+        }
+        assertRange(chain, data, 0, data.length);
+
+        // Shrink the chain to just before the second mark and grow it again
+        final int size = 2 * MARK_INTERVAL - 3;
+        chain.free(count - size);
+        assertEquals(size, chain.size());
+        assertEquals(free - size - 5, fat.freeEntries());
+        assertRange(chain, data, (long) (MARK_INTERVAL + 1) * clsize, clsize);
+        // Let the other chain take the freed clusters, so the chain grows elsewhere
+        other.write(5 * clsize, ByteBuffer.wrap(new byte[20 * clsize]));
+        final byte[] tail = new byte[data.length - size * clsize];
+        new Random(size).nextBytes(tail);
+        System.arraycopy(tail, 0, data, size * clsize, tail.length);
+        chain.write((long) size * clsize, ByteBuffer.wrap(tail));
+        assertEquals(count, chain.size());
+        for (int index : indexes) {
+            assertRange(chain, data, (long) index * clsize, clsize);
+        }
+        assertRange(chain, data, 0, data.length);
+
+        // The chain is the same when it is read from the device again
+        final int head = chain.getStartCluster();
+        fs.flush();
+        final FatFileSystem fs2 = new FatFileSystemType().create(device, false);
+        final FatChain chain2 = new FatChain(fs2, head);
+        assertEquals(count, chain2.size());
+        assertRange(chain2, data, 0, data.length);
+        assertRange(chain2, data, (long) (3 * MARK_INTERVAL) * clsize, clsize);
+
+        chain.freeAllClusters();
+        other.freeAllClusters();
+        assertEquals(free, fat.freeEntries());
+    }
+
+    /**
+     * Creates a chain of one cluster. FAT16 takes cluster 0 for the root
+     * directory, so a chain cannot start out empty there.
+     */
+    private FatChain newChain(FatFileSystem fs) throws IOException {
+        final Fat fat = fs.getFat();
+        final int head = fat.findFreeClusters(1)[0];
+        fat.set(head, fat.eofChain());
+        return new FatChain(fs, head);
+    }
+
+    /**
+     * Read length bytes at offset from the chain, and compare them with the
+     * expected data. The range is clipped to the data.
+     */
+    private void assertRange(FatChain chain, byte[] data, long offset, int length) throws IOException {
+        final int from = (int) Math.max(0, offset);
+        final int to = Math.min(data.length, from + length);
+        final byte[] expected = new byte[to - from];
+        System.arraycopy(data, from, expected, 0, expected.length);
+        final byte[] actual = new byte[expected.length];
+        chain.read(from, ByteBuffer.wrap(actual));
+        assertArrayEquals("offset " + from, expected, actual);
+    }
+
+    /**
+     * Opens a writable copy of a test image.
+     */
+    private FatFileSystem open(String name) throws Exception {
+        file = File.createTempFile("fatchain", ".img");
+        file.deleteOnExit();
+        InputStream in = new FileInputStream(FileSystemTestUtils.getTestFile("test/fs/jfat/" + name));
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                FileUtils.copy(in, out, new byte[0x10000], false);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        device = new FileDevice(file, "rw");
+        return new FatFileSystemType().create(device, false);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.fs.ntfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.jnode.driver.block.FileDevice;
+import org.jnode.fs.FSEntry;
+import org.jnode.fs.ntfs.FileRecord;
+import org.jnode.fs.ntfs.MasterFileTable;
+import org.jnode.fs.ntfs.NTFSEntry;
+import org.jnode.fs.ntfs.NTFSFileSystem;
+import org.jnode.fs.ntfs.NTFSFileSystemType;
+import org.jnode.fs.ntfs.NTFSVolume;
+import org.jnode.test.fs.FileSystemTestUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the file records cached and prefetched by {@link MasterFileTable} are the same as the records read
+ * directly from the device.
+ */
+public class MasterFileTableTest {
+
+    private CountingDevice device;
+
+    @After
+    public void tearDown() throws Exception {
+        if (device != null) {
+            device.close();
+        }
+    }
+
+    @Test
+    public void testCachedRecordsSmallDisk() throws Exception {
+        checkCachedRecords(open("test/fs/ntfs/test.ntfs"));
+    }
+
+    @Test
+    public void testCachedRecordsCompressedDisk() throws Exception {
+        checkCachedRecords(open("test/fs/ntfs/compressed.dd"));
+    }
+
+    @Test
+    public void testPrefetchedRecords() throws Exception {
+        final NTFSFileSystem fs = open("test/fs/ntfs/compressed.dd");
+        final MasterFileTable mft = fs.getNTFSVolume().getMFT();
+        final long count = getRecordCount(fs);
+
+        // Out of order and with gaps, like the entries of a directory index
+        final long[] batch = new long[(int) (count / 3)];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = count - 1 - 3 * i;
+        }
+        mft.prefetchRecords(batch);
+
+        // The first record that is needed reads the whole batch
+        mft.getRecordUnchecked(batch[0]);
+        final int reads = device.reads;
+        final FileRecord[] records = new FileRecord[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            records[i] = getRecord(mft, batch[i]);
+        }
+        assertEquals("reads for prefetched records", reads, device.reads);
+        for (int i = 0; i < batch.length; i++) {
+            assertRecord(fs, batch[i], records[i]);
+        }
+    }
+
+    @Test
+    public void testDirectoryListing() throws Exception {
+        final NTFSFileSystem fs = open("test/fs/ntfs/compressed.dd");
+
+        final List<String> names = new ArrayList<String>();
+        for (int pass = 0; pass < 2; pass++) {
+            final List<String> passNames = new ArrayList<String>();
+            final Iterator<? extends FSEntry> it = fs.getRootEntry().getDirectory().iterator();
+            while (it.hasNext()) {
+                final NTFSEntry entry = (NTFSEntry) it.next();
+                passNames.add(entry.getName());
+                final long index = entry.getIndexEntry().getFileReferenceNumber();
+                assertRecord(fs, index, entry.getFileRecord());
+            }
+            if (pass == 0) {
+                names.addAll(passNames);
+            } else {
+                assertEquals(names, passNames);
+            }
+        }
+    }
+
+    /**
+     * Reads every record of the MFT a few times, and compares the records with records read directly.
+     */
+    private void checkCachedRecords(NTFSFileSystem fs) throws IOException {
+        final MasterFileTable mft = fs.getNTFSVolume().getMFT();
+        final int count = (int) getRecordCount(fs);
+        final FileRecord[] records = new FileRecord[count];
+
+        for (int pass = 0; pass < 3; pass++) {
+            for (int index = 0; index < count; index++) {
+                final FileRecord record = getRecord(mft, index);
+                assertRecord(fs, index, record);
+                if (pass == 0) {
+                    records[index] = record;
+                } else {
+                    assertSame("record " + index, records[index], record);
+                }
+            }
+        }
+
+        // Cached records cost no reads
+        final int reads = device.reads;
+        for (int index = 0; index < count; index++) {
+            getRecord(mft, index);
+        }
+        assertEquals("reads for cached records", reads, device.reads);
+    }
+
+    /**
+     * Gets a record from the MFT.
+     *
+     * @return the record, or {@code null} if it cannot be parsed.
+     */
+    private FileRecord getRecord(MasterFileTable mft, long index) {
+        try {
+            return mft.getRecordUnchecked(index);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compares a record with the same record read directly from the device. A record that cannot be parsed must
+     * be {@code null}.
+     */
+    private void assertRecord(NTFSFileSystem fs, long index, FileRecord record) throws IOException {
+        final NTFSVolume volume = fs.getNTFSVolume();
+        final FileRecord uncached;
+        try {
+            uncached = new FileRecord(volume, index, volume.getMFT().readRecord(index), 0);
+        } catch (IOException e) {
+            assertNull("record " + index, record);
+            return;
+        }
+        assertNotNull("record " + index, record);
+        assertEquals(index, record.getReferenceNumber());
+        assertArrayEquals("record " + index, uncached.getBuffer(), record.getBuffer());
+        assertEquals(uncached.isInUse(), record.isInUse());
+        assertEquals(uncached.getFileName(), record.getFileName());
+        assertEquals(uncached.getAllAttributes().size(), record.getAllAttributes().size());
+    }
+
+    private long getRecordCount(NTFSFileSystem fs) throws IOException {
+        final NTFSVolume volume = fs.getNTFSVolume();
+        return volume.getMFT().getMftLength() / volume.getBootRecord().getFileRecordSize();
+    }
+
+    private NTFSFileSystem open(String name) throws Exception {
+        device = new CountingDevice(FileSystemTestUtils.getTestFile(name));
+        return new NTFSFileSystemType().create(device, true);
+    }
+
+    /**
+     * A device that counts the reads made through it.
+     */
+    private static class CountingDevice extends FileDevice {
+
+        int reads;
+
+        CountingDevice(File file) throws IOException {
+            super(file, "r");
+        }
+
+        @Override
+        public synchronized void read(long devOffset, ByteBuffer destBuf) throws IOException {
+            reads++;
+            super.read(devOffset, destBuf);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.fs.spi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.jnode.driver.block.ByteArrayDevice;
+import org.jnode.fs.spi.BufferCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class BufferCacheTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private byte[] disk;
+    private ByteArrayDevice device;
+    private BufferCache cache;
+
+    @Before
+    public void setUp() {
+        disk = new byte[BLOCK_SIZE * 16];
+        for (int i = 0; i < 16; i++) {
+            disk[i * BLOCK_SIZE] = (byte) i;
+        }
+        device = new ByteArrayDevice(disk);
+        cache = new BufferCache(4 * BLOCK_SIZE);
+    }
+
+    @Test
+    public void testReadHitReturnsSameData() throws Exception {
+        byte[] first = cache.read(device, 3, BLOCK_SIZE);
+        byte[] second = cache.read(device, 3, BLOCK_SIZE);
+
+        assertSame(first, second);
+        assertEquals(3, first[0]);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(50, cache.getHitRate());
+    }
+
+    @Test
+    public void testReadDiscardsBlockChangedMeanwhile() throws Exception {
+        final ByteArrayDevice racyDevice = new ByteArrayDevice(disk) {
+            private boolean raced;
+
+            @Override
+            public void read(long devOffset, ByteBuffer dest) {
+                super.read(devOffset, dest);
+                if (!raced && (devOffset == 3 * BLOCK_SIZE)) {
+                    raced = true;
+                    try {
+                        // Another thread writes the block through and it is
+                        // evicted again, while the old data is on its way.
+                        final byte[] data = new byte[BLOCK_SIZE];
+                        data[0] = 33;
+                        cache.write(this, 3, BLOCK_SIZE, data, true);
+                        for (int i = 4; i < 8; i++) {
+                            cache.read(this, i, BLOCK_SIZE);
+                        }
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            }
+        };
+
+        assertEquals(33, cache.read(racyDevice, 3, BLOCK_SIZE)[0]);
+        assertEquals(33, cache.read(racyDevice, 3, BLOCK_SIZE)[0]);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            cache.read(device, i, BLOCK_SIZE);
+        }
+        // Make block 0 the most recently used
+        cache.read(device, 0, BLOCK_SIZE);
+        cache.read(device, 4, BLOCK_SIZE);
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(4 * BLOCK_SIZE, cache.getSize());
+
+        long misses = cache.getMissCount();
+        cache.read(device, 0, BLOCK_SIZE);
+        assertEquals(misses, cache.getMissCount());
+        cache.read(device, 1, BLOCK_SIZE);
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void testWriteBack() throws Exception {
+        byte[] data = cache.read(device, 2, BLOCK_SIZE);
+        data[0] = 42;
+        cache.write(device, 2, BLOCK_SIZE, data, false);
+
+        assertEquals(1, cache.getDirtyCount());
+        assertEquals(2, disk[2 * BLOCK_SIZE]);
+
+        cache.flush(device);
+
+        assertEquals(0, cache.getDirtyCount());
+        assertEquals(42, disk[2 * BLOCK_SIZE]);
+        assertEquals(1, cache.getWriteBackCount());
+    }
+
+    @Test
+    public void testWriteThrough() throws Exception {
+        byte[] data = new byte[BLOCK_SIZE];
+        data[0] = 7;
+        cache.write(device, 5, BLOCK_SIZE, data, true);
+
+        assertEquals(7, disk[5 * BLOCK_SIZE]);
+        assertEquals(0, cache.getDirtyCount());
+        assertEquals(7, cache.read(device, 5, BLOCK_SIZE)[0]);
+    }
+
+    @Test
+    public void testDirtyBlocksAreNotEvicted() throws Exception {
+        byte[] data = new byte[BLOCK_SIZE];
+        data[0] = 99;
+        cache.write(device, 0, BLOCK_SIZE, data, false);
+        for (int i = 1; i < 8; i++) {
+            cache.read(device, i, BLOCK_SIZE);
+        }
+
+        assertEquals(99, cache.read(device, 0, BLOCK_SIZE)[0]);
+        assertEquals(0, disk[0]);
+
+        cache.flush(device);
+        assertEquals(99, disk[0]);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        cache.read(device, 1, BLOCK_SIZE);
+        cache.invalidate(device);
+
+        assertEquals(0, cache.getSize());
+        cache.read(device, 1, BLOCK_SIZE);
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        assertNull(cache.peek(device, 5, BLOCK_SIZE));
+        cache.readAhead(device, 5, 3, BLOCK_SIZE);
+
+        assertEquals(3, cache.getReadAheadCount());
+        assertEquals(6, cache.peek(device, 6, BLOCK_SIZE)[0]);
+        cache.read(device, 7, BLOCK_SIZE);
+        assertEquals(0, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testReadAheadKeepsCachedBlocks() throws Exception {
+        byte[] data = new byte[BLOCK_SIZE];
+        data[0] = 42;
+        cache.write(device, 6, BLOCK_SIZE, data, false);
+        cache.readAhead(device, 5, 3, BLOCK_SIZE);
+
+        assertEquals(42, cache.peek(device, 6, BLOCK_SIZE)[0]);
+        assertEquals(5, cache.peek(device, 5, BLOCK_SIZE)[0]);
+    }
+}